@@ -1,12 +1,92 @@
 #include <jni.h>
-#include <string>
 
-extern "C" JNIEXPORT jstring
+#include "preprocess.h"
+
+namespace {
+
+/**
+ * Shared by both entry points: checks the buffers and tables, then runs the vector kernel or,
+ * with `scalar`, its scalar reference.
+ */
+jboolean convert(JNIEnv *env, jobject yData, jobject uData, jobject vData,
+                 jint yRowStride, jint uvRowStride, jint uvPixelStride,
+                 jint dx, jint dy, jintArray srcX, jintArray srcY,
+                 jboolean quantized, jfloat mean, jfloat std,
+                 jobject dst, jint dstOffset, bool scalar) {
+    complainer::YuvPlanes planes;
+    planes.y = static_cast<const uint8_t *>(env->GetDirectBufferAddress(yData));
+    planes.u = static_cast<const uint8_t *>(env->GetDirectBufferAddress(uData));
+    planes.v = static_cast<const uint8_t *>(env->GetDirectBufferAddress(vData));
+    planes.yRowStride = yRowStride;
+    planes.uvRowStride = uvRowStride;
+    planes.uvPixelStride = uvPixelStride;
+    uint8_t *out = static_cast<uint8_t *>(env->GetDirectBufferAddress(dst));
+    if (planes.y == nullptr || planes.u == nullptr || planes.v == nullptr || out == nullptr) {
+        return JNI_FALSE;
+    }
+    const jsize count = env->GetArrayLength(srcX);
+    if (env->GetArrayLength(srcY) != count) {
+        return JNI_FALSE;
+    }
+    // Refuse rather than write past the tensor; the Java path then throws for the caller.
+    const jlong bytesPerPixel = quantized == JNI_TRUE ? 3 : 3 * sizeof(float);
+    if (dstOffset < 0
+        || dstOffset + count * bytesPerPixel > env->GetDirectBufferCapacity(dst)) {
+        return JNI_FALSE;
+    }
+    // Shift the planes rather than the tables; dx and dy are even, so chroma stays aligned.
+    planes.y += dy * yRowStride + dx;
+    planes.u += (dy >> 1) * uvRowStride + (dx >> 1) * uvPixelStride;
+    planes.v += (dy >> 1) * uvRowStride + (dx >> 1) * uvPixelStride;
+
+    jint *xs = static_cast<jint *>(env->GetPrimitiveArrayCritical(srcX, nullptr));
+    jint *ys = static_cast<jint *>(env->GetPrimitiveArrayCritical(srcY, nullptr));
+    if (xs != nullptr && ys != nullptr) {
+        if (scalar) {
+            complainer::yuvToTensorScalar(planes, xs, ys, 0, count, quantized == JNI_TRUE,
+                                          mean, std, out + dstOffset);
+        } else {
+            complainer::yuvToTensor(planes, xs, ys, count, quantized == JNI_TRUE, mean, std,
+                                    out + dstOffset);
+        }
+    }
+    if (ys != nullptr) {
+        env->ReleasePrimitiveArrayCritical(srcY, ys, JNI_ABORT);
+    }
+    if (xs != nullptr) {
+        env->ReleasePrimitiveArrayCritical(srcX, xs, JNI_ABORT);
+    }
+    return xs != nullptr && ys != nullptr ? JNI_TRUE : JNI_FALSE;
+}
+
+}  // namespace
+
+extern "C" JNIEXPORT jboolean
+
+JNICALL
+Java_online_khlivniuk_complainer_NativePreprocessor_nativeConvert(
+        JNIEnv *env,
+        jclass /* clazz */,
+        jobject yData, jobject uData, jobject vData,
+        jint yRowStride, jint uvRowStride, jint uvPixelStride,
+        jint dx, jint dy, jintArray srcX, jintArray srcY,
+        jboolean quantized, jfloat mean, jfloat std,
+        jobject dst, jint dstOffset) {
+    return convert(env, yData, uData, vData, yRowStride, uvRowStride, uvPixelStride, dx, dy,
+                   srcX, srcY, quantized, mean, std, dst, dstOffset, false);
+}
+
+extern "C" JNIEXPORT jboolean
 
 JNICALL
-Java_online_khlivniuk_complainer_MainActivity_stringFromJNI(
+Java_online_khlivniuk_complainer_NativePreprocessor_nativeConvertScalar(
         JNIEnv *env,
-        jobject /* this */) {
-    std::string hello = "Hello from C++";
-    return env->NewStringUTF(hello.c_str());
+        jclass /* clazz */,
+        jobject yData, jobject uData, jobject vData,
+        jint yRowStride, jint uvRowStride, jint uvPixelStride,
+        jint dx, jint dy, jintArray srcX, jintArray srcY,
+        jboolean quantized, jfloat mean, jfloat std,
+        jobject dst, jint dstOffset) {
+    return convert(env, yData, uData, vData, yRowStride, uvRowStride, uvPixelStride, dx, dy,
+                   srcX, srcY, quantized, mean, std, dst, dstOffset, true);
 }
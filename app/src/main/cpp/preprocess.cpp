@@ -0,0 +1,194 @@
+#include "preprocess.h"
+
+#include <cstring>
+
+#if defined(__aarch64__)
+#include <arm_neon.h>
+#define COMPLAINER_NEON 1
+#elif defined(__SSE2__)
+#include <emmintrin.h>
+#define COMPLAINER_SSE 1
+#endif
+
+namespace complainer {
+
+namespace {
+
+// 2 ^ 18 - 1, clamps the fixed point RGB values before they are reduced to eight bits.
+const int kMaxChannelValue = 262143;
+
+inline int clampChannel(int c) {
+    return c > kMaxChannelValue ? kMaxChannelValue : (c < 0 ? 0 : c);
+}
+
+// Same fixed point math as ImageUtils.yuvToRgb, returning the three 8-bit channels.
+inline void yuvToRgb(int y, int u, int v, int *r, int *g, int *b) {
+    y = (y - 16) < 0 ? 0 : (y - 16);
+    u -= 128;
+    v -= 128;
+    const int y1192 = 1192 * y;
+    *r = clampChannel(y1192 + 1634 * v) >> 10;
+    *g = clampChannel(y1192 - 833 * v - 400 * u) >> 10;
+    *b = clampChannel(y1192 + 2066 * u) >> 10;
+}
+
+inline void sample(const YuvPlanes &p, int x, int y, int *yv, int *uv, int *vv) {
+    const int uvOffset = p.uvRowStride * (y >> 1) + (x >> 1) * p.uvPixelStride;
+    *yv = p.y[p.yRowStride * y + x];
+    *uv = p.u[uvOffset];
+    *vv = p.v[uvOffset];
+}
+
+}  // namespace
+
+void yuvToTensorScalar(const YuvPlanes &planes, const int32_t *srcX, const int32_t *srcY,
+                       int begin, int end, bool quantized, float mean, float std, uint8_t *dst) {
+    for (int i = begin; i < end; ++i) {
+        int y, u, v, r, g, b;
+        sample(planes, srcX[i], srcY[i], &y, &u, &v);
+        yuvToRgb(y, u, v, &r, &g, &b);
+        if (quantized) {
+            uint8_t *out = dst + i * 3;
+            out[0] = static_cast<uint8_t>(r);
+            out[1] = static_cast<uint8_t>(g);
+            out[2] = static_cast<uint8_t>(b);
+        } else {
+            float out[3] = {(r - mean) / std, (g - mean) / std, (b - mean) / std};
+            memcpy(dst + i * 12, out, sizeof(out));
+        }
+    }
+}
+
+#if defined(COMPLAINER_NEON)
+
+void yuvToTensor(const YuvPlanes &planes, const int32_t *srcX, const int32_t *srcY, int count,
+                 bool quantized, float mean, float std, uint8_t *dst) {
+    const int vectorEnd = count & ~3;
+    const int32x4_t max = vdupq_n_s32(kMaxChannelValue);
+    const int32x4_t zero = vdupq_n_s32(0);
+    const float32x4_t meanV = vdupq_n_f32(mean);
+    const float32x4_t stdV = vdupq_n_f32(std);
+    for (int i = 0; i < vectorEnd; i += 4) {
+        // Nearest neighbour sampling is a gather, the color math runs four pixels at a time.
+        int32_t ys[4], us[4], vs[4];
+        for (int k = 0; k < 4; ++k) {
+            sample(planes, srcX[i + k], srcY[i + k], &ys[k], &us[k], &vs[k]);
+        }
+        const int32x4_t y = vmaxq_s32(vsubq_s32(vld1q_s32(ys), vdupq_n_s32(16)), zero);
+        const int32x4_t u = vsubq_s32(vld1q_s32(us), vdupq_n_s32(128));
+        const int32x4_t v = vsubq_s32(vld1q_s32(vs), vdupq_n_s32(128));
+        const int32x4_t y1192 = vmulq_n_s32(y, 1192);
+        int32x4_t r = vmlaq_n_s32(y1192, v, 1634);
+        int32x4_t g = vmlsq_n_s32(vmlsq_n_s32(y1192, v, 833), u, 400);
+        int32x4_t b = vmlaq_n_s32(y1192, u, 2066);
+        r = vshrq_n_s32(vminq_s32(vmaxq_s32(r, zero), max), 10);
+        g = vshrq_n_s32(vminq_s32(vmaxq_s32(g, zero), max), 10);
+        b = vshrq_n_s32(vminq_s32(vmaxq_s32(b, zero), max), 10);
+        if (quantized) {
+            int32_t rs[4], gs[4], bs[4];
+            vst1q_s32(rs, r);
+            vst1q_s32(gs, g);
+            vst1q_s32(bs, b);
+            uint8_t *out = dst + i * 3;
+            for (int k = 0; k < 4; ++k) {
+                out[k * 3] = static_cast<uint8_t>(rs[k]);
+                out[k * 3 + 1] = static_cast<uint8_t>(gs[k]);
+                out[k * 3 + 2] = static_cast<uint8_t>(bs[k]);
+            }
+        } else {
+            float32x4x3_t rgb;
+            rgb.val[0] = vdivq_f32(vsubq_f32(vcvtq_f32_s32(r), meanV), stdV);
+            rgb.val[1] = vdivq_f32(vsubq_f32(vcvtq_f32_s32(g), meanV), stdV);
+            rgb.val[2] = vdivq_f32(vsubq_f32(vcvtq_f32_s32(b), meanV), stdV);
+            vst3q_f32(reinterpret_cast<float *>(dst + i * 12), rgb);
+        }
+    }
+    yuvToTensorScalar(planes, srcX, srcY, vectorEnd, count, quantized, mean, std, dst);
+}
+
+#elif defined(COMPLAINER_SSE)
+
+namespace {
+
+inline __m128i clamp(__m128i c, __m128i zero, __m128i max) {
+    // SSE2 has no 32-bit min/max, select through compares instead.
+    c = _mm_and_si128(c, _mm_cmpgt_epi32(c, zero));
+    const __m128i over = _mm_cmpgt_epi32(c, max);
+    return _mm_or_si128(_mm_andnot_si128(over, c), _mm_and_si128(over, max));
+}
+
+inline __m128i mul(__m128i a, int b) {
+    // Products fit in 32 bits, so the low halves of the 64-bit products are enough.
+    const __m128i bv = _mm_set1_epi32(b);
+    const __m128i even = _mm_mul_epu32(a, bv);
+    const __m128i odd = _mm_mul_epu32(_mm_srli_epi64(a, 32), bv);
+    return _mm_unpacklo_epi32(_mm_shuffle_epi32(even, _MM_SHUFFLE(0, 0, 2, 0)),
+                              _mm_shuffle_epi32(odd, _MM_SHUFFLE(0, 0, 2, 0)));
+}
+
+}  // namespace
+
+void yuvToTensor(const YuvPlanes &planes, const int32_t *srcX, const int32_t *srcY, int count,
+                 bool quantized, float mean, float std, uint8_t *dst) {
+    const int vectorEnd = count & ~3;
+    const __m128i max = _mm_set1_epi32(kMaxChannelValue);
+    const __m128i zero = _mm_setzero_si128();
+    const __m128 meanV = _mm_set1_ps(mean);
+    const __m128 stdV = _mm_set1_ps(std);
+    for (int i = 0; i < vectorEnd; i += 4) {
+        int32_t ys[4], us[4], vs[4];
+        for (int k = 0; k < 4; ++k) {
+            sample(planes, srcX[i + k], srcY[i + k], &ys[k], &us[k], &vs[k]);
+        }
+        __m128i y = _mm_sub_epi32(_mm_loadu_si128(reinterpret_cast<const __m128i *>(ys)),
+                                  _mm_set1_epi32(16));
+        y = _mm_and_si128(y, _mm_cmpgt_epi32(y, zero));
+        const __m128i u = _mm_sub_epi32(_mm_loadu_si128(reinterpret_cast<const __m128i *>(us)),
+                                        _mm_set1_epi32(128));
+        const __m128i v = _mm_sub_epi32(_mm_loadu_si128(reinterpret_cast<const __m128i *>(vs)),
+                                        _mm_set1_epi32(128));
+        const __m128i y1192 = mul(y, 1192);
+        __m128i r = _mm_add_epi32(y1192, mul(v, 1634));
+        __m128i g = _mm_sub_epi32(_mm_sub_epi32(y1192, mul(v, 833)), mul(u, 400));
+        __m128i b = _mm_add_epi32(y1192, mul(u, 2066));
+        r = _mm_srai_epi32(clamp(r, zero, max), 10);
+        g = _mm_srai_epi32(clamp(g, zero, max), 10);
+        b = _mm_srai_epi32(clamp(b, zero, max), 10);
+        if (quantized) {
+            int32_t rs[4], gs[4], bs[4];
+            _mm_storeu_si128(reinterpret_cast<__m128i *>(rs), r);
+            _mm_storeu_si128(reinterpret_cast<__m128i *>(gs), g);
+            _mm_storeu_si128(reinterpret_cast<__m128i *>(bs), b);
+            uint8_t *out = dst + i * 3;
+            for (int k = 0; k < 4; ++k) {
+                out[k * 3] = static_cast<uint8_t>(rs[k]);
+                out[k * 3 + 1] = static_cast<uint8_t>(gs[k]);
+                out[k * 3 + 2] = static_cast<uint8_t>(bs[k]);
+            }
+        } else {
+            float rs[4], gs[4], bs[4];
+            _mm_storeu_ps(rs, _mm_div_ps(_mm_sub_ps(_mm_cvtepi32_ps(r), meanV), stdV));
+            _mm_storeu_ps(gs, _mm_div_ps(_mm_sub_ps(_mm_cvtepi32_ps(g), meanV), stdV));
+            _mm_storeu_ps(bs, _mm_div_ps(_mm_sub_ps(_mm_cvtepi32_ps(b), meanV), stdV));
+            float out[12];
+            for (int k = 0; k < 4; ++k) {
+                out[k * 3] = rs[k];
+                out[k * 3 + 1] = gs[k];
+                out[k * 3 + 2] = bs[k];
+            }
+            memcpy(dst + i * 12, out, sizeof(out));
+        }
+    }
+    yuvToTensorScalar(planes, srcX, srcY, vectorEnd, count, quantized, mean, std, dst);
+}
+
+#else
+
+void yuvToTensor(const YuvPlanes &planes, const int32_t *srcX, const int32_t *srcY, int count,
+                 bool quantized, float mean, float std, uint8_t *dst) {
+    yuvToTensorScalar(planes, srcX, srcY, 0, count, quantized, mean, std, dst);
+}
+
+#endif
+
+}  // namespace complainer
@@ -0,0 +1,36 @@
+#ifndef COMPLAINER_PREPROCESS_H
+#define COMPLAINER_PREPROCESS_H
+
+#include <cstdint>
+
+namespace complainer {
+
+/**
+ * Source planes of a YUV_420_888 frame.
+ */
+struct YuvPlanes {
+    const uint8_t *y;
+    const uint8_t *u;
+    const uint8_t *v;
+    int yRowStride;
+    int uvRowStride;
+    int uvPixelStride;
+};
+
+/**
+ * Writes `count` RGB pixels into `dst`, sampling the frame at (srcX[i], srcY[i]) for output pixel
+ * i. The uint8 layout stores one byte per channel; the float layout stores (c - mean) / std per
+ * channel. Produces the same bits as YuvToTensorConverter on the Java side.
+ */
+void yuvToTensor(const YuvPlanes &planes, const int32_t *srcX, const int32_t *srcY, int count,
+                 bool quantized, float mean, float std, uint8_t *dst);
+
+/**
+ * Scalar reference of yuvToTensor, also used for the tail of the vector paths.
+ */
+void yuvToTensorScalar(const YuvPlanes &planes, const int32_t *srcX, const int32_t *srcY,
+                       int begin, int end, bool quantized, float mean, float std, uint8_t *dst);
+
+}  // namespace complainer
+
+#endif  // COMPLAINER_PREPROCESS_H
@@ -12,37 +12,88 @@ import android.hardware.camera2.CaptureRequest;
 import android.hardware.camera2.CaptureResult;
 import android.hardware.camera2.TotalCaptureResult;
 import android.hardware.camera2.params.StreamConfigurationMap;
+import android.media.Image;
 import android.media.ImageReader;
 import android.os.Handler;
 import android.support.annotation.NonNull;
 import android.util.Log;
+import android.util.Range;
 import android.util.Size;
 
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
 
+import online.khlivniuk.complainer.metrics.PipelineMetrics;
+
+/**
+ * One camera device, opened by id. Several handlers may be open at once, one per camera.
+ */
 public class CameraHandler {
     private static final String TAG = CameraHandler.class.getSimpleName();
 
-    private static final int MAX_IMAGES = 1;
+    /**
+     * {@link ImageReader#acquireLatestImage()} needs one spare buffer to drop stale frames into.
+     */
+    private static final int MAX_IMAGES = 2;
+    private static final int IMAGE_FORMAT = ImageFormat.YUV_420_888;
+    public static final int DEFAULT_TARGET_FPS = 5;
+    private CameraManager mCameraManager;
+    private String mCameraId;
     private CameraDevice mCameraDevice;
     private CameraCaptureSession mCaptureSession;
+    private Handler mBackgroundHandler;
+    private OnFrameAvailableListener mFrameListener;
     private boolean initialized;
+    private boolean mSessionPending;
+    private boolean mCapturePending;
+    private volatile boolean mStreaming;
+    private int mTargetFps = DEFAULT_TARGET_FPS;
+    private long mFrameIntervalNs;
+    private long mLastFrameTimestamp;
+    private long mDroppedFrames;
+    private PipelineMetrics mMetrics;
+    /**
+     * {@link System#nanoTime()} of the single shot capture in flight, 0 if none.
+     */
+    private long mCaptureStartNs;
 
     /**
      * An {@link ImageReader} that handles still image capture.
      */
     private ImageReader mImageReader;
 
-    // Lazy-loaded singleton, so only one instance of the camera is created.
-    private CameraHandler() {
+    /**
+     * @param cameraId id of the camera to open, see {@link #getCameraIds(Context)}; null for the
+     *                 first one
+     */
+    public CameraHandler(String cameraId) {
+        mCameraId = cameraId;
+    }
+
+    /**
+     * Ids of the cameras that can be opened, empty if there are none.
+     */
+    public static List<String> getCameraIds(Context context) {
+        CameraManager manager = (CameraManager) context.getSystemService(Context.CAMERA_SERVICE);
+        try {
+            return Arrays.asList(manager.getCameraIdList());
+        } catch (CameraAccessException e) {
+            Log.w(TAG, "Cannot get the list of available cameras", e);
+            return Collections.emptyList();
+        }
     }
 
-    private static class InstanceHolder {
-        private static CameraHandler mCamera = new CameraHandler();
+    public String getCameraId() {
+        return mCameraId;
     }
 
-    public static CameraHandler getInstance() {
-        return InstanceHolder.mCamera;
+    /**
+     * Receives the frames delivered by the camera. The listener owns the {@link Image} and must
+     * close it once done.
+     */
+    public interface OnFrameAvailableListener {
+        void onFrameAvailable(Image image);
     }
 
     /**
@@ -51,58 +102,184 @@ public class CameraHandler {
     @SuppressLint("MissingPermission")
     public void initializeCamera(Context context, int previewWidth, int previewHeight,
                                  Handler backgroundHandler,
-                                 ImageReader.OnImageAvailableListener imageAvailableListener) {
+                                 OnFrameAvailableListener frameAvailableListener) {
         if (initialized) {
             return;
         }
         initialized = true;
+        mBackgroundHandler = backgroundHandler;
+        mFrameListener = frameAvailableListener;
 
         // Discover the camera instance
         CameraManager manager = (CameraManager) context.getSystemService(Context.CAMERA_SERVICE);
-        String[] camIds = null;
-        try {
-            camIds = manager.getCameraIdList();
-        } catch (CameraAccessException e) {
-            Log.w(TAG, "Cannot get the list of available cameras", e);
-        }
-        if (camIds == null || camIds.length < 1) {
-            Log.d(TAG, "No cameras found");
-            return;
+        if (mCameraId == null) {
+            List<String> camIds = getCameraIds(context);
+            if (camIds.isEmpty()) {
+                Log.d(TAG, "No cameras found");
+                return;
+            }
+            mCameraId = camIds.get(0);
         }
-        Log.d(TAG, "Using camera id " + camIds[0]);
+        Log.d(TAG, "Using camera id " + mCameraId);
+        mCameraManager = manager;
 
         // Initialize the image processor
-        mImageReader = ImageReader.newInstance(previewWidth, previewHeight, ImageFormat.JPEG,
+        mImageReader = ImageReader.newInstance(previewWidth, previewHeight, IMAGE_FORMAT,
                 MAX_IMAGES);
-        mImageReader.setOnImageAvailableListener(imageAvailableListener, backgroundHandler);
+        mImageReader.setOnImageAvailableListener(mOnImageAvailableListener, backgroundHandler);
 
         // Open the camera resource
         try {
-            manager.openCamera(camIds[0], mStateCallback, backgroundHandler);
+            manager.openCamera(mCameraId, mStateCallback, backgroundHandler);
         } catch (CameraAccessException cae) {
             Log.d(TAG, "Camera access exception", cae);
         }
     }
 
     /**
-     * Begin a still image capture
+     * Begin a still image capture. The capture session is kept open between shots, so only the
+     * first call pays for the session setup.
      */
     public void takePicture() {
+        if (mStreaming) {
+            Log.d(TAG, "Streaming, next frame will be delivered anyway.");
+            return;
+        }
         if (mCameraDevice == null) {
             Log.w(TAG, "Cannot capture image. Camera not initialized.");
             return;
         }
-        // Create a CameraCaptureSession for capturing still images.
+        if (mCaptureSession == null) {
+            mCapturePending = true;
+            createCaptureSession();
+            return;
+        }
+        triggerImageCapture();
+    }
+
+    /**
+     * Start delivering frames continuously through a repeating request on a single long-lived
+     * capture session. If frames arrive faster than {@code targetFps}, or faster than the listener
+     * consumes them, only the newest frame is kept.
+     *
+     * @param targetFps maximum number of frames per second handed to the listener
+     */
+    public void startStreaming(int targetFps) {
+        mTargetFps = Math.max(1, targetFps);
+        mFrameIntervalNs = 1000000000L / mTargetFps;
+        mLastFrameTimestamp = 0;
+        mStreaming = true;
+        if (mCameraDevice == null) {
+            // Picked up in onOpened.
+            return;
+        }
+        if (mCaptureSession == null) {
+            createCaptureSession();
+        } else {
+            startRepeatingRequest();
+        }
+    }
+
+    /**
+     * Stop the repeating request started by {@link #startStreaming(int)}. The capture session is
+     * kept so single shots and restarts are cheap.
+     */
+    public void stopStreaming() {
+        mStreaming = false;
+        if (mCaptureSession != null) {
+            try {
+                mCaptureSession.stopRepeating();
+            } catch (CameraAccessException | IllegalStateException e) {
+                Log.w(TAG, "Cannot stop the repeating request", e);
+            }
+        }
+    }
+
+    public boolean isStreaming() {
+        return mStreaming;
+    }
+
+    /**
+     * Record capture latency and frame counters into {@code metrics}, may be null.
+     */
+    public void setMetrics(PipelineMetrics metrics) {
+        mMetrics = metrics;
+    }
+
+    /**
+     * Number of frames discarded so far because the consumer was slower than the camera or the
+     * target frame rate.
+     */
+    public long getDroppedFrames() {
+        return mDroppedFrames;
+    }
+
+    private void createCaptureSession() {
+        if (mSessionPending) {
+            return;
+        }
+        mSessionPending = true;
         try {
             mCameraDevice.createCaptureSession(
                     Collections.singletonList(mImageReader.getSurface()),
                     mSessionCallback,
-                    null);
+                    mBackgroundHandler);
         } catch (CameraAccessException cae) {
+            mSessionPending = false;
             Log.e(TAG, "Cannot create camera capture session", cae);
         }
     }
 
+    /**
+     * Set up the repeating request that feeds the {@link ImageReader} while streaming.
+     */
+    private void startRepeatingRequest() {
+        try {
+            final CaptureRequest.Builder builder =
+                    mCameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
+            builder.addTarget(mImageReader.getSurface());
+            builder.set(CaptureRequest.CONTROL_AE_MODE, CaptureRequest.CONTROL_AE_MODE_ON);
+            Range<Integer> fpsRange = chooseFpsRange(mTargetFps);
+            if (fpsRange != null) {
+                builder.set(CaptureRequest.CONTROL_AE_TARGET_FPS_RANGE, fpsRange);
+            }
+            mCaptureSession.setRepeatingRequest(builder.build(), null, mBackgroundHandler);
+            Log.d(TAG, "Streaming started at " + mTargetFps + " fps, AE range " + fpsRange);
+        } catch (CameraAccessException | IllegalStateException e) {
+            Log.e(TAG, "Cannot start the repeating request", e);
+        }
+    }
+
+    /**
+     * Pick the slowest auto-exposure frame rate range that still reaches {@code targetFps}, so the
+     * sensor does not produce frames that would be dropped anyway.
+     */
+    private Range<Integer> chooseFpsRange(int targetFps) {
+        Range<Integer>[] ranges;
+        try {
+            ranges = mCameraManager.getCameraCharacteristics(mCameraId)
+                    .get(CameraCharacteristics.CONTROL_AE_AVAILABLE_TARGET_FPS_RANGES);
+        } catch (CameraAccessException e) {
+            Log.w(TAG, "Cannot read the available frame rate ranges", e);
+            return null;
+        }
+        if (ranges == null) {
+            return null;
+        }
+        Range<Integer> best = null;
+        for (Range<Integer> range : ranges) {
+            if (range.getUpper() < targetFps) {
+                continue;
+            }
+            if (best == null || range.getUpper() < best.getUpper()
+                    || (range.getUpper().equals(best.getUpper())
+                    && range.getLower() < best.getLower())) {
+                best = range;
+            }
+        }
+        return best;
+    }
+
     /**
      * Execute a new capture request within the active session
      */
@@ -113,13 +290,15 @@ public class CameraHandler {
             captureBuilder.addTarget(mImageReader.getSurface());
             captureBuilder.set(CaptureRequest.CONTROL_AE_MODE, CaptureRequest.CONTROL_AE_MODE_ON);
             Log.d(TAG, "Capture request created.");
-            mCaptureSession.capture(captureBuilder.build(), mCaptureCallback, null);
+            mCaptureStartNs = System.nanoTime();
+            mCaptureSession.capture(captureBuilder.build(), mCaptureCallback, mBackgroundHandler);
         } catch (CameraAccessException cae) {
             Log.e(TAG, "Cannot trigger a capture request");
         }
     }
 
     private void closeCaptureSession() {
+        mSessionPending = false;
         if (mCaptureSession != null) {
             try {
                 mCaptureSession.close();
@@ -135,11 +314,15 @@ public class CameraHandler {
      */
     public void shutDown() {
         try {
+            mStreaming = false;
+            mCapturePending = false;
             closeCaptureSession();
             if (mCameraDevice != null) {
                 mCameraDevice.close();
             }
-            mImageReader.close();
+            if (mImageReader != null) {
+                mImageReader.close();
+            }
         } finally {
             initialized = false;
         }
@@ -190,8 +373,11 @@ public class CameraHandler {
     private final CameraDevice.StateCallback mStateCallback = new CameraDevice.StateCallback() {
         @Override
         public void onOpened(@NonNull CameraDevice cameraDevice) {
-            Log.d(TAG, "Opened camera.");
+            Log.d(TAG, "Opened camera " + mCameraId);
             mCameraDevice = cameraDevice;
+            if (mStreaming || mCapturePending) {
+                createCaptureSession();
+            }
         }
         @Override
         public void onDisconnected(@NonNull CameraDevice cameraDevice) {
@@ -219,18 +405,31 @@ public class CameraHandler {
             new CameraCaptureSession.StateCallback() {
                 @Override
                 public void onConfigured(@NonNull CameraCaptureSession cameraCaptureSession) {
+                    mSessionPending = false;
                     // The camera is already closed
                     if (mCameraDevice == null) {
                         return;
                     }
                     // When the session is ready, we start capture.
                     mCaptureSession = cameraCaptureSession;
-                    triggerImageCapture();
+                    if (mStreaming) {
+                        startRepeatingRequest();
+                    } else if (mCapturePending) {
+                        triggerImageCapture();
+                    }
+                    mCapturePending = false;
                 }
                 @Override
                 public void onConfigureFailed(@NonNull CameraCaptureSession cameraCaptureSession) {
+                    mSessionPending = false;
                     Log.w(TAG, "Failed to configure camera");
                 }
+                @Override
+                public void onClosed(@NonNull CameraCaptureSession session) {
+                    if (mCaptureSession == session) {
+                        mCaptureSession = null;
+                    }
+                }
             };
 
     /**
@@ -248,9 +447,47 @@ public class CameraHandler {
                 public void onCaptureCompleted(@NonNull CameraCaptureSession session,
                                                @NonNull CaptureRequest request,
                                                @NonNull TotalCaptureResult result) {
-                    session.close();
-                    mCaptureSession = null;
-                    Log.d(TAG, "CaptureSession closed");
+                    Log.d(TAG, "Capture completed");
+                    PipelineMetrics metrics = mMetrics;
+                    if (metrics != null && mCaptureStartNs != 0) {
+                        metrics.recordSince(PipelineMetrics.Stage.CAPTURE, mCaptureStartNs);
+                    }
+                    mCaptureStartNs = 0;
+                }
+            };
+
+    /**
+     * Hands frames to the listener. {@link ImageReader#acquireLatestImage()} drops anything older
+     * than the newest frame, and frames arriving faster than the target rate are dropped while
+     * streaming.
+     */
+    private final ImageReader.OnImageAvailableListener mOnImageAvailableListener =
+            new ImageReader.OnImageAvailableListener() {
+                @Override
+                public void onImageAvailable(ImageReader reader) {
+                    Image image = reader.acquireLatestImage();
+                    if (image == null) {
+                        return;
+                    }
+                    PipelineMetrics metrics = mMetrics;
+                    if (metrics != null) {
+                        metrics.increment(PipelineMetrics.Counter.FRAMES_CAPTURED);
+                    }
+                    if (mStreaming && mLastFrameTimestamp != 0
+                            && image.getTimestamp() - mLastFrameTimestamp < mFrameIntervalNs) {
+                        mDroppedFrames++;
+                        if (metrics != null) {
+                            metrics.increment(PipelineMetrics.Counter.FRAMES_DROPPED);
+                        }
+                        image.close();
+                        return;
+                    }
+                    mLastFrameTimestamp = image.getTimestamp();
+                    if (mFrameListener == null) {
+                        image.close();
+                        return;
+                    }
+                    mFrameListener.onFrameAvailable(image);
                 }
             };
 
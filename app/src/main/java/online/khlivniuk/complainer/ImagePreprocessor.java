@@ -4,32 +4,237 @@ import android.graphics.Bitmap;
 import android.graphics.Bitmap.Config;
 import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
+import android.graphics.ImageFormat;
 import android.graphics.Matrix;
 import android.media.Image;
-import android.os.Environment;
-import android.util.Log;
 
-import java.io.BufferedOutputStream;
-import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+
+import online.khlivniuk.complainer.classifier.TensorFiller;
+import online.khlivniuk.complainer.metrics.PipelineMetrics;
+import online.khlivniuk.complainer.pipeline.TileLayout;
+import online.khlivniuk.complainer.source.SourceFrame;
 
 /**
  * Class that process an Image and extracts a Bitmap in a format appropriate for
  * the TensorFlow model.
  */
 public class ImagePreprocessor {
-    private static final boolean SAVE_PREVIEW_BITMAP = false;
-
     private Bitmap rgbFrameBitmap;
     private Bitmap croppedBitmap;
+    private int[] rgbBytes;
+    private final BitmapFactory.Options decodeOptions = new BitmapFactory.Options();
+
+    private YuvToTensorConverter tensorConverter;
+    private TileLayout tileLayout;
+    /** One converter per tile scale, set up on the first tiled frame. */
+    private YuvToTensorConverter[] tileConverters;
+    private boolean tensorQuantized;
+    private float tensorMean;
+    private float tensorStd = 1f;
+    private PipelineMetrics metrics;
+    /** Tensor fill of JPEG frames, set up on the first one. */
+    private int[] croppedPixels;
+    private float[] normalizationTable;
+    private float[] floatScratch;
+    private byte[] byteScratch;
+    private ByteBuffer floatTarget;
+    private FloatBuffer floatView;
 
     public ImagePreprocessor(int previewWidth, int previewHeight,
                              int croppedwidth, int croppedHeight) {
         this.croppedBitmap = Bitmap.createBitmap(croppedwidth, croppedHeight, Config.ARGB_8888);
         this.rgbFrameBitmap = Bitmap.createBitmap(previewWidth, previewHeight, Config.ARGB_8888);
+        this.rgbBytes = new int[previewWidth * previewHeight];
+        // Decode JPEG frames into the same bitmap instead of allocating one per frame.
+        this.decodeOptions.inMutable = true;
+    }
+
+    /**
+     * Record the preprocessing stages into {@code metrics}, may be null.
+     */
+    public void setMetrics(PipelineMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Set the input layout written by {@link #preprocessImage(Image, ByteBuffer, int[])}.
+     *
+     * @param quantized one unsigned byte per channel instead of a float
+     * @param mean      value subtracted from each channel of a float input
+     * @param std       value each channel of a float input is divided by
+     */
+    public void setTensorFormat(boolean quantized, float mean, float std) {
+        if (tensorConverter != null && tensorQuantized == quantized
+                && tensorMean == mean && tensorStd == std) {
+            return;
+        }
+        tensorQuantized = quantized;
+        tensorMean = mean;
+        tensorStd = std;
+        tensorConverter = null;
+        tileConverters = null;
+        normalizationTable = null;
+        floatScratch = null;
+    }
+
+    /**
+     * Write YUV frames of the layout's size as tiles covering the whole frame, see
+     * {@link #preprocessFrame(SourceFrame, ByteBuffer, int[])}; null for the center square only.
+     */
+    public void setTileLayout(TileLayout layout) {
+        tileLayout = layout;
+        tileConverters = null;
+    }
+
+    /**
+     * Converts a YUV_420_888 image straight into the model input, skipping the Bitmap round trip.
+     * The image is closed afterwards.
+     *
+     * @param image         camera frame
+     * @param dst           model input, written from its current position
+     * @param previewPixels receives the ARGB model input for display, may be null
+     */
+    public void preprocessImage(final Image image, final ByteBuffer dst,
+                                final int[] previewPixels) {
+        if (image == null) {
+            return;
+        }
+        try {
+            if (image.getFormat() != ImageFormat.YUV_420_888) {
+                throw new IllegalArgumentException("Unsupported image format " + image.getFormat());
+            }
+            final Image.Plane[] planes = image.getPlanes();
+            preprocessYuv(
+                    planes[0].getBuffer(),
+                    planes[1].getBuffer(),
+                    planes[2].getBuffer(),
+                    image.getWidth(),
+                    image.getHeight(),
+                    planes[0].getRowStride(),
+                    planes[1].getRowStride(),
+                    planes[1].getPixelStride(),
+                    dst,
+                    previewPixels);
+        } finally {
+            image.close();
+        }
+    }
+
+    /**
+     * Writes a frame of a {@code FrameSource} into the model input, YUV frames in a single pass
+     * like {@link #preprocessImage(Image, ByteBuffer, int[])}, JPEG frames through a Bitmap. The
+     * frame is closed afterwards.
+     *
+     * <p>With a tile layout set, YUV frames of its size are written as all of its tiles, padding
+     * included, one model input after the other; the preview shows the first tile. Other frames
+     * are written as the center square.
+     *
+     * @param frame         frame to preprocess
+     * @param dst           model input, written from its current position
+     * @param previewPixels receives the ARGB model input for display, may be null
+     * @return the layout of the tiles written, or null if only the center square was
+     */
+    public TileLayout preprocessFrame(final SourceFrame frame, final ByteBuffer dst,
+                                      final int[] previewPixels) {
+        try {
+            if (frame.isJpeg()) {
+                preprocessJpeg(frame.getJpeg(), dst, previewPixels);
+            } else if (tileLayout != null && tileLayout.getFrameWidth() == frame.getWidth()
+                    && tileLayout.getFrameHeight() == frame.getHeight()) {
+                preprocessTiles(frame.getY(), frame.getU(), frame.getV(),
+                        frame.getYRowStride(), frame.getUvRowStride(), frame.getUvPixelStride(),
+                        dst, previewPixels);
+                return tileLayout;
+            } else {
+                preprocessYuv(frame.getY(), frame.getU(), frame.getV(), frame.getWidth(),
+                        frame.getHeight(), frame.getYRowStride(), frame.getUvRowStride(),
+                        frame.getUvPixelStride(), dst, previewPixels);
+            }
+        } finally {
+            frame.close();
+        }
+        return null;
+    }
+
+    /**
+     * Converts every tile of the layout, padding included, into consecutive model inputs.
+     */
+    private void preprocessTiles(ByteBuffer yData, ByteBuffer uData, ByteBuffer vData,
+                                 int yRowStride, int uvRowStride, int uvPixelStride,
+                                 ByteBuffer dst, int[] previewPixels) {
+        final TileLayout layout = tileLayout;
+        if (tileConverters == null) {
+            tileConverters = new YuvToTensorConverter[layout.getScaleCount()];
+            for (int scale = 0; scale < tileConverters.length; scale++) {
+                tileConverters[scale] = new YuvToTensorConverter(layout.getFrameWidth(),
+                        layout.getFrameHeight(), layout.getTileSize(scale),
+                        croppedBitmap.getWidth(), croppedBitmap.getHeight(), 0,
+                        tensorQuantized, tensorMean, tensorStd);
+            }
+        }
+        final long startTime = System.nanoTime();
+        final int count = layout.getPaddedTileCount();
+        for (int i = 0; i < count; i++) {
+            final TileLayout.Tile tile = layout.getTile(i);
+            tileConverters[tile.scale].convertRegion(tile.x, tile.y, yData, uData, vData,
+                    yRowStride, uvRowStride, uvPixelStride, dst, i == 0 ? previewPixels : null);
+        }
+        if (metrics != null) {
+            metrics.recordSince(PipelineMetrics.Stage.YUV_CONVERT, startTime);
+        }
+    }
+
+    /**
+     * Converts a YUV 4:2:0 frame given by its planes straight into the model input, like
+     * {@link #preprocessImage(Image, ByteBuffer, int[])}. Used for frames that don't come from
+     * the camera, e.g. a recorded corpus.
+     */
+    public void preprocessYuv(ByteBuffer yData, ByteBuffer uData, ByteBuffer vData,
+                              int width, int height, int yRowStride, int uvRowStride,
+                              int uvPixelStride, ByteBuffer dst, int[] previewPixels) {
+        if (tensorConverter == null
+                || tensorConverter.getFrameWidth() != width
+                || tensorConverter.getFrameHeight() != height) {
+            tensorConverter = new YuvToTensorConverter(width, height,
+                    croppedBitmap.getWidth(), croppedBitmap.getHeight(), 0,
+                    tensorQuantized, tensorMean, tensorStd);
+        }
+        final long startTime = System.nanoTime();
+        tensorConverter.convert(yData, uData, vData, yRowStride, uvRowStride, uvPixelStride,
+                dst, previewPixels);
+        if (metrics != null) {
+            metrics.recordSince(PipelineMetrics.Stage.YUV_CONVERT, startTime);
+        }
+    }
+
+    /**
+     * Number of pixels of the model input, the size of the preview arrays.
+     */
+    public int getCroppedPixelCount() {
+        return croppedBitmap.getWidth() * croppedBitmap.getHeight();
+    }
+
+    /**
+     * Renders preview pixels filled in by {@link #preprocessImage(Image, ByteBuffer, int[])}.
+     * The returned Bitmap is reused by the next call.
+     */
+    public Bitmap renderPreview(final int[] previewPixels) {
+        croppedBitmap.setPixels(previewPixels, 0, croppedBitmap.getWidth(), 0, 0,
+                croppedBitmap.getWidth(), croppedBitmap.getHeight());
+        return croppedBitmap;
+    }
+
+    /**
+     * Renders preview pixels like {@link #renderPreview(int[])} into a new Bitmap, which the
+     * caller owns and may hand to another thread.
+     */
+    public Bitmap createPreview(final int[] previewPixels) {
+        return Bitmap.createBitmap(previewPixels, croppedBitmap.getWidth(),
+                croppedBitmap.getHeight(), Config.ARGB_8888);
     }
 
     public Bitmap preprocessImage(final Image image) {
@@ -37,20 +242,136 @@ public class ImagePreprocessor {
             return null;
         }
         if (croppedBitmap != null && rgbFrameBitmap != null) {
-            ByteBuffer bb = image.getPlanes()[0].getBuffer();
-            rgbFrameBitmap = BitmapFactory.decodeStream(new ByteBufferBackedInputStream(bb));
-            cropAndRescaleBitmap(rgbFrameBitmap, croppedBitmap, 0);
+            if (image.getFormat() == ImageFormat.YUV_420_888) {
+                convertYuvFrame(image);
+            } else {
+                decodeJpeg(image.getPlanes()[0].getBuffer());
+            }
+            cropAndRescale();
         }
 
         image.close();
+        return croppedBitmap;
+    }
 
-        // For debugging
-        if (SAVE_PREVIEW_BITMAP) {
-            saveBitmap(croppedBitmap);
-        }
+    /**
+     * Decodes a JPEG frame and crops and scales it to the model input size. Used for frames that
+     * don't come from the camera, e.g. a recorded corpus.
+     *
+     * @param jpeg the JPEG file, read from its position
+     * @return the model input as a Bitmap, reused by the next call
+     */
+    public Bitmap preprocessJpeg(final ByteBuffer jpeg) {
+        decodeJpeg(jpeg);
+        cropAndRescale();
         return croppedBitmap;
     }
 
+    /**
+     * Decodes a JPEG frame and writes it into the model input, in the format set with
+     * {@link #setTensorFormat(boolean, float, float)}.
+     *
+     * @param jpeg          the JPEG file, read from its position
+     * @param dst           model input, written from its current position
+     * @param previewPixels receives the ARGB model input for display, may be null
+     */
+    public void preprocessJpeg(final ByteBuffer jpeg, final ByteBuffer dst,
+                               final int[] previewPixels) {
+        preprocessJpeg(jpeg);
+        final long startTime = System.nanoTime();
+        final int width = croppedBitmap.getWidth();
+        final int height = croppedBitmap.getHeight();
+        final int count = width * height;
+        int[] pixels = previewPixels;
+        if (pixels == null) {
+            if (croppedPixels == null) {
+                croppedPixels = new int[count];
+            }
+            pixels = croppedPixels;
+        }
+        croppedBitmap.getPixels(pixels, 0, width, 0, 0, width, height);
+        if (tensorQuantized) {
+            if (byteScratch == null) {
+                byteScratch = new byte[count * 3];
+            }
+            TensorFiller.fillUint8(pixels, count, byteScratch, dst);
+        } else {
+            if (floatScratch == null) {
+                floatScratch = new float[count * 3];
+                normalizationTable = TensorFiller.normalizationTable(tensorMean, tensorStd);
+            }
+            if (dst != floatTarget) {
+                // A float view over the whole buffer, created once per input buffer.
+                ByteBuffer whole = dst.duplicate();
+                whole.clear();
+                floatView = whole.order(dst.order()).asFloatBuffer();
+                floatTarget = dst;
+            }
+            floatView.clear();
+            floatView.position(dst.position() / 4);
+            TensorFiller.fillFloat(pixels, count, normalizationTable, floatScratch, floatView);
+            dst.position(dst.position() + count * 3 * 4);
+        }
+        if (metrics != null) {
+            metrics.recordSince(PipelineMetrics.Stage.TENSOR_FILL, startTime);
+        }
+    }
+
+    /**
+     * Decodes a JPEG frame into {@link #rgbFrameBitmap}, reusing it if the frame fits its
+     * allocation. A larger frame gets a new bitmap, which is reused from then on.
+     */
+    private void decodeJpeg(final ByteBuffer jpeg) {
+        long startTime = System.nanoTime();
+        // The decoder throws rather than decode into a bitmap that is too small, so read the
+        // size from the header first.
+        decodeOptions.inJustDecodeBounds = true;
+        BitmapFactory.decodeStream(new ByteBufferBackedInputStream(jpeg.duplicate()), null,
+                decodeOptions);
+        decodeOptions.inJustDecodeBounds = false;
+        long frameBytes = 4L * decodeOptions.outWidth * decodeOptions.outHeight;
+        decodeOptions.inBitmap = rgbFrameBitmap != null
+                && rgbFrameBitmap.getAllocationByteCount() >= frameBytes ? rgbFrameBitmap : null;
+        rgbFrameBitmap = BitmapFactory.decodeStream(new ByteBufferBackedInputStream(jpeg),
+                null, decodeOptions);
+        decodeOptions.inBitmap = null;
+        if (metrics != null) {
+            metrics.recordSince(PipelineMetrics.Stage.JPEG_DECODE, startTime);
+        }
+    }
+
+    private void cropAndRescale() {
+        long startTime = System.nanoTime();
+        cropAndRescaleBitmap(rgbFrameBitmap, croppedBitmap, 0);
+        if (metrics != null) {
+            metrics.recordSince(PipelineMetrics.Stage.CROP_SCALE, startTime);
+        }
+    }
+
+    /**
+     * Converts a YUV_420_888 frame into {@link #rgbFrameBitmap}, reusing the pixel buffer.
+     */
+    private void convertYuvFrame(final Image image) {
+        final int width = image.getWidth();
+        final int height = image.getHeight();
+        if (rgbFrameBitmap.getWidth() != width || rgbFrameBitmap.getHeight() != height) {
+            rgbFrameBitmap = Bitmap.createBitmap(width, height, Config.ARGB_8888);
+            rgbBytes = new int[width * height];
+        }
+        final Image.Plane[] planes = image.getPlanes();
+        ImageUtils.convertYUV420ToARGB8888(
+                planes[0].getBuffer(),
+                planes[1].getBuffer(),
+                planes[2].getBuffer(),
+                width,
+                height,
+                planes[0].getRowStride(),
+                planes[1].getRowStride(),
+                planes[1].getPixelStride(),
+                rgbBytes);
+        rgbFrameBitmap.setPixels(rgbBytes, 0, width, 0, 0, width, height);
+    }
+
     private static class ByteBufferBackedInputStream extends InputStream {
 
         ByteBuffer buf;
@@ -78,27 +399,6 @@ public class ImagePreprocessor {
         }
     }
 
-    /**
-     * Saves a Bitmap object to disk for analysis.
-     *
-     * @param bitmap The bitmap to save.
-     */
-    static void saveBitmap(final Bitmap bitmap) {
-        final File file = new File(Environment.getExternalStoragePublicDirectory(
-                Environment.DIRECTORY_PICTURES), "tensorflow_preview.png");
-        Log.d("ImageHelper", String.format("Saving %dx%d bitmap to %s.",
-                bitmap.getWidth(), bitmap.getHeight(), file.getAbsolutePath()));
-
-        file.delete();
-
-        try (FileOutputStream fs = new FileOutputStream(file);
-             BufferedOutputStream out = new BufferedOutputStream(fs)) {
-            bitmap.compress(Bitmap.CompressFormat.PNG, 99, out);
-        } catch (Exception e) {
-            Log.w("ImageHelper", "Could not save image for debugging", e);
-        }
-    }
-
     static void cropAndRescaleBitmap(final Bitmap src, final Bitmap dst,
                                      int sensorOrientation) {
         final float minDim = Math.min(src.getWidth(), src.getHeight());
@@ -0,0 +1,75 @@
+package online.khlivniuk.complainer;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Utility class for manipulating images.
+ */
+public class ImageUtils {
+    // This value is 2 ^ 18 - 1, and is used to clamp the RGB values before their ranges
+    // are normalized to eight bits.
+    static final int kMaxChannelValue = 262143;
+
+    private ImageUtils() {
+    }
+
+    /**
+     * Converts a single YUV sample into an opaque ARGB_8888 pixel using fixed point math.
+     */
+    public static int yuvToRgb(int y, int u, int v) {
+        // Adjust and check YUV values
+        y = (y - 16) < 0 ? 0 : (y - 16);
+        u -= 128;
+        v -= 128;
+
+        // This is the floating point equivalent. We do the conversion in integer
+        // because some Android devices do not have floating point in hardware.
+        // nR = (int)(1.164 * nY + 2.018 * nU);
+        // nG = (int)(1.164 * nY - 0.813 * nV - 0.391 * nU);
+        // nB = (int)(1.164 * nY + 1.596 * nV);
+        int y1192 = 1192 * y;
+        int r = (y1192 + 1634 * v);
+        int g = (y1192 - 833 * v - 400 * u);
+        int b = (y1192 + 2066 * u);
+
+        // Clipping RGB values to be inside boundaries [ 0 , kMaxChannelValue ]
+        r = r > kMaxChannelValue ? kMaxChannelValue : (r < 0 ? 0 : r);
+        g = g > kMaxChannelValue ? kMaxChannelValue : (g < 0 ? 0 : g);
+        b = b > kMaxChannelValue ? kMaxChannelValue : (b < 0 ? 0 : b);
+
+        return 0xff000000 | ((r << 6) & 0xff0000) | ((g >> 2) & 0xff00) | ((b >> 10) & 0xff);
+    }
+
+    /**
+     * Converts the planes of a YUV_420_888 frame into ARGB_8888 pixels.
+     *
+     * @param yData         luma plane
+     * @param uData         U chroma plane
+     * @param vData         V chroma plane
+     * @param width         frame width
+     * @param height        frame height
+     * @param yRowStride    row stride of the luma plane
+     * @param uvRowStride   row stride of both chroma planes
+     * @param uvPixelStride pixel stride of both chroma planes
+     * @param out           destination, at least {@code width * height} long
+     */
+    public static void convertYUV420ToARGB8888(ByteBuffer yData, ByteBuffer uData,
+                                               ByteBuffer vData, int width, int height,
+                                               int yRowStride, int uvRowStride,
+                                               int uvPixelStride, int[] out) {
+        int yp = 0;
+        for (int j = 0; j < height; j++) {
+            int pY = yRowStride * j;
+            int pUV = uvRowStride * (j >> 1);
+
+            for (int i = 0; i < width; i++) {
+                int uvOffset = pUV + (i >> 1) * uvPixelStride;
+
+                out[yp++] = yuvToRgb(
+                        0xff & yData.get(pY + i),
+                        0xff & uData.get(uvOffset),
+                        0xff & vData.get(uvOffset));
+            }
+        }
+    }
+}
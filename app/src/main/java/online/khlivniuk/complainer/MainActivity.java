@@ -5,10 +5,7 @@ import android.content.ComponentName;
 import android.content.Intent;
 import android.content.ServiceConnection;
 import android.graphics.Bitmap;
-import android.icu.text.SimpleDateFormat;
 import android.os.Bundle;
-import android.os.Environment;
-import android.os.Handler;
 import android.os.IBinder;
 import android.support.annotation.NonNull;
 import android.support.design.widget.Snackbar;
@@ -30,9 +27,8 @@ import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.auth.FirebaseUser;
 import com.google.firebase.auth.GoogleAuthProvider;
 
-import java.io.FileOutputStream;
-import java.util.Date;
-
+import online.khlivniuk.complainer.classifier.ClassificationResult;
+import online.khlivniuk.complainer.classifier.ResultFormatter;
 import online.khlivniuk.complainer.service.HomeEventsListener;
 import online.khlivniuk.complainer.service.HomeService;
 
@@ -40,11 +36,10 @@ import online.khlivniuk.complainer.service.HomeService;
 public class MainActivity extends BaseActivity implements HomeEventsListener {
     private static final String TAG = "ImageClassifierActivity";
     private static final int RC_SIGN_IN = 9001;
-    private static final boolean SAVE_FILE = false;
+    private static final int TARGET_FPS = 5;
     private ImageView mImage;
     private TextView mResultText;
     private HomeService mService;
-    private Handler mHandler = new Handler();
     private ServiceConnection mServiceConnection = new ServiceConnection() {
         @Override
         public void onServiceConnected(ComponentName componentName, IBinder iBinder) {
@@ -52,7 +47,7 @@ public class MainActivity extends BaseActivity implements HomeEventsListener {
             HomeService.HomeBinder binder = (HomeService.HomeBinder) iBinder;
             mService = binder.getService();
             mService.registerListener(MainActivity.this);
-            mService.imageRequest();
+            mService.startAdaptive(TARGET_FPS);
         }
 
         @Override
@@ -178,27 +173,15 @@ public class MainActivity extends BaseActivity implements HomeEventsListener {
     }
 
     @Override
-    public void photoProcessed(final Bitmap resultBitmap, String result) {
-        mImage.setImageBitmap(resultBitmap);
-        mResultText.setText(result);
-        mHandler.postDelayed(new Runnable() {
-            @Override
-            public void run() {
-                mService.imageRequest();
-                if (SAVE_FILE) {
-                    try {
-                        SimpleDateFormat s = new SimpleDateFormat("ddMMyyyyhhmmss");
-                        String format = s.format(new Date());
-                        String value = Environment.getExternalStorageDirectory().toString() + "/"
-                                + format + ".jpg";
-                        Log.d(TAG, value);
-                        FileOutputStream file = new FileOutputStream(value);
-                        resultBitmap.compress(Bitmap.CompressFormat.JPEG, 100, file);
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                    }
-                }
-            }
-        }, 5000);
+    public void dominantLabelChanged(String label, float score, long timestamp) {
+        Log.d(TAG, "Now seeing " + label + " (" + score + ")");
+    }
+
+    @Override
+    public void photoProcessed(Bitmap resultBitmap, ClassificationResult result) {
+        if (resultBitmap != null) {
+            mImage.setImageBitmap(resultBitmap);
+        }
+        mResultText.setText(ResultFormatter.format(result));
     }
 }
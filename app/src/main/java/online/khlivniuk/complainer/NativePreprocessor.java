@@ -0,0 +1,54 @@
+package online.khlivniuk.complainer;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Bindings to the preprocessing kernel in {@code native-lib}. The kernel produces the same bits
+ * as the Java loop in {@link YuvToTensorConverter}, using NEON or SSE2 where the ABI has it.
+ */
+final class NativePreprocessor {
+    private static final boolean AVAILABLE;
+
+    static {
+        boolean loaded;
+        try {
+            System.loadLibrary("native-lib");
+            loaded = true;
+        } catch (UnsatisfiedLinkError e) {
+            // Plain JVM or an ABI we don't ship, the Java path is used instead.
+            loaded = false;
+        }
+        AVAILABLE = loaded;
+    }
+
+    private NativePreprocessor() {
+    }
+
+    static boolean isAvailable() {
+        return AVAILABLE;
+    }
+
+    /**
+     * Converts a frame, see {@link YuvToTensorConverter#convertRegion}. All buffers must be
+     * direct. The sampling tables are shifted by the even offsets {@code dx} and {@code dy}.
+     *
+     * @return false if a buffer address or the sampling tables couldn't be accessed, or the
+     * tensor doesn't fit {@code dst} from {@code dstOffset}
+     */
+    static native boolean nativeConvert(ByteBuffer yData, ByteBuffer uData, ByteBuffer vData,
+                                        int yRowStride, int uvRowStride, int uvPixelStride,
+                                        int dx, int dy, int[] srcX, int[] srcY,
+                                        boolean quantized, float mean, float std,
+                                        ByteBuffer dst, int dstOffset);
+
+    /**
+     * Same as {@link #nativeConvert}, with the scalar code the NEON and SSE2 paths fall back to
+     * for their tail. Used to check those paths against it.
+     */
+    static native boolean nativeConvertScalar(ByteBuffer yData, ByteBuffer uData,
+                                              ByteBuffer vData, int yRowStride,
+                                              int uvRowStride, int uvPixelStride, int dx, int dy,
+                                              int[] srcX, int[] srcY, boolean quantized,
+                                              float mean, float std, ByteBuffer dst,
+                                              int dstOffset);
+}
@@ -0,0 +1,243 @@
+package online.khlivniuk.complainer;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import online.khlivniuk.complainer.classifier.TensorFiller;
+
+/**
+ * Writes a YUV_420_888 frame straight into a model input tensor. A single pass takes the center
+ * square of the frame, or any other square region of it, scales it to the model input size
+ * (nearest neighbour), rotates it by the sensor orientation and normalises the channels,
+ * producing the same RGB interleaved layout that {@code ImageClassifier} builds from a Bitmap.
+ *
+ * <p>All lookup tables are computed once in the constructor, so converting a frame does not
+ * allocate. When {@code native-lib} is loaded and all buffers are direct, the conversion runs in
+ * the native kernel; otherwise the Java loop below is used, which only depends on
+ * {@link ByteBuffer} and can run on a plain JVM.
+ */
+public class YuvToTensorConverter {
+    private static final int DIM_PIXEL_SIZE = 3;
+
+    private final int frameWidth;
+    private final int frameHeight;
+    private final int cropSize;
+    private final int cropX;
+    private final int cropY;
+    private final int outputWidth;
+    private final int outputHeight;
+    private final boolean quantized;
+    private final float mean;
+    private final float std;
+    private boolean useNative = NativePreprocessor.isAvailable();
+
+    /** Source column and row sampled for each output pixel, in output order. */
+    private final int[] srcX;
+    private final int[] srcY;
+
+    /** Normalised float value for every possible channel byte. */
+    private final float[] normalized;
+
+    /**
+     * @param frameWidth        width of the camera frame
+     * @param frameHeight       height of the camera frame
+     * @param outputWidth       width of the model input
+     * @param outputHeight      height of the model input
+     * @param sensorOrientation clockwise rotation to apply, one of 0, 90, 180 or 270
+     * @param quantized         write one unsigned byte per channel instead of a float
+     * @param mean              value subtracted from each channel of a float input
+     * @param std               value each channel of a float input is divided by
+     */
+    public YuvToTensorConverter(int frameWidth, int frameHeight, int outputWidth,
+                                int outputHeight, int sensorOrientation, boolean quantized,
+                                float mean, float std) {
+        this(frameWidth, frameHeight, Math.min(frameWidth, frameHeight),
+                (frameWidth - Math.min(frameWidth, frameHeight)) / 2,
+                (frameHeight - Math.min(frameWidth, frameHeight)) / 2,
+                outputWidth, outputHeight, sensorOrientation, quantized, mean, std);
+    }
+
+    /**
+     * A converter for square regions of {@code cropSize} pixels anywhere in the frame, e.g. the
+     * tiles of a {@code TileLayout}. The region is placed with
+     * {@link #convertRegion(int, int, ByteBuffer, ByteBuffer, ByteBuffer, int, int, int,
+     * ByteBuffer, int[])}; {@link #convert} takes the top left one.
+     *
+     * @param cropSize side of the regions, at most the smaller side of the frame
+     */
+    public YuvToTensorConverter(int frameWidth, int frameHeight, int cropSize, int outputWidth,
+                                int outputHeight, int sensorOrientation, boolean quantized,
+                                float mean, float std) {
+        this(frameWidth, frameHeight, cropSize, 0, 0, outputWidth, outputHeight,
+                sensorOrientation, quantized, mean, std);
+    }
+
+    private YuvToTensorConverter(int frameWidth, int frameHeight, int cropSize, int cropX,
+                                 int cropY, int outputWidth, int outputHeight,
+                                 int sensorOrientation, boolean quantized, float mean,
+                                 float std) {
+        if (sensorOrientation % 90 != 0) {
+            throw new IllegalArgumentException("Unsupported orientation " + sensorOrientation);
+        }
+        if (cropSize < 1 || cropSize > Math.min(frameWidth, frameHeight)) {
+            throw new IllegalArgumentException("Crop size " + cropSize + " doesn't fit a "
+                    + frameWidth + "x" + frameHeight + " frame");
+        }
+        this.frameWidth = frameWidth;
+        this.frameHeight = frameHeight;
+        this.cropSize = cropSize;
+        this.cropX = cropX;
+        this.cropY = cropY;
+        this.outputWidth = outputWidth;
+        this.outputHeight = outputHeight;
+        this.quantized = quantized;
+        this.mean = mean;
+        this.std = std;
+        this.srcX = new int[outputWidth * outputHeight];
+        this.srcY = new int[outputWidth * outputHeight];
+
+        final int minDim = cropSize;
+        final int offsetX = cropX;
+        final int offsetY = cropY;
+        final int rotation = ((sensorOrientation % 360) + 360) % 360;
+
+        int i = 0;
+        for (int y = 0; y < outputHeight; ++y) {
+            for (int x = 0; x < outputWidth; ++x) {
+                // Undo the rotation to find the pixel of the upright square we sample from.
+                int ux;
+                int uy;
+                int uw = outputWidth;
+                int uh = outputHeight;
+                switch (rotation) {
+                    case 90:
+                        ux = y;
+                        uy = outputWidth - 1 - x;
+                        uw = outputHeight;
+                        uh = outputWidth;
+                        break;
+                    case 180:
+                        ux = outputWidth - 1 - x;
+                        uy = outputHeight - 1 - y;
+                        break;
+                    case 270:
+                        ux = outputHeight - 1 - y;
+                        uy = x;
+                        uw = outputHeight;
+                        uh = outputWidth;
+                        break;
+                    default:
+                        ux = x;
+                        uy = y;
+                        break;
+                }
+                srcX[i] = offsetX + Math.min(minDim - 1, (int) ((ux + 0.5f) * minDim / uw));
+                srcY[i] = offsetY + Math.min(minDim - 1, (int) ((uy + 0.5f) * minDim / uh));
+                ++i;
+            }
+        }
+        normalized = TensorFiller.normalizationTable(mean, std);
+    }
+
+    public int getFrameWidth() {
+        return frameWidth;
+    }
+
+    public int getFrameHeight() {
+        return frameHeight;
+    }
+
+    /** Side of the square region sampled from the frame. */
+    public int getCropSize() {
+        return cropSize;
+    }
+
+    /**
+     * Force the Java loop even if the native kernel is available, e.g. to compare both.
+     */
+    public void setUseNative(boolean useNative) {
+        this.useNative = useNative && NativePreprocessor.isAvailable();
+    }
+
+    /**
+     * Number of bytes a converted frame takes in the destination buffer.
+     */
+    public int getOutputSizeInBytes() {
+        return outputWidth * outputHeight * DIM_PIXEL_SIZE * (quantized ? 1 : 4);
+    }
+
+    /**
+     * Converts one frame. The tensor is written at the current position of {@code dst}, which is
+     * advanced past the written data.
+     *
+     * @param yData         luma plane
+     * @param uData         U chroma plane
+     * @param vData         V chroma plane
+     * @param yRowStride    row stride of the luma plane
+     * @param uvRowStride   row stride of both chroma planes
+     * @param uvPixelStride pixel stride of both chroma planes
+     * @param dst           destination tensor, in native byte order for float inputs
+     * @param argbOut       optional ARGB_8888 copy of the converted pixels for previews, may be
+     *                      null
+     */
+    public void convert(ByteBuffer yData, ByteBuffer uData, ByteBuffer vData, int yRowStride,
+                        int uvRowStride, int uvPixelStride, ByteBuffer dst, int[] argbOut) {
+        convertRegion(0, 0, yData, uData, vData, yRowStride, uvRowStride, uvPixelStride, dst,
+                argbOut);
+    }
+
+    /**
+     * Converts the region moved right by {@code dx} and down by {@code dy} from the one the
+     * converter was made for: for a region converter, the region whose top left corner is at
+     * ({@code dx}, {@code dy}). Both must be even, so the chroma samples line up, and the region
+     * must lie inside the frame.
+     */
+    public void convertRegion(int dx, int dy, ByteBuffer yData, ByteBuffer uData,
+                              ByteBuffer vData, int yRowStride, int uvRowStride,
+                              int uvPixelStride, ByteBuffer dst, int[] argbOut) {
+        if (((dx | dy) & 1) != 0 || cropX + dx < 0 || cropY + dy < 0
+                || cropX + dx + cropSize > frameWidth || cropY + dy + cropSize > frameHeight) {
+            throw new IllegalArgumentException("Bad region offset " + dx + "," + dy);
+        }
+        if (!quantized && dst.order() != ByteOrder.nativeOrder()) {
+            throw new IllegalArgumentException("Float tensors must use the native byte order");
+        }
+        final int base = dst.position();
+        if (useNative && argbOut == null
+                && yData.isDirect() && uData.isDirect() && vData.isDirect() && dst.isDirect()
+                && NativePreprocessor.nativeConvert(yData, uData, vData, yRowStride, uvRowStride,
+                uvPixelStride, dx, dy, srcX, srcY, quantized, mean, std, dst, base)) {
+            dst.position(base + getOutputSizeInBytes());
+            return;
+        }
+        final int count = srcX.length;
+        int out = base;
+        for (int i = 0; i < count; ++i) {
+            final int x = srcX[i] + dx;
+            final int y = srcY[i] + dy;
+            final int uvOffset = uvRowStride * (y >> 1) + (x >> 1) * uvPixelStride;
+            final int pixel = ImageUtils.yuvToRgb(
+                    0xff & yData.get(yRowStride * y + x),
+                    0xff & uData.get(uvOffset),
+                    0xff & vData.get(uvOffset));
+            if (argbOut != null) {
+                argbOut[i] = pixel;
+            }
+            final int r = (pixel >> 16) & 0xFF;
+            final int g = (pixel >> 8) & 0xFF;
+            final int b = pixel & 0xFF;
+            if (quantized) {
+                dst.put(out, (byte) r);
+                dst.put(out + 1, (byte) g);
+                dst.put(out + 2, (byte) b);
+                out += 3;
+            } else {
+                dst.putFloat(out, normalized[r]);
+                dst.putFloat(out + 4, normalized[g]);
+                dst.putFloat(out + 8, normalized[b]);
+                out += 12;
+            }
+        }
+        dst.position(out);
+    }
+}
@@ -0,0 +1,125 @@
+package online.khlivniuk.complainer.archive;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps the files of a directory under a total size by deleting the oldest ones. Files are
+ * tracked in memory in the order they were written, seeded from their modification times when
+ * the directory is loaded, so enforcing the quota never lists the directory again.
+ *
+ * <p>Thread safe.
+ */
+public class DiskQuota {
+    private final File directory;
+    private final long maxBytes;
+    /** Tracked files and their sizes, oldest first. */
+    private final LinkedHashMap<File, Long> files = new LinkedHashMap<>();
+    private long usedBytes;
+    private long evicted;
+
+    /**
+     * @param directory directory whose files count against the quota
+     * @param maxBytes  total size the files may take up
+     */
+    public DiskQuota(File directory, long maxBytes) {
+        if (maxBytes < 1) {
+            throw new IllegalArgumentException("Quota must be positive, got " + maxBytes);
+        }
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Track the files already in the directory, oldest first, and evict down to the quota.
+     */
+    public synchronized void load() {
+        files.clear();
+        usedBytes = 0;
+        File[] existing = directory.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return file.isFile();
+            }
+        });
+        if (existing == null) {
+            return;
+        }
+        // Read every modification time once, they may change while sorting.
+        final Map<File, Long> modified = new HashMap<>();
+        for (File file : existing) {
+            modified.put(file, file.lastModified());
+        }
+        Arrays.sort(existing, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long ma = modified.get(a);
+                long mb = modified.get(b);
+                return ma < mb ? -1 : (ma == mb ? 0 : 1);
+            }
+        });
+        for (File file : existing) {
+            long length = file.length();
+            files.put(file, length);
+            usedBytes += length;
+        }
+        evict();
+    }
+
+    /**
+     * Track a file that was just written, then delete the oldest files until the quota is met
+     * again. The new file itself is kept even if it is larger than the quota on its
+     * own.
+     */
+    public synchronized void add(File file) {
+        // A rewritten file counts as the newest.
+        Long previous = files.remove(file);
+        if (previous != null) {
+            usedBytes -= previous;
+        }
+        long size = file.length();
+        files.put(file, size);
+        usedBytes += size;
+        evict();
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<File, Long>> it = files.entrySet().iterator();
+        // Never evict the most recent file.
+        while (usedBytes > maxBytes && files.size() > 1) {
+            Map.Entry<File, Long> eldest = it.next();
+            // A file that can't be deleted is forgotten all the same, it's out of our hands.
+            eldest.getKey().delete();
+            usedBytes -= eldest.getValue();
+            evicted++;
+            it.remove();
+        }
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    public synchronized int getFileCount() {
+        return files.size();
+    }
+
+    /** Files deleted to stay under the quota. */
+    public synchronized long getEvicted() {
+        return evicted;
+    }
+}
@@ -0,0 +1,380 @@
+package online.khlivniuk.complainer.archive;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.os.Process;
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import online.khlivniuk.complainer.classifier.ClassificationResult;
+import online.khlivniuk.complainer.pipeline.BufferPool;
+
+/**
+ * Saves frames whose classification is confident enough as JPEG files, on a thread of its own.
+ * The pixels aren't copied: the archiver retains the pooled buffer holding them until they are
+ * written, in one of a fixed number of slots. When all slots are taken the frame is dropped and
+ * counted, so archiving never holds up capture or inference for long.
+ * Encoding reuses the same bitmaps and output buffer for every frame, and a {@link DiskQuota}
+ * keeps the directory under a total size by deleting the oldest files. The app never reads the
+ * archive back, it is pulled off the device, so the order files were written in is all there is
+ * to go by.
+ *
+ * <p>Files are named {@code <source>_<yyyyMMdd-HHmmss-SSS>_<label>_<score>.jpg}, the score in
+ * percent.
+ */
+public class EvidenceArchiver {
+    private static final String TAG = EvidenceArchiver.class.getSimpleName();
+
+    private final File mDirectory;
+    private final float mMinScore;
+    private final int mQuality;
+    private final int mMaxSize;
+    private final DiskQuota mQuota;
+
+    /** Slots free to take a frame, and slots holding a frame waiting to be written. */
+    private final BufferPool<Slot> mSlots;
+    private final BlockingQueue<Slot> mPendingSlots;
+
+    private final AtomicLong mIgnored = new AtomicLong();
+    private final AtomicLong mArchived = new AtomicLong();
+    private final AtomicLong mFailed = new AtomicLong();
+
+    /** Owned by the archiver thread. */
+    private final ByteArrayOutputStream mEncodeBuffer = new ByteArrayOutputStream(64 * 1024);
+    private final SimpleDateFormat mDateFormat =
+            new SimpleDateFormat("yyyyMMdd-HHmmss-SSS", Locale.US);
+    private final Date mDate = new Date();
+    private final StringBuilder mName = new StringBuilder();
+    private final Paint mScalePaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final Rect mScaledRect = new Rect();
+    private Bitmap mFrameBitmap;
+    private Bitmap mScaledBitmap;
+    private Canvas mScaledCanvas;
+
+    private Thread mThread;
+    /** Set by {@link #quit()}; frames submitted afterwards are given back right away. */
+    private volatile boolean mQuit;
+
+    private EvidenceArchiver(Builder builder) {
+        mDirectory = builder.directory;
+        mMinScore = builder.minScore;
+        mQuality = builder.quality;
+        mMaxSize = builder.maxSize;
+        mQuota = new DiskQuota(builder.directory, builder.quotaBytes);
+        mSlots = new BufferPool<>("Archive slots", builder.queueSize,
+                new BufferPool.Factory<Slot>() {
+                    @Override
+                    public Slot create() {
+                        return new Slot();
+                    }
+                });
+        mPendingSlots = new ArrayBlockingQueue<>(builder.queueSize);
+    }
+
+    /**
+     * Start the archiver thread. The existing files of the directory are counted against the quota
+     * first, on that thread. An archiver can't be started again once it has quit.
+     */
+    public synchronized void start() {
+        if (mThread != null || mQuit) {
+            return;
+        }
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+                    Log.w(TAG, "Cannot create " + mDirectory + ", nothing will be archived");
+                }
+                mQuota.load();
+                loop();
+            }
+        }, "EvidenceArchiver");
+        mThread.start();
+    }
+
+    /**
+     * Stop the archiver thread after the frame being written. Frames still waiting are discarded,
+     * and so are frames submitted concurrently: every retained frame goes back to its pool.
+     */
+    public void quit() {
+        Thread thread;
+        synchronized (this) {
+            mQuit = true;
+            thread = mThread;
+            mThread = null;
+        }
+        if (thread != null) {
+            thread.interrupt();
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        discardPending();
+    }
+
+    /** Give back the frames waiting to be written. Safe to call from several threads at once. */
+    private void discardPending() {
+        Slot slot;
+        while ((slot = mPendingSlots.poll()) != null) {
+            recycle(slot);
+        }
+    }
+
+    /**
+     * Queue a frame for archiving if its best label reaches the minimum score. Retains
+     * {@code owner} until the pixels are written, doesn't block.
+     *
+     * @param owner  pooled buffer holding the pixels, acquired by the caller
+     * @param pixels ARGB pixels of the frame, not changed until {@code owner} is recycled
+     * @param width  frame width
+     * @param height frame height
+     * @param result classification of the frame
+     * @return true if the frame was queued, false if it isn't confident enough or the queue is
+     * full
+     */
+    public boolean submit(BufferPool.Buffer owner, int[] pixels, int width, int height,
+                          ClassificationResult result) {
+        if (result.size() == 0 || result.getScore(0) < mMinScore) {
+            mIgnored.incrementAndGet();
+            return false;
+        }
+        if (mQuit) {
+            return false;
+        }
+        Slot slot = mSlots.acquire();
+        if (slot == null) {
+            return false;
+        }
+        owner.retain();
+        slot.owner = owner;
+        slot.pixels = pixels;
+        slot.width = width;
+        slot.height = height;
+        slot.wallTimeMs = System.currentTimeMillis();
+        slot.source = result.getSource();
+        slot.label = result.getLabel(0);
+        slot.score = result.getScore(0);
+        mPendingSlots.offer(slot);
+        if (mQuit) {
+            // quit() may have drained the queue before the offer; nobody writes it any more.
+            discardPending();
+            return false;
+        }
+        return true;
+    }
+
+    private void loop() {
+        while (!Thread.currentThread().isInterrupted()) {
+            Slot slot;
+            try {
+                slot = mPendingSlots.take();
+            } catch (InterruptedException e) {
+                break;
+            }
+            try {
+                File file = write(slot);
+                mQuota.add(file);
+                mArchived.incrementAndGet();
+            } catch (IOException | RuntimeException e) {
+                mFailed.incrementAndGet();
+                Log.w(TAG, "Cannot archive frame", e);
+            } finally {
+                recycle(slot);
+            }
+        }
+    }
+
+    /** Give the frame of {@code slot} back to its pool, then the slot to the archiver. */
+    private void recycle(Slot slot) {
+        BufferPool.Buffer owner = slot.owner;
+        slot.owner = null;
+        slot.pixels = null;
+        owner.release();
+        slot.release();
+    }
+
+    private File write(Slot slot) throws IOException {
+        if (mFrameBitmap == null || mFrameBitmap.getWidth() != slot.width
+                || mFrameBitmap.getHeight() != slot.height) {
+            mFrameBitmap = Bitmap.createBitmap(slot.width, slot.height, Bitmap.Config.ARGB_8888);
+            mScaledBitmap = null;
+        }
+        mFrameBitmap.setPixels(slot.pixels, 0, slot.width, 0, 0, slot.width, slot.height);
+        Bitmap bitmap = scale(mFrameBitmap);
+
+        mEncodeBuffer.reset();
+        if (!bitmap.compress(Bitmap.CompressFormat.JPEG, mQuality, mEncodeBuffer)) {
+            throw new IOException("JPEG encoding failed");
+        }
+        File file = new File(mDirectory, name(slot));
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            mEncodeBuffer.writeTo(out);
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    /**
+     * Scale the frame down to the configured size, keeping its aspect ratio.
+     */
+    private Bitmap scale(Bitmap frame) {
+        int longest = Math.max(frame.getWidth(), frame.getHeight());
+        if (mMaxSize <= 0 || longest <= mMaxSize) {
+            return frame;
+        }
+        if (mScaledBitmap == null) {
+            int width = Math.max(1, frame.getWidth() * mMaxSize / longest);
+            int height = Math.max(1, frame.getHeight() * mMaxSize / longest);
+            mScaledBitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            mScaledCanvas = new Canvas(mScaledBitmap);
+            mScaledRect.set(0, 0, width, height);
+        }
+        mScaledCanvas.drawBitmap(frame, null, mScaledRect, mScalePaint);
+        return mScaledBitmap;
+    }
+
+    private String name(Slot slot) {
+        mDate.setTime(slot.wallTimeMs);
+        mName.setLength(0);
+        appendSafe(slot.source != null ? slot.source : "frame");
+        mName.append('_').append(mDateFormat.format(mDate)).append('_');
+        appendSafe(slot.label != null ? slot.label : "unknown");
+        mName.append('_').append(Math.round(slot.score * 100)).append(".jpg");
+        return mName.toString();
+    }
+
+    /** Append to the file name, replacing anything that isn't safe in one. */
+    private void appendSafe(String part) {
+        for (int i = 0; i < part.length(); i++) {
+            char c = part.charAt(i);
+            boolean safe = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')
+                    || (c >= '0' && c <= '9') || c == '-';
+            mName.append(safe ? c : '-');
+        }
+    }
+
+    public File getDirectory() {
+        return mDirectory;
+    }
+
+    public DiskQuota getQuota() {
+        return mQuota;
+    }
+
+    /** Frames not archived because their best score was below the minimum. */
+    public long getIgnored() {
+        return mIgnored.get();
+    }
+
+    /** Frames not archived because the queue was full. */
+    public long getDropped() {
+        return mSlots.getExhausted();
+    }
+
+    public long getArchived() {
+        return mArchived.get();
+    }
+
+    /** Frames that couldn't be encoded or written. */
+    public long getFailed() {
+        return mFailed.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US,
+                "%d archived, %d ignored, %d dropped, %d failed, %d evicted, %d files %.1f of %.1f MB",
+                getArchived(), getIgnored(), getDropped(), getFailed(), mQuota.getEvicted(),
+                mQuota.getFileCount(), mQuota.getUsedBytes() / 1048576.0,
+                mQuota.getMaxBytes() / 1048576.0);
+    }
+
+    /**
+     * A frame waiting to be written, with a reference to the buffer holding its pixels.
+     */
+    private static class Slot extends BufferPool.Buffer {
+        BufferPool.Buffer owner;
+        int[] pixels;
+        int width;
+        int height;
+        long wallTimeMs;
+        String source;
+        String label;
+        float score;
+    }
+
+    public static class Builder {
+        private final File directory;
+        private float minScore = 0.5f;
+        private int quality = 85;
+        private int maxSize = 0;
+        private long quotaBytes = 50L << 20;
+        private int queueSize = 4;
+
+        /** @param directory where the frames are written, created if needed */
+        public Builder(File directory) {
+            this.directory = directory;
+        }
+
+        /** Score the best label of a frame needs for the frame to be archived, 0 for all. */
+        public Builder minScore(float minScore) {
+            this.minScore = minScore;
+            return this;
+        }
+
+        /** JPEG quality, 0..100. */
+        public Builder quality(int quality) {
+            this.quality = quality;
+            return this;
+        }
+
+        /** Longest side of the archived images, larger frames are scaled down; 0 to keep them. */
+        public Builder maxSize(int maxSize) {
+            this.maxSize = maxSize;
+            return this;
+        }
+
+        /** Total size the archived files may take up. */
+        public Builder quotaBytes(long quotaBytes) {
+            this.quotaBytes = quotaBytes;
+            return this;
+        }
+
+        /** Frames that may wait to be written before new ones are dropped. */
+        public Builder queueSize(int queueSize) {
+            this.queueSize = queueSize;
+            return this;
+        }
+
+        public EvidenceArchiver build() {
+            if (directory == null) {
+                throw new IllegalStateException("Archive directory is required");
+            }
+            if (quality < 0 || quality > 100) {
+                throw new IllegalStateException("Quality must be in 0..100, got " + quality);
+            }
+            if (maxSize < 0 || quotaBytes < 1 || queueSize < 1) {
+                throw new IllegalStateException(
+                        "Max size must not be negative, quota and queue size must be positive");
+            }
+            return new EvidenceArchiver(this);
+        }
+    }
+}
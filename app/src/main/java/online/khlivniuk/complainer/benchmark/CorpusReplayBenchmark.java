@@ -0,0 +1,168 @@
+package online.khlivniuk.complainer.benchmark;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.os.Debug;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import online.khlivniuk.complainer.ImagePreprocessor;
+import online.khlivniuk.complainer.classifier.ClassificationResult;
+import online.khlivniuk.complainer.classifier.ImageClassifier;
+import online.khlivniuk.complainer.classifier.ModelDescriptor;
+import online.khlivniuk.complainer.replay.CorpusReplay;
+import online.khlivniuk.complainer.replay.FrameCorpus;
+import online.khlivniuk.complainer.replay.ReplayReport;
+
+/**
+ * Replays a recorded {@link FrameCorpus} through the same {@link ImagePreprocessor} and
+ * {@link ImageClassifier} path the camera frames take, once for every given model. Each report is
+ * logged and written to {@code replay-<model>.txt} in the app's external files directory.
+ *
+ * <p>Without a corpus, random frames are used; the timings still hold, the labels don't.
+ */
+public class CorpusReplayBenchmark implements Runnable {
+    private static final String TAG = CorpusReplayBenchmark.class.getSimpleName();
+
+    private static final int SYNTHETIC_FRAMES = 20;
+    private static final int SYNTHETIC_WIDTH = 640;
+    private static final int SYNTHETIC_HEIGHT = 480;
+
+    private final Context mContext;
+    private final List<ModelDescriptor> mModels;
+    private final File mCorpusDir;
+    private final int mWarmupIterations;
+    private final int mIterations;
+    private final int mThreads;
+
+    /**
+     * @param corpusDir        directory of the corpus, see {@link FrameCorpus}
+     * @param warmupIterations passes over the corpus before measuring
+     * @param iterations       measured passes over the corpus
+     * @param threads          interpreter threads, 0 for the interpreter default
+     */
+    public CorpusReplayBenchmark(Context context, List<ModelDescriptor> models, File corpusDir,
+                                 int warmupIterations, int iterations, int threads) {
+        mContext = context.getApplicationContext();
+        mModels = models;
+        mCorpusDir = corpusDir;
+        mWarmupIterations = warmupIterations;
+        mIterations = iterations;
+        mThreads = threads;
+    }
+
+    /**
+     * The directory the corpus is read from by default,
+     * {@code /sdcard/Android/data/<package>/files/corpus}, so it can be pushed with adb.
+     */
+    public static File getDefaultCorpusDir(Context context) {
+        return context.getExternalFilesDir("corpus");
+    }
+
+    @Override
+    public void run() {
+        FrameCorpus corpus;
+        try {
+            corpus = FrameCorpus.load(mCorpusDir);
+        } catch (IOException e) {
+            Log.w(TAG, "No corpus in " + mCorpusDir + ", replaying random frames", e);
+            corpus = FrameCorpus.synthetic(SYNTHETIC_FRAMES, SYNTHETIC_WIDTH, SYNTHETIC_HEIGHT,
+                    42);
+        }
+        for (ModelDescriptor descriptor : mModels) {
+            ImageClassifier classifier;
+            try {
+                classifier = ImageClassifier.create(descriptor,
+                        ImageClassifier.loadModelFile(mContext, descriptor),
+                        ImageClassifier.loadLabelList(mContext, descriptor), mThreads);
+            } catch (IOException e) {
+                Log.e(TAG, "Cannot load " + descriptor, e);
+                continue;
+            }
+            try {
+                Replay replay = new Replay(corpus, mWarmupIterations, mIterations, classifier);
+                ReplayReport report = replay.run(String.format(
+                        "Replay of %s with %s, %d interpreter threads", mCorpusDir,
+                        descriptor, mThreads));
+                Log.i(TAG, report.toString());
+                writeReport(descriptor, report);
+            } finally {
+                classifier.close();
+            }
+        }
+    }
+
+    private void writeReport(ModelDescriptor descriptor, ReplayReport report) {
+        File dir = mContext.getExternalFilesDir(null);
+        if (dir == null) {
+            return;
+        }
+        File file = new File(dir, "replay-" + descriptor.getId() + ".txt");
+        try {
+            PrintWriter writer = new PrintWriter(new FileWriter(file));
+            try {
+                report.dump(writer);
+            } finally {
+                writer.close();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Cannot write " + file, e);
+        }
+    }
+
+    /**
+     * Frames through the preprocessor and classifier of the app.
+     */
+    private static class Replay extends CorpusReplay {
+        private final ImageClassifier mClassifier;
+        private final ClassificationResult mResult;
+        private final ByteBuffer mInput;
+        private ImagePreprocessor mPreprocessor;
+
+        Replay(FrameCorpus corpus, int warmupIterations, int iterations,
+               ImageClassifier classifier) {
+            super(corpus, warmupIterations, iterations);
+            mClassifier = classifier;
+            mResult = classifier.createResult();
+            mInput = classifier.allocateInputBuffer();
+        }
+
+        @Override
+        protected boolean process(FrameCorpus.Frame frame, ReplayReport report) {
+            if (mPreprocessor == null) {
+                int width = frame.jpeg ? SYNTHETIC_WIDTH : frame.width;
+                int height = frame.jpeg ? SYNTHETIC_HEIGHT : frame.height;
+                mPreprocessor = new ImagePreprocessor(width, height,
+                        mClassifier.getImageSizeX(), mClassifier.getImageSizeY());
+                mPreprocessor.setTensorFormat(mClassifier.isQuantized(),
+                        mClassifier.getImageMean(), mClassifier.getImageStd());
+                mPreprocessor.setMetrics(report.getMetrics());
+                mClassifier.setMetrics(report.getMetrics());
+            }
+            if (frame.jpeg) {
+                Bitmap bitmap = mPreprocessor.preprocessJpeg(frame.data.duplicate());
+                mClassifier.classifyFrame(bitmap, mResult);
+            } else {
+                mInput.clear();
+                mPreprocessor.preprocessYuv(frame.getY(), frame.getU(), frame.getV(),
+                        frame.width, frame.height, frame.getYRowStride(),
+                        frame.getUvRowStride(), frame.getUvPixelStride(), mInput, null);
+                mClassifier.classifyInput(mInput, mResult);
+            }
+            return true;
+        }
+
+        @Override
+        protected void sampleMemory(ReplayReport report) {
+            Runtime runtime = Runtime.getRuntime();
+            report.sampleMemory(runtime.totalMemory() - runtime.freeMemory(),
+                    Debug.getNativeHeapAllocatedSize());
+        }
+    }
+}
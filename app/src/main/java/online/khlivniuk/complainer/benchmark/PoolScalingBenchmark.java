@@ -0,0 +1,122 @@
+package online.khlivniuk.complainer.benchmark;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.util.List;
+import java.util.Locale;
+
+import online.khlivniuk.complainer.classifier.ClassifierPool;
+import online.khlivniuk.complainer.classifier.ImageClassifier;
+import online.khlivniuk.complainer.classifier.ModelDescriptor;
+
+/**
+ * Measures how classification throughput scales with the number of interpreters in a
+ * {@link ClassifierPool}, from one up to the number of cores. Every pool size gets the same
+ * number of frames per interpreter, each interpreter fed by its own thread, and the report lists
+ * frames per second and the speedup over a single interpreter.
+ */
+public class PoolScalingBenchmark implements Runnable {
+    private static final String TAG = PoolScalingBenchmark.class.getSimpleName();
+
+    private static final int WARMUP_FRAMES = 3;
+    private static final int FRAMES_PER_INTERPRETER = 20;
+
+    private final Context mContext;
+    private final ModelDescriptor mDescriptor;
+    private final int mThreadsPerInterpreter;
+    private String mReport;
+
+    /**
+     * @param threadsPerInterpreter threads each interpreter may use, 0 for the interpreter default
+     */
+    public PoolScalingBenchmark(Context context, ModelDescriptor descriptor,
+                                int threadsPerInterpreter) {
+        mContext = context.getApplicationContext();
+        mDescriptor = descriptor;
+        mThreadsPerInterpreter = threadsPerInterpreter;
+    }
+
+    /**
+     * @return the report of the last run, or null if it didn't complete
+     */
+    public String getReport() {
+        return mReport;
+    }
+
+    @Override
+    public void run() {
+        MappedByteBuffer model;
+        List<String> labels;
+        try {
+            model = ImageClassifier.loadModelFile(mContext, mDescriptor);
+            labels = ImageClassifier.loadLabelList(mContext, mDescriptor);
+        } catch (IOException e) {
+            Log.e(TAG, "Cannot load " + mDescriptor, e);
+            return;
+        }
+        int cores = Runtime.getRuntime().availableProcessors();
+        StringBuilder report = new StringBuilder(String.format(Locale.US,
+                "Pool scaling for %s, %d cores, %d threads per interpreter\n",
+                mDescriptor.getId(), cores, mThreadsPerInterpreter));
+        double baseline = 0;
+        for (int size = 1; size <= cores; size++) {
+            ClassifierPool pool = new ClassifierPool(mDescriptor, model, labels, size,
+                    mThreadsPerInterpreter);
+            try {
+                runFrames(pool, WARMUP_FRAMES);
+                long start = SystemClock.elapsedRealtimeNanos();
+                runFrames(pool, FRAMES_PER_INTERPRETER);
+                long elapsed = SystemClock.elapsedRealtimeNanos() - start;
+                double fps = size * FRAMES_PER_INTERPRETER * 1e9 / elapsed;
+                if (size == 1) {
+                    baseline = fps;
+                }
+                String line = String.format(Locale.US, "N=%d: %.2f frames/s, %.2fx\n",
+                        size, fps, fps / baseline);
+                Log.i(TAG, line.trim());
+                report.append(line);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                pool.close();
+            }
+        }
+        mReport = report.toString();
+    }
+
+    /**
+     * Classify {@code frames} frames on every interpreter of the pool at once, one thread per
+     * interpreter.
+     */
+    private static void runFrames(final ClassifierPool pool, final int frames)
+            throws InterruptedException {
+        Thread[] threads = new Thread[pool.size()];
+        for (int i = 0; i < threads.length; i++) {
+            final ByteBuffer input = pool.allocateInputBuffer();
+            // A blank frame is as expensive to classify as a real one.
+            input.position(input.limit());
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int frame = 0; frame < frames; frame++) {
+                            pool.classify(input);
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }, "PoolScalingBenchmark-" + i);
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+}
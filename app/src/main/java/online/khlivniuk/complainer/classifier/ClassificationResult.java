@@ -0,0 +1,195 @@
+package online.khlivniuk.complainer.classifier;
+
+import java.util.List;
+
+/**
+ * The best labels of a classified frame, best first, with the capture time of the frame and the
+ * time each pipeline stage spent on it. Instances are meant to be reused: the classifier
+ * overwrites the arrays in place, so steady-state classification doesn't allocate.
+ */
+public class ClassificationResult {
+    /**
+     * Stages of the pipeline timed for every frame.
+     */
+    public enum Stage {
+        /** Camera frame to model input. */
+        PREPROCESS,
+        /** Interpreter run. */
+        INFERENCE,
+        /** Selecting the best labels from the model output. */
+        POSTPROCESS
+    }
+
+    private static final int STAGE_COUNT = Stage.values().length;
+
+    private final int[] labelIds;
+    private final float[] scores;
+    /** Scratch space for quantized outputs, see {@link TopK#selectUnsigned}. */
+    final int[] rawScores;
+    private int size;
+    private List<String> labels;
+    private long timestampNs;
+    private String source;
+    private int regionX;
+    private int regionY;
+    private int regionSize;
+    private int tilesClassified;
+    private final long[] stageTimesNs = new long[STAGE_COUNT];
+
+    /**
+     * @param capacity number of labels to keep
+     */
+    public ClassificationResult(int capacity) {
+        labelIds = new int[capacity];
+        scores = new float[capacity];
+        rawScores = new int[capacity];
+    }
+
+    public int getCapacity() {
+        return labelIds.length;
+    }
+
+    /** Number of labels held, at most {@link #getCapacity()}. */
+    public int size() {
+        return size;
+    }
+
+    public int getLabelId(int rank) {
+        return labelIds[rank];
+    }
+
+    public String getLabel(int rank) {
+        return labels != null ? labels.get(labelIds[rank]) : String.valueOf(labelIds[rank]);
+    }
+
+    /** Normalized probability of the label at {@code rank}. */
+    public float getScore(int rank) {
+        return scores[rank];
+    }
+
+    /** Capture time of the classified frame, in nanoseconds, as reported by the camera. */
+    public long getTimestamp() {
+        return timestampNs;
+    }
+
+    public void setTimestamp(long timestampNs) {
+        this.timestampNs = timestampNs;
+    }
+
+    /** Id of the camera or other source the frame came from, or null. */
+    public String getSource() {
+        return source;
+    }
+
+    public void setSource(String source) {
+        this.source = source;
+    }
+
+    /**
+     * Set the region of the frame the best label was found in, for frames classified in tiles.
+     *
+     * @param size side of the square region, 0 if the frame wasn't tiled
+     * @param tiles number of tiles classified before a result was reached
+     */
+    public void setRegion(int x, int y, int size, int tiles) {
+        regionX = x;
+        regionY = y;
+        regionSize = size;
+        tilesClassified = tiles;
+    }
+
+    public int getRegionX() {
+        return regionX;
+    }
+
+    public int getRegionY() {
+        return regionY;
+    }
+
+    /** Side of the region the best label was found in, 0 if the frame wasn't tiled. */
+    public int getRegionSize() {
+        return regionSize;
+    }
+
+    /** Number of tiles classified, 0 if the frame wasn't tiled. */
+    public int getTilesClassified() {
+        return tilesClassified;
+    }
+
+    public long getStageTimeNs(Stage stage) {
+        return stageTimesNs[stage.ordinal()];
+    }
+
+    public void setStageTimeNs(Stage stage, long nanos) {
+        stageTimesNs[stage.ordinal()] = nanos;
+    }
+
+    /** Time spent on the frame by all stages together. */
+    public long getTotalTimeNs() {
+        long total = 0;
+        for (long nanos : stageTimesNs) {
+            total += nanos;
+        }
+        return total;
+    }
+
+    int[] labelIds() {
+        return labelIds;
+    }
+
+    float[] scores() {
+        return scores;
+    }
+
+    List<String> labels() {
+        return labels;
+    }
+
+    void set(int size, List<String> labels) {
+        this.size = size;
+        this.labels = labels;
+    }
+
+    /**
+     * Set the labels from arrays already sorted best first, e.g. by {@link TopK}, for
+     * classifiers that don't write into this result directly.
+     */
+    public void fill(int size, int[] labelIds, float[] scores, List<String> labels) {
+        int count = Math.min(size, this.labelIds.length);
+        System.arraycopy(labelIds, 0, this.labelIds, 0, count);
+        System.arraycopy(scores, 0, this.scores, 0, count);
+        set(count, labels);
+    }
+
+    /** Drop all labels, e.g. when classification failed. */
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * Copy another result into this one, e.g. to hand it to another thread.
+     */
+    public void copyFrom(ClassificationResult other) {
+        int count = Math.min(other.size, labelIds.length);
+        System.arraycopy(other.labelIds, 0, labelIds, 0, count);
+        System.arraycopy(other.scores, 0, scores, 0, count);
+        size = count;
+        labels = other.labels;
+        timestampNs = other.timestampNs;
+        source = other.source;
+        regionX = other.regionX;
+        regionY = other.regionY;
+        regionSize = other.regionSize;
+        tilesClassified = other.tilesClassified;
+        System.arraycopy(other.stageTimesNs, 0, stageTimesNs, 0, STAGE_COUNT);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < size; i++) {
+            builder.append(getLabel(i)).append(": ").append(scores[i]).append('\n');
+        }
+        return builder.toString();
+    }
+}
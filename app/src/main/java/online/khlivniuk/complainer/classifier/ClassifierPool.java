@@ -0,0 +1,232 @@
+package online.khlivniuk.complainer.classifier;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A fixed set of classifiers for the same model, so several frames can be classified at once.
+ * All classifiers share one memory-mapped model file and label list; each has its own
+ * interpreter, input buffer and output array.
+ *
+ * <p>Burst captures are classified on a pool, a batch per interpreter, so the frames taken for a
+ * complaint keep every core busy. Their results don't need to come back in order. The streaming
+ * pipelines share one interpreter through an
+ * {@link online.khlivniuk.complainer.pipeline.InferenceScheduler} instead, whose single consumer
+ * keeps the results of each camera in order for smoothing. {@code PoolScalingBenchmark}
+ * measures how throughput scales with the pool size on a given device.
+ */
+public class ClassifierPool {
+    private static final String TAG = ClassifierPool.class.getSimpleName();
+
+    /**
+     * Receives the results of {@link #submitBatch(List, BatchCallback)} on a pool thread.
+     */
+    public interface BatchCallback {
+        /**
+         * @param bitmaps the classified images
+         * @param results one result per image, in the same order, or null if the batch failed
+         */
+        void onBatchClassified(List<Bitmap> bitmaps, List<ClassificationResult> results);
+    }
+
+    private final ModelDescriptor mDescriptor;
+    private final List<ImageClassifier> mClassifiers;
+    private final BlockingQueue<ImageClassifier> mIdle;
+    private final ExecutorService mExecutor;
+
+    /**
+     * Load the model once and create {@code size} classifiers over it.
+     *
+     * @param context              context to load the model assets from
+     * @param descriptor           the model
+     * @param size                 number of interpreters
+     * @param threadsPerInterpreter threads each interpreter may use, 0 for the interpreter default
+     */
+    public ClassifierPool(Context context, ModelDescriptor descriptor, int size,
+                          int threadsPerInterpreter) throws IOException {
+        this(descriptor, ImageClassifier.loadModelFile(context, descriptor),
+                ImageClassifier.loadLabelList(context, descriptor), size, threadsPerInterpreter);
+    }
+
+    public ClassifierPool(ModelDescriptor descriptor, MappedByteBuffer model, List<String> labels,
+                          int size, int threadsPerInterpreter) {
+        if (size < 1) {
+            throw new IllegalArgumentException("Pool size must be positive, got " + size);
+        }
+        mDescriptor = descriptor;
+        List<ImageClassifier> classifiers = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            classifiers.add(ImageClassifier.create(descriptor, model, labels,
+                    threadsPerInterpreter));
+        }
+        mClassifiers = Collections.unmodifiableList(classifiers);
+        mIdle = new ArrayBlockingQueue<>(size, false, classifiers);
+        mExecutor = Executors.newFixedThreadPool(size, new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                return new Thread(runnable, "ClassifierPool-" + mCount.incrementAndGet());
+            }
+        });
+        Log.d(TAG, "Created " + size + " classifiers for " + descriptor.getId());
+    }
+
+    public ModelDescriptor getDescriptor() {
+        return mDescriptor;
+    }
+
+    public int size() {
+        return mClassifiers.size();
+    }
+
+    /**
+     * Allocates an input buffer in the layout of the pooled model.
+     */
+    public ByteBuffer allocateInputBuffer() {
+        return mClassifiers.get(0).allocateInputBuffer();
+    }
+
+    /**
+     * Take an idle classifier, waiting until one is released. Must be paired with
+     * {@link #release(ImageClassifier)}.
+     */
+    public ImageClassifier acquire() throws InterruptedException {
+        return mIdle.take();
+    }
+
+    public void release(ImageClassifier classifier) {
+        mIdle.offer(classifier);
+    }
+
+    /**
+     * Classify {@code input} on the calling thread with the next idle classifier. Callers on
+     * different threads run in parallel, up to the pool size.
+     *
+     * @return a new result, owned by the caller
+     */
+    public ClassificationResult classify(ByteBuffer input) throws InterruptedException {
+        ImageClassifier classifier = acquire();
+        try {
+            ClassificationResult result = classifier.createResult();
+            classifier.classifyInput(input, result);
+            return result;
+        } finally {
+            release(classifier);
+        }
+    }
+
+    /**
+     * Classify {@code input} on one of the pool threads.
+     */
+    public Future<ClassificationResult> submit(final ByteBuffer input) {
+        return mExecutor.submit(new Callable<ClassificationResult>() {
+            @Override
+            public ClassificationResult call() throws Exception {
+                return classify(input);
+            }
+        });
+    }
+
+    /**
+     * Classify {@code bitmaps} with a single run of the next idle classifier, on the calling
+     * thread, see {@link ImageClassifier#classifyBatch(List, float[][])}. The stage times of each
+     * result are its share of the batch.
+     *
+     * @param bitmaps images of the model input size
+     * @return a new result per image, in the same order, owned by the caller
+     */
+    public List<ClassificationResult> classifyBatch(List<Bitmap> bitmaps)
+            throws InterruptedException {
+        final int batchSize = bitmaps.size();
+        List<ClassificationResult> results = new ArrayList<>(batchSize);
+        if (batchSize == 0) {
+            return results;
+        }
+        ImageClassifier classifier = acquire();
+        try {
+            final int numLabels = classifier.getNumLabels();
+            // A burst is a handful of frames, allocating its scores is noise next to the run.
+            float[][] scores = new float[batchSize][numLabels];
+            long startTime = System.nanoTime();
+            classifier.classifyBatch(bitmaps, scores);
+            long inferenceEndTime = System.nanoTime();
+            for (int i = 0; i < batchSize; i++) {
+                ClassificationResult result = classifier.createResult();
+                int size = TopK.select(scores[i], numLabels, result.labelIds(), result.scores());
+                result.set(size, classifier.getLabels());
+                results.add(result);
+            }
+            long endTime = System.nanoTime();
+            for (ClassificationResult result : results) {
+                result.setStageTimeNs(ClassificationResult.Stage.INFERENCE,
+                        (inferenceEndTime - startTime) / batchSize);
+                result.setStageTimeNs(ClassificationResult.Stage.POSTPROCESS,
+                        (endTime - inferenceEndTime) / batchSize);
+            }
+            return results;
+        } finally {
+            release(classifier);
+        }
+    }
+
+    /**
+     * Classify {@code bitmaps} like {@link #classifyBatch(List)}, on one of the pool threads.
+     * Batches submitted together run on different interpreters at the same time, up to the pool
+     * size.
+     *
+     * @param bitmaps  images of the model input size, not changed until the callback is called
+     * @param callback called on the pool thread once the batch is classified
+     */
+    public void submitBatch(final List<Bitmap> bitmaps, final BatchCallback callback) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                List<ClassificationResult> results = null;
+                try {
+                    results = classifyBatch(bitmaps);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "Batch inference failed", e);
+                }
+                callback.onBatchClassified(bitmaps, results);
+            }
+        });
+    }
+
+    /**
+     * Stop the pool threads and close every interpreter, waiting for running work to finish.
+     * Work submitted but not started yet is dropped; a batch waiting for an interpreter is
+     * reported as failed.
+     */
+    public void close() {
+        mExecutor.shutdownNow();
+        for (int i = 0; i < mClassifiers.size(); i++) {
+            try {
+                acquire().close();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                Log.w(TAG, "Interrupted while closing, leaking " + (mClassifiers.size() - i)
+                        + " interpreters");
+                return;
+            }
+        }
+    }
+}
@@ -18,38 +18,27 @@ package online.khlivniuk.complainer.classifier;
 import android.content.Context;
 import android.content.res.AssetFileDescriptor;
 import android.graphics.Bitmap;
-import android.os.SystemClock;
 import android.text.SpannableString;
 import android.text.SpannableStringBuilder;
-import android.text.style.ForegroundColorSpan;
-import android.text.style.RelativeSizeSpan;
 import android.util.Log;
 
 import org.tensorflow.lite.Interpreter;
 
-import java.io.BufferedReader;
+import online.khlivniuk.complainer.metrics.PipelineMetrics;
+
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
-import java.util.AbstractMap;
-import java.util.ArrayList;
-import java.util.Comparator;
 import java.util.List;
-import java.util.Map;
-import java.util.PriorityQueue;
 
 /**
  * Classifies images with Tensorflow Lite.
  */
 public abstract class ImageClassifier {
-  // Display preferences
-  private static final float GOOD_PROB_THRESHOLD = 0.3f;
-  private static final int SMALL_COLOR = 0xffddaa88;
-
   /** Tag for the {@link Log}. */
   private static final String TAG = "TfLiteCameraDemo";
 
@@ -62,7 +51,10 @@ public abstract class ImageClassifier {
   private static final int DIM_PIXEL_SIZE = 3;
 
   /* Preallocated buffers for storing image data in. */
-  private int[] intValues = new int[getImageSizeX() * getImageSizeY()];
+  private int[] intValues;
+
+  /** The model this classifier runs. */
+  private final ModelDescriptor descriptor;
 
   /** An instance of the driver class to run model inference with Tensorflow Lite. */
   protected Interpreter tflite;
@@ -73,83 +65,281 @@ public abstract class ImageClassifier {
   /** A ByteBuffer to hold image data, to be feed into Tensorflow Lite as inputs. */
   protected ByteBuffer imgData = null;
 
-  /** multi-stage low pass filter * */
-  private float[][] filterLabelProbArray = null;
-
-  private static final int FILTER_STAGES = 3;
-  private static final float FILTER_FACTOR = 0.4f;
-
-  private PriorityQueue<Map.Entry<String, Float>> sortedLabels =
-      new PriorityQueue<>(
-          RESULTS_TO_SHOW,
-          new Comparator<Map.Entry<String, Float>>() {
-            @Override
-            public int compare(Map.Entry<String, Float> o1, Map.Entry<String, Float> o2) {
-              return (o1.getValue()).compareTo(o2.getValue());
-            }
-          });
-
-  /** Initializes an {@code ImageClassifier}. */
-  public ImageClassifier(Context activity) throws IOException {
-    tflite = new Interpreter(loadModelFile(activity));
-    labelList = loadLabelList(activity);
-    imgData =
-        ByteBuffer.allocateDirect(
-            DIM_BATCH_SIZE
-                * getImageSizeX()
-                * getImageSizeY()
-                * DIM_PIXEL_SIZE
-                * getNumBytesPerChannel());
-    imgData.order(ByteOrder.nativeOrder());
-    filterLabelProbArray = new float[FILTER_STAGES][getNumLabels()];
+  /**
+   * A ByteBuffer holding a whole batch of images for {@link #classifyBatch}, reallocated when the
+   * batch size changes.
+   */
+  private ByteBuffer batchImgData = null;
+
+  /** Batch size the interpreter input is currently sized for. */
+  private int inputBatchSize = DIM_BATCH_SIZE;
+
+  /** Where stage latencies are recorded, may be null. */
+  private PipelineMetrics metrics;
+
+  /** Result of the frames classified through the {@link SpannableStringBuilder} methods. */
+  private final ClassificationResult lastResult = new ClassificationResult(RESULTS_TO_SHOW);
+
+  /** Initializes an {@code ImageClassifier} for the model described by {@code descriptor}. */
+  public ImageClassifier(Context activity, ModelDescriptor descriptor) throws IOException {
+    this(descriptor, loadModelFile(activity, descriptor), loadLabelList(activity, descriptor), 0);
+  }
+
+  /**
+   * Initializes an {@code ImageClassifier} from a model that has already been loaded. Several
+   * classifiers can share the same memory-mapped model and label list, each with its own
+   * interpreter and buffers.
+   *
+   * @param descriptor the model
+   * @param model the model file, see {@link #loadModelFile(Context, ModelDescriptor)}
+   * @param labels the labels, see {@link #loadLabelList(Context, ModelDescriptor)}
+   * @param numThreads threads used by the interpreter, or 0 for the interpreter default
+   */
+  public ImageClassifier(
+      ModelDescriptor descriptor, MappedByteBuffer model, List<String> labels, int numThreads) {
+    this.descriptor = descriptor;
+    intValues = new int[getImageSizeX() * getImageSizeY()];
+    tflite = numThreads > 0 ? new Interpreter(model, numThreads) : new Interpreter(model);
+    labelList = labels;
+    imgData = allocateInputBuffer();
     Log.d(TAG, "Created a Tensorflow Lite Image Classifier.");
   }
 
   /** Classifies a frame from the preview stream. */
   public void classifyFrame(Bitmap bitmap, SpannableStringBuilder builder) {
-    printTopKLabels(builder);
+    convertBitmapToByteBuffer(bitmap);
+    classifyInput(builder);
+  }
 
+  /** Classifies a Bitmap of the model input size into {@code result}. */
+  public void classifyFrame(Bitmap bitmap, ClassificationResult result) {
+    convertBitmapToByteBuffer(bitmap);
+    classifyInput(imgData, result);
+  }
+
+  /**
+   * Classifies the frame that has already been written into {@link #getInputBuffer()}, e.g. by a
+   * {@code YuvToTensorConverter}.
+   */
+  public void classifyInput(SpannableStringBuilder builder) {
+    classifyInput(imgData, builder);
+  }
+
+  /**
+   * Classifies a frame already written into {@code input}, a buffer from
+   * {@link #allocateInputBuffer()}, and appends the results for display.
+   */
+  public void classifyInput(ByteBuffer input, SpannableStringBuilder builder) {
     if (tflite == null) {
       Log.e(TAG, "Image classifier has not been initialized; Skipped.");
       builder.append(new SpannableString("Uninitialized Classifier."));
+      return;
     }
-    convertBitmapToByteBuffer(bitmap);
-    // Here's where the magic happens!!!
-    long startTime = SystemClock.uptimeMillis();
-    runInference();
-    long endTime = SystemClock.uptimeMillis();
-    Log.d(TAG, "Timecost to run model inference: " + Long.toString(endTime - startTime));
-
-    // Smooth the results across frames.
-    // applyFilter();
+    lastResult.setStageTimeNs(ClassificationResult.Stage.PREPROCESS, 0);
+    classifyInput(input, lastResult);
 
     // Print the results.
-    long duration = endTime - startTime;
-    SpannableString span = new SpannableString(duration + " ms");
-    span.setSpan(new ForegroundColorSpan(android.graphics.Color.LTGRAY), 0, span.length(), 0);
-    builder.append(span);
+    ResultFormatter.appendTo(lastResult, builder);
+    ResultFormatter.appendTimings(lastResult, builder);
   }
 
-  void applyFilter() {
-    int numLabels = getNumLabels();
+  /**
+   * Classifies a frame already written into {@code input}, a buffer from
+   * {@link #allocateInputBuffer()}, and writes the best labels and the inference and
+   * postprocessing times into {@code result}. This lets several frames be prepared while another
+   * one is being classified. Like after {@link #convertBitmapToByteBuffer}, the position of the
+   * buffer must be at the end of the written frame. Doesn't allocate.
+   */
+  public void classifyInput(ByteBuffer input, ClassificationResult result) {
+    if (tflite == null) {
+      Log.e(TAG, "Image classifier has not been initialized; Skipped.");
+      result.set(0, labelList);
+      return;
+    }
+    resizeInputBatch(DIM_BATCH_SIZE);
+    long startTime = System.nanoTime();
+    runInference(input);
+    long inferenceEndTime = System.nanoTime();
+
+    result.set(
+        selectTopK(result.labelIds(), result.scores(), result.rawScores), labelList);
+    long endTime = System.nanoTime();
+    result.setStageTimeNs(ClassificationResult.Stage.INFERENCE, inferenceEndTime - startTime);
+    result.setStageTimeNs(ClassificationResult.Stage.POSTPROCESS, endTime - inferenceEndTime);
+    if (metrics != null) {
+      metrics.record(PipelineMetrics.Stage.INFERENCE, inferenceEndTime - startTime);
+      metrics.record(PipelineMetrics.Stage.TOP_K, endTime - inferenceEndTime);
+    }
+  }
 
-    // Low pass filter `labelProbArray` into the first stage of the filter.
-    for (int j = 0; j < numLabels; ++j) {
-      filterLabelProbArray[0][j] +=
-          FILTER_FACTOR * (getProbability(j) - filterLabelProbArray[0][j]);
+  /**
+   * Runs the interpreter on a blank input, so the one-time setup cost of the first run, e.g.
+   * tensor allocation, isn't paid by the first real frame. Nothing is recorded into the metrics.
+   *
+   * @param runs number of interpreter runs
+   * @return the time taken by all runs, in nanoseconds
+   */
+  public long prewarm(int runs) {
+    if (tflite == null || runs <= 0) {
+      return 0;
     }
-    // Low pass filter each stage into the next.
-    for (int i = 1; i < FILTER_STAGES; ++i) {
-      for (int j = 0; j < numLabels; ++j) {
-        filterLabelProbArray[i][j] +=
-            FILTER_FACTOR * (filterLabelProbArray[i - 1][j] - filterLabelProbArray[i][j]);
+    ByteBuffer input = allocateInputBuffer();
+    input.position(input.limit());
+    ClassificationResult result = createResult();
+    PipelineMetrics savedMetrics = metrics;
+    metrics = null;
+    long startTime = System.nanoTime();
+    try {
+      for (int i = 0; i < runs; i++) {
+        classifyInput(input, result);
       }
+    } finally {
+      metrics = savedMetrics;
+    }
+    return System.nanoTime() - startTime;
+  }
+
+  /** Record tensor fill, inference and top-K latencies into {@code metrics}, may be null. */
+  public void setMetrics(PipelineMetrics metrics) {
+    this.metrics = metrics;
+  }
+
+  /** Creates a result holder sized for the number of labels shown in the UI. */
+  public ClassificationResult createResult() {
+    return new ClassificationResult(RESULTS_TO_SHOW);
+  }
+
+  /**
+   * Classifies several images with a single interpreter run. The interpreter input is resized to
+   * the batch, which costs less per image than running the images one by one. Doesn't allocate
+   * while the batch size stays the same.
+   *
+   * <p>Like the other classify methods, this is not thread safe: use one classifier per thread,
+   * e.g. from a {@link ClassifierPool}.
+   *
+   * @param bitmaps images of the model input size
+   * @param results receives the normalized probability of every label, one row per image, at
+   *     least as many rows as images
+   */
+  public void classifyBatch(List<Bitmap> bitmaps, float[][] results) {
+    final int batchSize = bitmaps.size();
+    if (batchSize == 0) {
+      return;
+    }
+    if (tflite == null) {
+      Log.e(TAG, "Image classifier has not been initialized; Skipped.");
+      return;
+    }
+    long startTime = System.nanoTime();
+    // The interpreter takes the whole buffer, so it holds exactly one batch.
+    final int batchBytes = batchSize * getInputSizeInBytes();
+    if (batchImgData == null || batchImgData.capacity() != batchBytes) {
+      batchImgData = ByteBuffer.allocateDirect(batchBytes);
+      batchImgData.order(ByteOrder.nativeOrder());
+    }
+    batchImgData.clear();
+    for (Bitmap bitmap : bitmaps) {
+      bitmap.getPixels(
+          intValues, 0, bitmap.getWidth(), 0, 0, bitmap.getWidth(), bitmap.getHeight());
+      fillInput(intValues, getImageSizeX() * getImageSizeY(), batchImgData);
+    }
+    long fillEndTime = System.nanoTime();
+
+    resizeInputBatch(batchSize);
+    runBatchInference(batchImgData, batchSize, results);
+    if (metrics != null) {
+      metrics.record(PipelineMetrics.Stage.TENSOR_FILL, fillEndTime - startTime);
+      metrics.recordSince(PipelineMetrics.Stage.INFERENCE, fillEndTime);
+    }
+  }
+
+  /**
+   * Classifies a batch of images already written into {@code input} in the model input layout,
+   * e.g. the tiles of a frame. Like {@link #classifyInput(ByteBuffer, ClassificationResult)}, the
+   * position of the buffer must be at the end of the batch. Keeping the batch size the same from
+   * call to call avoids resizing the interpreter.
+   *
+   * @param results receives the normalized probability of every label, one row per image
+   */
+  public void classifyBatchInput(ByteBuffer input, int batchSize, float[][] results) {
+    if (tflite == null) {
+      Log.e(TAG, "Image classifier has not been initialized; Skipped.");
+      return;
     }
+    resizeInputBatch(batchSize);
+    runBatchInference(input, batchSize, results);
+  }
+
+  /** Labels of the model output, in order. */
+  public List<String> getLabels() {
+    return labelList;
+  }
 
-    // Copy the last stage filter output back to `labelProbArray`.
-    for (int j = 0; j < numLabels; ++j) {
-      setProbability(j, filterLabelProbArray[FILTER_STAGES - 1][j]);
+  /** Resizes the first dimension of the interpreter input if it differs from the current one. */
+  protected void resizeInputBatch(int batchSize) {
+    if (tflite == null || batchSize == inputBatchSize) {
+      return;
     }
+    tflite.resizeInput(
+        0, new int[] {batchSize, getImageSizeY(), getImageSizeX(), DIM_PIXEL_SIZE});
+    inputBatchSize = batchSize;
+  }
+
+  /** Allocates a buffer for the model input, with the size and byte order it requires. */
+  public ByteBuffer allocateInputBuffer() {
+    return allocateInputBuffer(DIM_BATCH_SIZE);
+  }
+
+  /** Allocates a buffer for {@code images} model inputs in a row, e.g. a batch of tiles. */
+  public ByteBuffer allocateInputBuffer(int images) {
+    ByteBuffer buffer = ByteBuffer.allocateDirect(images * getInputSizeInBytes());
+    buffer.order(ByteOrder.nativeOrder());
+    return buffer;
+  }
+
+  /** Number of bytes one model input takes. */
+  public int getInputSizeInBytes() {
+    return getImageSizeX() * getImageSizeY() * DIM_PIXEL_SIZE * getNumBytesPerChannel();
+  }
+
+  /**
+   * Returns the input buffer, rewound, for callers that fill it directly in the model's input
+   * layout.
+   */
+  public ByteBuffer getInputBuffer() {
+    imgData.rewind();
+    return imgData;
+  }
+
+  /** Get the model this classifier runs. */
+  public ModelDescriptor getDescriptor() {
+    return descriptor;
+  }
+
+  /**
+   * Whether the model takes one unsigned byte per channel instead of a float, and outputs
+   * quantized scores.
+   */
+  public boolean isQuantized() {
+    return getNumBytesPerChannel() == 1;
+  }
+
+  /**
+   * Get the value subtracted from each channel of a float input.
+   *
+   * @return
+   */
+  public float getImageMean() {
+    return descriptor.getImageMean();
+  }
+
+  /**
+   * Get the value each channel of a float input is divided by after subtracting the mean.
+   *
+   * @return
+   */
+  public float getImageStd() {
+    return descriptor.getImageStd();
   }
 
   public void setUseNNAPI(Boolean nnapi) {
@@ -163,17 +353,14 @@ public abstract class ImageClassifier {
     tflite = null;
   }
 
-  /** Reads label list from Assets. */
-  private List<String> loadLabelList(Context context) throws IOException {
-    List<String> labelList = new ArrayList<String>();
-    BufferedReader reader =
-        new BufferedReader(new InputStreamReader(context.getAssets().open(getLabelPath())));
-    String line;
-    while ((line = reader.readLine()) != null) {
-      labelList.add(line);
+  /** Reads label list from Assets, or from the directory the model was installed into. */
+  public static List<String> loadLabelList(Context context, ModelDescriptor descriptor)
+      throws IOException {
+    if (descriptor.getDirectory() != null) {
+      return LabelLoader.read(
+          new FileInputStream(new File(descriptor.getDirectory(), descriptor.getLabelPath())));
     }
-    reader.close();
-    return labelList;
+    return LabelLoader.read(context.getAssets().open(descriptor.getLabelPath()));
   }
 
   /** Writes Image data into a {@code ByteBuffer}. */
@@ -183,22 +370,32 @@ public abstract class ImageClassifier {
     }
     imgData.rewind();
     bitmap.getPixels(intValues, 0, bitmap.getWidth(), 0, 0, bitmap.getWidth(), bitmap.getHeight());
-    // Convert the image to floating point.
-    int pixel = 0;
-    long startTime = SystemClock.uptimeMillis();
-    for (int i = 0; i < getImageSizeX(); ++i) {
-      for (int j = 0; j < getImageSizeY(); ++j) {
-        final int val = intValues[pixel++];
-        addPixelValue(val);
-      }
+    // Convert the image to the input layout of the model.
+    long startTime = System.nanoTime();
+    fillInput(intValues, getImageSizeX() * getImageSizeY(), imgData);
+    if (metrics != null) {
+      metrics.recordSince(PipelineMetrics.Stage.TENSOR_FILL, startTime);
     }
-    long endTime = SystemClock.uptimeMillis();
-    Log.d(TAG, "Timecost to put values into ByteBuffer: " + Long.toString(endTime - startTime));
   }
 
-  /** Memory-map the model file in Assets. */
-  private MappedByteBuffer loadModelFile(Context context) throws IOException {
-    AssetFileDescriptor fileDescriptor = context.getAssets().openFd(getModelPath());
+  /**
+   * Memory-map the model file in Assets, or in the directory the model was installed into. The
+   * file must not be changed while it is mapped: install a new version into a new directory.
+   */
+  public static MappedByteBuffer loadModelFile(Context context, ModelDescriptor descriptor)
+      throws IOException {
+    if (descriptor.getDirectory() != null) {
+      FileInputStream inputStream =
+          new FileInputStream(new File(descriptor.getDirectory(), descriptor.getModelPath()));
+      try {
+        FileChannel fileChannel = inputStream.getChannel();
+        // The mapping stays valid after the file is closed.
+        return fileChannel.map(FileChannel.MapMode.READ_ONLY, 0, fileChannel.size());
+      } finally {
+        inputStream.close();
+      }
+    }
+    AssetFileDescriptor fileDescriptor = context.getAssets().openFd(descriptor.getModelPath());
     FileInputStream inputStream = new FileInputStream(fileDescriptor.getFileDescriptor());
     FileChannel fileChannel = inputStream.getChannel();
     long startOffset = fileDescriptor.getStartOffset();
@@ -206,34 +403,30 @@ public abstract class ImageClassifier {
     return fileChannel.map(FileChannel.MapMode.READ_ONLY, startOffset, declaredLength);
   }
 
-  /** Prints top-K labels, to be shown in UI as the results. */
-  private void printTopKLabels(SpannableStringBuilder builder) {
-    for (int i = 0; i < getNumLabels(); ++i) {
-      sortedLabels.add(new AbstractMap.SimpleEntry<>(labelList.get(i), getNormalizedProbability(i)));
-      if (sortedLabels.size() > RESULTS_TO_SHOW) {
-        sortedLabels.poll();
-      }
+  /**
+   * Create the classifier matching the data type of a model that has already been loaded, e.g.
+   * to share one memory-mapped model between several interpreters.
+   */
+  public static ImageClassifier create(ModelDescriptor descriptor, MappedByteBuffer model,
+      List<String> labels, int numThreads) {
+    switch (descriptor.getDataType()) {
+      case UINT8:
+        return new ImageClassifierQuantizedMobileNet(descriptor, model, labels, numThreads);
+      case FLOAT32:
+      default:
+        return new ImageClassifierFloatInception(descriptor, model, labels, numThreads);
     }
+  }
 
-    final int size = sortedLabels.size();
-    for (int i = 0; i < size; i++) {
-      Map.Entry<String, Float> label = sortedLabels.poll();
-      SpannableString span =
-          new SpannableString(String.format("%s: %4.2f\n", label.getKey(), label.getValue()));
-      int color;
-      // Make it white when probability larger than threshold.
-      if (label.getValue() > GOOD_PROB_THRESHOLD) {
-        color = android.graphics.Color.WHITE;
-      } else {
-        color = SMALL_COLOR;
-      }
-      // Make first item bigger.
-      if (i == size - 1) {
-        float sizeScale = (i == size - 1) ? 1.25f : 0.8f;
-        span.setSpan(new RelativeSizeSpan(sizeScale), 0, span.length(), 0);
-      }
-      span.setSpan(new ForegroundColorSpan(color), 0, span.length(), 0);
-      builder.insert(0, span);
+  /** Create the classifier matching the data type of the model. */
+  public static ImageClassifier create(Context context, ModelDescriptor descriptor)
+      throws IOException {
+    switch (descriptor.getDataType()) {
+      case UINT8:
+        return new ImageClassifierQuantizedMobileNet(context, descriptor);
+      case FLOAT32:
+      default:
+        return new ImageClassifierFloatInception(context, descriptor);
     }
   }
 
@@ -242,76 +435,87 @@ public abstract class ImageClassifier {
    *
    * @return
    */
-  protected abstract String getModelPath();
+  protected String getModelPath() {
+    return descriptor.getModelPath();
+  }
 
   /**
    * Get the name of the label file stored in Assets.
    *
    * @return
    */
-  protected abstract String getLabelPath();
+  protected String getLabelPath() {
+    return descriptor.getLabelPath();
+  }
 
   /**
    * Get the image size along the x axis.
    *
    * @return
    */
-  protected abstract int getImageSizeX();
+  public int getImageSizeX() {
+    return descriptor.getInputWidth();
+  }
 
   /**
    * Get the image size along the y axis.
    *
    * @return
    */
-  protected abstract int getImageSizeY();
+  public int getImageSizeY() {
+    return descriptor.getInputHeight();
+  }
 
   /**
    * Get the number of bytes that is used to store a single color channel value.
    *
    * @return
    */
-  protected abstract int getNumBytesPerChannel();
+  protected int getNumBytesPerChannel() {
+    return descriptor.getDataType().getNumBytes();
+  }
 
   /**
-   * Add pixelValue to byteBuffer.
+   * Write pixels into the input buffer in the layout expected by the model. Implementations
+   * convert the whole frame in one loop instead of one call per pixel.
    *
-   * @param pixelValue
+   * @param argb ARGB_8888 pixels, row by row
+   * @param count number of pixels to write
+   * @param dst input buffer, written from its current position, which is advanced past the data
    */
-  protected abstract void addPixelValue(int pixelValue);
+  protected abstract void fillInput(int[] argb, int count, ByteBuffer dst);
 
   /**
-   * Read the probability value for the specified label This is either the original value as it was
-   * read from the net's output or the updated value after the filter was applied.
+   * Run inference using the prepared input, usually {@link #imgData}. Afterwards, the result will
+   * be provided by {@link #selectTopK}.
    *
-   * @param labelIndex
-   * @return
-   */
-  protected abstract float getProbability(int labelIndex);
-
-  /**
-   * Set the probability value for the specified label.
+   * <p>This additional method is necessary, because we don't have a common base for different
+   * primitive data types.
    *
-   * @param labelIndex
-   * @param value
+   * @param input
    */
-  protected abstract void setProbability(int labelIndex, Number value);
+  protected abstract void runInference(ByteBuffer input);
 
   /**
-   * Get the normalized probability value for the specified label. This is the final value as it
-   * will be shown to the user.
+   * Run inference on a batch of {@code batchSize} images, the interpreter input has already been
+   * resized to the batch. The normalized probabilities of image {@code i} are written to
+   * {@code results[i]}.
    *
-   * @return
+   * @param input
+   * @param batchSize
+   * @param results
    */
-  protected abstract float getNormalizedProbability(int labelIndex);
+  protected abstract void runBatchInference(ByteBuffer input, int batchSize, float[][] results);
 
   /**
-   * Run inference using the prepared input in {@link #imgData}. Afterwards, the result will be
-   * provided by getProbability().
+   * Select the {@code labelIds.length} most probable labels of the last inference, best first.
    *
-   * <p>This additional method is necessary, because we don't have a common base for different
-   * primitive data types.
+   * @param labelIds receives the label ids
+   * @param scores receives the normalized probabilities
+   * @param rawScores scratch space for outputs that need normalizing
+   * @return the number of labels selected
    */
-  protected abstract void runInference();
+  protected abstract int selectTopK(int[] labelIds, float[] scores, int[] rawScores);
 
   /**
    * Get the total number of labels.
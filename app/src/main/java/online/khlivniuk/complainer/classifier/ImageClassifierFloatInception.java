@@ -18,19 +18,18 @@ package online.khlivniuk.complainer.classifier;
 import android.content.Context;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.util.List;
 
 /**
- * This classifier works with the Inception-v3 slim model.
+ * This classifier works with the Inception-v3 slim model, and any other model with float inputs
+ * and outputs.
  * It applies floating point inference rather than using a quantized model.
  */
 public class ImageClassifierFloatInception extends ImageClassifier {
 
-    /**
-     * The inception net requires additional normalization of the used input.
-     */
-    private static final int IMAGE_MEAN = 128;
-    private static final float IMAGE_STD = 128.0f;
-
     /**
      * An array to hold inference results, to be feed into Tensorflow Lite as outputs.
      * This isn't part of the super class, because we need a primitive array here.
@@ -38,68 +37,91 @@ public class ImageClassifierFloatInception extends ImageClassifier {
     private float[][] labelProbArray = null;
 
     /**
-     * Initializes an {@code ImageClassifier}.
+     * Output array of {@link #runBatchInference}, one row per image of the last batch.
+     */
+    private float[][] batchProbArray = null;
+
+    /**
+     * Normalised value of every channel byte, see {@link TensorFiller#normalizationTable}.
+     */
+    private final float[] normalizationTable;
+    private float[] inputScratch = new float[0];
+    private FloatBuffer inputFloats;
+    private ByteBuffer inputFloatsSource;
+
+    /**
+     * Initializes an {@code ImageClassifier} for the Inception-v3 model.
      *
      * @param context
      */
     public ImageClassifierFloatInception(Context context) throws IOException {
-        super(context);
-        labelProbArray = new float[1][getNumLabels()];
-    }
-
-    @Override
-    protected String getModelPath() {
-        // you can download this file from
-        // https://storage.googleapis.com/download.tensorflow.org/models/tflite/inception_v3_slim_2016_android_2017_11_10.zip
-        return "optimized_graph.lite";
+        this(context, ModelRegistry.get(ModelRegistry.INCEPTION_FLOAT));
     }
 
-    @Override
-    protected String getLabelPath() {
-        return "retrained_labels.txt";
-    }
-
-    @Override
-    protected int getImageSizeX() {
-        return 224;
-    }
-
-    @Override
-    protected int getImageSizeY() {
-        return 224;
-    }
-
-    @Override
-    protected int getNumBytesPerChannel() {
-        // a 32bit float value requires 4 bytes
-        return 4;
+    /**
+     * Initializes an {@code ImageClassifier} for a float model.
+     *
+     * @param context
+     * @param descriptor
+     */
+    public ImageClassifierFloatInception(Context context, ModelDescriptor descriptor)
+            throws IOException {
+        super(context, descriptor);
+        labelProbArray = new float[1][getNumLabels()];
+        normalizationTable = TensorFiller.normalizationTable(getImageMean(), getImageStd());
     }
 
-    @Override
-    protected void addPixelValue(int pixelValue) {
-        imgData.putFloat((((pixelValue >> 16) & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
-        imgData.putFloat((((pixelValue >> 8) & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
-        imgData.putFloat(((pixelValue & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
+    /**
+     * Initializes an {@code ImageClassifier} for a float model that has already been loaded.
+     *
+     * @param descriptor
+     * @param model
+     * @param labels
+     * @param numThreads
+     */
+    public ImageClassifierFloatInception(ModelDescriptor descriptor, MappedByteBuffer model,
+                                         List<String> labels, int numThreads) {
+        super(descriptor, model, labels, numThreads);
+        labelProbArray = new float[1][getNumLabels()];
+        normalizationTable = TensorFiller.normalizationTable(getImageMean(), getImageStd());
     }
 
     @Override
-    protected float getProbability(int labelIndex) {
-        return labelProbArray[0][labelIndex];
+    protected void fillInput(int[] argb, int count, ByteBuffer dst) {
+        if (inputScratch.length < count * 3) {
+            inputScratch = new float[count * 3];
+        }
+        if (dst != inputFloatsSource) {
+            // A float view over the whole buffer, created once per input buffer.
+            ByteBuffer whole = dst.duplicate();
+            whole.clear();
+            inputFloats = whole.order(dst.order()).asFloatBuffer();
+            inputFloatsSource = dst;
+        }
+        inputFloats.clear();
+        inputFloats.position(dst.position() / 4);
+        TensorFiller.fillFloat(argb, count, normalizationTable, inputScratch, inputFloats);
+        dst.position(dst.position() + count * 3 * 4);
     }
 
     @Override
-    protected void setProbability(int labelIndex, Number value) {
-        labelProbArray[0][labelIndex] = value.floatValue();
+    protected int selectTopK(int[] labelIds, float[] scores, int[] rawScores) {
+        return TopK.select(labelProbArray[0], getNumLabels(), labelIds, scores);
     }
 
     @Override
-    protected float getNormalizedProbability(int labelIndex) {
-        // TODO the following value isn't in [0,1] yet, but may be greater. Why?
-        return getProbability(labelIndex);
+    protected void runInference(ByteBuffer input) {
+        tflite.run(input, labelProbArray);
     }
 
     @Override
-    protected void runInference() {
-        tflite.run(imgData, labelProbArray);
+    protected void runBatchInference(ByteBuffer input, int batchSize, float[][] results) {
+        if (batchProbArray == null || batchProbArray.length != batchSize) {
+            batchProbArray = new float[batchSize][getNumLabels()];
+        }
+        tflite.run(input, batchProbArray);
+        for (int i = 0; i < batchSize; i++) {
+            System.arraycopy(batchProbArray[i], 0, results[i], 0, getNumLabels());
+        }
     }
 }
\ No newline at end of file
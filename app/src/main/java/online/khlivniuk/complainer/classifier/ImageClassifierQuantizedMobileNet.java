@@ -1,13 +1,19 @@
 package online.khlivniuk.complainer.classifier;
 
-import android.app.Activity;
+import android.content.Context;
+import android.util.Log;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.util.List;
 
 /**
- * This classifier works with the quantized MobileNet model.
+ * This classifier works with the quantized MobileNet model, and any other model with uint8 inputs
+ * and outputs.
  */
 public class ImageClassifierQuantizedMobileNet extends ImageClassifier {
+  private static final String TAG = ImageClassifierQuantizedMobileNet.class.getSimpleName();
 
   /**
    * An array to hold inference results, to be feed into Tensorflow Lite as outputs.
@@ -15,68 +21,97 @@ public class ImageClassifierQuantizedMobileNet extends ImageClassifier {
    */
   private byte[][] labelProbArray = null;
 
+  /** Output array of {@link #runBatchInference}, one row per image of the last batch. */
+  private byte[][] batchProbArray = null;
+
+  private byte[] inputScratch = new byte[0];
+
   /**
-   * Initializes an {@code ImageClassifier}.
+   * Initializes an {@code ImageClassifier} for the quantized MobileNet model.
    *
-   * @param activity
+   * @param context
    */
-  ImageClassifierQuantizedMobileNet(Activity activity) throws IOException {
-    super(activity);
-    labelProbArray = new byte[1][getNumLabels()];
+  public ImageClassifierQuantizedMobileNet(Context context) throws IOException {
+    this(context, ModelRegistry.get(ModelRegistry.MOBILENET_QUANT));
   }
 
-  @Override
-  protected String getModelPath() {
-    // you can download this file from
-    // https://storage.googleapis.com/download.tensorflow.org/models/tflite/mobilenet_v1_224_android_quant_2017_11_08.zip
-    return "mobilenet_quant_v1_224.tflite";
-  }
-
-  @Override
-  protected String getLabelPath() {
-    return "labels_mobilenet_quant_v1_224.txt";
-  }
-
-  @Override
-  protected int getImageSizeX() {
-    return 224;
-  }
-
-  @Override
-  protected int getImageSizeY() {
-    return 224;
+  /**
+   * Initializes an {@code ImageClassifier} for a quantized model.
+   *
+   * @param context
+   * @param descriptor
+   */
+  public ImageClassifierQuantizedMobileNet(Context context, ModelDescriptor descriptor)
+      throws IOException {
+    super(context, descriptor);
+    labelProbArray = new byte[1][getNumLabels()];
   }
 
-  @Override
-  protected int getNumBytesPerChannel() {
-    // the quantized model uses a single byte only
-    return 1;
+  /**
+   * Initializes an {@code ImageClassifier} for a quantized model that has already been loaded.
+   *
+   * @param descriptor
+   * @param model
+   * @param labels
+   * @param numThreads
+   */
+  public ImageClassifierQuantizedMobileNet(
+      ModelDescriptor descriptor, MappedByteBuffer model, List<String> labels, int numThreads) {
+    super(descriptor, model, labels, numThreads);
+    labelProbArray = new byte[1][getNumLabels()];
   }
 
   @Override
-  protected void addPixelValue(int pixelValue) {
-    imgData.put((byte) ((pixelValue >> 16) & 0xFF));
-    imgData.put((byte) ((pixelValue >> 8) & 0xFF));
-    imgData.put((byte) (pixelValue & 0xFF));
+  protected void fillInput(int[] argb, int count, ByteBuffer dst) {
+    if (inputScratch.length < count * 3) {
+      inputScratch = new byte[count * 3];
+    }
+    TensorFiller.fillUint8(argb, count, inputScratch, dst);
   }
 
   @Override
-  protected float getProbability(int labelIndex) {
-    return labelProbArray[0][labelIndex];
+  protected int selectTopK(int[] labelIds, float[] scores, int[] rawScores) {
+    int size = TopK.selectUnsigned(labelProbArray[0], getNumLabels(), labelIds, rawScores);
+    // Only the winners need dequantizing.
+    ModelDescriptor descriptor = getDescriptor();
+    for (int i = 0; i < size; i++) {
+      scores[i] = descriptor.dequantize(rawScores[i]);
+    }
+    return size;
   }
 
   @Override
-  protected void setProbability(int labelIndex, Number value) {
-    labelProbArray[0][labelIndex] = value.byteValue();
+  protected void runInference(ByteBuffer input) {
+    tflite.run(input, labelProbArray);
   }
 
   @Override
-  protected float getNormalizedProbability(int labelIndex) {
-    return (labelProbArray[0][labelIndex] & 0xff) / 255.0f;
+  protected void runBatchInference(ByteBuffer input, int batchSize, float[][] results) {
+    if (batchProbArray == null || batchProbArray.length != batchSize) {
+      batchProbArray = new byte[batchSize][getNumLabels()];
+    }
+    tflite.run(input, batchProbArray);
+    ModelDescriptor descriptor = getDescriptor();
+    for (int i = 0; i < batchSize; i++) {
+      for (int j = 0; j < getNumLabels(); j++) {
+        results[i][j] = descriptor.dequantize(batchProbArray[i][j] & 0xff);
+      }
+    }
   }
 
-  @Override
-  protected void runInference() {
-    tflite.run(imgData, labelProbArray);
+  /**
+   * Like {@link #classifyBatchInput(ByteBuffer, int, float[][])}, but the raw outputs are written,
+   * to be compared in the quantized domain and dequantized with
+   * {@link ModelDescriptor#dequantize(int)} only where needed.
+   *
+   * @param results receives the raw, unsigned output of every label, one row per image
+   */
+  public void classifyBatchInput(ByteBuffer input, int batchSize, byte[][] results) {
+    if (tflite == null) {
+      Log.e(TAG, "Image classifier has not been initialized; Skipped.");
+      return;
+    }
+    resizeInputBatch(batchSize);
+    tflite.run(input, results);
   }
 }
\ No newline at end of file
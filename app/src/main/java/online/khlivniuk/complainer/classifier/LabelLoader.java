@@ -0,0 +1,64 @@
+package online.khlivniuk.complainer.classifier;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reads label files: one label per line, in the order of the model output.
+ */
+public final class LabelLoader {
+
+    private LabelLoader() {
+    }
+
+    /**
+     * Read all labels from {@code in}, which is closed afterwards. The file is read in one go and
+     * split in place, rather than decoded line by line through a reader.
+     */
+    public static List<String> read(InputStream in) throws IOException {
+        byte[] data;
+        int length;
+        try {
+            // Asset streams know how much is left, so this is usually the only allocation. The
+            // spare byte lets the read that hits the end of the file find room without growing.
+            data = new byte[Math.max(in.available() + 1, 4096)];
+            length = 0;
+            int read;
+            do {
+                if (length == data.length) {
+                    data = Arrays.copyOf(data, data.length * 2);
+                }
+                read = in.read(data, length, data.length - length);
+                if (read > 0) {
+                    length += read;
+                }
+            } while (read >= 0);
+        } finally {
+            in.close();
+        }
+        List<String> labels = new ArrayList<>();
+        int start = 0;
+        for (int i = 0; i < length; i++) {
+            if (data[i] == '\n') {
+                labels.add(decode(data, start, i));
+                start = i + 1;
+            }
+        }
+        if (start < length) {
+            labels.add(decode(data, start, length));
+        }
+        return labels;
+    }
+
+    /** Decode one line, without its line break. */
+    private static String decode(byte[] data, int start, int end) {
+        if (end > start && data[end - 1] == '\r') {
+            end--;
+        }
+        return new String(data, start, end - start, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,208 @@
+package online.khlivniuk.complainer.classifier;
+
+import java.io.File;
+
+/**
+ * Describes a classification model: where to find it and the input it expects. Models are
+ * shipped in Assets, or installed later into a directory of the app storage.
+ */
+public class ModelDescriptor {
+
+    /**
+     * Data type of the model input and output tensors.
+     */
+    public enum DataType {
+        /** 32 bit floats, normalised with {@link #getImageMean()} and {@link #getImageStd()}. */
+        FLOAT32(4),
+        /**
+         * Unsigned bytes: the raw channel values in, scores quantized with
+         * {@link #getOutputScale()} and {@link #getOutputZeroPoint()} out.
+         */
+        UINT8(1);
+
+        private final int numBytes;
+
+        DataType(int numBytes) {
+            this.numBytes = numBytes;
+        }
+
+        public int getNumBytes() {
+            return numBytes;
+        }
+    }
+
+    private final String id;
+    private final String modelPath;
+    private final String labelPath;
+    private final File directory;
+    private final int inputWidth;
+    private final int inputHeight;
+    private final DataType dataType;
+    private final float imageMean;
+    private final float imageStd;
+    private final float outputScale;
+    private final int outputZeroPoint;
+
+    private ModelDescriptor(Builder builder) {
+        this.id = builder.id;
+        this.modelPath = builder.modelPath;
+        this.labelPath = builder.labelPath;
+        this.directory = builder.directory;
+        this.inputWidth = builder.inputWidth;
+        this.inputHeight = builder.inputHeight;
+        this.dataType = builder.dataType;
+        this.imageMean = builder.imageMean;
+        this.imageStd = builder.imageStd;
+        this.outputScale = builder.outputScale;
+        this.outputZeroPoint = builder.outputZeroPoint;
+    }
+
+    /** Key the model is registered under in {@link ModelRegistry}. */
+    public String getId() {
+        return id;
+    }
+
+    /** Name of the model file, in Assets or in {@link #getDirectory()}. */
+    public String getModelPath() {
+        return modelPath;
+    }
+
+    /** Name of the label file, in Assets or in {@link #getDirectory()}. */
+    public String getLabelPath() {
+        return labelPath;
+    }
+
+    /** Directory holding the model and label files, or null if they are stored in Assets. */
+    public File getDirectory() {
+        return directory;
+    }
+
+    public int getInputWidth() {
+        return inputWidth;
+    }
+
+    public int getInputHeight() {
+        return inputHeight;
+    }
+
+    public DataType getDataType() {
+        return dataType;
+    }
+
+    /** Value subtracted from each channel of a float input. */
+    public float getImageMean() {
+        return imageMean;
+    }
+
+    /** Value each channel of a float input is divided by after subtracting the mean. */
+    public float getImageStd() {
+        return imageStd;
+    }
+
+    /** Score of one step of a quantized output. */
+    public float getOutputScale() {
+        return outputScale;
+    }
+
+    /** Quantized output value of a zero score. */
+    public int getOutputZeroPoint() {
+        return outputZeroPoint;
+    }
+
+    /** The score of a raw output value, in [0, 255], of a quantized model. */
+    public float dequantize(int raw) {
+        return outputScale * (raw - outputZeroPoint);
+    }
+
+    /**
+     * The smallest raw output value of a quantized model whose score is at least {@code score},
+     * so thresholds can be checked on the raw outputs. 256 if no output value reaches it.
+     */
+    public int quantize(float score) {
+        int raw = (int) Math.ceil(score / outputScale + outputZeroPoint);
+        // Rounding may put the value one step too high.
+        if (raw > 0 && dequantize(raw - 1) >= score) {
+            raw--;
+        }
+        return Math.max(0, Math.min(256, raw));
+    }
+
+    @Override
+    public String toString() {
+        Object path = directory != null ? new File(directory, modelPath) : modelPath;
+        return id + " (" + path + ", " + inputWidth + "x" + inputHeight + " " + dataType + ")";
+    }
+
+    public static class Builder {
+        private final String id;
+        private String modelPath;
+        private String labelPath;
+        private File directory;
+        private int inputWidth = 224;
+        private int inputHeight = 224;
+        private DataType dataType = DataType.FLOAT32;
+        private float imageMean = 0f;
+        private float imageStd = 1f;
+        private float outputScale = 1f / 255f;
+        private int outputZeroPoint = 0;
+
+        public Builder(String id) {
+            this.id = id;
+        }
+
+        public Builder modelPath(String modelPath) {
+            this.modelPath = modelPath;
+            return this;
+        }
+
+        public Builder labelPath(String labelPath) {
+            this.labelPath = labelPath;
+            return this;
+        }
+
+        /**
+         * Read the model and label files from {@code directory} instead of Assets.
+         */
+        public Builder directory(File directory) {
+            this.directory = directory;
+            return this;
+        }
+
+        public Builder inputSize(int width, int height) {
+            this.inputWidth = width;
+            this.inputHeight = height;
+            return this;
+        }
+
+        public Builder dataType(DataType dataType) {
+            this.dataType = dataType;
+            return this;
+        }
+
+        public Builder normalization(float mean, float std) {
+            this.imageMean = mean;
+            this.imageStd = std;
+            return this;
+        }
+
+        /**
+         * Quantization of the output of a UINT8 model: a raw value {@code q} is the score
+         * {@code scale * (q - zeroPoint)}. Defaults to {@code q / 255}.
+         */
+        public Builder outputQuantization(float scale, int zeroPoint) {
+            if (!(scale > 0f)) {
+                throw new IllegalArgumentException("Output scale must be positive, got " + scale);
+            }
+            this.outputScale = scale;
+            this.outputZeroPoint = zeroPoint;
+            return this;
+        }
+
+        public ModelDescriptor build() {
+            if (id == null || modelPath == null || labelPath == null) {
+                throw new IllegalStateException("Model id, model path and label path are required");
+            }
+            return new ModelDescriptor(this);
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package online.khlivniuk.complainer.classifier;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Models the app can classify with, keyed by {@link ModelDescriptor#getId()}. Classifiers for
+ * them are created with {@link ImageClassifier#create}. Doesn't depend on Android, so the host
+ * benchmarks use the same descriptors.
+ */
+public final class ModelRegistry {
+    /** The retrained Inception-v3 float model. */
+    public static final String INCEPTION_FLOAT = "inception_float";
+    /** The quantized MobileNet, a quarter of the input memory and much cheaper to run. */
+    public static final String MOBILENET_QUANT = "mobilenet_quant";
+
+    public static final String DEFAULT_MODEL = INCEPTION_FLOAT;
+
+    /** Describes a model installed into a directory, see {@link #readDescriptor(File)}. */
+    public static final String DESCRIPTOR_FILE = "model.properties";
+
+    private static final Map<String, ModelDescriptor> sModels = new LinkedHashMap<>();
+
+    static {
+        // you can download this file from
+        // https://storage.googleapis.com/download.tensorflow.org/models/tflite/inception_v3_slim_2016_android_2017_11_10.zip
+        register(new ModelDescriptor.Builder(INCEPTION_FLOAT)
+                .modelPath("optimized_graph.lite")
+                .labelPath("retrained_labels.txt")
+                .inputSize(224, 224)
+                .dataType(ModelDescriptor.DataType.FLOAT32)
+                .normalization(128, 128.0f)
+                .build());
+        // you can download this file from
+        // https://storage.googleapis.com/download.tensorflow.org/models/tflite/mobilenet_v1_224_android_quant_2017_11_08.zip
+        register(new ModelDescriptor.Builder(MOBILENET_QUANT)
+                .modelPath("mobilenet_quant_v1_224.tflite")
+                .labelPath("labels_mobilenet_quant_v1_224.txt")
+                .inputSize(224, 224)
+                .dataType(ModelDescriptor.DataType.UINT8)
+                .outputQuantization(0.00390625f, 0)
+                .build());
+    }
+
+    private ModelRegistry() {
+    }
+
+    /**
+     * Add a model, replacing any model registered under the same id.
+     */
+    public static synchronized void register(ModelDescriptor descriptor) {
+        sModels.put(descriptor.getId(), descriptor);
+    }
+
+    /**
+     * @return the model registered under {@code id}, or null if there is none
+     */
+    public static synchronized ModelDescriptor get(String id) {
+        return sModels.get(id);
+    }
+
+    public static synchronized List<String> getIds() {
+        return new ArrayList<>(sModels.keySet());
+    }
+
+    /**
+     * Read the description of a model installed into {@code directory}, from its
+     * {@link #DESCRIPTOR_FILE}:
+     * <pre>
+     * id=mobilenet_quant_v2
+     * model=mobilenet_quant_v2_224.tflite
+     * labels=labels.txt
+     * width=224
+     * height=224
+     * type=UINT8
+     * mean=0
+     * std=1
+     * output_scale=0.00390625
+     * output_zero_point=0
+     * </pre>
+     * The id defaults to the name of the directory, the input to 224x224 FLOAT32 without
+     * normalization, the output quantization to the one of {@link ModelDescriptor.Builder}. The
+     * model and label files are looked up in the same directory.
+     *
+     * @throws IOException if the description can't be read, is malformed or names missing files
+     */
+    public static ModelDescriptor readDescriptor(File directory) throws IOException {
+        Properties properties = new Properties();
+        InputStream in = new FileInputStream(new File(directory, DESCRIPTOR_FILE));
+        try {
+            properties.load(in);
+        } finally {
+            in.close();
+        }
+        String model = properties.getProperty("model");
+        String labels = properties.getProperty("labels");
+        if (model == null || labels == null) {
+            throw new IOException("Model and labels are required in " + directory);
+        }
+        if (!new File(directory, model).isFile() || !new File(directory, labels).isFile()) {
+            throw new IOException("Missing " + model + " or " + labels + " in " + directory);
+        }
+        try {
+            ModelDescriptor.Builder builder =
+                    new ModelDescriptor.Builder(properties.getProperty("id", directory.getName()));
+            if (properties.getProperty("output_scale") != null) {
+                builder.outputQuantization(
+                        Float.parseFloat(properties.getProperty("output_scale")),
+                        Integer.parseInt(properties.getProperty("output_zero_point", "0")));
+            }
+            return builder
+                    .directory(directory)
+                    .modelPath(model)
+                    .labelPath(labels)
+                    .inputSize(Integer.parseInt(properties.getProperty("width", "224")),
+                            Integer.parseInt(properties.getProperty("height", "224")))
+                    .dataType(ModelDescriptor.DataType.valueOf(
+                            properties.getProperty("type", "FLOAT32").toUpperCase(Locale.US)))
+                    .normalization(Float.parseFloat(properties.getProperty("mean", "0")),
+                            Float.parseFloat(properties.getProperty("std", "1")))
+                    .build();
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Bad model description in " + directory, e);
+        }
+    }
+}
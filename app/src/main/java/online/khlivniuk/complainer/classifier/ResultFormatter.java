@@ -0,0 +1,64 @@
+package online.khlivniuk.complainer.classifier;
+
+import android.text.SpannableString;
+import android.text.SpannableStringBuilder;
+import android.text.style.ForegroundColorSpan;
+import android.text.style.RelativeSizeSpan;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Formats a {@link ClassificationResult} for display. Kept out of the classification path, so
+ * text is only built when something is going to show it.
+ */
+public final class ResultFormatter {
+    // Display preferences
+    private static final float GOOD_PROB_THRESHOLD = 0.3f;
+    private static final int SMALL_COLOR = 0xffddaa88;
+
+    private ResultFormatter() {
+    }
+
+    /** Appends the labels of {@code result}, best first, to be shown in UI. */
+    public static void appendTo(ClassificationResult result, SpannableStringBuilder builder) {
+        final int size = result.size();
+        for (int i = 0; i < size; i++) {
+            SpannableString span =
+                    new SpannableString(String.format(Locale.US, "%s: %4.2f\n",
+                            result.getLabel(i), result.getScore(i)));
+            int color;
+            // Make it white when probability larger than threshold.
+            if (result.getScore(i) > GOOD_PROB_THRESHOLD) {
+                color = android.graphics.Color.WHITE;
+            } else {
+                color = SMALL_COLOR;
+            }
+            // Make first item bigger.
+            if (i == 0) {
+                span.setSpan(new RelativeSizeSpan(1.25f), 0, span.length(), 0);
+            }
+            span.setSpan(new ForegroundColorSpan(color), 0, span.length(), 0);
+            builder.append(span);
+        }
+    }
+
+    /** Appends the time all stages spent on the frame of {@code result}. */
+    public static void appendTimings(ClassificationResult result, SpannableStringBuilder builder) {
+        SpannableString span = new SpannableString(
+                TimeUnit.NANOSECONDS.toMillis(result.getTotalTimeNs()) + " ms");
+        span.setSpan(new ForegroundColorSpan(android.graphics.Color.LTGRAY), 0, span.length(), 0);
+        builder.append(span);
+    }
+
+    /** Formats the labels and timings of {@code result}, to be shown in UI. */
+    public static CharSequence format(ClassificationResult result) {
+        SpannableStringBuilder builder = new SpannableStringBuilder();
+        if (result.getSource() != null) {
+            builder.append(result.getSource()).append('\n');
+        }
+        appendTo(result, builder);
+        appendTimings(result, builder);
+        return builder;
+    }
+}
@@ -0,0 +1,368 @@
+package online.khlivniuk.complainer.classifier;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Aggregates the results of consecutive frames into a stable decision. Only a fixed number of
+ * labels is tracked, taken from the per-frame top labels, so the cost per frame doesn't depend on
+ * the number of labels of the model. A listener is told when the dominant label changes, once
+ * the new label has stayed on top for the debounce period.
+ *
+ * <p>Not thread safe, update from a single thread.
+ */
+public class TemporalSmoother {
+
+    /**
+     * How scores of consecutive frames are combined.
+     */
+    public enum Mode {
+        /** Exponential moving average, a single low pass filter stage. */
+        EMA,
+        /** Several low pass filter stages in a row, each filtering the previous one. */
+        MULTI_STAGE,
+        /** Share of the last frames in which the label was the best one. */
+        MAJORITY
+    }
+
+    /**
+     * Receives debounced changes of the dominant label, on the thread calling
+     * {@link #update(ClassificationResult)}.
+     */
+    public interface Listener {
+        /**
+         * @param previousLabelId label dominant until now, or {@link #NO_LABEL}
+         * @param labelId         new dominant label, or {@link #NO_LABEL} if no label is above
+         *                        the minimum score any more
+         * @param label           name of the new label, or null
+         * @param score           smoothed score of the new label
+         * @param timestamp       capture time of the frame that confirmed the change
+         */
+        void onDominantLabelChanged(int previousLabelId, int labelId, String label, float score,
+                                    long timestamp);
+    }
+
+    public static final int NO_LABEL = -1;
+
+    private final Mode mode;
+    private final float factor;
+    private final int debounceFrames;
+    private final float minScore;
+
+    /** Label tracked in each slot. */
+    private final int[] trackedIds;
+    /** Filter state of each slot, the last stage is the smoothed score. */
+    private final float[][] stageScores;
+    /** Score of each slot in the current frame. */
+    private final float[] frameScores;
+    private final boolean[] seen;
+    private final int[] slotScratch;
+    private final float[] scoreScratch;
+    private int trackedCount;
+
+    /** Best label of each of the last frames, for {@link Mode#MAJORITY}. */
+    private final int[] window;
+    private int windowPos;
+
+    private List<String> labels;
+    private int dominantId = NO_LABEL;
+    private float dominantScore;
+    private int candidateId = NO_LABEL;
+    private int candidateFrames;
+    private Listener listener;
+
+    private TemporalSmoother(Builder builder) {
+        this.mode = builder.mode;
+        this.factor = builder.factor;
+        this.debounceFrames = builder.debounceFrames;
+        this.minScore = builder.minScore;
+        int slots = builder.trackedLabels;
+        int stages = mode == Mode.MULTI_STAGE ? builder.stages : 1;
+        trackedIds = new int[slots];
+        stageScores = new float[stages][slots];
+        frameScores = new float[slots];
+        seen = new boolean[slots];
+        slotScratch = new int[slots];
+        scoreScratch = new float[slots];
+        window = new int[mode == Mode.MAJORITY ? builder.windowSize : 0];
+        reset();
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    /** Forget all frames seen so far. The listener isn't notified. */
+    public void reset() {
+        trackedCount = 0;
+        for (float[] stage : stageScores) {
+            Arrays.fill(stage, 0f);
+        }
+        Arrays.fill(window, NO_LABEL);
+        windowPos = 0;
+        dominantId = NO_LABEL;
+        dominantScore = 0f;
+        candidateId = NO_LABEL;
+        candidateFrames = 0;
+    }
+
+    /**
+     * Add the result of the next frame.
+     *
+     * @return whether the dominant label changed
+     */
+    public boolean update(ClassificationResult result) {
+        if (result.labels() != null) {
+            labels = result.labels();
+        }
+        if (mode == Mode.MAJORITY) {
+            updateVotes(result);
+        } else {
+            updateFilter(result);
+        }
+
+        final float[] output = stageScores[stageScores.length - 1];
+        int bestSlot = -1;
+        for (int slot = 0; slot < trackedCount; slot++) {
+            if (bestSlot < 0 || output[slot] > output[bestSlot]) {
+                bestSlot = slot;
+            }
+        }
+        int bestId = NO_LABEL;
+        float bestScore = 0f;
+        if (bestSlot >= 0 && output[bestSlot] >= minScore) {
+            bestId = trackedIds[bestSlot];
+            bestScore = output[bestSlot];
+        }
+        return debounce(bestId, bestScore, result.getTimestamp());
+    }
+
+    private void updateFilter(ClassificationResult result) {
+        for (int slot = 0; slot < trackedCount; slot++) {
+            frameScores[slot] = 0f;
+            seen[slot] = false;
+        }
+        for (int rank = 0; rank < result.size(); rank++) {
+            markSeen(result.getLabelId(rank));
+        }
+        for (int rank = 0; rank < result.size(); rank++) {
+            int slot = slotFor(result.getLabelId(rank));
+            if (slot >= 0) {
+                frameScores[slot] = result.getScore(rank);
+            }
+        }
+        // Low pass filter the frame into the first stage, and each stage into the next one.
+        float[] previous = frameScores;
+        for (float[] stage : stageScores) {
+            for (int slot = 0; slot < trackedCount; slot++) {
+                stage[slot] += factor * (previous[slot] - stage[slot]);
+            }
+            previous = stage;
+        }
+    }
+
+    private void updateVotes(ClassificationResult result) {
+        window[windowPos] = result.size() > 0 ? result.getLabelId(0) : NO_LABEL;
+        windowPos = (windowPos + 1) % window.length;
+
+        final float[] votes = stageScores[0];
+        for (int slot = 0; slot < trackedCount; slot++) {
+            votes[slot] = 0f;
+            seen[slot] = false;
+        }
+        for (int labelId : window) {
+            markSeen(labelId);
+        }
+        final float vote = 1f / window.length;
+        for (int labelId : window) {
+            if (labelId == NO_LABEL) {
+                continue;
+            }
+            int slot = slotFor(labelId);
+            if (slot >= 0) {
+                votes[slot] += vote;
+            }
+        }
+    }
+
+    /**
+     * Mark the slot of a label of this frame as seen, if it is tracked, so that no new label of
+     * the frame takes it over, whatever their ranks.
+     */
+    private void markSeen(int labelId) {
+        for (int slot = 0; slot < trackedCount; slot++) {
+            if (trackedIds[slot] == labelId) {
+                seen[slot] = true;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Find the slot of a label seen in this frame, taking over the weakest slot not seen in this
+     * frame if the label isn't tracked yet.
+     *
+     * @return the slot, or -1 if all slots are taken by labels of this frame
+     */
+    private int slotFor(int labelId) {
+        for (int slot = 0; slot < trackedCount; slot++) {
+            if (trackedIds[slot] == labelId) {
+                seen[slot] = true;
+                return slot;
+            }
+        }
+        int slot;
+        if (trackedCount < trackedIds.length) {
+            slot = trackedCount++;
+        } else {
+            final float[] output = stageScores[stageScores.length - 1];
+            slot = -1;
+            for (int i = 0; i < trackedCount; i++) {
+                if (!seen[i] && (slot < 0 || output[i] < output[slot])) {
+                    slot = i;
+                }
+            }
+            if (slot < 0) {
+                return -1;
+            }
+        }
+        trackedIds[slot] = labelId;
+        seen[slot] = true;
+        frameScores[slot] = 0f;
+        if (mode != Mode.MAJORITY) {
+            for (float[] stage : stageScores) {
+                stage[slot] = 0f;
+            }
+        }
+        return slot;
+    }
+
+    private boolean debounce(int bestId, float bestScore, long timestamp) {
+        if (bestId == dominantId) {
+            dominantScore = bestScore;
+            candidateId = NO_LABEL;
+            candidateFrames = 0;
+            return false;
+        }
+        if (bestId != candidateId) {
+            candidateId = bestId;
+            candidateFrames = 0;
+        }
+        if (++candidateFrames < debounceFrames) {
+            return false;
+        }
+        int previousId = dominantId;
+        dominantId = bestId;
+        dominantScore = bestScore;
+        candidateId = NO_LABEL;
+        candidateFrames = 0;
+        if (listener != null) {
+            listener.onDominantLabelChanged(previousId, bestId, getDominantLabel(), bestScore,
+                    timestamp);
+        }
+        return true;
+    }
+
+    /** The debounced dominant label, or {@link #NO_LABEL}. */
+    public int getDominantLabelId() {
+        return dominantId;
+    }
+
+    public String getDominantLabel() {
+        if (dominantId == NO_LABEL) {
+            return null;
+        }
+        return labels != null ? labels.get(dominantId) : String.valueOf(dominantId);
+    }
+
+    /** Smoothed score of the dominant label in the last frame. */
+    public float getDominantScore() {
+        return dominantScore;
+    }
+
+    /**
+     * Write the tracked labels with the best smoothed scores into {@code out}, best first.
+     * Doesn't allocate.
+     */
+    public void getSmoothed(ClassificationResult out) {
+        final float[] output = stageScores[stageScores.length - 1];
+        int size = TopK.select(output, trackedCount, slotScratch, scoreScratch);
+        size = Math.min(size, out.getCapacity());
+        for (int rank = 0; rank < size; rank++) {
+            out.labelIds()[rank] = trackedIds[slotScratch[rank]];
+            out.scores()[rank] = scoreScratch[rank];
+        }
+        out.set(size, labels);
+    }
+
+    public static class Builder {
+        private Mode mode = Mode.MULTI_STAGE;
+        private float factor = 0.4f;
+        private int stages = 3;
+        private int windowSize = 5;
+        private int trackedLabels = 5;
+        private int debounceFrames = 3;
+        private float minScore = 0f;
+
+        public Builder mode(Mode mode) {
+            this.mode = mode;
+            return this;
+        }
+
+        /**
+         * Weight of the new frame in the filter modes, in (0, 1]. Lower values decay slower.
+         */
+        public Builder factor(float factor) {
+            this.factor = factor;
+            return this;
+        }
+
+        /** Number of filter stages for {@link Mode#MULTI_STAGE}. */
+        public Builder stages(int stages) {
+            this.stages = stages;
+            return this;
+        }
+
+        /** Number of frames voting in {@link Mode#MAJORITY}. */
+        public Builder windowSize(int windowSize) {
+            this.windowSize = windowSize;
+            return this;
+        }
+
+        /** Number of labels tracked at a time. */
+        public Builder trackedLabels(int trackedLabels) {
+            this.trackedLabels = trackedLabels;
+            return this;
+        }
+
+        /** Number of consecutive frames a label has to stay on top before it becomes dominant. */
+        public Builder debounceFrames(int debounceFrames) {
+            this.debounceFrames = debounceFrames;
+            return this;
+        }
+
+        /** Smoothed score a label needs to become dominant. */
+        public Builder minScore(float minScore) {
+            this.minScore = minScore;
+            return this;
+        }
+
+        public TemporalSmoother build() {
+            if (mode == null) {
+                throw new IllegalStateException("Smoothing mode is required");
+            }
+            if (!(factor > 0f && factor <= 1f)) {
+                throw new IllegalStateException("Factor must be in (0, 1], got " + factor);
+            }
+            if (stages < 1 || windowSize < 1 || trackedLabels < 1 || debounceFrames < 1) {
+                throw new IllegalStateException(
+                        "Stages, window size, tracked labels and debounce frames must be positive");
+            }
+            return new TemporalSmoother(this);
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package online.khlivniuk.complainer.classifier;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+
+/**
+ * Bulk conversion of ARGB pixels into the RGB interleaved model input. The loops write into
+ * plain arrays, which the JIT can unroll without buffer bounds checks, and copy the result into
+ * the input buffer with a single bulk put.
+ */
+public final class TensorFiller {
+    private static final int DIM_PIXEL_SIZE = 3;
+
+    private TensorFiller() {
+    }
+
+    /**
+     * Precomputes {@code (v - mean) / std} for every channel value, so the per-pixel math becomes
+     * a table lookup with exactly the same result.
+     */
+    public static float[] normalizationTable(float mean, float std) {
+        float[] table = new float[256];
+        for (int v = 0; v < table.length; ++v) {
+            table[v] = (v - mean) / std;
+        }
+        return table;
+    }
+
+    /**
+     * Writes {@code count} pixels as normalised floats.
+     *
+     * @param argb    ARGB_8888 pixels
+     * @param count   number of pixels to convert
+     * @param table   table built by {@link #normalizationTable(float, float)}
+     * @param scratch at least {@code count * 3} floats
+     * @param dst     destination, written from its current position
+     */
+    public static void fillFloat(int[] argb, int count, float[] table, float[] scratch,
+                                 FloatBuffer dst) {
+        int out = 0;
+        for (int i = 0; i < count; ++i) {
+            final int pixel = argb[i];
+            scratch[out] = table[(pixel >> 16) & 0xFF];
+            scratch[out + 1] = table[(pixel >> 8) & 0xFF];
+            scratch[out + 2] = table[pixel & 0xFF];
+            out += DIM_PIXEL_SIZE;
+        }
+        dst.put(scratch, 0, out);
+    }
+
+    /**
+     * Writes {@code count} pixels as unsigned bytes.
+     *
+     * @param argb    ARGB_8888 pixels
+     * @param count   number of pixels to convert
+     * @param scratch at least {@code count * 3} bytes
+     * @param dst     destination, written from its current position
+     */
+    public static void fillUint8(int[] argb, int count, byte[] scratch, ByteBuffer dst) {
+        int out = 0;
+        for (int i = 0; i < count; ++i) {
+            final int pixel = argb[i];
+            scratch[out] = (byte) (pixel >> 16);
+            scratch[out + 1] = (byte) (pixel >> 8);
+            scratch[out + 2] = (byte) pixel;
+            out += DIM_PIXEL_SIZE;
+        }
+        dst.put(scratch, 0, out);
+    }
+}
@@ -0,0 +1,91 @@
+package online.khlivniuk.complainer.classifier;
+
+/**
+ * Selects the highest scoring labels straight from the model output array. The winners are kept
+ * sorted in caller-provided arrays, so selection doesn't allocate or box; for the small K shown in
+ * the UI, most labels are rejected by a single comparison against the current K-th score.
+ */
+public final class TopK {
+
+    private TopK() {
+    }
+
+    /**
+     * Select the {@code ids.length} highest of the first {@code count} scores.
+     *
+     * @param scores    model output
+     * @param count     number of labels
+     * @param ids       receives the label ids, best first
+     * @param topScores receives the matching scores, at least as long as {@code ids}
+     * @return number of labels selected, {@code min(ids.length, count)} unless fewer scores
+     * than that are numbers: NaN scores are never selected
+     */
+    public static int select(float[] scores, int count, int[] ids, float[] topScores) {
+        final int k = Math.min(ids.length, count);
+        if (k == 0) {
+            return 0;
+        }
+        int size = 0;
+        for (int label = 0; label < count; ++label) {
+            final float score = scores[label];
+            if (score != score) {
+                // NaN, e.g. from a broken model, would stop the insertion below anywhere.
+                continue;
+            }
+            if (size == k) {
+                if (score <= topScores[k - 1]) {
+                    continue;
+                }
+                size--;
+            }
+            int pos = size;
+            while (pos > 0 && topScores[pos - 1] < score) {
+                topScores[pos] = topScores[pos - 1];
+                ids[pos] = ids[pos - 1];
+                pos--;
+            }
+            topScores[pos] = score;
+            ids[pos] = label;
+            size++;
+        }
+        return size;
+    }
+
+    /**
+     * Select the {@code ids.length} highest of the first {@code count} scores, read as unsigned
+     * bytes as produced by quantized models.
+     *
+     * @param scores    model output
+     * @param count     number of labels
+     * @param ids       receives the label ids, best first
+     * @param topScores receives the matching raw values in [0, 255], at least as long as
+     *                  {@code ids}
+     * @return number of labels selected, {@code min(ids.length, count)}
+     */
+    public static int selectUnsigned(byte[] scores, int count, int[] ids, int[] topScores) {
+        final int k = Math.min(ids.length, count);
+        if (k == 0) {
+            return 0;
+        }
+        int size = 0;
+        for (int label = 0; label < count; ++label) {
+            final int score = scores[label] & 0xff;
+            if (size == k) {
+                if (score <= topScores[k - 1]) {
+                    continue;
+                }
+                size--;
+            }
+            int pos = size;
+            while (pos > 0 && topScores[pos - 1] < score) {
+                topScores[pos] = topScores[pos - 1];
+                ids[pos] = ids[pos - 1];
+                pos--;
+            }
+            topScores[pos] = score;
+            ids[pos] = label;
+            size++;
+        }
+        return size;
+    }
+}
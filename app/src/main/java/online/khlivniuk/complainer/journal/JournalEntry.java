@@ -0,0 +1,89 @@
+package online.khlivniuk.complainer.journal;
+
+import java.util.Arrays;
+
+import online.khlivniuk.complainer.classifier.ClassificationResult;
+
+/**
+ * One classification result read back from the journal. Cursors reuse a single entry, copy it to
+ * keep it.
+ */
+public class JournalEntry {
+    private static final int STAGE_COUNT = ClassificationResult.Stage.values().length;
+
+    long wallTimeMs;
+    long timestampNs;
+    String source;
+    String model;
+    int size;
+    int[] labelIds = new int[0];
+    float[] scores = new float[0];
+    final int[] stageTimesUs = new int[STAGE_COUNT];
+
+    /** Wall clock time the result was journaled at, the key of the time index. */
+    public long getWallTimeMs() {
+        return wallTimeMs;
+    }
+
+    /** Capture time of the frame, as reported by its source. */
+    public long getTimestampNs() {
+        return timestampNs;
+    }
+
+    /** Id of the camera or other source, or null. */
+    public String getSource() {
+        return source;
+    }
+
+    /** Id of the model that classified the frame. */
+    public String getModel() {
+        return model;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getLabelId(int rank) {
+        return labelIds[rank];
+    }
+
+    public float getScore(int rank) {
+        return scores[rank];
+    }
+
+    /** Time spent in {@code stage}, in microseconds. */
+    public int getStageTimeUs(ClassificationResult.Stage stage) {
+        return stageTimesUs[stage.ordinal()];
+    }
+
+    void ensureCapacity(int count) {
+        if (labelIds.length < count) {
+            labelIds = new int[count];
+            scores = new float[count];
+        }
+    }
+
+    public JournalEntry copy() {
+        JournalEntry copy = new JournalEntry();
+        copy.wallTimeMs = wallTimeMs;
+        copy.timestampNs = timestampNs;
+        copy.source = source;
+        copy.model = model;
+        copy.size = size;
+        copy.labelIds = Arrays.copyOf(labelIds, size);
+        copy.scores = Arrays.copyOf(scores, size);
+        System.arraycopy(stageTimesUs, 0, copy.stageTimesUs, 0, STAGE_COUNT);
+        return copy;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append(wallTimeMs).append(' ').append(source).append(' ').append(model);
+        for (int i = 0; i < size; i++) {
+            builder.append(' ').append(labelIds[i]).append(':').append(scores[i]);
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,260 @@
+package online.khlivniuk.complainer.journal;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads the segments written by a {@link ResultJournal}, by wall clock time range. Each segment
+ * gets a sparse index, the file offset of every {@value #INDEX_INTERVAL}th record with its time,
+ * built on first use and extended as the segment grows; a scan skips whole segments by their
+ * first and last time and binary searches the index of the others, so it only touches the
+ * records in range.
+ *
+ * <p>Results are expected in time order, which holds as long as the wall clock doesn't go
+ * backwards. Not thread safe, use a reader per thread. Records of the segment being written
+ * show up once the writer's pages are visible, immediately within the same process.
+ */
+public class JournalReader {
+    private static final int INDEX_INTERVAL = 64;
+
+    /**
+     * Visits the entries of a scan, in order. The entry is reused for the next one.
+     */
+    public interface Visitor {
+        /**
+         * @return false to stop the scan
+         */
+        boolean visit(JournalEntry entry);
+    }
+
+    /**
+     * The mapping and index of a segment.
+     */
+    private static class Segment {
+        final MappedByteBuffer data;
+        /** Time and offset of every {@link #INDEX_INTERVAL}th record. */
+        long[] times = new long[16];
+        int[] offsets = new int[16];
+        int indexSize;
+        /** End of the records indexed so far. */
+        int end = ResultJournal.HEADER_SIZE;
+        int records;
+        long firstTime = Long.MAX_VALUE;
+        long lastTime = Long.MIN_VALUE;
+
+        Segment(MappedByteBuffer data) {
+            this.data = data;
+        }
+    }
+
+    private final File directory;
+    private final Map<File, Segment> segments = new HashMap<>();
+    private final JournalEntry entry = new JournalEntry();
+
+    public JournalReader(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Visit every entry with a wall clock time in {@code [fromMs, toMs]}, oldest first.
+     *
+     * @return number of entries visited
+     */
+    public int scan(long fromMs, long toMs, Visitor visitor) throws IOException {
+        int visited = 0;
+        for (File file : ResultJournal.listSegments(directory)) {
+            Segment segment = open(file);
+            if (segment == null) {
+                continue;
+            }
+            index(segment);
+            if (segment.records == 0 || segment.lastTime < fromMs
+                    || segment.firstTime > toMs) {
+                continue;
+            }
+            int offset = seek(segment, fromMs);
+            while (offset < segment.end) {
+                int next = read(segment.data, offset, entry);
+                if (next < 0) {
+                    break;
+                }
+                offset = next;
+                if (entry.wallTimeMs < fromMs) {
+                    continue;
+                }
+                if (entry.wallTimeMs > toMs) {
+                    break;
+                }
+                visited++;
+                if (!visitor.visit(entry)) {
+                    return visited;
+                }
+            }
+        }
+        return visited;
+    }
+
+    /**
+     * The entries in {@code [fromMs, toMs]}, copied.
+     */
+    public List<JournalEntry> read(long fromMs, long toMs) throws IOException {
+        final List<JournalEntry> entries = new ArrayList<>();
+        scan(fromMs, toMs, new Visitor() {
+            @Override
+            public boolean visit(JournalEntry entry) {
+                entries.add(entry.copy());
+                return true;
+            }
+        });
+        return entries;
+    }
+
+    /**
+     * Forget segments that have been deleted by the writer.
+     */
+    public void refresh() {
+        segments.keySet().retainAll(Arrays.asList(ResultJournal.listSegments(directory)));
+    }
+
+    private Segment open(File file) throws IOException {
+        Segment segment = segments.get(file);
+        if (segment != null) {
+            return segment;
+        }
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            MappedByteBuffer data = in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0,
+                    in.length());
+            data.order(ByteOrder.LITTLE_ENDIAN);
+            if (data.limit() < ResultJournal.HEADER_SIZE || data.getInt(0) != ResultJournal.MAGIC
+                    || data.getShort(4) != ResultJournal.VERSION) {
+                return null;
+            }
+            segment = new Segment(data);
+        } finally {
+            in.close();
+        }
+        segments.put(file, segment);
+        return segment;
+    }
+
+    /**
+     * Index the records appended since the last call.
+     */
+    private static void index(Segment segment) {
+        final MappedByteBuffer data = segment.data;
+        int offset = segment.end;
+        while (true) {
+            int length = recordLength(data, offset);
+            if (length <= 0) {
+                break;
+            }
+            long time = data.getLong(offset + 4);
+            if (segment.records % INDEX_INTERVAL == 0) {
+                if (segment.indexSize == segment.times.length) {
+                    segment.times = Arrays.copyOf(segment.times, segment.indexSize * 2);
+                    segment.offsets = Arrays.copyOf(segment.offsets, segment.indexSize * 2);
+                }
+                segment.times[segment.indexSize] = time;
+                segment.offsets[segment.indexSize] = offset;
+                segment.indexSize++;
+            }
+            segment.firstTime = Math.min(segment.firstTime, time);
+            segment.lastTime = Math.max(segment.lastTime, time);
+            segment.records++;
+            offset += 4 + length;
+        }
+        segment.end = offset;
+    }
+
+    /**
+     * Offset of the last indexed record before {@code fromMs}, where a scan from that time
+     * starts.
+     */
+    private static int seek(Segment segment, long fromMs) {
+        int low = 0;
+        int high = segment.indexSize - 1;
+        int found = 0;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (segment.times[mid] < fromMs) {
+                found = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return segment.offsets[found];
+    }
+
+    /**
+     * Length of the record at {@code offset}, 0 at the end of the records and -1 if the record
+     * doesn't fit the segment.
+     */
+    private static int recordLength(MappedByteBuffer data, int offset) {
+        if (offset + 4 > data.limit()) {
+            return 0;
+        }
+        int length = data.getInt(offset);
+        if (length < 0 || offset + 4 + length > data.limit()) {
+            return -1;
+        }
+        return length;
+    }
+
+    /**
+     * Decode the record at {@code offset} into {@code entry}.
+     *
+     * @return offset of the next record, or -1 if there is no valid record at {@code offset}
+     */
+    private static int read(MappedByteBuffer data, int offset, JournalEntry entry) {
+        int length = recordLength(data, offset);
+        if (length <= 0) {
+            return -1;
+        }
+        int end = offset + 4 + length;
+        int position = offset + 4;
+        entry.wallTimeMs = data.getLong(position);
+        entry.timestampNs = data.getLong(position + 8);
+        position += 16;
+        int sourceLength = data.get(position++) & 0xff;
+        entry.source = sourceLength > 0 ? decode(data, position, sourceLength) : null;
+        position += sourceLength;
+        int modelLength = data.get(position++) & 0xff;
+        entry.model = decode(data, position, modelLength);
+        position += modelLength;
+        int labels = data.get(position++) & 0xff;
+        entry.ensureCapacity(labels);
+        for (int i = 0; i < labels; i++) {
+            entry.labelIds[i] = data.getInt(position);
+            entry.scores[i] = data.getFloat(position + 4);
+            position += 8;
+        }
+        entry.size = labels;
+        int stages = data.get(position++) & 0xff;
+        for (int i = 0; i < stages; i++) {
+            if (i < entry.stageTimesUs.length) {
+                entry.stageTimesUs[i] = data.getInt(position);
+            }
+            position += 4;
+        }
+        return position <= end ? end : -1;
+    }
+
+    private static String decode(MappedByteBuffer data, int offset, int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = data.get(offset + i);
+        }
+        return new String(bytes, ResultJournal.UTF_8);
+    }
+}
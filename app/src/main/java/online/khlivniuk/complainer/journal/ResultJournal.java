@@ -0,0 +1,234 @@
+package online.khlivniuk.complainer.journal;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import online.khlivniuk.complainer.classifier.ClassificationResult;
+
+/**
+ * Append-only binary log of classification results, written into memory-mapped segment files of
+ * a fixed size. Appending is a few dozen bytes copied into the mapping, without a system call or
+ * an allocation, so thousands of results per second cost next to nothing; the kernel writes the
+ * pages back in the background. When a segment is full the next one is created, and the oldest
+ * ones are deleted beyond the configured count.
+ *
+ * <p>A segment starts with a header, {@code magic, version, reserved, creation time}, followed
+ * by records, little endian:
+ * <pre>
+ * int   length of the rest of the record
+ * long  wall clock time, ms
+ * long  capture timestamp, ns
+ * byte  source id length, UTF-8 source id
+ * byte  model id length, UTF-8 model id
+ * byte  label count, then per label: int id, float score
+ * byte  stage count, then per stage: int time in us
+ * </pre>
+ * The length is written last, so a record torn by a crash reads as the end of the segment.
+ * Segments are read back with a {@link JournalReader}.
+ *
+ * <p>Thread safe.
+ */
+public class ResultJournal implements Closeable {
+    static final int MAGIC = 0x4c4e4a52;
+    static final short VERSION = 1;
+    static final int HEADER_SIZE = 16;
+    static final String SUFFIX = ".journal";
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int MAX_ID_LENGTH = 255;
+    private static final int MAX_LABELS = 255;
+    private static final ClassificationResult.Stage[] STAGES = ClassificationResult.Stage.values();
+    /** The longest record, with its length: ids and labels at their limits. */
+    static final int MAX_RECORD_SIZE = 4 + 8 + 8 + 1 + MAX_ID_LENGTH + 1 + MAX_ID_LENGTH
+            + 1 + MAX_LABELS * 8 + 1 + STAGES.length * 4;
+    /** Smallest segment accepted, so that any record fits into an empty one. */
+    static final int MIN_SEGMENT_SIZE = HEADER_SIZE + MAX_RECORD_SIZE;
+
+    private final File directory;
+    private final int segmentSize;
+    private final int maxSegments;
+    /** Encoded source and model ids, there are only a handful of them. */
+    private final Map<String, byte[]> encodedIds = new HashMap<>();
+    private int sequence;
+    private RandomAccessFile file;
+    private MappedByteBuffer segment;
+    private long appended;
+    private boolean closed;
+
+    /**
+     * Open the journal in {@code directory}, creating it if needed. Appends go to a new segment
+     * after the existing ones.
+     *
+     * @param segmentSize bytes per segment file, at least {@link #MIN_SEGMENT_SIZE}
+     * @param maxSegments segments kept, the oldest ones are deleted
+     */
+    public ResultJournal(File directory, int segmentSize, int maxSegments) throws IOException {
+        if (segmentSize < MIN_SEGMENT_SIZE || maxSegments < 1) {
+            throw new IllegalArgumentException("Segments must hold the longest record, "
+                    + MIN_SEGMENT_SIZE + " bytes, and at least one must be kept, got "
+                    + segmentSize + " bytes and " + maxSegments);
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxSegments = maxSegments;
+        File[] segments = listSegments(directory);
+        sequence = segments.length > 0 ? sequenceOf(segments[segments.length - 1]) : 0;
+        openNextSegment();
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    /** Number of results appended since the journal was opened. */
+    public synchronized long getAppended() {
+        return appended;
+    }
+
+    /**
+     * Append a result.
+     *
+     * @param result     labels, capture time, source and stage times
+     * @param model      id of the model that classified the frame
+     * @param wallTimeMs wall clock time, the key of the time index; should not go backwards
+     * @return false if the journal is closed
+     * @throws IOException if a new segment can't be created
+     */
+    public synchronized boolean append(ClassificationResult result, String model,
+                                       long wallTimeMs) throws IOException {
+        if (closed) {
+            return false;
+        }
+        byte[] source = encode(result.getSource());
+        byte[] modelId = encode(model);
+        int labels = Math.min(result.size(), MAX_LABELS);
+        int length = 8 + 8 + 1 + source.length + 1 + modelId.length
+                + 1 + labels * 8 + 1 + STAGES.length * 4;
+        if (segment.remaining() < 4 + length) {
+            openNextSegment();
+        }
+        MappedByteBuffer out = segment;
+        final int start = out.position();
+        out.position(start + 4);
+        out.putLong(wallTimeMs);
+        out.putLong(result.getTimestamp());
+        out.put((byte) source.length);
+        out.put(source);
+        out.put((byte) modelId.length);
+        out.put(modelId);
+        out.put((byte) labels);
+        for (int i = 0; i < labels; i++) {
+            out.putInt(result.getLabelId(i));
+            out.putFloat(result.getScore(i));
+        }
+        out.put((byte) STAGES.length);
+        for (ClassificationResult.Stage stage : STAGES) {
+            out.putInt((int) Math.min(Integer.MAX_VALUE, result.getStageTimeNs(stage) / 1000));
+        }
+        // Publish the record.
+        out.putInt(start, length);
+        appended++;
+        return true;
+    }
+
+    /**
+     * Write the appended results to storage now instead of leaving it to the kernel.
+     */
+    public synchronized void flush() {
+        if (!closed) {
+            segment.force();
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        segment.force();
+        file.close();
+        segment = null;
+    }
+
+    private byte[] encode(String id) {
+        if (id == null) {
+            id = "";
+        }
+        byte[] bytes = encodedIds.get(id);
+        if (bytes == null) {
+            bytes = id.getBytes(UTF_8);
+            if (bytes.length > MAX_ID_LENGTH) {
+                bytes = Arrays.copyOf(bytes, MAX_ID_LENGTH);
+            }
+            encodedIds.put(id, bytes);
+        }
+        return bytes;
+    }
+
+    private void openNextSegment() throws IOException {
+        if (file != null) {
+            segment.force();
+            file.close();
+        }
+        sequence++;
+        File next = new File(directory, String.format(Locale.US, "%010d%s", sequence, SUFFIX));
+        file = new RandomAccessFile(next, "rw");
+        file.setLength(segmentSize);
+        segment = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        segment.order(ByteOrder.LITTLE_ENDIAN);
+        segment.putInt(MAGIC);
+        segment.putShort(VERSION);
+        segment.putShort((short) 0);
+        segment.putLong(System.currentTimeMillis());
+        deleteOldSegments();
+    }
+
+    private void deleteOldSegments() {
+        File[] segments = listSegments(directory);
+        for (int i = 0; i < segments.length - maxSegments; i++) {
+            if (!segments[i].delete()) {
+                break;
+            }
+        }
+    }
+
+    /** Segment files in {@code directory}, oldest first. */
+    static File[] listSegments(File directory) {
+        File[] segments = directory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(SUFFIX);
+            }
+        });
+        if (segments == null) {
+            return new File[0];
+        }
+        // Names are zero padded sequence numbers.
+        Arrays.sort(segments);
+        return segments;
+    }
+
+    private static int sequenceOf(File segment) {
+        String name = segment.getName();
+        try {
+            return Integer.parseInt(name.substring(0, name.length() - SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package online.khlivniuk.complainer.metrics;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency histograms for every stage of the capture to publish pipeline, and frame counters.
+ * Stages record themselves with {@link #record(Stage, long)}; the whole set can be dumped as text
+ * at any time. Recording is lock free and doesn't allocate.
+ */
+public class PipelineMetrics {
+
+    /**
+     * Timed stages, in pipeline order.
+     */
+    public enum Stage {
+        /** Capture request triggered until {@code onCaptureCompleted}, for single shots. */
+        CAPTURE,
+        /** JPEG frame decoded into a Bitmap. */
+        JPEG_DECODE,
+        /** Bitmap frame cropped and scaled to the model input size. */
+        CROP_SCALE,
+        /** Pixels written into the model input. */
+        TENSOR_FILL,
+        /**
+         * YUV frame converted straight into the model input; colour conversion, crop, scale and
+         * tensor fill are done in a single pass.
+         */
+        YUV_CONVERT,
+        /** Model input waiting for the interpreter, which is shared by all capture pipelines. */
+        QUEUE,
+        /** Interpreter run. */
+        INFERENCE,
+        /** Best labels selected from the model output. */
+        TOP_K,
+        /** Result handed to the listener on the main thread. */
+        DISPATCH
+    }
+
+    /**
+     * Frame counters.
+     */
+    public enum Counter {
+        /** Frames delivered by the camera. */
+        FRAMES_CAPTURED,
+        /** Frames dropped by rate limiting or because a newer frame replaced them. */
+        FRAMES_DROPPED,
+        /** Frames not classified because the scene hadn't changed. */
+        FRAMES_SKIPPED,
+        /**
+         * Frames that found every inference frame in use; they replace the frame waiting for
+         * inference, or are dropped or offered again.
+         */
+        POOL_EXHAUSTED,
+        /** Frames run through the classifier. */
+        FRAMES_CLASSIFIED,
+        /** Results handed to the listener. */
+        FRAMES_PUBLISHED
+    }
+
+    private static final Stage[] STAGES = Stage.values();
+    private static final Counter[] COUNTERS = Counter.values();
+
+    private final LatencyHistogram[] histograms = new LatencyHistogram[STAGES.length];
+    private final AtomicLongArray counters = new AtomicLongArray(COUNTERS.length);
+    private volatile long startTimeNs = System.nanoTime();
+
+    public PipelineMetrics() {
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new LatencyHistogram();
+        }
+    }
+
+    /** Record how long one frame spent in {@code stage}. */
+    public void record(Stage stage, long nanos) {
+        histograms[stage.ordinal()].record(nanos);
+    }
+
+    /** Record the time since {@code startNs}, a value of {@link System#nanoTime()}. */
+    public void recordSince(Stage stage, long startNs) {
+        record(stage, System.nanoTime() - startNs);
+    }
+
+    public void increment(Counter counter) {
+        counters.incrementAndGet(counter.ordinal());
+    }
+
+    public long get(Counter counter) {
+        return counters.get(counter.ordinal());
+    }
+
+    public LatencyHistogram getHistogram(Stage stage) {
+        return histograms[stage.ordinal()];
+    }
+
+    /** Clear all histograms and counters. */
+    public void reset() {
+        for (LatencyHistogram histogram : histograms) {
+            histogram.reset();
+        }
+        for (int i = 0; i < COUNTERS.length; i++) {
+            counters.set(i, 0);
+        }
+        startTimeNs = System.nanoTime();
+    }
+
+    /**
+     * Write the counters and the count, p50, p99 and max of every stage that has been recorded,
+     * latencies in milliseconds.
+     */
+    public void dump(PrintWriter writer) {
+        long elapsedNs = System.nanoTime() - startTimeNs;
+        writer.println(String.format(Locale.US, "Pipeline metrics over %.1f s",
+                elapsedNs / 1e9));
+        for (Counter counter : COUNTERS) {
+            writer.println(String.format(Locale.US, "  %-18s %d", counter, get(counter)));
+        }
+        writer.println(String.format(Locale.US, "  %-18s %8s %9s %9s %9s",
+                "stage", "count", "p50 ms", "p99 ms", "max ms"));
+        for (Stage stage : STAGES) {
+            LatencyHistogram histogram = getHistogram(stage);
+            if (histogram.getCount() == 0) {
+                continue;
+            }
+            writer.println(String.format(Locale.US, "  %-18s %8d %9.3f %9.3f %9.3f",
+                    stage, histogram.getCount(),
+                    histogram.getPercentile(50) / 1e6,
+                    histogram.getPercentile(99) / 1e6,
+                    histogram.getMax() / 1e6));
+        }
+        writer.flush();
+    }
+
+    @Override
+    public String toString() {
+        StringWriter out = new StringWriter();
+        dump(new PrintWriter(out));
+        return out.toString();
+    }
+}
@@ -0,0 +1,100 @@
+package online.khlivniuk.complainer.metrics;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * When each step of startup was reached, from the start of the service and from device boot.
+ * Each milestone is recorded once, the first time it is reached; marking is lock free and may be
+ * done from any thread.
+ */
+public class StartupMetrics {
+
+    /**
+     * Startup steps, roughly in the order they are reached. The camera and the model are set up
+     * in parallel.
+     */
+    public enum Milestone {
+        /** Capture pipelines opened, cameras included. */
+        PIPELINES_OPENED,
+        /** Label list read. */
+        LABELS_LOADED,
+        /** Model file memory-mapped. */
+        MODEL_MAPPED,
+        /** Interpreter created for the model. */
+        INTERPRETER_CREATED,
+        /** Interpreter run once on a blank input, so the first frame doesn't pay for its setup. */
+        PREWARMED,
+        /** Capture pipelines bound to the classifier, frames can be classified. */
+        READY,
+        /** First frame classified. */
+        FIRST_RESULT
+    }
+
+    private static final Milestone[] MILESTONES = Milestone.values();
+
+    private final long startNs;
+    private final long startSinceBootMs;
+    /** Nanoseconds from the start to each milestone, 0 while it hasn't been reached. */
+    private final AtomicLongArray reached = new AtomicLongArray(MILESTONES.length);
+
+    /**
+     * Start timing now.
+     *
+     * @param sinceBootMs time since device boot, e.g. {@code SystemClock.elapsedRealtime()}
+     */
+    public StartupMetrics(long sinceBootMs) {
+        startNs = System.nanoTime();
+        startSinceBootMs = sinceBootMs;
+    }
+
+    /**
+     * Record that {@code milestone} has been reached, unless it was already.
+     *
+     * @return true if this was the first time
+     */
+    public boolean mark(Milestone milestone) {
+        long elapsed = Math.max(1, System.nanoTime() - startNs);
+        return reached.compareAndSet(milestone.ordinal(), 0, elapsed);
+    }
+
+    public boolean isReached(Milestone milestone) {
+        return reached.get(milestone.ordinal()) != 0;
+    }
+
+    /** Milliseconds from the start to {@code milestone}, -1 if it hasn't been reached. */
+    public long getSinceStartMs(Milestone milestone) {
+        long elapsed = reached.get(milestone.ordinal());
+        return elapsed == 0 ? -1 : elapsed / 1000000;
+    }
+
+    /** Milliseconds from device boot to {@code milestone}, -1 if it hasn't been reached. */
+    public long getSinceBootMs(Milestone milestone) {
+        long sinceStart = getSinceStartMs(milestone);
+        return sinceStart < 0 ? -1 : startSinceBootMs + sinceStart;
+    }
+
+    /**
+     * Write the milestones reached so far, in milliseconds since the start and since boot.
+     */
+    public void dump(PrintWriter writer) {
+        writer.println(String.format(Locale.US, "Startup, %d ms after boot", startSinceBootMs));
+        for (Milestone milestone : MILESTONES) {
+            if (!isReached(milestone)) {
+                continue;
+            }
+            writer.println(String.format(Locale.US, "  %-20s %8d ms %10d ms since boot",
+                    milestone, getSinceStartMs(milestone), getSinceBootMs(milestone)));
+        }
+        writer.flush();
+    }
+
+    @Override
+    public String toString() {
+        StringWriter out = new StringWriter();
+        dump(new PrintWriter(out));
+        return out.toString();
+    }
+}
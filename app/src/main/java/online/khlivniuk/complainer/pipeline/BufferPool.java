@@ -0,0 +1,170 @@
+package online.khlivniuk.complainer.pipeline;
+
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A fixed number of large buffers, e.g. {@link InferenceFrame}s, allocated up front and recycled,
+ * so a running pipeline doesn't allocate them or churn the garbage collector.
+ *
+ * <p>A buffer is taken with {@link #acquire()}, with a reference count of one. A stage that keeps
+ * using it after handing it on, e.g. to write it to disk, takes another reference with
+ * {@link Buffer#retain()}; every reference is given back with {@link Buffer#release()}, and the
+ * buffer returns to the pool when the last one is. {@link #acquire()} never blocks or allocates:
+ * when every buffer is in use it returns null and counts the pool as exhausted, and the caller
+ * drops its frame.
+ *
+ * <p>Thread safe, lock free but for the free list.
+ *
+ * @param <T> type of the buffers
+ */
+public class BufferPool<T extends BufferPool.Buffer> {
+
+    /**
+     * Base class of pooled buffers, holding the reference count.
+     */
+    public abstract static class Buffer {
+        private final AtomicInteger refCount = new AtomicInteger();
+        private BufferPool<?> pool;
+
+        /**
+         * Take another reference to an acquired buffer.
+         *
+         * @throws IllegalStateException if the buffer is back in its pool
+         */
+        public final void retain() {
+            int count;
+            do {
+                count = refCount.get();
+                if (count <= 0) {
+                    throw new IllegalStateException("Buffer isn't acquired");
+                }
+            } while (!refCount.compareAndSet(count, count + 1));
+        }
+
+        /**
+         * Give back a reference; the last one returns the buffer to its pool. The buffer must not
+         * be used afterwards.
+         *
+         * @throws IllegalStateException if the buffer is back in its pool already
+         */
+        public final void release() {
+            int count;
+            do {
+                count = refCount.get();
+                if (count <= 0) {
+                    throw new IllegalStateException("Buffer released more often than acquired");
+                }
+            } while (!refCount.compareAndSet(count, count - 1));
+            if (count == 1 && pool != null) {
+                pool.recycle(this);
+            }
+        }
+
+        /** Number of references held, 0 while the buffer is in its pool. */
+        public final int getRefCount() {
+            return refCount.get();
+        }
+    }
+
+    /**
+     * Creates the buffers of a pool.
+     */
+    public interface Factory<T> {
+        T create();
+    }
+
+    private final String name;
+    private final int capacity;
+    private final BlockingQueue<T> free;
+    private final AtomicLong acquired = new AtomicLong();
+    private final AtomicLong exhausted = new AtomicLong();
+    private final AtomicInteger peakInUse = new AtomicInteger();
+
+    /**
+     * Create the pool and all of its buffers.
+     *
+     * @param name     shown in {@link #toString()}
+     * @param capacity number of buffers
+     * @param factory  creates each buffer
+     */
+    public BufferPool(String name, int capacity, Factory<T> factory) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive, got " + capacity);
+        }
+        this.name = name;
+        this.capacity = capacity;
+        free = new ArrayBlockingQueue<>(capacity);
+        for (int i = 0; i < capacity; i++) {
+            T buffer = factory.create();
+            Buffer base = buffer;
+            if (base.pool != null) {
+                throw new IllegalArgumentException("Buffer belongs to another pool");
+            }
+            base.pool = this;
+            free.offer(buffer);
+        }
+    }
+
+    /**
+     * Take a free buffer, with a reference count of one.
+     *
+     * @return the buffer, or null if all are in use
+     */
+    public T acquire() {
+        T buffer = free.poll();
+        if (buffer == null) {
+            exhausted.incrementAndGet();
+            return null;
+        }
+        ((Buffer) buffer).refCount.set(1);
+        acquired.incrementAndGet();
+        int inUse = getInUse();
+        int peak;
+        do {
+            peak = peakInUse.get();
+        } while (inUse > peak && !peakInUse.compareAndSet(peak, inUse));
+        return buffer;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void recycle(Buffer buffer) {
+        free.offer((T) buffer);
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /** Number of buffers currently acquired. */
+    public int getInUse() {
+        return capacity - free.size();
+    }
+
+    /** Highest number of buffers acquired at the same time. */
+    public int getPeakInUse() {
+        return peakInUse.get();
+    }
+
+    /** Number of successful {@link #acquire()} calls. */
+    public long getAcquired() {
+        return acquired.get();
+    }
+
+    /** Number of {@link #acquire()} calls that found every buffer in use. */
+    public long getExhausted() {
+        return exhausted.get();
+    }
+
+    @Override
+    public String toString() {
+        long attempts = acquired.get() + exhausted.get();
+        return String.format(Locale.US,
+                "%s: %d/%d in use, peak %d, %d acquired, %d exhausted (%.1f%%)", name,
+                getInUse(), capacity, getPeakInUse(), acquired.get(), exhausted.get(),
+                attempts == 0 ? 0f : 100f * exhausted.get() / attempts);
+    }
+}
@@ -0,0 +1,159 @@
+package online.khlivniuk.complainer.pipeline;
+
+import java.util.List;
+
+/**
+ * Decides how many frames per second a capture pipeline should take. The rate jumps to the
+ * maximum as soon as something happens, a changing scene or a new dominant label, stays there
+ * while activity keeps coming, and decays towards the minimum once things are quiet again. On top
+ * of that the rate is cut when frames wait too long for the interpreter, and
+ * {@link #fitBudget(List, float)} keeps all pipelines together within a share of the
+ * interpreter's time.
+ *
+ * <p>Thread safe: results are reported from the inference thread, the rate is updated from the
+ * scheduling thread.
+ */
+public class CaptureRateController {
+    private static final float SMOOTHING = 0.2f;
+    /** Rate cut applied for every update while frames wait longer than the latency budget. */
+    private static final float LATENCY_BACKOFF = 0.75f;
+
+    private final float minFps;
+    private final float maxFps;
+    private final float decay;
+    private final long holdNs;
+    private final long latencyBudgetNs;
+    private final float changeRatio;
+
+    private float fps;
+    private long lastActivityNs;
+    private boolean active;
+    private float inferenceNs;
+    private float queueNs;
+
+    /**
+     * @param minFps          rate when nothing happens, may be below 1
+     * @param maxFps          rate while something happens
+     * @param decay           factor applied to the rate on every quiet update, in (0, 1)
+     * @param holdMs          how long the rate stays at the maximum after the last activity
+     * @param latencyBudgetMs time a frame may wait for the interpreter before the rate is cut
+     * @param changeRatio     share of changed frames since the last update that counts as a
+     *                        changing scene
+     */
+    public CaptureRateController(float minFps, float maxFps, float decay, long holdMs,
+                                 long latencyBudgetMs, float changeRatio) {
+        if (!(minFps > 0f && maxFps >= minFps)) {
+            throw new IllegalArgumentException("Need 0 < min fps <= max fps, got "
+                    + minFps + ", " + maxFps);
+        }
+        if (!(decay > 0f && decay < 1f)) {
+            throw new IllegalArgumentException("Decay must be in (0, 1), got " + decay);
+        }
+        this.minFps = minFps;
+        this.maxFps = maxFps;
+        this.decay = decay;
+        this.holdNs = holdMs * 1000000L;
+        this.latencyBudgetNs = latencyBudgetMs * 1000000L;
+        this.changeRatio = changeRatio;
+        fps = minFps;
+    }
+
+    /**
+     * Something worth a closer look happened, e.g. the dominant label changed.
+     *
+     * @param nowNs {@link System#nanoTime()}
+     */
+    public synchronized void onActivity(long nowNs) {
+        lastActivityNs = nowNs;
+        active = true;
+    }
+
+    /**
+     * A frame was classified.
+     *
+     * @param inferenceNs time the interpreter took for it
+     * @param queueNs     time it waited for the interpreter
+     */
+    public synchronized void onClassified(long inferenceNs, long queueNs) {
+        if (this.inferenceNs == 0f) {
+            this.inferenceNs = inferenceNs;
+            this.queueNs = queueNs;
+            return;
+        }
+        this.inferenceNs += SMOOTHING * (inferenceNs - this.inferenceNs);
+        this.queueNs += SMOOTHING * (queueNs - this.queueNs);
+    }
+
+    /**
+     * Work out the rate for the next period.
+     *
+     * @param nowNs          {@link System#nanoTime()}
+     * @param checkedFrames  frames checked for a scene change since the last update
+     * @param changedFrames  of those, frames that had changed
+     * @return the new rate in frames per second
+     */
+    public synchronized float update(long nowNs, long checkedFrames, long changedFrames) {
+        if (checkedFrames > 0 && changedFrames >= changeRatio * checkedFrames) {
+            onActivity(nowNs);
+        }
+        float target;
+        if (active && nowNs - lastActivityNs < holdNs) {
+            target = maxFps;
+        } else {
+            active = false;
+            target = fps * decay;
+        }
+        if (latencyBudgetNs > 0 && queueNs > latencyBudgetNs) {
+            target = Math.min(target, fps * LATENCY_BACKOFF);
+        }
+        fps = Math.max(minFps, Math.min(maxFps, target));
+        return fps;
+    }
+
+    /**
+     * Scale down the rates of {@code controllers} in proportion, so that together they keep the
+     * interpreter busy for at most {@code busyBudget} of the time. No rate goes below its minimum.
+     *
+     * @param busyBudget share of the time the interpreter may be busy, in (0, 1]
+     */
+    public static void fitBudget(List<CaptureRateController> controllers, float busyBudget) {
+        float busy = 0f;
+        for (CaptureRateController controller : controllers) {
+            busy += controller.getBusyShare();
+        }
+        if (busy <= busyBudget) {
+            return;
+        }
+        final float scale = busyBudget / busy;
+        for (CaptureRateController controller : controllers) {
+            synchronized (controller) {
+                controller.fps = Math.max(controller.minFps, controller.fps * scale);
+            }
+        }
+    }
+
+    /** Current rate in frames per second. */
+    public synchronized float getFps() {
+        return fps;
+    }
+
+    /** Share of the time the interpreter spends on this pipeline at the current rate. */
+    public synchronized float getBusyShare() {
+        return fps * inferenceNs / 1e9f;
+    }
+
+    /** Smoothed interpreter time per frame, in nanoseconds. */
+    public synchronized long getInferenceNs() {
+        return (long) inferenceNs;
+    }
+
+    /** Smoothed time frames wait for the interpreter, in nanoseconds. */
+    public synchronized long getQueueNs() {
+        return (long) queueNs;
+    }
+
+    /** Whether the rate is being held at the maximum because of recent activity. */
+    public synchronized boolean isActive() {
+        return active;
+    }
+}
@@ -0,0 +1,47 @@
+package online.khlivniuk.complainer.pipeline;
+
+import java.nio.ByteBuffer;
+
+import online.khlivniuk.complainer.classifier.ClassificationResult;
+
+/**
+ * A preprocessed frame on its way to the inference stage. Frames are allocated once and recycled
+ * through a {@link BufferPool}, so every stage can work on its own frame without copying or
+ * allocating; a stage that needs the frame after passing it on retains it.
+ */
+public class InferenceFrame extends BufferPool.Buffer {
+    /** Model input, in the layout and byte order the classifier expects. */
+    public final ByteBuffer input;
+    /** ARGB copy of the model input for display, or null if previews are disabled. */
+    public final int[] previewPixels;
+    /** Whether {@link #previewPixels} holds this frame. */
+    public boolean hasPreview;
+    /**
+     * Best labels of this frame, written by the inference stage, along with the capture time and
+     * stage timings.
+     */
+    public final ClassificationResult result;
+    /** Index of the capture pipeline the frame belongs to, so its result finds its way back. */
+    public final int source;
+    /** {@link System#nanoTime()} when the frame was handed to the inference stage. */
+    public long queuedAtNs;
+    /**
+     * Layout of the tiles written into {@link #input}, one model input each, or null if it holds
+     * the center square only.
+     */
+    public TileLayout tiles;
+    /** Views of {@link #input}, one per batch of tiles, created on first use. */
+    public ByteBuffer[] batchInputs;
+
+    public InferenceFrame(ByteBuffer input, int[] previewPixels, ClassificationResult result) {
+        this(input, previewPixels, result, 0);
+    }
+
+    public InferenceFrame(ByteBuffer input, int[] previewPixels, ClassificationResult result,
+                          int source) {
+        this.input = input;
+        this.previewPixels = previewPixels;
+        this.result = result;
+        this.source = source;
+    }
+}
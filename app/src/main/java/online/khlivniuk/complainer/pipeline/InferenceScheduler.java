@@ -0,0 +1,150 @@
+package online.khlivniuk.complainer.pipeline;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Shares a single consumer, the interpreter, between several producers, the capture pipelines.
+ * Each producer gets a {@link Lane}, a slot with a capacity of one: offering replaces the waiting
+ * frame, so the consumer always gets the newest one and a slow consumer never builds up a
+ * backlog. The consumer takes from the waiting lanes by stride scheduling: every lane is served in
+ * proportion to its weight, so a camera delivering frames as fast as the interpreter runs can't
+ * starve the others, and a lane that was idle doesn't get to catch up.
+ *
+ * <p>Offering is lock free and may happen on any thread; {@link #take()} must always be called
+ * from the same thread.
+ *
+ * @param <T> type of the items handed over
+ */
+public class InferenceScheduler<T> {
+    /** Pass added for a lane of weight 1 each time it is served. */
+    private static final long STRIDE = 1 << 20;
+
+    /**
+     * One producer's slot, holding its newest item until the consumer takes it.
+     */
+    public static class Lane<T> {
+        private final InferenceScheduler<T> scheduler;
+        private final AtomicReference<T> slot = new AtomicReference<>();
+        private final int weight;
+        /** Virtual time of the next service, only used by the consumer. */
+        private long pass;
+        private volatile long served;
+
+        private Lane(InferenceScheduler<T> scheduler, int weight) {
+            this.scheduler = scheduler;
+            this.weight = weight;
+        }
+
+        /**
+         * Make {@code item} the next item taken from this lane.
+         *
+         * @return the item that was waiting and got replaced, or null. The caller owns it again.
+         */
+        public T offer(T item) {
+            T displaced = slot.getAndSet(item);
+            scheduler.wakeUp();
+            return displaced;
+        }
+
+        /**
+         * Remove the waiting item without blocking.
+         *
+         * @return the waiting item, or null
+         */
+        public T poll() {
+            return slot.getAndSet(null);
+        }
+
+        public int getWeight() {
+            return weight;
+        }
+
+        /** Number of items taken from this lane. */
+        public long getServed() {
+            return served;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private volatile Lane<T>[] lanes = (Lane<T>[]) new Lane<?>[0];
+    private volatile Thread consumer;
+    private long virtualTime;
+
+    /**
+     * Add a lane.
+     *
+     * @param weight share of the consumer the lane gets when others are waiting too, at least 1
+     */
+    public synchronized Lane<T> addLane(int weight) {
+        if (weight < 1) {
+            throw new IllegalArgumentException("Weight must be positive, got " + weight);
+        }
+        Lane<T> lane = new Lane<>(this, weight);
+        Lane<T>[] grown = Arrays.copyOf(lanes, lanes.length + 1);
+        grown[lanes.length] = lane;
+        lanes = grown;
+        return lane;
+    }
+
+    /**
+     * Wait for the next item, taken from the waiting lane that is due first.
+     */
+    public T take() throws InterruptedException {
+        consumer = Thread.currentThread();
+        while (true) {
+            T item = poll();
+            if (item != null) {
+                return item;
+            }
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            LockSupport.park(this);
+        }
+    }
+
+    /**
+     * Take the next item like {@link #take()}, without waiting. Must be called from the thread
+     * calling {@link #take()}.
+     *
+     * @return the item, or null if no lane has one waiting
+     */
+    public T poll() {
+        while (true) {
+            Lane<T> next = null;
+            long nextPass = 0;
+            for (Lane<T> lane : lanes) {
+                if (lane.slot.get() == null) {
+                    continue;
+                }
+                // Idle lanes start at the current virtual time instead of their old pass.
+                long pass = Math.max(lane.pass, virtualTime);
+                if (next == null || pass < nextPass) {
+                    next = lane;
+                    nextPass = pass;
+                }
+            }
+            if (next == null) {
+                return null;
+            }
+            T item = next.slot.getAndSet(null);
+            if (item == null) {
+                // Polled by its producer in the meantime.
+                continue;
+            }
+            virtualTime = nextPass;
+            next.pass = nextPass + STRIDE / next.weight;
+            next.served++;
+            return item;
+        }
+    }
+
+    private void wakeUp() {
+        Thread thread = consumer;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package online.khlivniuk.complainer.pipeline;
+
+import android.os.Process;
+import android.util.Log;
+
+import online.khlivniuk.complainer.classifier.ImageClassifier;
+
+/**
+ * Runs the classifier on its own thread, taking the newest frame of each capture pipeline from an
+ * {@link InferenceScheduler}. Capture and preprocessing of the next frames overlap with inference
+ * of the current one.
+ */
+public class InferenceWorker implements Runnable {
+    private static final String TAG = InferenceWorker.class.getSimpleName();
+
+    /**
+     * Receives classified frames on the worker thread, with the labels in
+     * {@link InferenceFrame#result}. The callback owns the frame afterwards and is responsible for
+     * recycling it.
+     */
+    public interface Callback {
+        void onFrameClassified(InferenceFrame frame);
+    }
+
+    private final ImageClassifier mClassifier;
+    private final InferenceScheduler<InferenceFrame> mScheduler;
+    private final Callback mCallback;
+    private TileClassifier mTileClassifier;
+    private Thread mThread;
+    /** Set when quitting once the waiting frames are classified. */
+    private volatile boolean mDraining;
+
+    public InferenceWorker(ImageClassifier classifier, InferenceScheduler<InferenceFrame> scheduler,
+                           Callback callback) {
+        mClassifier = classifier;
+        mScheduler = scheduler;
+        mCallback = callback;
+    }
+
+    /**
+     * Classify frames written as tiles with {@code tileClassifier}, which must wrap the same
+     * classifier. Set before {@link #start()}.
+     */
+    public void setTileClassifier(TileClassifier tileClassifier) {
+        mTileClassifier = tileClassifier;
+    }
+
+    public synchronized void start() {
+        if (mThread != null) {
+            return;
+        }
+        mThread = new Thread(this, "InferenceWorker");
+        mThread.start();
+    }
+
+    /**
+     * Stop the worker and wait for the frame in flight to finish, so the classifier can be closed
+     * safely afterwards.
+     */
+    public void quit() {
+        stop(false);
+    }
+
+    /**
+     * Stop the worker once it has classified the frames already waiting, and wait for it, so the
+     * classifier can be closed safely afterwards. Frames offered after they are drained aren't
+     * classified: hand the pipelines to another worker first.
+     */
+    public void quitWhenDrained() {
+        stop(true);
+    }
+
+    private void stop(boolean drain) {
+        Thread thread;
+        synchronized (this) {
+            thread = mThread;
+            mThread = null;
+        }
+        if (thread == null) {
+            return;
+        }
+        mDraining = drain;
+        thread.interrupt();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void run() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_DISPLAY);
+        while (true) {
+            InferenceFrame frame;
+            if (mDraining) {
+                frame = mScheduler.poll();
+                if (frame == null) {
+                    break;
+                }
+            } else {
+                try {
+                    if (Thread.currentThread().isInterrupted()) {
+                        throw new InterruptedException();
+                    }
+                    frame = mScheduler.take();
+                } catch (InterruptedException e) {
+                    if (mDraining) {
+                        continue;
+                    }
+                    break;
+                }
+            }
+            try {
+                if (frame.tiles != null && mTileClassifier != null) {
+                    mTileClassifier.classify(frame);
+                } else {
+                    mClassifier.classifyInput(frame.input, frame.result);
+                    frame.result.setRegion(0, 0, 0, 0);
+                }
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Inference failed", e);
+                frame.result.clear();
+            }
+            mCallback.onFrameClassified(frame);
+        }
+        Log.d(TAG, "Inference worker stopped");
+    }
+}
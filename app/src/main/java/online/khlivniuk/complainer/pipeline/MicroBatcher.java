@@ -0,0 +1,155 @@
+package online.khlivniuk.complainer.pipeline;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects items, e.g. the frames of a burst, into batches for a single interpreter run. A batch
+ * is handed on as soon as it is full, or once the oldest pending item has waited for the maximum
+ * latency, whichever comes first. Burst captures then share runs while a lone item is still
+ * handled within a bounded delay.
+ *
+ * <p>Every item keeps the deadline of its own submission: items left over when a full batch is
+ * taken don't wait any longer because of it.
+ *
+ * <p>Thread safe; batches are handed to the {@link Sink} on the batcher thread, in submission
+ * order.
+ *
+ * @param <T> type of the items
+ */
+public class MicroBatcher<T> implements Runnable {
+
+    /**
+     * Receives the batches on the batcher thread.
+     */
+    public interface Sink<T> {
+        /**
+         * @param batch between one and the maximum batch size items, in submission order; owned
+         *              by the sink
+         */
+        void onBatch(List<T> batch);
+    }
+
+    private static class Pending<T> {
+        final T item;
+        final long submittedNs;
+
+        Pending(T item, long submittedNs) {
+            this.item = item;
+            this.submittedNs = submittedNs;
+        }
+    }
+
+    private final int maxBatchSize;
+    private final long maxLatencyNs;
+    private final int maxPending;
+    private final Sink<T> sink;
+    private final ArrayDeque<Pending<T>> pending = new ArrayDeque<>();
+    private Thread thread;
+
+    /**
+     * @param maxBatchSize most items handed on at once
+     * @param maxLatencyMs longest time an item waits for its batch to fill up
+     * @param maxPending   most items waiting at the same time, at least {@code maxBatchSize}
+     * @param sink         receives the batches
+     */
+    public MicroBatcher(int maxBatchSize, long maxLatencyMs, int maxPending, Sink<T> sink) {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be positive, got " + maxBatchSize);
+        }
+        if (maxPending < maxBatchSize) {
+            throw new IllegalArgumentException("Pending limit " + maxPending
+                    + " is below the batch size " + maxBatchSize);
+        }
+        this.maxBatchSize = maxBatchSize;
+        this.maxLatencyNs = TimeUnit.MILLISECONDS.toNanos(maxLatencyMs);
+        this.maxPending = maxPending;
+        this.sink = sink;
+    }
+
+    public synchronized void start() {
+        if (thread != null) {
+            return;
+        }
+        thread = new Thread(this, "MicroBatcher");
+        thread.start();
+    }
+
+    /**
+     * Stop the batcher thread, waiting for the batch being handed on. Items that haven't been
+     * handed on yet are dropped.
+     */
+    public void quit() {
+        Thread stopped;
+        synchronized (this) {
+            stopped = thread;
+            thread = null;
+            pending.clear();
+        }
+        if (stopped == null) {
+            return;
+        }
+        stopped.interrupt();
+        try {
+            stopped.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Queue an item for the next batch.
+     *
+     * @return false if too many items are already waiting
+     */
+    public synchronized boolean submit(T item) {
+        if (pending.size() >= maxPending) {
+            return false;
+        }
+        pending.add(new Pending<>(item, System.nanoTime()));
+        notifyAll();
+        return true;
+    }
+
+    /** Number of items waiting for a batch. */
+    public synchronized int getPending() {
+        return pending.size();
+    }
+
+    @Override
+    public void run() {
+        while (!Thread.currentThread().isInterrupted()) {
+            List<T> batch;
+            try {
+                batch = takeBatch();
+            } catch (InterruptedException e) {
+                break;
+            }
+            sink.onBatch(batch);
+        }
+    }
+
+    /**
+     * Wait until a batch is full or the oldest pending item is due, then take the batch.
+     */
+    private synchronized List<T> takeBatch() throws InterruptedException {
+        while (true) {
+            while (pending.isEmpty()) {
+                wait();
+            }
+            long remainingNs = pending.peek().submittedNs + maxLatencyNs - System.nanoTime();
+            if (pending.size() >= maxBatchSize || remainingNs <= 0) {
+                break;
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remainingNs);
+        }
+        int size = Math.min(maxBatchSize, pending.size());
+        List<T> batch = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            batch.add(pending.poll().item);
+        }
+        return batch;
+    }
+}
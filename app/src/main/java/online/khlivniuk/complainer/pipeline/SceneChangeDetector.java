@@ -0,0 +1,117 @@
+package online.khlivniuk.complainer.pipeline;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Decides whether a camera frame differs enough from the last classified one to be worth
+ * classifying. The luma plane is sampled on a coarse grid into a thumbnail, which is compared
+ * against the thumbnail of the last frame that was let through by mean absolute difference. A
+ * few thousand reads per frame replace the whole preprocessing and inference chain on a static
+ * scene.
+ *
+ * <p>Not thread safe, use from the thread delivering the frames. The counters may be read from
+ * any thread.
+ */
+public class SceneChangeDetector {
+    private final int gridWidth;
+    private final int gridHeight;
+    private final float threshold;
+    private final int maxSkippedFrames;
+
+    private final byte[] reference;
+    private final byte[] thumbnail;
+    private boolean hasReference;
+    private int skippedInRow;
+
+    private volatile long frames;
+    private volatile long skippedFrames;
+    private volatile long forcedFrames;
+
+    /**
+     * @param gridWidth        thumbnail width
+     * @param gridHeight       thumbnail height
+     * @param threshold        mean absolute luma difference, 0..255, below which a frame counts
+     *                         as unchanged
+     * @param maxSkippedFrames frames skipped in a row before one is let through anyway, so slow
+     *                         changes like daylight still get picked up
+     */
+    public SceneChangeDetector(int gridWidth, int gridHeight, float threshold,
+                               int maxSkippedFrames) {
+        if (gridWidth < 1 || gridHeight < 1) {
+            throw new IllegalArgumentException("Grid must not be empty, got "
+                    + gridWidth + "x" + gridHeight);
+        }
+        this.gridWidth = gridWidth;
+        this.gridHeight = gridHeight;
+        this.threshold = threshold;
+        this.maxSkippedFrames = maxSkippedFrames;
+        reference = new byte[gridWidth * gridHeight];
+        thumbnail = new byte[gridWidth * gridHeight];
+    }
+
+    /**
+     * Check the next frame. A changed frame becomes the reference for the following ones.
+     *
+     * @param yData     luma plane
+     * @param width     frame width
+     * @param height    frame height
+     * @param rowStride bytes between luma rows
+     * @return true if the frame should be classified
+     */
+    public boolean hasChanged(ByteBuffer yData, int width, int height, int rowStride) {
+        frames++;
+        int index = 0;
+        long difference = 0;
+        for (int gy = 0; gy < gridHeight; gy++) {
+            // Sample the centre of each cell.
+            final int rowOffset = ((2 * gy + 1) * height / (2 * gridHeight)) * rowStride;
+            for (int gx = 0; gx < gridWidth; gx++) {
+                final byte luma = yData.get(rowOffset + (2 * gx + 1) * width / (2 * gridWidth));
+                thumbnail[index] = luma;
+                difference += Math.abs((luma & 0xff) - (reference[index] & 0xff));
+                index++;
+            }
+        }
+
+        boolean changed = !hasReference || difference > threshold * thumbnail.length;
+        if (!changed && skippedInRow < maxSkippedFrames) {
+            skippedInRow++;
+            skippedFrames++;
+            return false;
+        }
+        if (!changed) {
+            forcedFrames++;
+        }
+        System.arraycopy(thumbnail, 0, reference, 0, thumbnail.length);
+        hasReference = true;
+        skippedInRow = 0;
+        return true;
+    }
+
+    /** Forget the reference frame, so the next frame is classified. Counters are kept. */
+    public void reset() {
+        hasReference = false;
+        skippedInRow = 0;
+    }
+
+    public long getFrames() {
+        return frames;
+    }
+
+    public long getSkippedFrames() {
+        return skippedFrames;
+    }
+
+    /**
+     * Frames let through although the scene hadn't changed, because too many had been skipped in
+     * a row.
+     */
+    public long getForcedFrames() {
+        return forcedFrames;
+    }
+
+    /** Share of the checked frames that were skipped, 0 if none were checked. */
+    public float getSkipRatio() {
+        return frames == 0 ? 0f : (float) skippedFrames / frames;
+    }
+}
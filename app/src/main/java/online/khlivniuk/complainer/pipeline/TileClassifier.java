@@ -0,0 +1,225 @@
+package online.khlivniuk.complainer.pipeline;
+
+import java.nio.ByteBuffer;
+
+import online.khlivniuk.complainer.classifier.ClassificationResult;
+import online.khlivniuk.complainer.classifier.ImageClassifier;
+import online.khlivniuk.complainer.classifier.ImageClassifierQuantizedMobileNet;
+import online.khlivniuk.complainer.classifier.ModelDescriptor;
+import online.khlivniuk.complainer.classifier.TopK;
+import online.khlivniuk.complainer.metrics.PipelineMetrics;
+
+/**
+ * Classifies a frame written as tiles by {@code ImagePreprocessor}, one batch of tiles per
+ * interpreter run, and merges the tile scores into a single result: every label gets its best
+ * score over the tiles, and the region of the tile holding the best label is reported with it.
+ *
+ * <p>Once a tile reaches the exit score the remaining batches are skipped, so a frame whose
+ * subject is in the center costs one batch, and only frames without a confident tile pay for
+ * the full coverage.
+ *
+ * <p>The outputs of a quantized model are merged and checked against the exit score as raw
+ * bytes; only the selected labels are dequantized.
+ *
+ * <p>Not thread safe, use from the inference thread.
+ */
+public class TileClassifier {
+    private final ImageClassifier classifier;
+    private final float exitScore;
+    private final int numLabels;
+    /** {@link #classifier} if its model is quantized, null otherwise. */
+    private final ImageClassifierQuantizedMobileNet quantizedClassifier;
+    private final boolean quantized;
+    /** Scores of the tiles of the current batch. */
+    private float[][] batchScores;
+    /** Best score of every label over the tiles classified so far. */
+    private final float[] merged;
+    /** Raw outputs of the tiles of the current batch, for a quantized model. */
+    private byte[][] batchRawScores;
+    /** Best raw output of every label over the tiles classified so far, for a quantized model. */
+    private final byte[] mergedRaw;
+    /** {@link #exitScore} as a raw output. */
+    private final int exitRawScore;
+    private final int[] topIds;
+    private final float[] topScores;
+    private final int[] topRawScores;
+    private PipelineMetrics metrics;
+
+    /**
+     * @param classifier classifier the tiles were written for
+     * @param exitScore  score of a label in a single tile at which the remaining tiles are
+     *                   skipped, above 1 to always classify all of them
+     */
+    public TileClassifier(ImageClassifier classifier, float exitScore) {
+        this.classifier = classifier;
+        this.exitScore = exitScore;
+        numLabels = classifier.getLabels().size();
+        quantizedClassifier = classifier instanceof ImageClassifierQuantizedMobileNet
+                ? (ImageClassifierQuantizedMobileNet) classifier : null;
+        quantized = quantizedClassifier != null;
+        merged = quantized ? null : new float[numLabels];
+        mergedRaw = quantized ? new byte[numLabels] : null;
+        exitRawScore = quantized ? classifier.getDescriptor().quantize(exitScore) : 0;
+        int capacity = classifier.createResult().getCapacity();
+        topIds = new int[capacity];
+        topScores = new float[capacity];
+        topRawScores = new int[capacity];
+    }
+
+    /** Record the inference and top-K latencies of each frame into {@code metrics}, may be null. */
+    public void setMetrics(PipelineMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Classify the tiles of {@code frame}, described by {@link InferenceFrame#tiles}, into
+     * {@link InferenceFrame#result}.
+     */
+    public void classify(InferenceFrame frame) {
+        if (quantized) {
+            classifyQuantized(frame);
+            return;
+        }
+        final TileLayout layout = frame.tiles;
+        final int batchSize = layout.getBatchSize();
+        if (batchScores == null || batchScores.length != batchSize) {
+            batchScores = new float[batchSize][numLabels];
+        }
+        for (int label = 0; label < numLabels; label++) {
+            merged[label] = 0f;
+        }
+        int bestTile = 0;
+        float bestScore = -1f;
+        int classified = 0;
+        long inferenceNs = 0;
+
+        for (int batch = 0; batch < layout.getBatchCount(); batch++) {
+            long startTime = System.nanoTime();
+            classifier.classifyBatchInput(batchInput(frame, batch), batchSize, batchScores);
+            inferenceNs += System.nanoTime() - startTime;
+            for (int i = 0; i < batchSize; i++) {
+                final int tile = batch * batchSize + i;
+                if (tile >= layout.getTileCount()) {
+                    // Padding.
+                    break;
+                }
+                final float[] scores = batchScores[i];
+                for (int label = 0; label < numLabels; label++) {
+                    final float score = scores[label];
+                    if (score > merged[label]) {
+                        merged[label] = score;
+                    }
+                    if (score > bestScore) {
+                        bestScore = score;
+                        bestTile = tile;
+                    }
+                }
+                classified++;
+            }
+            if (bestScore >= exitScore) {
+                break;
+            }
+        }
+
+        long startTime = System.nanoTime();
+        int size = TopK.select(merged, numLabels, topIds, topScores);
+        publish(frame, size, bestTile, classified, inferenceNs, startTime);
+    }
+
+    /**
+     * {@link #classify(InferenceFrame)} for a quantized model, without any float work but for
+     * the selected labels.
+     */
+    private void classifyQuantized(InferenceFrame frame) {
+        final TileLayout layout = frame.tiles;
+        final int batchSize = layout.getBatchSize();
+        if (batchRawScores == null || batchRawScores.length != batchSize) {
+            batchRawScores = new byte[batchSize][numLabels];
+        }
+        for (int label = 0; label < numLabels; label++) {
+            mergedRaw[label] = 0;
+        }
+        int bestTile = 0;
+        int bestScore = -1;
+        int classified = 0;
+        long inferenceNs = 0;
+
+        for (int batch = 0; batch < layout.getBatchCount(); batch++) {
+            long startTime = System.nanoTime();
+            quantizedClassifier.classifyBatchInput(batchInput(frame, batch), batchSize,
+                    batchRawScores);
+            inferenceNs += System.nanoTime() - startTime;
+            for (int i = 0; i < batchSize; i++) {
+                final int tile = batch * batchSize + i;
+                if (tile >= layout.getTileCount()) {
+                    // Padding.
+                    break;
+                }
+                final byte[] scores = batchRawScores[i];
+                for (int label = 0; label < numLabels; label++) {
+                    final int score = scores[label] & 0xff;
+                    if (score > (mergedRaw[label] & 0xff)) {
+                        mergedRaw[label] = scores[label];
+                    }
+                    if (score > bestScore) {
+                        bestScore = score;
+                        bestTile = tile;
+                    }
+                }
+                classified++;
+            }
+            if (bestScore >= exitRawScore) {
+                break;
+            }
+        }
+
+        long startTime = System.nanoTime();
+        int size = TopK.selectUnsigned(mergedRaw, numLabels, topIds, topRawScores);
+        ModelDescriptor descriptor = classifier.getDescriptor();
+        for (int i = 0; i < size; i++) {
+            topScores[i] = descriptor.dequantize(topRawScores[i]);
+        }
+        publish(frame, size, bestTile, classified, inferenceNs, startTime);
+    }
+
+    /**
+     * Write the selected labels and the region of the best tile into the frame result.
+     *
+     * @param postprocessStartNs when the merged scores started being selected from
+     */
+    private void publish(InferenceFrame frame, int size, int bestTile, int classified,
+                         long inferenceNs, long postprocessStartNs) {
+        final ClassificationResult result = frame.result;
+        result.fill(size, topIds, topScores, classifier.getLabels());
+        TileLayout.Tile tile = frame.tiles.getTile(bestTile);
+        result.setRegion(tile.x, tile.y, tile.size, classified);
+        long postprocessNs = System.nanoTime() - postprocessStartNs;
+        result.setStageTimeNs(ClassificationResult.Stage.INFERENCE, inferenceNs);
+        result.setStageTimeNs(ClassificationResult.Stage.POSTPROCESS, postprocessNs);
+        if (metrics != null) {
+            metrics.record(PipelineMetrics.Stage.INFERENCE, inferenceNs);
+            metrics.record(PipelineMetrics.Stage.TOP_K, postprocessNs);
+        }
+    }
+
+    /**
+     * The view of the frame input holding batch {@code batch}, positioned at its end as the
+     * interpreter expects.
+     */
+    private ByteBuffer batchInput(InferenceFrame frame, int batch) {
+        final TileLayout layout = frame.tiles;
+        if (frame.batchInputs == null || frame.batchInputs.length != layout.getBatchCount()) {
+            final int batchBytes = layout.getBatchSize() * classifier.getInputSizeInBytes();
+            frame.batchInputs = new ByteBuffer[layout.getBatchCount()];
+            for (int i = 0; i < frame.batchInputs.length; i++) {
+                ByteBuffer view = frame.input.duplicate();
+                view.position(i * batchBytes);
+                view.limit((i + 1) * batchBytes);
+                frame.batchInputs[i] = view.slice().order(frame.input.order());
+            }
+        }
+        ByteBuffer input = frame.batchInputs[batch];
+        input.position(input.limit());
+        return input;
+    }
+}
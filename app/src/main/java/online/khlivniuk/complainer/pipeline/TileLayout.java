@@ -0,0 +1,216 @@
+package online.khlivniuk.complainer.pipeline;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Cuts a frame into overlapping square tiles at several scales, so the whole frame gets
+ * classified rather than only its center square. A scale is the tile side relative to the
+ * smaller side of the frame: at 1 the tiles are as large as the classic center crop, at 0.5
+ * they are half that. Each tile is later scaled to the model input.
+ *
+ * <p>Tiles are ordered for early exit: scale by scale as given, and within a scale from the
+ * center of the frame outwards. The first tile of a layout whose first scale is 1 is the classic
+ * center crop. Tiles are classified in batches of a fixed size; the tile list is padded to a
+ * whole number of batches by repeating the last tile, so the interpreter input never has to be
+ * resized between batches.
+ *
+ * <p>Tile corners are even, as the chroma planes of a YUV 4:2:0 frame need.
+ */
+public class TileLayout {
+
+    /**
+     * A square region of the frame.
+     */
+    public static final class Tile {
+        public final int x;
+        public final int y;
+        public final int size;
+        /** Index of the scale the tile belongs to. */
+        public final int scale;
+
+        Tile(int x, int y, int size, int scale) {
+            this.x = x;
+            this.y = y;
+            this.size = size;
+            this.scale = scale;
+        }
+
+        @Override
+        public String toString() {
+            return size + "@" + x + "," + y;
+        }
+    }
+
+    private final int frameWidth;
+    private final int frameHeight;
+    private final float[] scales;
+    private final int[] tileSizes;
+    private final int batchSize;
+    private final List<Tile> tiles;
+
+    /**
+     * @param frameWidth  width of the frames
+     * @param frameHeight height of the frames
+     * @param scales      tile sides relative to the smaller side of the frame, in (0, 1], in the
+     *                    order they should be classified
+     * @param overlap     share of a tile covered by its neighbour, in [0, 1)
+     * @param batchSize   tiles classified with one interpreter run
+     */
+    public TileLayout(int frameWidth, int frameHeight, float[] scales, float overlap,
+                      int batchSize) {
+        if (scales.length == 0) {
+            throw new IllegalArgumentException("At least one scale is required");
+        }
+        if (!(overlap >= 0f && overlap < 1f)) {
+            throw new IllegalArgumentException("Overlap must be in [0, 1), got " + overlap);
+        }
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be positive, got " + batchSize);
+        }
+        this.frameWidth = frameWidth;
+        this.frameHeight = frameHeight;
+        this.scales = scales.clone();
+        this.batchSize = batchSize;
+        tileSizes = new int[scales.length];
+
+        final int minDim = Math.min(frameWidth, frameHeight);
+        List<Tile> all = new ArrayList<>();
+        for (int s = 0; s < scales.length; s++) {
+            if (!(scales[s] > 0f && scales[s] <= 1f)) {
+                throw new IllegalArgumentException("Scales must be in (0, 1], got " + scales[s]);
+            }
+            final int size = Math.max(2, even(Math.round(minDim * scales[s])));
+            tileSizes[s] = size;
+            final int stride = Math.max(2, Math.round(size * (1f - overlap)));
+            List<Tile> scaleTiles = new ArrayList<>();
+            for (int y : positions(frameHeight, size, stride)) {
+                for (int x : positions(frameWidth, size, stride)) {
+                    scaleTiles.add(new Tile(x, y, size, s));
+                }
+            }
+            final float centerX = frameWidth / 2f;
+            final float centerY = frameHeight / 2f;
+            Collections.sort(scaleTiles, new Comparator<Tile>() {
+                @Override
+                public int compare(Tile a, Tile b) {
+                    return Float.compare(distance(a, centerX, centerY),
+                            distance(b, centerX, centerY));
+                }
+            });
+            all.addAll(scaleTiles);
+        }
+        tiles = Collections.unmodifiableList(all);
+    }
+
+    /**
+     * Tile corners along one side: evenly spread from one edge to the other no further than
+     * {@code stride} apart, plus the centered one.
+     */
+    private static int[] positions(int length, int size, int stride) {
+        final int range = length - size;
+        final int center = even(range / 2);
+        if (range <= 0) {
+            return new int[]{0};
+        }
+        final int steps = (range + stride - 1) / stride;
+        int[] positions = new int[steps + 2];
+        int count = 0;
+        for (int i = 0; i <= steps; i++) {
+            positions[count++] = Math.min(even(Math.round((float) i * range / steps)), even(range));
+        }
+        positions[count++] = center;
+        Arrays.sort(positions, 0, count);
+        // Drop duplicates.
+        int unique = 0;
+        for (int i = 0; i < count; i++) {
+            if (unique == 0 || positions[i] != positions[unique - 1]) {
+                positions[unique++] = positions[i];
+            }
+        }
+        return Arrays.copyOf(positions, unique);
+    }
+
+    /**
+     * Parse a comma separated list of scales, e.g. {@code "1,0.5"}.
+     *
+     * @return the scales, empty for a null or empty list
+     * @throws IllegalArgumentException if a scale isn't a number
+     */
+    public static float[] parseScales(String scales) {
+        if (scales == null || scales.trim().isEmpty()) {
+            return new float[0];
+        }
+        String[] parts = scales.split(",");
+        float[] values = new float[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            try {
+                values[i] = Float.parseFloat(parts[i].trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Bad scale " + parts[i], e);
+            }
+        }
+        return values;
+    }
+
+    private static int even(int value) {
+        return value & ~1;
+    }
+
+    private static float distance(Tile tile, float centerX, float centerY) {
+        float dx = tile.x + tile.size / 2f - centerX;
+        float dy = tile.y + tile.size / 2f - centerY;
+        return dx * dx + dy * dy;
+    }
+
+    public int getFrameWidth() {
+        return frameWidth;
+    }
+
+    public int getFrameHeight() {
+        return frameHeight;
+    }
+
+    public int getScaleCount() {
+        return scales.length;
+    }
+
+    /** Side in pixels of the tiles of scale {@code scale}. */
+    public int getTileSize(int scale) {
+        return tileSizes[scale];
+    }
+
+    /** Number of distinct tiles. */
+    public int getTileCount() {
+        return tiles.size();
+    }
+
+    /** Number of tiles including the padding of the last batch. */
+    public int getPaddedTileCount() {
+        return getBatchCount() * batchSize;
+    }
+
+    /**
+     * Tile {@code index}, up to {@link #getPaddedTileCount()}; the padding repeats the last tile.
+     */
+    public Tile getTile(int index) {
+        return tiles.get(Math.min(index, tiles.size() - 1));
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public int getBatchCount() {
+        return (tiles.size() + batchSize - 1) / batchSize;
+    }
+
+    @Override
+    public String toString() {
+        return frameWidth + "x" + frameHeight + " scales " + Arrays.toString(scales) + ", "
+                + tiles.size() + " tiles in batches of " + batchSize + ": " + tiles;
+    }
+}
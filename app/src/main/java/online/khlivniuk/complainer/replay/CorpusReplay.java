@@ -0,0 +1,80 @@
+package online.khlivniuk.complainer.replay;
+
+import java.util.List;
+
+/**
+ * Feeds a {@link FrameCorpus} through a pipeline, in place of the camera: first a number of
+ * warm-up passes over the whole corpus, whose results are thrown away, then the measured passes.
+ * Subclasses run one frame through the pipeline under test, recording its stages into the
+ * report's metrics.
+ *
+ * <p>Frames are processed back to back on the calling thread, so the throughput is that of a
+ * single pipeline without capture.
+ */
+public abstract class CorpusReplay {
+    private final FrameCorpus corpus;
+    private final int warmupIterations;
+    private final int iterations;
+
+    /**
+     * @param corpus           frames to replay
+     * @param warmupIterations passes over the corpus before measuring
+     * @param iterations       measured passes over the corpus
+     */
+    protected CorpusReplay(FrameCorpus corpus, int warmupIterations, int iterations) {
+        if (iterations < 1) {
+            throw new IllegalArgumentException("At least one iteration is needed, got "
+                    + iterations);
+        }
+        this.corpus = corpus;
+        this.warmupIterations = warmupIterations;
+        this.iterations = iterations;
+    }
+
+    /**
+     * Replay the corpus.
+     *
+     * @param title first line of the report, e.g. the model and configuration
+     */
+    public ReplayReport run(String title) {
+        ReplayReport report = new ReplayReport(String.format("%s, %d frames x %d iterations"
+                + " after %d warm-up", title, corpus.size(), iterations, warmupIterations));
+        List<FrameCorpus.Frame> frames = corpus.getFrames();
+        for (int i = 0; i < warmupIterations; i++) {
+            for (FrameCorpus.Frame frame : frames) {
+                process(frame, report);
+            }
+        }
+        report.reset();
+        final long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            for (FrameCorpus.Frame frame : frames) {
+                long frameStart = System.nanoTime();
+                if (!process(frame, report)) {
+                    report.recordSkipped();
+                    continue;
+                }
+                report.recordFrame(System.nanoTime() - frameStart);
+                sampleMemory(report);
+            }
+        }
+        report.setElapsedNs(System.nanoTime() - start);
+        return report;
+    }
+
+    /**
+     * Run one frame through the pipeline.
+     *
+     * @return false if the pipeline can't take the frame, e.g. a JPEG frame without a decoder;
+     * it is then left out of the latencies and the throughput
+     */
+    protected abstract boolean process(FrameCorpus.Frame frame, ReplayReport report);
+
+    /**
+     * Report the memory in use after a frame. The default only knows the Java heap.
+     */
+    protected void sampleMemory(ReplayReport report) {
+        Runtime runtime = Runtime.getRuntime();
+        report.sampleMemory(runtime.totalMemory() - runtime.freeMemory(), 0);
+    }
+}
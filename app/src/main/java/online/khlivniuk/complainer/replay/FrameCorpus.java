@@ -0,0 +1,185 @@
+package online.khlivniuk.complainer.replay;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Recorded camera frames, loaded into memory so replaying them costs no I/O. A corpus is a
+ * directory of
+ * <ul>
+ * <li>JPEG files, {@code *.jpg} or {@code *.jpeg}, one frame each;</li>
+ * <li>raw I420 files named {@code <name>_<width>x<height>.i420}, holding one or more planar
+ * YUV 4:2:0 frames back to back. ffmpeg writes them with
+ * {@code ffmpeg -i in.mp4 -vf scale=640:480 -pix_fmt yuv420p -f rawvideo clip_640x480.i420}.</li>
+ * </ul>
+ * Frames are replayed in file name order.
+ */
+public class FrameCorpus {
+    private static final Pattern I420_NAME = Pattern.compile(".*_(\\d+)x(\\d+)\\.i420");
+
+    /**
+     * A frame of the corpus.
+     */
+    public static class Frame {
+        public final String name;
+        public final int width;
+        public final int height;
+        /** Whether {@link #data} is a JPEG file, otherwise it's an I420 frame. */
+        public final boolean jpeg;
+        /** The whole frame, direct. */
+        public final ByteBuffer data;
+        private final ByteBuffer y;
+        private final ByteBuffer u;
+        private final ByteBuffer v;
+
+        private Frame(String name, int width, int height, boolean jpeg, ByteBuffer data) {
+            this.name = name;
+            this.width = width;
+            this.height = height;
+            this.jpeg = jpeg;
+            this.data = data;
+            if (jpeg) {
+                y = u = v = null;
+            } else {
+                int lumaSize = width * height;
+                int chromaSize = (width / 2) * (height / 2);
+                y = slice(data, 0, lumaSize);
+                u = slice(data, lumaSize, chromaSize);
+                v = slice(data, lumaSize + chromaSize, chromaSize);
+            }
+        }
+
+        private static ByteBuffer slice(ByteBuffer data, int offset, int length) {
+            ByteBuffer duplicate = data.duplicate();
+            duplicate.position(offset);
+            duplicate.limit(offset + length);
+            return duplicate.slice();
+        }
+
+        /** Luma plane of an I420 frame, {@link #getYRowStride()} bytes per row. */
+        public ByteBuffer getY() {
+            return y;
+        }
+
+        public ByteBuffer getU() {
+            return u;
+        }
+
+        public ByteBuffer getV() {
+            return v;
+        }
+
+        public int getYRowStride() {
+            return width;
+        }
+
+        public int getUvRowStride() {
+            return width / 2;
+        }
+
+        /** Planar chroma, one byte per sample. */
+        public int getUvPixelStride() {
+            return 1;
+        }
+    }
+
+    private final List<Frame> frames;
+
+    private FrameCorpus(List<Frame> frames) {
+        this.frames = Collections.unmodifiableList(frames);
+    }
+
+    public List<Frame> getFrames() {
+        return frames;
+    }
+
+    public int size() {
+        return frames.size();
+    }
+
+    /**
+     * Load every frame of the corpus in {@code directory}.
+     *
+     * @throws IOException if the directory can't be read or holds no frames
+     */
+    public static FrameCorpus load(File directory) throws IOException {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            throw new IOException("Cannot list " + directory);
+        }
+        Arrays.sort(files);
+        List<Frame> frames = new ArrayList<>();
+        for (File file : files) {
+            String name = file.getName();
+            String lowerName = name.toLowerCase(Locale.US);
+            if (lowerName.endsWith(".jpg") || lowerName.endsWith(".jpeg")) {
+                frames.add(new Frame(name, 0, 0, true, read(file, 0, (int) file.length())));
+                continue;
+            }
+            Matcher matcher = I420_NAME.matcher(name);
+            if (!matcher.matches()) {
+                continue;
+            }
+            int width = Integer.parseInt(matcher.group(1));
+            int height = Integer.parseInt(matcher.group(2));
+            int frameSize = width * height + 2 * (width / 2) * (height / 2);
+            long count = file.length() / frameSize;
+            for (int i = 0; i < count; i++) {
+                frames.add(new Frame(name + "#" + i, width, height, false,
+                        read(file, (long) i * frameSize, frameSize)));
+            }
+        }
+        if (frames.isEmpty()) {
+            throw new IOException("No frames in " + directory);
+        }
+        return new FrameCorpus(frames);
+    }
+
+    /**
+     * Random I420 frames, for when no recorded corpus is at hand. Costs the same to process as
+     * real frames, but says nothing about the results.
+     */
+    public static FrameCorpus synthetic(int count, int width, int height, long seed) {
+        Random random = new Random(seed);
+        int frameSize = width * height + 2 * (width / 2) * (height / 2);
+        byte[] bytes = new byte[frameSize];
+        List<Frame> frames = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            random.nextBytes(bytes);
+            ByteBuffer data = ByteBuffer.allocateDirect(frameSize);
+            data.put(bytes);
+            data.rewind();
+            frames.add(new Frame("synthetic#" + i, width, height, false, data));
+        }
+        return new FrameCorpus(frames);
+    }
+
+    private static ByteBuffer read(File file, long offset, int length) throws IOException {
+        ByteBuffer data = ByteBuffer.allocateDirect(length);
+        FileInputStream in = new FileInputStream(file);
+        try {
+            FileChannel channel = in.getChannel();
+            channel.position(offset);
+            while (data.hasRemaining()) {
+                if (channel.read(data) < 0) {
+                    throw new IOException("Truncated frame in " + file);
+                }
+            }
+        } finally {
+            in.close();
+        }
+        data.rewind();
+        return data;
+    }
+}
@@ -0,0 +1,106 @@
+package online.khlivniuk.complainer.replay;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Locale;
+
+import online.khlivniuk.complainer.metrics.LatencyHistogram;
+import online.khlivniuk.complainer.metrics.PipelineMetrics;
+
+/**
+ * Results of a {@link CorpusReplay}: throughput, end to end and per stage latency percentiles,
+ * and memory high-water marks.
+ */
+public class ReplayReport {
+    private final String title;
+    private final PipelineMetrics metrics = new PipelineMetrics();
+    private final LatencyHistogram frameLatency = new LatencyHistogram();
+    private long skippedFrames;
+    private long elapsedNs;
+    private long heapHighWater;
+    private long nativeHighWater;
+
+    public ReplayReport(String title) {
+        this.title = title;
+    }
+
+    /** Where the stages of the replayed pipeline record their latencies. */
+    public PipelineMetrics getMetrics() {
+        return metrics;
+    }
+
+    public LatencyHistogram getFrameLatency() {
+        return frameLatency;
+    }
+
+    void recordFrame(long nanos) {
+        frameLatency.record(nanos);
+    }
+
+    void recordSkipped() {
+        skippedFrames++;
+    }
+
+    /** Frames of the measured iterations the pipeline couldn't take. */
+    public long getSkippedFrames() {
+        return skippedFrames;
+    }
+
+    /**
+     * Track the memory in use.
+     *
+     * @param heapBytes   bytes used on the Java heap
+     * @param nativeBytes bytes allocated on the native heap, 0 if unknown
+     */
+    public void sampleMemory(long heapBytes, long nativeBytes) {
+        heapHighWater = Math.max(heapHighWater, heapBytes);
+        nativeHighWater = Math.max(nativeHighWater, nativeBytes);
+    }
+
+    void reset() {
+        metrics.reset();
+        frameLatency.reset();
+        skippedFrames = 0;
+        heapHighWater = 0;
+        nativeHighWater = 0;
+    }
+
+    void setElapsedNs(long elapsedNs) {
+        this.elapsedNs = elapsedNs;
+    }
+
+    /** Frames per second over the measured iterations. */
+    public double getThroughput() {
+        return elapsedNs == 0 ? 0 : frameLatency.getCount() * 1e9 / elapsedNs;
+    }
+
+    public long getHeapHighWater() {
+        return heapHighWater;
+    }
+
+    public long getNativeHighWater() {
+        return nativeHighWater;
+    }
+
+    public void dump(PrintWriter writer) {
+        writer.println(title);
+        writer.println(String.format(Locale.US,
+                "  %d frames%s, %.2f frames/s, frame p50 %.3f ms, p90 %.3f ms, p99 %.3f ms,"
+                        + " max %.3f ms",
+                frameLatency.getCount(),
+                skippedFrames > 0 ? " (" + skippedFrames + " skipped)" : "", getThroughput(),
+                frameLatency.getPercentile(50) / 1e6, frameLatency.getPercentile(90) / 1e6,
+                frameLatency.getPercentile(99) / 1e6, frameLatency.getMax() / 1e6));
+        writer.println(String.format(Locale.US,
+                "  memory high-water: java heap %.1f MB, native heap %.1f MB",
+                heapHighWater / 1048576.0, nativeHighWater / 1048576.0));
+        metrics.dump(writer);
+    }
+
+    @Override
+    public String toString() {
+        StringWriter out = new StringWriter();
+        dump(new PrintWriter(out));
+        return out.toString();
+    }
+}
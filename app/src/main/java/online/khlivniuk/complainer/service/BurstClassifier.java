@@ -0,0 +1,129 @@
+package online.khlivniuk.complainer.service;
+
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import online.khlivniuk.complainer.classifier.ClassificationResult;
+import online.khlivniuk.complainer.classifier.ClassifierPool;
+import online.khlivniuk.complainer.classifier.ModelDescriptor;
+import online.khlivniuk.complainer.pipeline.MicroBatcher;
+
+/**
+ * Classifies the frames of bursts, e.g. those taken for a complaint, apart from the streaming
+ * pipelines. Frames are collected into batches by a {@link MicroBatcher} and every batch runs on
+ * an interpreter of a {@link ClassifierPool}, so a burst from several cameras keeps every core
+ * busy. Results of different batches may come back out of order.
+ */
+class BurstClassifier {
+    private static final String TAG = BurstClassifier.class.getSimpleName();
+
+    /**
+     * Frames run together, and the longest a frame waits for the others of its batch.
+     */
+    private static final int BATCH_SIZE = 4;
+    private static final long MAX_LATENCY_MS = 100;
+    /**
+     * Frames waiting for a batch; more are dropped.
+     */
+    private static final int MAX_PENDING = BATCH_SIZE * 4;
+
+    /**
+     * Receives the classified frames on a pool thread.
+     */
+    interface Listener {
+        /**
+         * @param result labels of the frame, or null if it couldn't be classified; owned by the
+         *               listener
+         */
+        void onBurstFrameClassified(CapturePipeline pipeline, Bitmap bitmap,
+                                    ClassificationResult result);
+    }
+
+    /**
+     * A frame waiting for its batch.
+     */
+    private static class Frame {
+        final CapturePipeline pipeline;
+        final Bitmap bitmap;
+        final long timestamp;
+
+        Frame(CapturePipeline pipeline, Bitmap bitmap, long timestamp) {
+            this.pipeline = pipeline;
+            this.bitmap = bitmap;
+            this.timestamp = timestamp;
+        }
+    }
+
+    private final ClassifierPool mPool;
+    private final Listener mListener;
+    private final MicroBatcher<Frame> mBatcher;
+
+    /**
+     * @param pool     classifies the batches; closed with this one
+     * @param listener receives the results
+     */
+    BurstClassifier(ClassifierPool pool, Listener listener) {
+        mPool = pool;
+        mListener = listener;
+        mBatcher = new MicroBatcher<>(BATCH_SIZE, MAX_LATENCY_MS, MAX_PENDING,
+                new MicroBatcher.Sink<Frame>() {
+                    @Override
+                    public void onBatch(List<Frame> batch) {
+                        classify(batch);
+                    }
+                });
+        mBatcher.start();
+    }
+
+    ModelDescriptor getDescriptor() {
+        return mPool.getDescriptor();
+    }
+
+    /**
+     * Queue a frame of a burst.
+     *
+     * @param bitmap the frame at the model input size, not changed afterwards
+     * @return false if too many frames are waiting already
+     */
+    boolean submit(CapturePipeline pipeline, Bitmap bitmap, long timestamp) {
+        return mBatcher.submit(new Frame(pipeline, bitmap, timestamp));
+    }
+
+    /**
+     * Hand a batch to the next idle interpreter of the pool. Runs on the batcher thread.
+     */
+    private void classify(final List<Frame> batch) {
+        List<Bitmap> bitmaps = new ArrayList<>(batch.size());
+        for (Frame frame : batch) {
+            bitmaps.add(frame.bitmap);
+        }
+        mPool.submitBatch(bitmaps, new ClassifierPool.BatchCallback() {
+            @Override
+            public void onBatchClassified(List<Bitmap> bitmaps,
+                                          List<ClassificationResult> results) {
+                for (int i = 0; i < batch.size(); i++) {
+                    Frame frame = batch.get(i);
+                    ClassificationResult result = results != null ? results.get(i) : null;
+                    if (result != null) {
+                        result.setSource(frame.pipeline.getId());
+                        result.setTimestamp(frame.timestamp);
+                    }
+                    mListener.onBurstFrameClassified(frame.pipeline, frame.bitmap, result);
+                }
+            }
+        });
+    }
+
+    /**
+     * Drop the frames still waiting for a batch, then close the pool once the running batches
+     * are done.
+     */
+    void close() {
+        mBatcher.quit();
+        mPool.close();
+        Log.d(TAG, "Closed the burst classifier of " + mPool.getDescriptor().getId());
+    }
+}
@@ -0,0 +1,497 @@
+package online.khlivniuk.complainer.service;
+
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.text.TextUtils;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import online.khlivniuk.complainer.ImagePreprocessor;
+import online.khlivniuk.complainer.classifier.ClassificationResult;
+import online.khlivniuk.complainer.classifier.ImageClassifier;
+import online.khlivniuk.complainer.classifier.TemporalSmoother;
+import online.khlivniuk.complainer.metrics.PipelineMetrics;
+import online.khlivniuk.complainer.pipeline.BufferPool;
+import online.khlivniuk.complainer.pipeline.InferenceFrame;
+import online.khlivniuk.complainer.pipeline.InferenceScheduler;
+import online.khlivniuk.complainer.pipeline.SceneChangeDetector;
+import online.khlivniuk.complainer.pipeline.TileLayout;
+import online.khlivniuk.complainer.source.FrameSource;
+import online.khlivniuk.complainer.source.SourceFrame;
+
+/**
+ * Everything that runs per frame source before the shared interpreter: a thread for the source
+ * callbacks and preprocessing, scene change detection, the inference frames, smoothing and
+ * metrics. Preprocessed frames go to the interpreter through a lane of the
+ * {@link InferenceScheduler} weighted by the pipeline's priority, so the pipelines of several
+ * cameras run side by side without one starving the others.
+ */
+class CapturePipeline {
+    /**
+     * Frames whose luma differs from the last classified frame by less than this, on average
+     * over a coarse grid, reuse its result instead of being classified. Every so many frames one
+     * is classified anyway.
+     */
+    private static final int CHANGE_GRID_WIDTH = 32;
+    private static final int CHANGE_GRID_HEIGHT = 24;
+    private static final float CHANGE_THRESHOLD = 4f;
+    private static final int MAX_SKIPPED_FRAMES = 50;
+
+    /**
+     * Receives what the pipeline leaves to the service. Called on the pipeline thread.
+     */
+    interface Host {
+        /** Whether frames should be rendered for display. */
+        boolean wantsPreview();
+
+        /** A frame was skipped because the scene hasn't changed since the last classified one. */
+        void onSceneUnchanged(CapturePipeline pipeline, long timestamp);
+
+        /** A frame was refused because no classifier is loaded. */
+        void onNoClassifier(CapturePipeline pipeline);
+
+        /** The frame source has no more frames. */
+        void onSourceFinished(CapturePipeline pipeline);
+
+        /**
+         * A frame of a burst, see {@link CapturePipeline#requestBurst(int)}, was rendered at the
+         * model input size. The host owns the bitmap.
+         */
+        void onBurstFrame(CapturePipeline pipeline, Bitmap bitmap, long timestamp);
+    }
+
+    /**
+     * Settings of one camera, written as {@code <id>[:<max fps>[:<priority>]]}.
+     */
+    static class Config {
+        final String id;
+        /** Frame rate the camera is never streamed above, 0 for no cap. */
+        final int maxFps;
+        /** Share of the interpreter when other cameras are waiting too, at least 1. */
+        final int priority;
+
+        Config(String id, int maxFps, int priority) {
+            this.id = id;
+            this.maxFps = maxFps;
+            this.priority = priority;
+        }
+
+        /**
+         * Parse a comma separated list of camera settings, e.g. {@code 0:10:2,1:5}.
+         *
+         * @return the settings, empty if {@code spec} is null or empty
+         * @throws IllegalArgumentException if the list is malformed
+         */
+        static List<Config> parse(String spec) {
+            if (TextUtils.isEmpty(spec)) {
+                return Collections.emptyList();
+            }
+            List<Config> configs = new ArrayList<>();
+            for (String camera : spec.split(",")) {
+                String[] parts = camera.trim().split(":");
+                if (parts.length > 3 || parts[0].isEmpty()) {
+                    throw new IllegalArgumentException("Bad camera setting " + camera);
+                }
+                int maxFps = parts.length > 1 ? Integer.parseInt(parts[1]) : 0;
+                int priority = parts.length > 2 ? Integer.parseInt(parts[2]) : 1;
+                if (maxFps < 0 || priority < 1) {
+                    throw new IllegalArgumentException("Bad camera setting " + camera);
+                }
+                configs.add(new Config(parts[0], maxFps, priority));
+            }
+            return configs;
+        }
+
+        @Override
+        public String toString() {
+            return id + ":" + maxFps + ":" + priority;
+        }
+    }
+
+    /**
+     * What the pipeline feeds for the current model: the preprocessor, the frames and the lane.
+     * Replaced as a whole when the model changes; a frame prepared for the old model ends up in
+     * the old lane, which nothing takes from any more.
+     */
+    static class Binding {
+        final ImagePreprocessor preprocessor;
+        /** Frames are released back here by whichever stage is done with them last. */
+        final BufferPool<InferenceFrame> frames;
+        final InferenceScheduler.Lane<InferenceFrame> lane;
+        /** Updated on the inference worker thread only. */
+        final TemporalSmoother smoother;
+
+        Binding(ImagePreprocessor preprocessor, BufferPool<InferenceFrame> frames,
+                InferenceScheduler.Lane<InferenceFrame> lane, TemporalSmoother smoother) {
+            this.preprocessor = preprocessor;
+            this.frames = frames;
+            this.lane = lane;
+            this.smoother = smoother;
+        }
+    }
+
+    private final Config mConfig;
+    private final int mIndex;
+    private final Host mHost;
+    private final HandlerThread mThread;
+    private final Handler mHandler;
+    private final Executor mExecutor = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            mHandler.post(command);
+        }
+    };
+    private final PipelineMetrics mMetrics = new PipelineMetrics();
+    /**
+     * Skips frames of an unchanged scene. Used on the pipeline thread.
+     */
+    private final SceneChangeDetector mChangeDetector = new SceneChangeDetector(
+            CHANGE_GRID_WIDTH, CHANGE_GRID_HEIGHT, CHANGE_THRESHOLD, MAX_SKIPPED_FRAMES);
+    private FrameSource mSource;
+    private volatile Binding mBinding;
+    /**
+     * Frames of the burst in progress still to be taken, see {@link #requestBurst(int)}.
+     */
+    private final AtomicInteger mBurstFrames = new AtomicInteger();
+    /**
+     * Result of the last classified frame, reused for unchanged frames. Used on the main thread.
+     */
+    private ClassificationResult mLastResult;
+
+    /**
+     * Start the pipeline thread. The frame source is given with {@link #open(FrameSource)}.
+     *
+     * @param config settings of the source
+     * @param index  position of the pipeline, see {@link InferenceFrame#source}
+     */
+    CapturePipeline(Config config, int index, Host host) {
+        mConfig = config;
+        mIndex = index;
+        mHost = host;
+        mThread = new HandlerThread("Capture-" + config.id);
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+    }
+
+    String getId() {
+        return mConfig.id;
+    }
+
+    int getIndex() {
+        return mIndex;
+    }
+
+    int getPriority() {
+        return mConfig.priority;
+    }
+
+    int getMaxFps() {
+        return mConfig.maxFps;
+    }
+
+    /** Runs the source callbacks and preprocessing, e.g. for a camera. */
+    Handler getHandler() {
+        return mHandler;
+    }
+
+    /** Same thread as {@link #getHandler()}, for sources that take an executor. */
+    Executor getExecutor() {
+        return mExecutor;
+    }
+
+    PipelineMetrics getMetrics() {
+        return mMetrics;
+    }
+
+    SceneChangeDetector getChangeDetector() {
+        return mChangeDetector;
+    }
+
+    /**
+     * The lane of the current model, or null if no classifier is loaded.
+     */
+    InferenceScheduler.Lane<InferenceFrame> getLane() {
+        Binding binding = mBinding;
+        return binding != null ? binding.lane : null;
+    }
+
+    /**
+     * The inference frames of the current model, or null if no classifier is loaded.
+     */
+    BufferPool<InferenceFrame> getFramePool() {
+        Binding binding = mBinding;
+        return binding != null ? binding.frames : null;
+    }
+
+    /**
+     * Keep a copy of the result of the last classified frame, for the frames that follow while
+     * the scene doesn't change. Called on the main thread.
+     */
+    void rememberResult(ClassificationResult result) {
+        if (mLastResult == null || mLastResult.getCapacity() != result.getCapacity()) {
+            mLastResult = new ClassificationResult(result.getCapacity());
+        }
+        mLastResult.copyFrom(result);
+    }
+
+    /**
+     * The result kept by {@link #rememberResult(ClassificationResult)}, or null if no frame has
+     * been classified yet. Owned by the pipeline; called on the main thread.
+     */
+    ClassificationResult lastResult() {
+        return mLastResult;
+    }
+
+    /**
+     * Set up what the pipeline feeds for {@code classifier}: a preprocessor writing its input
+     * format, a pool of inference frames and a lane of {@code scheduler} weighted by the
+     * pipeline's priority. Runs on the background thread; the pipeline switches to it with
+     * {@link #bind(Binding)}.
+     *
+     * @param frameWidth  width of the source frames the preprocessor expects
+     * @param frameHeight height of the source frames
+     * @param tiles       tiles to classify, or null for the center square only
+     * @param frameCount  inference frames in flight
+     * @param smoother    smooths the results of the pipeline
+     */
+    Binding createBinding(final ImageClassifier classifier, int frameWidth, int frameHeight,
+                          TileLayout tiles, int frameCount,
+                          InferenceScheduler<InferenceFrame> scheduler,
+                          TemporalSmoother smoother) {
+        ImagePreprocessor preprocessor = new ImagePreprocessor(frameWidth, frameHeight,
+                classifier.getImageSizeX(), classifier.getImageSizeY());
+        preprocessor.setTensorFormat(classifier.isQuantized(),
+                classifier.getImageMean(), classifier.getImageStd());
+        preprocessor.setMetrics(mMetrics);
+        preprocessor.setTileLayout(tiles);
+        final int previewPixels = preprocessor.getCroppedPixelCount();
+        // Frames of another size, e.g. from a corpus, are classified on their center square.
+        final int inputImages = tiles != null ? tiles.getPaddedTileCount() : 1;
+        BufferPool<InferenceFrame> frames = new BufferPool<>("Frames " + getId(), frameCount,
+                new BufferPool.Factory<InferenceFrame>() {
+                    @Override
+                    public InferenceFrame create() {
+                        ClassificationResult result = classifier.createResult();
+                        result.setSource(getId());
+                        return new InferenceFrame(classifier.allocateInputBuffer(inputImages),
+                                new int[previewPixels], result, mIndex);
+                    }
+                });
+        return new Binding(preprocessor, frames, scheduler.addLane(getPriority()), smoother);
+    }
+
+    /**
+     * Record the stage times of a frame the interpreter is done with. Called on the inference
+     * worker thread.
+     *
+     * @return time the frame waited for the interpreter, in nanoseconds
+     */
+    long recordClassified(InferenceFrame frame) {
+        ClassificationResult result = frame.result;
+        long inference = result.getStageTimeNs(ClassificationResult.Stage.INFERENCE);
+        long postprocess = result.getStageTimeNs(ClassificationResult.Stage.POSTPROCESS);
+        long queue = System.nanoTime() - frame.queuedAtNs - inference - postprocess;
+        mMetrics.record(PipelineMetrics.Stage.QUEUE, queue);
+        mMetrics.record(PipelineMetrics.Stage.INFERENCE, inference);
+        mMetrics.record(PipelineMetrics.Stage.TOP_K, postprocess);
+        mMetrics.increment(PipelineMetrics.Counter.FRAMES_CLASSIFIED);
+        return queue;
+    }
+
+    /**
+     * Write the settings, metrics and frame usage of the pipeline.
+     */
+    void dump(PrintWriter writer) {
+        InferenceScheduler.Lane<InferenceFrame> lane = getLane();
+        writer.println(String.format(Locale.US,
+                "Camera %s, max %d fps, priority %d, %d frames classified",
+                getId(), getMaxFps(), getPriority(), lane != null ? lane.getServed() : 0));
+        mMetrics.dump(writer);
+        writer.println(String.format(Locale.US, "  skip ratio %.3f",
+                mChangeDetector.getSkipRatio()));
+        BufferPool<InferenceFrame> frames = getFramePool();
+        if (frames != null) {
+            writer.println("  " + frames);
+        }
+    }
+
+    /**
+     * Open {@code source} and start taking its frames.
+     */
+    void open(FrameSource source) {
+        mSource = source;
+        source.setMetrics(mMetrics);
+        source.open(new FrameSource.Listener() {
+            @Override
+            public boolean onFrameAvailable(SourceFrame frame) {
+                return CapturePipeline.this.onFrameAvailable(frame);
+            }
+
+            @Override
+            public void onSourceFinished() {
+                mHost.onSourceFinished(CapturePipeline.this);
+            }
+        });
+    }
+
+    /**
+     * Feed frames to a newly loaded model, or to none with null.
+     */
+    void bind(Binding binding) {
+        mBinding = binding;
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                // The new model has to see a frame before its results can be reused.
+                mChangeDetector.reset();
+            }
+        });
+    }
+
+    void requestFrame() {
+        mSource.requestFrame();
+    }
+
+    /**
+     * Take the next {@code frames} frames as a burst, e.g. for a complaint: each one is handed
+     * to {@link Host#onBurstFrame} instead of the interpreter lane, whether the scene has changed
+     * or not. Frames are requested one after the other unless streaming.
+     */
+    void requestBurst(int frames) {
+        if (frames <= 0) {
+            return;
+        }
+        mBurstFrames.addAndGet(frames);
+        if (!isStreaming()) {
+            requestFrame();
+        }
+    }
+
+    /**
+     * Stream at {@code targetFps}, capped by the camera settings.
+     *
+     * @param targetFps frame rate asked for, 0 for as fast as the source allows
+     */
+    void startStreaming(int targetFps) {
+        int fps = targetFps;
+        if (mConfig.maxFps > 0) {
+            fps = fps > 0 ? Math.min(fps, mConfig.maxFps) : mConfig.maxFps;
+        }
+        mSource.startStreaming(fps);
+    }
+
+    void stopStreaming() {
+        mSource.stopStreaming();
+    }
+
+    boolean isStreaming() {
+        return mSource != null && mSource.isStreaming();
+    }
+
+    /**
+     * Close the source and stop the pipeline thread once it's done with the frames in hand.
+     */
+    void close() {
+        mBinding = null;
+        if (mSource != null) {
+            mSource.close();
+        }
+        mThread.quitSafely();
+    }
+
+    /**
+     * Preprocess a frame into a free inference frame and offer it to the interpreter. Runs on the
+     * pipeline thread, overlapping with inference of the previous frames.
+     *
+     * @return false if the frame wasn't taken
+     */
+    private boolean onFrameAvailable(SourceFrame source) {
+        Binding binding = mBinding;
+        if (binding == null) {
+            // No classifier, don't leave a single shot request hanging.
+            mHost.onNoClassifier(this);
+            return false;
+        }
+        if (mBurstFrames.get() > 0) {
+            return takeBurstFrame(source, binding);
+        }
+        InferenceFrame frame = binding.frames.acquire();
+        if (frame == null) {
+            mMetrics.increment(PipelineMetrics.Counter.POOL_EXHAUSTED);
+            if (!mSource.isRealtime()) {
+                // Offered again later: leave the scene reference alone until then.
+                return false;
+            }
+        }
+        if (!source.isJpeg() && !mChangeDetector.hasChanged(source.getY(), source.getWidth(),
+                source.getHeight(), source.getYRowStride())) {
+            if (frame != null) {
+                frame.release();
+            }
+            long timestamp = source.getTimestamp();
+            source.close();
+            mMetrics.increment(PipelineMetrics.Counter.FRAMES_SKIPPED);
+            mHost.onSceneUnchanged(this, timestamp);
+            return true;
+        }
+        if (frame == null) {
+            // Every frame is busy: reuse the one still waiting for inference, it's older anyway.
+            frame = binding.lane.poll();
+            if (frame == null) {
+                return false;
+            }
+        }
+        boolean preview = mHost.wantsPreview();
+        long startTime = System.nanoTime();
+        frame.result.setTimestamp(source.getTimestamp());
+        frame.hasPreview = preview;
+        frame.input.rewind();
+        frame.tiles = binding.preprocessor.preprocessFrame(source, frame.input,
+                preview ? frame.previewPixels : null);
+        frame.queuedAtNs = System.nanoTime();
+        frame.result.setStageTimeNs(ClassificationResult.Stage.PREPROCESS,
+                frame.queuedAtNs - startTime);
+        InferenceFrame displaced = binding.lane.offer(frame);
+        if (displaced != null) {
+            mMetrics.increment(PipelineMetrics.Counter.FRAMES_DROPPED);
+            displaced.release();
+        }
+        return true;
+    }
+
+    /**
+     * Render a frame of the burst in progress for the host. Runs on the pipeline thread.
+     *
+     * @return false if the frame wasn't taken
+     */
+    private boolean takeBurstFrame(SourceFrame source, Binding binding) {
+        // Borrowed for its buffers only.
+        InferenceFrame frame = binding.frames.acquire();
+        if (frame == null) {
+            mMetrics.increment(PipelineMetrics.Counter.POOL_EXHAUSTED);
+            return false;
+        }
+        Bitmap bitmap;
+        long timestamp = source.getTimestamp();
+        try {
+            frame.input.rewind();
+            binding.preprocessor.preprocessFrame(source, frame.input, frame.previewPixels);
+            bitmap = binding.preprocessor.createPreview(frame.previewPixels);
+        } finally {
+            frame.release();
+        }
+        int remaining = mBurstFrames.decrementAndGet();
+        mHost.onBurstFrame(this, bitmap, timestamp);
+        if (remaining > 0 && !isStreaming()) {
+            requestFrame();
+        }
+        return true;
+    }
+}
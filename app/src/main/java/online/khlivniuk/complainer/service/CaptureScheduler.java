@@ -0,0 +1,183 @@
+package online.khlivniuk.complainer.service;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import online.khlivniuk.complainer.pipeline.CaptureRateController;
+import online.khlivniuk.complainer.pipeline.SceneChangeDetector;
+
+/**
+ * Adapts the capture rate of every pipeline to what is going on, with a
+ * {@link CaptureRateController} each. Rates of 1 fps and more are streamed; below that the
+ * stream is stopped and single frames are requested, so an idle camera mostly sits still.
+ *
+ * <p>{@link #tick(List)} is called periodically on the background thread of the service; results
+ * are reported from the inference thread.
+ */
+class CaptureScheduler {
+    private static final String TAG = CaptureScheduler.class.getSimpleName();
+
+    /** How often the rates are updated. */
+    static final long TICK_MS = 1000;
+    /** Rate when idle: a frame every 5 seconds. */
+    private static final float MIN_FPS = 0.2f;
+    /** Halve the rate about every two quiet seconds. */
+    private static final float DECAY = 0.7f;
+    private static final long HOLD_MS = 10000;
+    private static final long LATENCY_BUDGET_MS = 250;
+    /** Share of the checked frames that have to change for the scene to count as changing. */
+    private static final float CHANGE_RATIO = 0.3f;
+    /** Share of the time the interpreter may be busy, for all pipelines together. */
+    private static final float BUSY_BUDGET = 0.6f;
+
+    /**
+     * Scheduling state of one pipeline.
+     */
+    private static class State {
+        final CaptureRateController controller;
+        long frames;
+        long skippedFrames;
+        long forcedFrames;
+        /** Rate streamed at, 0 when taking single frames. */
+        int streamingFps = -1;
+        long lastShotMs;
+
+        State(CaptureRateController controller) {
+            this.controller = controller;
+        }
+    }
+
+    private final int mMaxFps;
+    private final Map<CapturePipeline, State> mStates = new ConcurrentHashMap<>();
+
+    /**
+     * @param maxFps rate while something happens, further capped per camera
+     */
+    CaptureScheduler(int maxFps) {
+        mMaxFps = Math.max(1, maxFps);
+    }
+
+    int getMaxFps() {
+        return mMaxFps;
+    }
+
+    private State stateOf(CapturePipeline pipeline) {
+        State state = mStates.get(pipeline);
+        if (state == null) {
+            int maxFps = pipeline.getMaxFps() > 0 ? Math.min(mMaxFps, pipeline.getMaxFps())
+                    : mMaxFps;
+            state = new State(new CaptureRateController(MIN_FPS, maxFps, DECAY, HOLD_MS,
+                    LATENCY_BUDGET_MS, CHANGE_RATIO));
+            SceneChangeDetector detector = pipeline.getChangeDetector();
+            state.frames = detector.getFrames();
+            state.skippedFrames = detector.getSkippedFrames();
+            state.forcedFrames = detector.getForcedFrames();
+            mStates.put(pipeline, state);
+        }
+        return state;
+    }
+
+    /**
+     * A frame of {@code pipeline} was classified. Called on the inference thread.
+     */
+    void onClassified(CapturePipeline pipeline, long inferenceNs, long queueNs) {
+        State state = mStates.get(pipeline);
+        if (state != null) {
+            state.controller.onClassified(inferenceNs, queueNs);
+        }
+    }
+
+    /**
+     * Something interesting was seen by {@code pipeline}, e.g. a new dominant label.
+     */
+    void onActivity(CapturePipeline pipeline) {
+        State state = mStates.get(pipeline);
+        if (state != null) {
+            state.controller.onActivity(System.nanoTime());
+        }
+    }
+
+    /**
+     * Update the rates and start, stop or trigger the captures accordingly.
+     *
+     * @param pipelines the current pipelines; others are forgotten
+     */
+    void tick(List<CapturePipeline> pipelines) {
+        mStates.keySet().retainAll(pipelines);
+        final long nowNs = System.nanoTime();
+        List<CaptureRateController> controllers = new ArrayList<>(pipelines.size());
+        for (CapturePipeline pipeline : pipelines) {
+            State state = stateOf(pipeline);
+            SceneChangeDetector detector = pipeline.getChangeDetector();
+            long frames = detector.getFrames();
+            long skipped = detector.getSkippedFrames();
+            long forced = detector.getForcedFrames();
+            long checked = frames - state.frames;
+            long changed = checked - (skipped - state.skippedFrames)
+                    - (forced - state.forcedFrames);
+            state.frames = frames;
+            state.skippedFrames = skipped;
+            state.forcedFrames = forced;
+            state.controller.update(nowNs, checked, changed);
+            controllers.add(state.controller);
+        }
+        CaptureRateController.fitBudget(controllers, BUSY_BUDGET);
+
+        final long nowMs = SystemClock.elapsedRealtime();
+        for (CapturePipeline pipeline : pipelines) {
+            apply(pipeline, mStates.get(pipeline), nowMs);
+        }
+    }
+
+    private void apply(CapturePipeline pipeline, State state, long nowMs) {
+        float fps = state.controller.getFps();
+        int streamingFps = fps >= 1f ? Math.round(fps) : 0;
+        if (streamingFps > 0) {
+            if (streamingFps != state.streamingFps || !pipeline.isStreaming()) {
+                Log.d(TAG, "Camera " + pipeline.getId() + " streaming at " + streamingFps + " fps");
+                pipeline.startStreaming(streamingFps);
+            }
+        } else {
+            if (state.streamingFps != 0) {
+                Log.d(TAG, "Camera " + pipeline.getId() + " taking a frame every "
+                        + Math.round(1000 / fps) + " ms");
+                pipeline.stopStreaming();
+            }
+            if (nowMs - state.lastShotMs >= 1000 / fps) {
+                state.lastShotMs = nowMs;
+                pipeline.requestFrame();
+            }
+        }
+        state.streamingFps = streamingFps;
+    }
+
+    /**
+     * Stop streaming on all pipelines, the scheduler is no longer ticked.
+     */
+    void stop(List<CapturePipeline> pipelines) {
+        for (CapturePipeline pipeline : pipelines) {
+            pipeline.stopStreaming();
+        }
+        mStates.clear();
+    }
+
+    void dump(PrintWriter writer) {
+        writer.println(String.format(Locale.US, "Adaptive capture, up to %d fps", mMaxFps));
+        for (Map.Entry<CapturePipeline, State> entry : mStates.entrySet()) {
+            CaptureRateController controller = entry.getValue().controller;
+            writer.println(String.format(Locale.US,
+                    "  camera %s: %.2f fps%s, inference %.1f ms, queue %.1f ms, busy %.2f",
+                    entry.getKey().getId(), controller.getFps(),
+                    controller.isActive() ? " (active)" : "",
+                    controller.getInferenceNs() / 1e6, controller.getQueueNs() / 1e6,
+                    controller.getBusyShare()));
+        }
+    }
+}
@@ -2,6 +2,26 @@ package online.khlivniuk.complainer.service;
 
 import android.graphics.Bitmap;
 
+import online.khlivniuk.complainer.classifier.ClassificationResult;
+
 public interface HomeEventsListener {
-    void photoProcessed(Bitmap resultBitmap, String resultString);
+    /**
+     * A frame has been classified. Called on the main thread.
+     *
+     * @param resultBitmap the classified frame, or null if no preview was rendered or the scene
+     *                     hasn't changed since the last one
+     * @param result       labels, capture time and stage timings of that same frame; owned by
+     *                     the listener
+     */
+    void photoProcessed(Bitmap resultBitmap, ClassificationResult result);
+
+    /**
+     * The label seen in the last frames has changed and stayed stable for a while. Called on the
+     * main thread.
+     *
+     * @param label     the new label, or null if no label is confident enough any more
+     * @param score     smoothed score of the label
+     * @param timestamp capture time of the frame that confirmed the change
+     */
+    void dominantLabelChanged(String label, float score, long timestamp);
 }
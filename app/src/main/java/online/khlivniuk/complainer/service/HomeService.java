@@ -1,79 +1,387 @@
 package online.khlivniuk.complainer.service;
 
 import android.app.Service;
+import android.content.Context;
 import android.content.Intent;
+import android.content.SharedPreferences;
 import android.graphics.Bitmap;
-import android.media.ImageReader;
 import android.os.Binder;
+import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.IBinder;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.support.annotation.Nullable;
-import android.text.SpannableStringBuilder;
 import android.util.Log;
 
 import com.google.android.gms.auth.api.signin.GoogleSignInOptions;
 
-import org.tensorflow.lite.Interpreter;
-
+import java.io.File;
+import java.io.FileDescriptor;
 import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.MappedByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import online.khlivniuk.complainer.CameraHandler;
-import online.khlivniuk.complainer.ImagePreprocessor;
 import online.khlivniuk.complainer.R;
+import online.khlivniuk.complainer.archive.EvidenceArchiver;
+import online.khlivniuk.complainer.benchmark.CorpusReplayBenchmark;
+import online.khlivniuk.complainer.benchmark.PoolScalingBenchmark;
+import online.khlivniuk.complainer.classifier.ClassificationResult;
+import online.khlivniuk.complainer.classifier.ClassifierPool;
 import online.khlivniuk.complainer.classifier.ImageClassifier;
-import online.khlivniuk.complainer.classifier.ImageClassifierFloatInception;
+import online.khlivniuk.complainer.classifier.ModelDescriptor;
+import online.khlivniuk.complainer.classifier.ModelRegistry;
+import online.khlivniuk.complainer.classifier.TemporalSmoother;
+import online.khlivniuk.complainer.journal.JournalEntry;
+import online.khlivniuk.complainer.journal.JournalReader;
+import online.khlivniuk.complainer.journal.ResultJournal;
+import online.khlivniuk.complainer.metrics.PipelineMetrics;
+import online.khlivniuk.complainer.metrics.StartupMetrics;
+import online.khlivniuk.complainer.pipeline.InferenceFrame;
+import online.khlivniuk.complainer.pipeline.InferenceScheduler;
+import online.khlivniuk.complainer.pipeline.InferenceWorker;
+import online.khlivniuk.complainer.pipeline.SceneChangeDetector;
+import online.khlivniuk.complainer.pipeline.TileClassifier;
+import online.khlivniuk.complainer.pipeline.TileLayout;
+import online.khlivniuk.complainer.replay.FrameCorpus;
+import online.khlivniuk.complainer.source.CameraFrameSource;
+import online.khlivniuk.complainer.source.ReplayFrameSource;
+import online.khlivniuk.complainer.source.SyntheticFrameSource;
 
 public class HomeService extends Service {
     public static final String ACTION_TAKESHOT = "online.khlivniuk.complainer.ACTION_TAKESHOT";
     // adb shell am startservice -n "online.khlivniuk.complainer/.service.HomeService" -a "online.khlivniuk.complainer.ACTION_TAKESHOT"
+    public static final String ACTION_START_STREAMING = "online.khlivniuk.complainer.ACTION_START_STREAMING";
+    // adb shell am startservice -n "online.khlivniuk.complainer/.service.HomeService" -a "online.khlivniuk.complainer.ACTION_START_STREAMING" --ei "online.khlivniuk.complainer.EXTRA_TARGET_FPS" 5
+    public static final String ACTION_STOP_STREAMING = "online.khlivniuk.complainer.ACTION_STOP_STREAMING";
+    public static final String EXTRA_TARGET_FPS = "online.khlivniuk.complainer.EXTRA_TARGET_FPS";
+    /**
+     * Capture at a rate that follows the scene, up to EXTRA_TARGET_FPS: fast while it changes or
+     * the dominant label moves, a frame every few seconds when nothing happens. The choice is
+     * stored, so the service comes back capturing after a restart, with or without the activity.
+     * Streaming or stopping the stream turns it off.
+     */
+    public static final String ACTION_START_ADAPTIVE = "online.khlivniuk.complainer.ACTION_START_ADAPTIVE";
+    // adb shell am startservice -n "online.khlivniuk.complainer/.service.HomeService" -a "online.khlivniuk.complainer.ACTION_START_ADAPTIVE" --ei "online.khlivniuk.complainer.EXTRA_TARGET_FPS" 5
+    /**
+     * Measure classification throughput with 1..cores interpreters and log the result.
+     */
+    // adb shell am startservice -n "online.khlivniuk.complainer/.service.HomeService" -a "online.khlivniuk.complainer.ACTION_BENCHMARK_POOL" --ei "online.khlivniuk.complainer.EXTRA_THREADS" 1
+    public static final String ACTION_BENCHMARK_POOL = "online.khlivniuk.complainer.ACTION_BENCHMARK_POOL";
+    public static final String EXTRA_THREADS = "online.khlivniuk.complainer.EXTRA_THREADS";
+    /**
+     * Replay a recorded frame corpus through every registered model and log the report, see
+     * {@link CorpusReplayBenchmark}. The corpus is read from EXTRA_CORPUS, by default
+     * {@link CorpusReplayBenchmark#getDefaultCorpusDir}; EXTRA_THREADS sets the interpreter
+     * threads.
+     */
+    // adb push corpus /sdcard/Android/data/online.khlivniuk.complainer/files/
+    // adb shell am startservice -n "online.khlivniuk.complainer/.service.HomeService" -a "online.khlivniuk.complainer.ACTION_BENCHMARK_REPLAY" --ei "online.khlivniuk.complainer.EXTRA_ITERATIONS" 10
+    public static final String ACTION_BENCHMARK_REPLAY = "online.khlivniuk.complainer.ACTION_BENCHMARK_REPLAY";
+    public static final String EXTRA_CORPUS = "online.khlivniuk.complainer.EXTRA_CORPUS";
+    public static final String EXTRA_WARMUP = "online.khlivniuk.complainer.EXTRA_WARMUP";
+    public static final String EXTRA_ITERATIONS = "online.khlivniuk.complainer.EXTRA_ITERATIONS";
+    /**
+     * Id of the {@link ModelRegistry} model to classify with, accepted with any action. The choice
+     * is remembered across restarts.
+     */
+    // adb shell am startservice -n "online.khlivniuk.complainer/.service.HomeService" -a "online.khlivniuk.complainer.ACTION_TAKESHOT" --es "online.khlivniuk.complainer.EXTRA_MODEL" mobilenet_quant
+    public static final String EXTRA_MODEL = "online.khlivniuk.complainer.EXTRA_MODEL";
+    /**
+     * Directory of a model installed into storage, see {@link ModelRegistry#readDescriptor(File)},
+     * accepted with any action. The model is loaded and swapped in while frames keep being
+     * classified, and used again after a restart. Install each version into a new directory.
+     */
+    // adb shell am startservice -n "online.khlivniuk.complainer/.service.HomeService" --es "online.khlivniuk.complainer.EXTRA_MODEL_DIR" /sdcard/Android/data/online.khlivniuk.complainer/files/models/mobilenet_quant_v2
+    public static final String EXTRA_MODEL_DIR = "online.khlivniuk.complainer.EXTRA_MODEL_DIR";
+    /**
+     * Log the pipeline metrics, optionally clearing them afterwards. They are also part of
+     * {@code adb shell dumpsys activity service online.khlivniuk.complainer/.service.HomeService}.
+     */
+    // adb shell am startservice -n "online.khlivniuk.complainer/.service.HomeService" -a "online.khlivniuk.complainer.ACTION_DUMP_METRICS" --ez "online.khlivniuk.complainer.EXTRA_RESET" true
+    public static final String ACTION_DUMP_METRICS = "online.khlivniuk.complainer.ACTION_DUMP_METRICS";
+    public static final String EXTRA_RESET = "online.khlivniuk.complainer.EXTRA_RESET";
+    /**
+     * Log the results journaled over the last EXTRA_SECONDS, 60 by default. The journal itself
+     * is in {@link #getJournalDir()}, see {@link ResultJournal}.
+     */
+    // adb shell am startservice -n "online.khlivniuk.complainer/.service.HomeService" -a "online.khlivniuk.complainer.ACTION_DUMP_JOURNAL" --ei "online.khlivniuk.complainer.EXTRA_SECONDS" 10
+    public static final String ACTION_DUMP_JOURNAL = "online.khlivniuk.complainer.ACTION_DUMP_JOURNAL";
+    public static final String EXTRA_SECONDS = "online.khlivniuk.complainer.EXTRA_SECONDS";
+    /**
+     * Where frames come from, accepted with any action and remembered across restarts: the
+     * camera, SOURCE_REPLAY for the corpus in EXTRA_CORPUS, by default
+     * {@link CorpusReplayBenchmark#getDefaultCorpusDir}, or SOURCE_SYNTHETIC for generated
+     * frames. Streaming a replay with EXTRA_TARGET_FPS 0 classifies the corpus once at full speed
+     * and logs the metrics; EXTRA_LOOP replays it until streaming is stopped.
+     */
+    // adb shell am startservice -n "online.khlivniuk.complainer/.service.HomeService" -a "online.khlivniuk.complainer.ACTION_START_STREAMING" --es "online.khlivniuk.complainer.EXTRA_FRAME_SOURCE" replay --ei "online.khlivniuk.complainer.EXTRA_TARGET_FPS" 0
+    public static final String EXTRA_FRAME_SOURCE = "online.khlivniuk.complainer.EXTRA_FRAME_SOURCE";
+    public static final String EXTRA_LOOP = "online.khlivniuk.complainer.EXTRA_LOOP";
+    /**
+     * Cameras to stream from at once, each with its own capture pipeline, written as
+     * {@code <id>[:<max fps>[:<priority>]]} separated by commas. The cameras share the
+     * interpreter in proportion to their priority, 1 by default; the max fps caps the stream
+     * rate of that camera. All cameras are used by default. Remembered across restarts.
+     */
+    // adb shell am startservice -n "online.khlivniuk.complainer/.service.HomeService" -a "online.khlivniuk.complainer.ACTION_START_STREAMING" --es "online.khlivniuk.complainer.EXTRA_CAMERAS" "0:10:2,1:5"
+    public static final String EXTRA_CAMERAS = "online.khlivniuk.complainer.EXTRA_CAMERAS";
+    /**
+     * Save confidently classified frames as JPEG files in {@link #getEvidenceDir()}, see
+     * {@link EvidenceArchiver}. EXTRA_ARCHIVE turns it on or off; the minimum score of the best
+     * label, the JPEG quality, the longest side of the images in pixels (0 keeps the model input
+     * size) and the disk quota in MB are optional. All of it is remembered across restarts.
+     */
+    // adb shell am startservice -n "online.khlivniuk.complainer/.service.HomeService" -a "online.khlivniuk.complainer.ACTION_START_STREAMING" --ez "online.khlivniuk.complainer.EXTRA_ARCHIVE" true --ef "online.khlivniuk.complainer.EXTRA_ARCHIVE_SCORE" 0.7
+    public static final String EXTRA_ARCHIVE = "online.khlivniuk.complainer.EXTRA_ARCHIVE";
+    public static final String EXTRA_ARCHIVE_SCORE = "online.khlivniuk.complainer.EXTRA_ARCHIVE_SCORE";
+    public static final String EXTRA_ARCHIVE_QUALITY = "online.khlivniuk.complainer.EXTRA_ARCHIVE_QUALITY";
+    public static final String EXTRA_ARCHIVE_SIZE = "online.khlivniuk.complainer.EXTRA_ARCHIVE_SIZE";
+    public static final String EXTRA_ARCHIVE_QUOTA_MB = "online.khlivniuk.complainer.EXTRA_ARCHIVE_QUOTA_MB";
+    /**
+     * Classify the whole frame as overlapping tiles instead of its center square only: the tile
+     * sizes relative to the smaller side of the frame, separated by commas, coarsest first. Tiles
+     * are classified in batches, and the rest of a frame is skipped once a tile reaches
+     * EXTRA_TILE_EXIT_SCORE. An empty list turns tiling off. Remembered across restarts.
+     */
+    // adb shell am startservice -n "online.khlivniuk.complainer/.service.HomeService" -a "online.khlivniuk.complainer.ACTION_START_STREAMING" --es "online.khlivniuk.complainer.EXTRA_TILE_SCALES" "1,0.5" --ef "online.khlivniuk.complainer.EXTRA_TILE_EXIT_SCORE" 0.8
+    public static final String EXTRA_TILE_SCALES = "online.khlivniuk.complainer.EXTRA_TILE_SCALES";
+    public static final String EXTRA_TILE_EXIT_SCORE = "online.khlivniuk.complainer.EXTRA_TILE_EXIT_SCORE";
+    /**
+     * Take a burst of EXTRA_FRAMES frames from every camera, e.g. for a complaint, and classify
+     * them in batches on a pool of interpreters, next to streaming. Each result is reported with
+     * its frame.
+     */
+    // adb shell am startservice -n "online.khlivniuk.complainer/.service.HomeService" -a "online.khlivniuk.complainer.ACTION_BURST" --ei "online.khlivniuk.complainer.EXTRA_FRAMES" 8
+    public static final String ACTION_BURST = "online.khlivniuk.complainer.ACTION_BURST";
+    public static final String EXTRA_FRAMES = "online.khlivniuk.complainer.EXTRA_FRAMES";
+    public static final String SOURCE_CAMERA = "camera";
+    public static final String SOURCE_REPLAY = "replay";
+    public static final String SOURCE_SYNTHETIC = "synthetic";
     /**
      * Camera image capture size
      */
     private static final int PREVIEW_IMAGE_WIDTH = 640;
     private static final int PREVIEW_IMAGE_HEIGHT = 480;
     /**
-     * Image dimensions required by TF model
+     * Service configuration
      */
-    private static final int TF_INPUT_IMAGE_WIDTH = 224;
-    private static final int TF_INPUT_IMAGE_HEIGHT = 224;
+    private static final String PREFS_NAME = "home_service";
+    private static final String PREF_MODEL = "model";
+    private static final String PREF_MODEL_DIR = "model_dir";
+    private static final String PREF_FRAME_SOURCE = "frame_source";
+    private static final String PREF_CORPUS = "corpus";
+    private static final String PREF_LOOP = "loop";
+    private static final String PREF_CAMERAS = "cameras";
+    private static final String PREF_TILE_SCALES = "tile_scales";
+    private static final String PREF_TILE_EXIT_SCORE = "tile_exit_score";
+    private static final String PREF_ARCHIVE = "archive";
+    private static final String PREF_ARCHIVE_SCORE = "archive_score";
+    private static final String PREF_ARCHIVE_QUALITY = "archive_quality";
+    private static final String PREF_ARCHIVE_SIZE = "archive_size";
+    private static final String PREF_ARCHIVE_QUOTA_MB = "archive_quota_mb";
+    private static final String PREF_ADAPTIVE_FPS = "adaptive_fps";
+    private static final String TAG = HomeService.class.getSimpleName();
     /**
-     * Dimensions of model inputs.
+     * Frames in flight per capture pipeline: one being preprocessed, one waiting for inference
+     * and one being classified.
      */
-    private static final int DIM_BATCH_SIZE = 1;
-    private static final int DIM_PIXEL_SIZE = 3;
+    private static final int INFERENCE_FRAMES = 3;
     /**
-     * TF model asset files
+     * Smoothing of the streamed results: the dominant label is reported once it has been on top
+     * for this many frames, with at least this smoothed score.
      */
-    private static final String LABELS_FILE = "retrained_labels.txt";
-    private static final String MODEL_FILE = "optimized_graph.lite";
-    private static final String TAG = HomeService.class.getSimpleName();
+    private static final int DEBOUNCE_FRAMES = 3;
+    private static final float MIN_DOMINANT_SCORE = 0.3f;
+    /**
+     * Every classified frame is journaled; 16 segments of 4 MB keep the last million or so.
+     */
+    private static final String JOURNAL_DIR = "journal";
+    private static final int JOURNAL_SEGMENT_SIZE = 4 << 20;
+    private static final int JOURNAL_SEGMENTS = 16;
+    /**
+     * Tiling: neighbouring tiles overlap by half, and are classified three at a time, which is
+     * the number of full size tiles of a 4:3 frame.
+     */
+    private static final float TILE_OVERLAP = 0.5f;
+    private static final int TILE_BATCH_SIZE = 3;
+    private static final float TILE_EXIT_SCORE = 0.8f;
+    /**
+     * Evidence archive defaults.
+     */
+    private static final String EVIDENCE_DIR = "evidence";
+    private static final float ARCHIVE_MIN_SCORE = 0.7f;
+    private static final int ARCHIVE_QUALITY = 85;
+    private static final int ARCHIVE_QUOTA_MB = 200;
+    /**
+     * Frames the archive may hold while they are written. They come on top of the inference
+     * frames of each pipeline, so archiving doesn't starve capture.
+     */
+    private static final int ARCHIVE_FRAMES = 2;
+    /**
+     * Interpreter runs on a blank input before the first frame, 0 to skip prewarming.
+     */
+    private static final int PREWARM_RUNS = 1;
+    /**
+     * Frames of a burst, unless given with {@link #EXTRA_FRAMES}.
+     */
+    private static final int BURST_FRAMES = 5;
     private final IBinder mBinder = new HomeBinder();
-    private boolean mProcessing;
-    private Interpreter mTensorFlowLite;
-    private List<String> mLabels;
-    private CameraHandler mCameraHandler;
-    private ImagePreprocessor mImagePreprocessor;
-    private HomeEventsListener mListener;
-    private Bitmap mBitmap;
+    private final AtomicBoolean mProcessing = new AtomicBoolean();
+    /**
+     * A shot was requested while the previous one was processed; it is taken right after.
+     */
+    private final AtomicBoolean mShotPending = new AtomicBoolean();
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    /**
+     * Metrics of the shared interpreter. Each capture pipeline has its own.
+     */
+    private final PipelineMetrics mMetrics = new PipelineMetrics();
+    /**
+     * Startup timings, from the creation of the service and from device boot.
+     */
+    private final StartupMetrics mStartup = new StartupMetrics(SystemClock.elapsedRealtime());
+    /**
+     * Done once the first classifier is loaded and bound to the capture pipelines, or failed to
+     * load; its value tells which.
+     */
+    private final FutureTask<Boolean> mReady = new FutureTask<>(new Callable<Boolean>() {
+        @Override
+        public Boolean call() {
+            return classifier != null;
+        }
+    });
+    /**
+     * Requests waiting for {@link #mReady}, run on the background thread.
+     */
+    private final List<Runnable> mWaitingForReady = new ArrayList<>();
+    /**
+     * Classifier setup and the capture pipelines are managed on this thread. Each pipeline runs
+     * its frame source and preprocessing on a thread of its own.
+     */
+    private HandlerThread mBackgroundThread;
+    private Handler mBackgroundHandler;
+    /**
+     * One per camera, or a single one for a replayed or generated source. Replaced on the
+     * background thread.
+     */
+    private volatile List<CapturePipeline> mPipelines = Collections.emptyList();
+    private int mStreamingFps;
+    private volatile HomeEventsListener mListener;
     private ImageClassifier classifier;
+    private InferenceWorker mInferenceWorker;
+    /**
+     * Counts model loads; only the result of the latest one is used.
+     */
+    private final AtomicInteger mLoadGeneration = new AtomicInteger();
+    /**
+     * Runs model loads: the label list is read on one thread while the model is mapped on the
+     * other. Shut down with the service.
+     */
+    private final ExecutorService mLoaderExecutor = Executors.newFixedThreadPool(2);
+    /**
+     * Id of the model being loaded, null when none is.
+     */
+    private volatile String mLoadingModelId;
+    /**
+     * Appended to on the inference worker thread, null if it couldn't be opened.
+     */
+    private volatile ResultJournal mJournal;
+    /**
+     * Fed on the inference worker thread, null unless turned on with {@link #EXTRA_ARCHIVE}.
+     */
+    private volatile EvidenceArchiver mArchiver;
+    /**
+     * Sets the capture rate while adaptive capture is on, null otherwise. Replaced on the
+     * background thread, fed on the inference worker thread.
+     */
+    private volatile CaptureScheduler mScheduler;
+    /**
+     * Classifies burst frames for the current model, created by the first burst. Replaced on the
+     * background thread, fed on the pipeline threads.
+     */
+    private volatile BurstClassifier mBurstClassifier;
+    private final Runnable mSchedulerTick = new Runnable() {
+        @Override
+        public void run() {
+            CaptureScheduler scheduler = mScheduler;
+            if (scheduler == null) {
+                return;
+            }
+            scheduler.tick(mPipelines);
+            mBackgroundHandler.postDelayed(this, CaptureScheduler.TICK_MS);
+        }
+    };
 
     private void destroyClassifier() {
-        mTensorFlowLite.close();
+        if (classifier != null) {
+            classifier.close();
+            classifier = null;
+        }
     }
 
-    private void closeCamera() {
-        mCameraHandler.shutDown();
+    private void closePipelines() {
+        for (CapturePipeline pipeline : mPipelines) {
+            pipeline.close();
+        }
+        mPipelines = Collections.emptyList();
     }
 
+    /**
+     * Take a single frame from every capture pipeline.
+     */
     private void loadPhoto() {
-        mCameraHandler.takePicture();
+        mBackgroundHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!mReady.isDone()) {
+                    mWaitingForReady.add(this);
+                    return;
+                }
+                if (mPipelines.isEmpty()) {
+                    finishProcessing();
+                }
+                for (CapturePipeline pipeline : mPipelines) {
+                    pipeline.requestFrame();
+                }
+            }
+        });
     }
 
     @Override
     public void onCreate() {
         super.onCreate();
-        initCamera();
-        initClassifier();
+        mBackgroundThread = new HandlerThread("CameraBackground");
+        mBackgroundThread.start();
+        mBackgroundHandler = new Handler(mBackgroundThread.getLooper());
+        // The cameras are opened while the model loads.
+        mBackgroundHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                openJournal();
+                openArchiver();
+                openPipelines();
+                mStartup.mark(StartupMetrics.Milestone.PIPELINES_OPENED);
+            }
+        });
+        registerInstalledModel();
+        loadClassifierAsync(getSelectedModel());
         GoogleSignInOptions gso = new GoogleSignInOptions.Builder(GoogleSignInOptions.DEFAULT_SIGN_IN)
                 .requestIdToken(getString(R.string.default_web_client_id))
                 .requestEmail()
@@ -82,85 +390,1190 @@ public class HomeService extends Service {
 
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
-        if (ACTION_TAKESHOT.equals(intent.getAction())) {
+        String action = intent != null ? intent.getAction() : null;
+        if (intent != null && intent.hasExtra(EXTRA_MODEL_DIR)) {
+            installModel(new File(intent.getStringExtra(EXTRA_MODEL_DIR)));
+        } else if (intent != null && intent.hasExtra(EXTRA_MODEL)) {
+            selectModel(intent.getStringExtra(EXTRA_MODEL));
+        }
+        if (intent != null
+                && (intent.hasExtra(EXTRA_FRAME_SOURCE) || intent.hasExtra(EXTRA_CAMERAS))) {
+            SharedPreferences prefs = getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+            String type = intent.getStringExtra(EXTRA_FRAME_SOURCE);
+            String cameras = intent.getStringExtra(EXTRA_CAMERAS);
+            selectFrameSource(type != null ? type : prefs.getString(PREF_FRAME_SOURCE,
+                    SOURCE_CAMERA),
+                    intent.getStringExtra(EXTRA_CORPUS),
+                    intent.getBooleanExtra(EXTRA_LOOP, false),
+                    cameras != null ? cameras : prefs.getString(PREF_CAMERAS, null));
+        }
+        if (intent != null && intent.hasExtra(EXTRA_TILE_SCALES)) {
+            selectTiling(intent.getStringExtra(EXTRA_TILE_SCALES),
+                    intent.getFloatExtra(EXTRA_TILE_EXIT_SCORE, TILE_EXIT_SCORE));
+        }
+        if (intent != null && intent.hasExtra(EXTRA_ARCHIVE)) {
+            configureArchive(intent.getBooleanExtra(EXTRA_ARCHIVE, false),
+                    intent.getFloatExtra(EXTRA_ARCHIVE_SCORE, ARCHIVE_MIN_SCORE),
+                    intent.getIntExtra(EXTRA_ARCHIVE_QUALITY, ARCHIVE_QUALITY),
+                    intent.getIntExtra(EXTRA_ARCHIVE_SIZE, 0),
+                    intent.getIntExtra(EXTRA_ARCHIVE_QUOTA_MB, ARCHIVE_QUOTA_MB));
+        }
+        if (ACTION_TAKESHOT.equals(action)) {
             Log.d(TAG, "Got action");
             imageRequest();
+        } else if (ACTION_BURST.equals(action)) {
+            burstRequest(intent.getIntExtra(EXTRA_FRAMES, BURST_FRAMES));
+        } else if (ACTION_START_STREAMING.equals(action)) {
+            startStreaming(intent.getIntExtra(EXTRA_TARGET_FPS, CameraHandler.DEFAULT_TARGET_FPS));
+        } else if (ACTION_START_ADAPTIVE.equals(action)) {
+            startAdaptive(intent.getIntExtra(EXTRA_TARGET_FPS, CameraHandler.DEFAULT_TARGET_FPS));
+        } else if (ACTION_STOP_STREAMING.equals(action)) {
+            stopStreaming();
+        } else if (ACTION_BENCHMARK_POOL.equals(action)) {
+            runPoolBenchmark(intent.getIntExtra(EXTRA_THREADS, 1));
+        } else if (ACTION_BENCHMARK_REPLAY.equals(action)) {
+            String corpus = intent.getStringExtra(EXTRA_CORPUS);
+            runReplayBenchmark(corpus != null ? new File(corpus)
+                            : CorpusReplayBenchmark.getDefaultCorpusDir(this),
+                    intent.getIntExtra(EXTRA_WARMUP, 2),
+                    intent.getIntExtra(EXTRA_ITERATIONS, 10),
+                    intent.getIntExtra(EXTRA_THREADS, 0));
+        } else if (ACTION_DUMP_JOURNAL.equals(action)) {
+            dumpJournal(intent.getIntExtra(EXTRA_SECONDS, 60));
+        } else if (ACTION_DUMP_METRICS.equals(action)) {
+            Log.i(TAG, "Interpreter\n" + mMetrics);
+            for (CapturePipeline pipeline : mPipelines) {
+                Log.i(TAG, "Camera " + pipeline.getId() + "\n" + pipeline.getMetrics());
+            }
+            if (intent.getBooleanExtra(EXTRA_RESET, false)) {
+                mMetrics.reset();
+                for (CapturePipeline pipeline : mPipelines) {
+                    pipeline.getMetrics().reset();
+                }
+            }
         }
         return Service.START_STICKY;
     }
 
-    private void initCamera() {
-        mImagePreprocessor = new ImagePreprocessor(PREVIEW_IMAGE_WIDTH, PREVIEW_IMAGE_HEIGHT,
-                TF_INPUT_IMAGE_WIDTH, TF_INPUT_IMAGE_HEIGHT);
-        mCameraHandler = CameraHandler.getInstance();
-        mCameraHandler.initializeCamera(this,
-                PREVIEW_IMAGE_WIDTH, PREVIEW_IMAGE_HEIGHT, null,
-                new ImageReader.OnImageAvailableListener() {
+    private void openJournal() {
+        try {
+            mJournal = new ResultJournal(getJournalDir(), JOURNAL_SEGMENT_SIZE, JOURNAL_SEGMENTS);
+        } catch (IOException e) {
+            Log.w(TAG, "Cannot open the result journal, results won't be kept", e);
+        }
+    }
+
+    private void closeJournal() {
+        ResultJournal journal = mJournal;
+        mJournal = null;
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                Log.w(TAG, "Cannot close the result journal", e);
+            }
+        }
+    }
+
+    /**
+     * Start the evidence archiver if it is turned on. Runs on the background thread.
+     */
+    private void openArchiver() {
+        SharedPreferences prefs = getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        if (!prefs.getBoolean(PREF_ARCHIVE, false)) {
+            return;
+        }
+        try {
+            EvidenceArchiver archiver = new EvidenceArchiver.Builder(getEvidenceDir())
+                    .minScore(prefs.getFloat(PREF_ARCHIVE_SCORE, ARCHIVE_MIN_SCORE))
+                    .quality(prefs.getInt(PREF_ARCHIVE_QUALITY, ARCHIVE_QUALITY))
+                    .maxSize(prefs.getInt(PREF_ARCHIVE_SIZE, 0))
+                    .quotaBytes((long) prefs.getInt(PREF_ARCHIVE_QUOTA_MB, ARCHIVE_QUOTA_MB) << 20)
+                    .queueSize(ARCHIVE_FRAMES)
+                    .build();
+            archiver.start();
+            mArchiver = archiver;
+        } catch (IllegalStateException e) {
+            Log.w(TAG, "Bad archive settings, frames won't be archived", e);
+        }
+    }
+
+    private void closeArchiver() {
+        EvidenceArchiver archiver = mArchiver;
+        mArchiver = null;
+        if (archiver != null) {
+            archiver.quit();
+            Log.i(TAG, "Evidence archive: " + archiver);
+        }
+    }
+
+    /**
+     * Turn the evidence archive on or off, see {@link #EXTRA_ARCHIVE}. The settings are stored,
+     * so the service comes back with them after a restart. The pipelines are set up again between
+     * frames, with room for the frames the archive holds.
+     *
+     * @param enabled  whether to archive frames at all
+     * @param minScore score the best label of a frame needs for it to be archived
+     * @param quality  JPEG quality, 0..100
+     * @param maxSize  longest side of the archived images, 0 for the model input size
+     * @param quotaMb  disk space the archive may take up, the oldest files are deleted beyond it
+     */
+    public void configureArchive(boolean enabled, float minScore, int quality, int maxSize,
+                                 int quotaMb) {
+        getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).edit()
+                .putBoolean(PREF_ARCHIVE, enabled)
+                .putFloat(PREF_ARCHIVE_SCORE, minScore)
+                .putInt(PREF_ARCHIVE_QUALITY, quality)
+                .putInt(PREF_ARCHIVE_SIZE, maxSize)
+                .putInt(PREF_ARCHIVE_QUOTA_MB, quotaMb)
+                .apply();
+        mBackgroundHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                boolean hadArchiver = mArchiver != null;
+                closeArchiver();
+                openArchiver();
+                if (hadArchiver != (mArchiver != null)) {
+                    stopPipeline();
+                    startPipeline();
+                }
+            }
+        });
+    }
+
+    /**
+     * Where the evidence archive is kept, {@code /sdcard/Android/data/<package>/files/evidence}
+     * so it can be pulled with adb, or internal storage without external storage.
+     */
+    public File getEvidenceDir() {
+        File dir = getExternalFilesDir(EVIDENCE_DIR);
+        return dir != null ? dir : new File(getFilesDir(), EVIDENCE_DIR);
+    }
+
+    /**
+     * Where every classified frame is journaled, read it with a {@link JournalReader}.
+     */
+    public File getJournalDir() {
+        return new File(getFilesDir(), JOURNAL_DIR);
+    }
+
+    /**
+     * Log the results journaled over the last {@code seconds}. Runs on the background thread.
+     */
+    private void dumpJournal(final int seconds) {
+        mBackgroundHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                long now = System.currentTimeMillis();
+                try {
+                    int count = new JournalReader(getJournalDir()).scan(now - seconds * 1000L,
+                            now, new JournalReader.Visitor() {
+                                @Override
+                                public boolean visit(JournalEntry entry) {
+                                    Log.i(TAG, entry.toString());
+                                    return true;
+                                }
+                            });
+                    Log.i(TAG, count + " results in the last " + seconds + " s");
+                } catch (IOException e) {
+                    Log.w(TAG, "Cannot read the result journal", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Open a capture pipeline for every camera chosen with {@link #EXTRA_CAMERAS}, or a single
+     * one for the source chosen with {@link #EXTRA_FRAME_SOURCE}. Runs on the background thread.
+     */
+    private void openPipelines() {
+        SharedPreferences prefs = getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        String type = prefs.getString(PREF_FRAME_SOURCE, SOURCE_CAMERA);
+        List<CapturePipeline> pipelines = new ArrayList<>();
+        if (SOURCE_REPLAY.equals(type)) {
+            String corpus = prefs.getString(PREF_CORPUS, null);
+            File corpusDir = corpus != null ? new File(corpus)
+                    : CorpusReplayBenchmark.getDefaultCorpusDir(this);
+            try {
+                FrameCorpus frames = FrameCorpus.load(corpusDir);
+                CapturePipeline pipeline = new CapturePipeline(
+                        new CapturePipeline.Config(SOURCE_REPLAY, 0, 1), 0, mPipelineHost);
+                pipeline.open(new ReplayFrameSource(frames, prefs.getBoolean(PREF_LOOP, false),
+                        pipeline.getExecutor()));
+                pipelines.add(pipeline);
+                Log.d(TAG, "Replaying " + corpusDir);
+            } catch (IOException e) {
+                Log.w(TAG, "Cannot load the corpus in " + corpusDir + ", using the camera", e);
+            }
+        } else if (SOURCE_SYNTHETIC.equals(type)) {
+            CapturePipeline pipeline = new CapturePipeline(
+                    new CapturePipeline.Config(SOURCE_SYNTHETIC, 0, 1), 0, mPipelineHost);
+            pipeline.open(new SyntheticFrameSource(PREVIEW_IMAGE_WIDTH, PREVIEW_IMAGE_HEIGHT,
+                    pipeline.getExecutor()));
+            pipelines.add(pipeline);
+        }
+        if (pipelines.isEmpty()) {
+            for (CapturePipeline.Config config : getCameraConfigs(prefs)) {
+                CapturePipeline pipeline = new CapturePipeline(config, pipelines.size(),
+                        mPipelineHost);
+                pipeline.open(new CameraFrameSource(this, config.id,
+                        PREVIEW_IMAGE_WIDTH, PREVIEW_IMAGE_HEIGHT, pipeline.getHandler()));
+                pipelines.add(pipeline);
+                Log.d(TAG, "Opened camera " + config);
+            }
+        }
+        mPipelines = Collections.unmodifiableList(pipelines);
+    }
+
+    /**
+     * The cameras chosen with {@link #EXTRA_CAMERAS}, or all of them.
+     */
+    private List<CapturePipeline.Config> getCameraConfigs(SharedPreferences prefs) {
+        try {
+            List<CapturePipeline.Config> configs =
+                    CapturePipeline.Config.parse(prefs.getString(PREF_CAMERAS, null));
+            if (!configs.isEmpty()) {
+                return configs;
+            }
+        } catch (IllegalArgumentException e) {
+            Log.w(TAG, "Bad camera settings, using all cameras", e);
+        }
+        List<CapturePipeline.Config> configs = new ArrayList<>();
+        for (String id : CameraHandler.getCameraIds(this)) {
+            configs.add(new CapturePipeline.Config(id, 0, 1));
+        }
+        return configs;
+    }
+
+    /**
+     * Switch to another frame source, see {@link #EXTRA_FRAME_SOURCE} and
+     * {@link #EXTRA_CAMERAS}. The choice is stored, so the service comes back with the same
+     * source after a restart. A running stream carries on with the new source.
+     *
+     * @param type      SOURCE_CAMERA, SOURCE_REPLAY or SOURCE_SYNTHETIC
+     * @param corpusDir corpus to replay, null for the default one
+     * @param loop      replay the corpus until streaming is stopped
+     * @param cameras   cameras to use, null for all of them
+     * @return false if there is no such source or the camera settings are malformed
+     */
+    public boolean selectFrameSource(String type, String corpusDir, boolean loop,
+                                     String cameras) {
+        if (!SOURCE_CAMERA.equals(type) && !SOURCE_REPLAY.equals(type)
+                && !SOURCE_SYNTHETIC.equals(type)) {
+            Log.w(TAG, "Unknown frame source " + type);
+            return false;
+        }
+        try {
+            CapturePipeline.Config.parse(cameras);
+        } catch (IllegalArgumentException e) {
+            Log.w(TAG, "Bad camera settings " + cameras, e);
+            return false;
+        }
+        getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).edit()
+                .putString(PREF_FRAME_SOURCE, type)
+                .putString(PREF_CORPUS, corpusDir)
+                .putBoolean(PREF_LOOP, loop)
+                .putString(PREF_CAMERAS, cameras)
+                .apply();
+        mBackgroundHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                boolean streaming = isStreaming();
+                stopPipeline();
+                closePipelines();
+                openPipelines();
+                startPipeline();
+                // The scheduler picks the new pipelines up on its next tick.
+                if (streaming && mScheduler == null) {
+                    for (CapturePipeline pipeline : mPipelines) {
+                        pipeline.startStreaming(mStreamingFps);
+                    }
+                }
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Turn tiling on or off, see {@link #EXTRA_TILE_SCALES}. The choice is stored, so the service
+     * comes back with it after a restart. The pipelines are set up again between frames.
+     *
+     * @param scales    tile sizes, e.g. {@code "1,0.5"}, empty or null to classify the center
+     *                  square only
+     * @param exitScore score of a single tile at which the rest of the frame is skipped
+     * @return false if the scales are malformed
+     */
+    public boolean selectTiling(String scales, float exitScore) {
+        try {
+            // Check the values as well as the syntax.
+            float[] values = TileLayout.parseScales(scales);
+            if (values.length > 0) {
+                new TileLayout(PREVIEW_IMAGE_WIDTH, PREVIEW_IMAGE_HEIGHT, values, TILE_OVERLAP,
+                        TILE_BATCH_SIZE);
+            }
+        } catch (IllegalArgumentException e) {
+            Log.w(TAG, "Bad tile scales " + scales, e);
+            return false;
+        }
+        getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).edit()
+                .putString(PREF_TILE_SCALES, scales)
+                .putFloat(PREF_TILE_EXIT_SCORE, exitScore)
+                .apply();
+        mBackgroundHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                stopPipeline();
+                startPipeline();
+            }
+        });
+        return true;
+    }
+
+    /**
+     * The tile layout chosen with {@link #EXTRA_TILE_SCALES} for frames of the capture size, or
+     * null to classify the center square only.
+     */
+    private TileLayout getTileLayout(SharedPreferences prefs) {
+        try {
+            float[] scales = TileLayout.parseScales(prefs.getString(PREF_TILE_SCALES, null));
+            if (scales.length > 0) {
+                return new TileLayout(PREVIEW_IMAGE_WIDTH, PREVIEW_IMAGE_HEIGHT, scales,
+                        TILE_OVERLAP, TILE_BATCH_SIZE);
+            }
+        } catch (IllegalArgumentException e) {
+            Log.w(TAG, "Bad tile settings, tiling is off", e);
+        }
+        return null;
+    }
+
+    /**
+     * Callbacks of the capture pipelines, on their threads.
+     */
+    private final CapturePipeline.Host mPipelineHost = new CapturePipeline.Host() {
+        @Override
+        public boolean wantsPreview() {
+            return mListener != null || mArchiver != null;
+        }
+
+        @Override
+        public void onSceneUnchanged(CapturePipeline pipeline, long timestamp) {
+            HomeService.this.onSceneUnchanged(pipeline, timestamp);
+        }
+
+        @Override
+        public void onNoClassifier(CapturePipeline pipeline) {
+            finishProcessing();
+        }
+
+        @Override
+        public void onSourceFinished(CapturePipeline pipeline) {
+            Log.i(TAG, "Frame source " + pipeline.getId() + " finished\n"
+                    + pipeline.getMetrics());
+        }
+
+        @Override
+        public void onBurstFrame(CapturePipeline pipeline, Bitmap bitmap, long timestamp) {
+            BurstClassifier burstClassifier = mBurstClassifier;
+            if (burstClassifier == null || !burstClassifier.submit(pipeline, bitmap, timestamp)) {
+                pipeline.getMetrics().increment(PipelineMetrics.Counter.FRAMES_DROPPED);
+            }
+        }
+    };
+
+    /**
+     * Publishes classified burst frames on the main thread.
+     */
+    private final BurstClassifier.Listener mBurstListener = new BurstClassifier.Listener() {
+        @Override
+        public void onBurstFrameClassified(final CapturePipeline pipeline, final Bitmap bitmap,
+                                           final ClassificationResult result) {
+            if (result == null) {
+                return;
+            }
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    HomeEventsListener listener = mListener;
+                    if (listener != null) {
+                        dispatch(pipeline, listener, bitmap, result);
+                    }
+                }
+            });
+        }
+    };
+
+    /**
+     * The model chosen with {@link #EXTRA_MODEL}, or the default one.
+     */
+    private ModelDescriptor getSelectedModel() {
+        String modelId = getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
+                .getString(PREF_MODEL, ModelRegistry.DEFAULT_MODEL);
+        ModelDescriptor descriptor = ModelRegistry.get(modelId);
+        if (descriptor == null) {
+            Log.w(TAG, "Unknown model " + modelId + ", using " + ModelRegistry.DEFAULT_MODEL);
+            descriptor = ModelRegistry.get(ModelRegistry.DEFAULT_MODEL);
+        }
+        return descriptor;
+    }
+
+    /**
+     * Register the model last installed with {@link #EXTRA_MODEL_DIR}, if any, so it can be
+     * selected again.
+     */
+    private void registerInstalledModel() {
+        String directory = getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
+                .getString(PREF_MODEL_DIR, null);
+        if (directory == null) {
+            return;
+        }
+        try {
+            ModelRegistry.register(ModelRegistry.readDescriptor(new File(directory)));
+        } catch (IOException e) {
+            Log.w(TAG, "Installed model in " + directory + " is gone", e);
+        }
+    }
+
+    /**
+     * Load a classifier off the background thread: the label list is read while the model is
+     * mapped, then the interpreter is created and prewarmed. The classifier is handed to the
+     * background thread afterwards, which binds the pipelines to it, swapping out the previous
+     * one, and marks the service ready. A load started later supersedes this one.
+     */
+    private void loadClassifierAsync(final ModelDescriptor descriptor) {
+        final int generation = mLoadGeneration.incrementAndGet();
+        mLoadingModelId = descriptor.getId();
+        final long startTime = System.nanoTime();
+        final Future<List<String>> labels = mLoaderExecutor.submit(new Callable<List<String>>() {
+            @Override
+            public List<String> call() throws IOException {
+                List<String> list = ImageClassifier.loadLabelList(HomeService.this, descriptor);
+                mStartup.mark(StartupMetrics.Milestone.LABELS_LOADED);
+                return list;
+            }
+        });
+        mLoaderExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                ImageClassifier loaded = null;
+                boolean complete = false;
+                try {
+                    MappedByteBuffer model = ImageClassifier.loadModelFile(HomeService.this,
+                            descriptor);
+                    mStartup.mark(StartupMetrics.Milestone.MODEL_MAPPED);
+                    loaded = ImageClassifier.create(descriptor, model, labels.get(), 0);
+                    mStartup.mark(StartupMetrics.Milestone.INTERPRETER_CREATED);
+                    if (PREWARM_RUNS > 0) {
+                        long prewarmNs = loaded.prewarm(PREWARM_RUNS);
+                        mStartup.mark(StartupMetrics.Milestone.PREWARMED);
+                        Log.d(TAG, "Prewarmed " + descriptor + " in "
+                                + prewarmNs / 1000000 + " ms");
+                    }
+                    complete = true;
+                    Log.d(TAG, "Loaded " + descriptor + " in "
+                            + (System.nanoTime() - startTime) / 1000000 + " ms");
+                } catch (IOException | ExecutionException | RuntimeException e) {
+                    // A corrupt model makes the interpreter throw, a model that doesn't match its
+                    // descriptor fails the prewarm; the current one keeps classifying.
+                    Log.w(TAG, "Classifier " + descriptor + " can't be loaded", e);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    if (!complete && loaded != null) {
+                        loaded.close();
+                        loaded = null;
+                    }
+                    // Posted whatever happened, even an error on the way out, so the service
+                    // gets ready and the requests waiting for it are answered.
+                    postLoaded(loaded, generation);
+                }
+            }
+        });
+    }
+
+    /**
+     * Hand the result of a load to the background thread, see {@link #onClassifierLoaded}.
+     */
+    private void postLoaded(final ImageClassifier classifier, final int generation) {
+        boolean posted = mBackgroundHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                onClassifierLoaded(classifier, generation);
+            }
+        });
+        if (!posted && classifier != null) {
+            // The service is gone already.
+            classifier.close();
+        }
+    }
+
+    /**
+     * Bind the pipelines to a newly loaded classifier and mark the service ready. Runs on the
+     * background thread.
+     *
+     * @param loaded     the classifier, null if it couldn't be loaded
+     * @param generation the load it comes from; results of superseded loads are dropped
+     */
+    private void onClassifierLoaded(ImageClassifier loaded, int generation) {
+        if (generation != mLoadGeneration.get()) {
+            // Another model was selected in the meantime, its load will finish the job.
+            if (loaded != null) {
+                loaded.close();
+            }
+            return;
+        }
+        mLoadingModelId = null;
+        try {
+            if (loaded != null) {
+                loaded.setMetrics(mMetrics);
+                if (classifier == null) {
+                    classifier = loaded;
+                    Log.d(TAG, "Using model " + classifier.getDescriptor());
+                    startPipeline();
+                } else {
+                    swapClassifier(loaded);
+                }
+            }
+        } finally {
+            // Also when binding failed: readiness then tells whether a classifier is in place.
+            markReady();
+        }
+    }
+
+    /**
+     * Classify with {@code loaded} from the next frame on, without a gap: the pipelines are bound
+     * to it and its worker is started first. The previous worker then classifies the frames it
+     * still has and the previous interpreter is released, off the background thread. For a
+     * moment both interpreters are in memory. Runs on the background thread.
+     */
+    private void swapClassifier(ImageClassifier loaded) {
+        final ImageClassifier previous = classifier;
+        final InferenceWorker previousWorker = mInferenceWorker;
+        final List<CapturePipeline> pipelines = mPipelines;
+        classifier = loaded;
+        startPipeline();
+        Log.i(TAG, "Swapped " + previous.getDescriptor() + " for " + loaded.getDescriptor());
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                long startTime = System.nanoTime();
+                // A frame preprocessed for the previous model before the swap is offered to its
+                // worker once the pipeline thread is done with it.
+                awaitPipelines(pipelines);
+                if (previousWorker != null) {
+                    previousWorker.quitWhenDrained();
+                }
+                previous.close();
+                Log.d(TAG, "Released " + previous.getDescriptor() + " after "
+                        + (System.nanoTime() - startTime) / 1000000 + " ms");
+            }
+        }, "ModelRelease").start();
+    }
+
+    /**
+     * Wait until every pipeline thread has finished the work it had in hand, at most a second.
+     */
+    private static void awaitPipelines(List<CapturePipeline> pipelines) {
+        final CountDownLatch done = new CountDownLatch(pipelines.size());
+        for (CapturePipeline pipeline : pipelines) {
+            Runnable countDown = new Runnable() {
+                @Override
+                public void run() {
+                    done.countDown();
+                }
+            };
+            if (!pipeline.getHandler().post(countDown)) {
+                // Closed already.
+                countDown.run();
+            }
+        }
+        try {
+            if (!done.await(1, TimeUnit.SECONDS)) {
+                Log.w(TAG, "Capture pipelines busy, releasing the previous model anyway");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Complete {@link #mReady} and run the requests waiting for it. Runs on the background thread.
+     */
+    private void markReady() {
+        if (mReady.isDone()) {
+            return;
+        }
+        mReady.run();
+        if (mStartup.mark(StartupMetrics.Milestone.READY)) {
+            Log.i(TAG, "Ready " + mStartup.getSinceStartMs(StartupMetrics.Milestone.READY)
+                    + " ms after start");
+        }
+        for (Runnable request : mWaitingForReady) {
+            request.run();
+        }
+        mWaitingForReady.clear();
+        int adaptiveFps = getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
+                .getInt(PREF_ADAPTIVE_FPS, 0);
+        if (adaptiveFps > 0 && mScheduler == null) {
+            Log.d(TAG, "Resuming adaptive capture up to " + adaptiveFps + " fps");
+            setScheduler(new CaptureScheduler(adaptiveFps));
+        }
+    }
+
+    /**
+     * Done once the service has finished starting up, with true if a classifier is loaded and
+     * false if none could be. Frames requested before are classified once it is done. Don't wait
+     * for it on the main thread.
+     */
+    public Future<Boolean> getReadiness() {
+        return mReady;
+    }
+
+    /**
+     * When each startup step was reached, including the first classified frame.
+     */
+    public StartupMetrics getStartupMetrics() {
+        return mStartup;
+    }
+
+    /**
+     * Set up every capture pipeline for the current classifier, with its own preprocessor and
+     * inference frames, and start the inference worker they share. Runs on the background thread.
+     */
+    private void startPipeline() {
+        if (classifier == null) {
+            return;
+        }
+        final List<CapturePipeline> pipelines = mPipelines;
+        final String modelId = classifier.getDescriptor().getId();
+        final int previewWidth = classifier.getImageSizeX();
+        final int previewHeight = classifier.getImageSizeY();
+        SharedPreferences prefs = getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        TileLayout tiles = getTileLayout(prefs);
+        final CapturePipeline.Binding[] bindings = new CapturePipeline.Binding[pipelines.size()];
+        InferenceScheduler<InferenceFrame> scheduler = new InferenceScheduler<>();
+        for (final CapturePipeline pipeline : pipelines) {
+            TemporalSmoother smoother = new TemporalSmoother.Builder()
+                    .mode(TemporalSmoother.Mode.MULTI_STAGE)
+                    .debounceFrames(DEBOUNCE_FRAMES)
+                    .minScore(MIN_DOMINANT_SCORE)
+                    .build();
+            smoother.setListener(new TemporalSmoother.Listener() {
+                @Override
+                public void onDominantLabelChanged(int previousLabelId, int labelId,
+                                                   String label, float score, long timestamp) {
+                    publishDominantLabel(pipeline, label, score, timestamp);
+                }
+            });
+            bindings[pipeline.getIndex()] = pipeline.createBinding(classifier,
+                    PREVIEW_IMAGE_WIDTH, PREVIEW_IMAGE_HEIGHT, tiles,
+                    INFERENCE_FRAMES + (mArchiver != null ? ARCHIVE_FRAMES : 0), scheduler,
+                    smoother);
+        }
+        mInferenceWorker = new InferenceWorker(classifier, scheduler,
+                new InferenceWorker.Callback() {
                     @Override
-                    public void onImageAvailable(ImageReader imageReader) {
-                        Bitmap bitmap = mImagePreprocessor.preprocessImage(imageReader.acquireNextImage());
-                        onPhotoReady(bitmap);
+                    public void onFrameClassified(InferenceFrame frame) {
+                        CapturePipeline pipeline = pipelines.get(frame.source);
+                        CapturePipeline.Binding binding = bindings[frame.source];
+                        ClassificationResult result = frame.result;
+                        long queue = pipeline.recordClassified(frame);
+                        mMetrics.increment(PipelineMetrics.Counter.FRAMES_CLASSIFIED);
+                        if (mStartup.mark(StartupMetrics.Milestone.FIRST_RESULT)) {
+                            Log.i(TAG, "First result " + mStartup.getSinceStartMs(
+                                    StartupMetrics.Milestone.FIRST_RESULT) + " ms after start, "
+                                    + mStartup.getSinceBootMs(
+                                    StartupMetrics.Milestone.FIRST_RESULT) + " ms after boot");
+                        }
+                        CaptureScheduler captureScheduler = mScheduler;
+                        if (captureScheduler != null) {
+                            captureScheduler.onClassified(pipeline,
+                                    result.getStageTimeNs(ClassificationResult.Stage.INFERENCE)
+                                    + result.getStageTimeNs(
+                                    ClassificationResult.Stage.POSTPROCESS), queue);
+                        }
+                        binding.smoother.update(result);
+                        journal(result, modelId);
+                        archive(frame, previewWidth, previewHeight);
+                        onPhotoRecognitionReady(pipeline, frame, binding);
                     }
                 });
+        if (tiles != null) {
+            TileClassifier tileClassifier = new TileClassifier(classifier,
+                    prefs.getFloat(PREF_TILE_EXIT_SCORE, TILE_EXIT_SCORE));
+            tileClassifier.setMetrics(mMetrics);
+            mInferenceWorker.setTileClassifier(tileClassifier);
+            Log.d(TAG, "Tiling " + tiles);
+        }
+        for (CapturePipeline pipeline : pipelines) {
+            pipeline.bind(bindings[pipeline.getIndex()]);
+        }
+        mInferenceWorker.start();
+    }
+
+    /**
+     * Append a classified frame to the journal. Called on the inference worker thread.
+     */
+    private void journal(ClassificationResult result, String modelId) {
+        ResultJournal journal = mJournal;
+        if (journal == null) {
+            return;
+        }
+        try {
+            journal.append(result, modelId, System.currentTimeMillis());
+        } catch (IOException e) {
+            Log.w(TAG, "Cannot journal the result, journaling stopped", e);
+            closeJournal();
+        }
     }
 
-    private void initClassifier() {
+    /**
+     * Queue a classified frame for the evidence archive. Called on the inference worker thread.
+     */
+    private void archive(InferenceFrame frame, int width, int height) {
+        EvidenceArchiver archiver = mArchiver;
+        if (archiver != null && frame.hasPreview) {
+            archiver.submit(frame, frame.previewPixels, width, height, frame.result);
+        }
+    }
+
+    /**
+     * Stop the inference worker and unbind the capture pipelines from the current classifier,
+     * so it can be closed. Runs on the background thread.
+     */
+    private void stopPipeline() {
+        for (CapturePipeline pipeline : mPipelines) {
+            pipeline.bind(null);
+        }
+        if (mInferenceWorker != null) {
+            mInferenceWorker.quit();
+            mInferenceWorker = null;
+        }
+    }
+
+    /**
+     * Switch to another model from {@link ModelRegistry}. The choice is stored, so the service
+     * comes back with the same model after a restart. The model is loaded in the background and
+     * swapped in between frames; the current one classifies until then.
+     *
+     * @param modelId id of the model to use
+     * @return false if no such model is registered
+     */
+    public boolean selectModel(final String modelId) {
+        if (ModelRegistry.get(modelId) == null) {
+            Log.w(TAG, "Unknown model " + modelId + ", available: " + ModelRegistry.getIds());
+            return false;
+        }
+        getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).edit()
+                .putString(PREF_MODEL, modelId)
+                .apply();
+        mBackgroundHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                String currentId = mLoadingModelId != null ? mLoadingModelId
+                        : classifier != null ? classifier.getDescriptor().getId() : null;
+                if (modelId.equals(currentId)) {
+                    return;
+                }
+                loadClassifierAsync(ModelRegistry.get(modelId));
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Install the model in {@code directory}, see {@link #EXTRA_MODEL_DIR}, and switch to it like
+     * {@link #selectModel(String)}. It is loaded even if a model with the same id is in use, so a
+     * new version of it replaces the old one.
+     *
+     * @return false if the directory doesn't hold a usable model description
+     */
+    public boolean installModel(File directory) {
+        final ModelDescriptor descriptor;
         try {
-            classifier = new ImageClassifierFloatInception(this);
+            descriptor = ModelRegistry.readDescriptor(directory);
         } catch (IOException e) {
-            Log.d(TAG, "Classifier can't be loaded",e);
-            e.printStackTrace();
+            Log.w(TAG, "Cannot install the model in " + directory, e);
+            return false;
+        }
+        ModelRegistry.register(descriptor);
+        getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).edit()
+                .putString(PREF_MODEL_DIR, directory.getAbsolutePath())
+                .putString(PREF_MODEL, descriptor.getId())
+                .apply();
+        Log.i(TAG, "Installing " + descriptor);
+        mBackgroundHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                loadClassifierAsync(descriptor);
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Run the {@link PoolScalingBenchmark} for the selected model on its own thread. Results are
+     * logged.
+     */
+    private void runPoolBenchmark(int threadsPerInterpreter) {
+        new Thread(new PoolScalingBenchmark(this, getSelectedModel(), threadsPerInterpreter),
+                "PoolScalingBenchmark").start();
+    }
+
+    /**
+     * Run the {@link CorpusReplayBenchmark} for every registered model on its own thread.
+     * Results are logged.
+     */
+    private void runReplayBenchmark(File corpusDir, int warmupIterations, int iterations,
+                                    int threads) {
+        List<ModelDescriptor> models = new ArrayList<>();
+        for (String id : ModelRegistry.getIds()) {
+            models.add(ModelRegistry.get(id));
         }
+        new Thread(new CorpusReplayBenchmark(this, models, corpusDir, warmupIterations,
+                iterations, threads), "CorpusReplayBenchmark").start();
+    }
+
+    /**
+     * Classify frames continuously instead of one per {@link #imageRequest()}.
+     *
+     * @param targetFps maximum number of frames per second to classify, 0 for as fast as the
+     *                  pipeline goes with a replayed or generated source
+     */
+    public void startStreaming(final int targetFps) {
+        Log.d(TAG, "Start streaming at " + targetFps + " fps");
+        rememberAdaptiveFps(0);
+        mBackgroundHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                setScheduler(null);
+                mStreamingFps = targetFps;
+                for (CapturePipeline pipeline : mPipelines) {
+                    pipeline.startStreaming(targetFps);
+                }
+            }
+        });
     }
 
+    public void stopStreaming() {
+        Log.d(TAG, "Stop streaming");
+        rememberAdaptiveFps(0);
+        mBackgroundHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                setScheduler(null);
+                for (CapturePipeline pipeline : mPipelines) {
+                    pipeline.stopStreaming();
+                }
+            }
+        });
+    }
 
-    private void doRecognize(Bitmap image) {
-        SpannableStringBuilder txtToShow = new SpannableStringBuilder();
-        classifier.classifyFrame(image, txtToShow);
-        // Report the results with the highest confidence
-        Log.d(TAG, "RESULT:" + txtToShow.toString());
+    /**
+     * Capture at a rate that follows the scene instead of a fixed one, see
+     * {@link #ACTION_START_ADAPTIVE}. Runs without the activity, and is resumed after a restart.
+     *
+     * @param maxFps rate while the scene changes; each camera is further capped by its settings
+     */
+    public void startAdaptive(final int maxFps) {
+        Log.d(TAG, "Start adaptive capture up to " + maxFps + " fps");
+        rememberAdaptiveFps(Math.max(1, maxFps));
+        mBackgroundHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!mReady.isDone()) {
+                    // Started by markReady().
+                    return;
+                }
+                setScheduler(new CaptureScheduler(maxFps));
+            }
+        });
+    }
 
-        onPhotoRecognitionReady(txtToShow.toString());
+    public boolean isAdaptive() {
+        return mScheduler != null;
     }
 
+    private void rememberAdaptiveFps(int maxFps) {
+        getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).edit()
+                .putInt(PREF_ADAPTIVE_FPS, maxFps)
+                .apply();
+    }
+
+    /**
+     * Replace the capture scheduler, null to stop adaptive capture. Runs on the background thread.
+     */
+    private void setScheduler(CaptureScheduler scheduler) {
+        CaptureScheduler previous = mScheduler;
+        mBackgroundHandler.removeCallbacks(mSchedulerTick);
+        mScheduler = scheduler;
+        if (previous != null) {
+            previous.stop(mPipelines);
+        }
+        if (scheduler != null) {
+            mSchedulerTick.run();
+        }
+    }
+
+    public boolean isStreaming() {
+        for (CapturePipeline pipeline : mPipelines) {
+            if (pipeline.isStreaming()) {
+                return true;
+            }
+        }
+        return false;
+    }
 
     public boolean imageRequest() {
-        if (mProcessing) {
-            Log.d(TAG, "Still processing, please wait");
+        if (isStreaming()) {
+            Log.d(TAG, "Streaming, results are delivered continuously");
+            return true;
+        }
+        if (!mProcessing.compareAndSet(false, true)) {
+            Log.d(TAG, "Still processing, taking the shot next");
+            mShotPending.set(true);
             return true;
         }
         Log.d(TAG, "Running photo recognition");
-        mProcessing = true;
         loadPhoto();
         return true;
     }
 
-    private void onPhotoReady(Bitmap bitmap) {
-        mBitmap = bitmap;
-        doRecognize(bitmap);
+    /**
+     * Take a burst of {@code frames} frames from every capture pipeline, see {@link #ACTION_BURST}.
+     * The results are reported like those of single shots, also while streaming.
+     */
+    public void burstRequest(final int frames) {
+        Log.d(TAG, "Burst of " + frames + " frames");
+        mBackgroundHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!mReady.isDone()) {
+                    mWaitingForReady.add(this);
+                    return;
+                }
+                if (classifier == null || !openBurstClassifier(classifier.getDescriptor())) {
+                    return;
+                }
+                for (CapturePipeline pipeline : mPipelines) {
+                    pipeline.requestBurst(frames);
+                }
+            }
+        });
     }
 
-    private void onPhotoRecognitionReady(String results) {
-        Log.d(TAG, "onPhotoRecognitionReady");
-        if (mListener != null) {
-            mListener.photoProcessed(mBitmap, results);
+    /**
+     * Make sure {@link #mBurstClassifier} runs {@code descriptor}, replacing the one of a
+     * previous model. The pool gets an interpreter per core. Runs on the background thread.
+     *
+     * @return false if the pool couldn't be created
+     */
+    private boolean openBurstClassifier(ModelDescriptor descriptor) {
+        BurstClassifier current = mBurstClassifier;
+        if (current != null && current.getDescriptor() == descriptor) {
+            return true;
+        }
+        closeBurstClassifier();
+        try {
+            ClassifierPool pool = new ClassifierPool(this, descriptor,
+                    Runtime.getRuntime().availableProcessors(), 1);
+            mBurstClassifier = new BurstClassifier(pool, mBurstListener);
+            return true;
+        } catch (IOException | RuntimeException e) {
+            Log.w(TAG, "Cannot create the burst classifier for " + descriptor, e);
+            return false;
+        }
+    }
+
+    private void closeBurstClassifier() {
+        BurstClassifier burstClassifier = mBurstClassifier;
+        mBurstClassifier = null;
+        if (burstClassifier != null) {
+            burstClassifier.close();
         }
-        mProcessing = false;
+    }
+
+    /**
+     * The shot in progress is done; take the one requested meanwhile, if any.
+     */
+    private void finishProcessing() {
+        if (mShotPending.getAndSet(false)) {
+            Log.d(TAG, "Taking the pending shot");
+            loadPhoto();
+            return;
+        }
+        mProcessing.set(false);
+    }
+
+    /**
+     * Publish a classified frame on the main thread, then return the frame to its pool. Called on
+     * the inference worker thread.
+     */
+    private void onPhotoRecognitionReady(final CapturePipeline pipeline,
+                                         final InferenceFrame frame,
+                                         final CapturePipeline.Binding binding) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                pipeline.rememberResult(frame.result);
+                HomeEventsListener listener = mListener;
+                if (listener == null) {
+                    frame.release();
+                    finishProcessing();
+                    return;
+                }
+                // The listener may keep the result, the frame's own one is reused.
+                ClassificationResult result = new ClassificationResult(frame.result.getCapacity());
+                result.copyFrom(frame.result);
+                Bitmap bitmap = frame.hasPreview
+                        ? binding.preprocessor.renderPreview(frame.previewPixels) : null;
+                frame.release();
+                finishProcessing();
+                dispatch(pipeline, listener, bitmap, result);
+            }
+        });
+    }
+
+    /**
+     * Publish the last result of a pipeline again for a frame that was skipped because the scene
+     * hasn't changed. Called on the pipeline thread.
+     */
+    private void onSceneUnchanged(final CapturePipeline pipeline, final long timestamp) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                finishProcessing();
+                HomeEventsListener listener = mListener;
+                ClassificationResult lastResult = pipeline.lastResult();
+                if (listener == null || lastResult == null) {
+                    return;
+                }
+                ClassificationResult result = new ClassificationResult(lastResult.getCapacity());
+                result.copyFrom(lastResult);
+                // Nothing was done for this frame.
+                result.setTimestamp(timestamp);
+                for (ClassificationResult.Stage stage : ClassificationResult.Stage.values()) {
+                    result.setStageTimeNs(stage, 0);
+                }
+                dispatch(pipeline, listener, null, result);
+            }
+        });
+    }
+
+    /**
+     * Hand a result to the listener, timing how long it takes. Runs on the main thread.
+     */
+    private void dispatch(CapturePipeline pipeline, HomeEventsListener listener, Bitmap bitmap,
+                          ClassificationResult result) {
+        long startTime = System.nanoTime();
+        listener.photoProcessed(bitmap, result);
+        PipelineMetrics metrics = pipeline.getMetrics();
+        metrics.recordSince(PipelineMetrics.Stage.DISPATCH, startTime);
+        metrics.increment(PipelineMetrics.Counter.FRAMES_PUBLISHED);
+    }
+
+    /**
+     * Latency histograms and frame counters of the shared interpreter, see
+     * {@link #getPipelineMetrics()} for the cameras.
+     */
+    public PipelineMetrics getMetrics() {
+        return mMetrics;
+    }
+
+    /**
+     * Latency histograms and frame counters of each capture pipeline, by camera id.
+     */
+    public Map<String, PipelineMetrics> getPipelineMetrics() {
+        Map<String, PipelineMetrics> metrics = new LinkedHashMap<>();
+        for (CapturePipeline pipeline : mPipelines) {
+            metrics.put(pipeline.getId(), pipeline.getMetrics());
+        }
+        return metrics;
     }
 
     @Override
-    public void onDestroy() {
-        super.onDestroy();
-        try {
-            destroyClassifier();
-        } catch (Throwable t) {
-            // close quietly
+    protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        mStartup.dump(writer);
+        writer.println("Interpreter");
+        mMetrics.dump(writer);
+        for (CapturePipeline pipeline : mPipelines) {
+            pipeline.dump(writer);
         }
-        try {
-            closeCamera();
-        } catch (Throwable t) {
-            // close quietly
+        CaptureScheduler scheduler = mScheduler;
+        if (scheduler != null) {
+            scheduler.dump(writer);
+        }
+        EvidenceArchiver archiver = mArchiver;
+        if (archiver != null) {
+            writer.println("Evidence archive: " + archiver);
+        }
+    }
+
+    /**
+     * Share of the camera frames, of all cameras, that reused the previous result because the
+     * scene hadn't changed.
+     */
+    public float getSkipRatio() {
+        long frames = 0;
+        long skipped = 0;
+        for (CapturePipeline pipeline : mPipelines) {
+            SceneChangeDetector detector = pipeline.getChangeDetector();
+            frames += detector.getFrames();
+            skipped += detector.getSkippedFrames();
         }
+        return frames == 0 ? 0f : (float) skipped / frames;
+    }
+
+    /**
+     * Publish a change of the smoothed, dominant label on the main thread. Called on the inference
+     * worker thread.
+     */
+    private void publishDominantLabel(CapturePipeline pipeline, final String label,
+                                      final float score, final long timestamp) {
+        Log.d(TAG, "Dominant label of " + pipeline.getId() + ": " + label + " (" + score + ")");
+        CaptureScheduler scheduler = mScheduler;
+        if (scheduler != null) {
+            scheduler.onActivity(pipeline);
+        }
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                HomeEventsListener listener = mListener;
+                if (listener != null) {
+                    listener.dominantLabelChanged(label, score, timestamp);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        mListener = null;
+        // Supersede a load still running, so whatever it loads is closed instead of bound.
+        mLoadGeneration.incrementAndGet();
+        mLoaderExecutor.shutdownNow();
+        mBackgroundHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mBackgroundHandler.removeCallbacks(mSchedulerTick);
+                mScheduler = null;
+                try {
+                    closePipelines();
+                } catch (Throwable t) {
+                    // close quietly
+                }
+                try {
+                    stopPipeline();
+                    destroyClassifier();
+                } catch (Throwable t) {
+                    // close quietly
+                }
+                closeBurstClassifier();
+                closeJournal();
+                closeArchiver();
+            }
+        });
+        mBackgroundThread.quitSafely();
     }
 
     @Nullable
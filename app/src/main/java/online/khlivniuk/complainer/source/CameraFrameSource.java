@@ -0,0 +1,167 @@
+package online.khlivniuk.complainer.source;
+
+import android.content.Context;
+import android.graphics.ImageFormat;
+import android.media.Image;
+import android.os.Handler;
+
+import java.nio.ByteBuffer;
+
+import online.khlivniuk.complainer.CameraHandler;
+import online.khlivniuk.complainer.metrics.PipelineMetrics;
+
+/**
+ * Frames of a camera, through a {@link CameraHandler} of its own, delivered on its background
+ * handler.
+ */
+public class CameraFrameSource implements FrameSource {
+    private final Context mContext;
+    private final int mWidth;
+    private final int mHeight;
+    private final Handler mBackgroundHandler;
+    private final CameraHandler mCameraHandler;
+    /**
+     * Frames come one at a time on the background handler, so a single wrapper is enough.
+     */
+    private final ImageFrame mFrame = new ImageFrame();
+    private volatile PipelineMetrics mMetrics;
+
+    /**
+     * @param cameraId          camera to open, null for the first one
+     * @param width             capture width
+     * @param height            capture height
+     * @param backgroundHandler runs the camera callbacks and the listener
+     */
+    public CameraFrameSource(Context context, String cameraId, int width, int height,
+                             Handler backgroundHandler) {
+        mContext = context.getApplicationContext();
+        mCameraHandler = new CameraHandler(cameraId);
+        mWidth = width;
+        mHeight = height;
+        mBackgroundHandler = backgroundHandler;
+    }
+
+    @Override
+    public void open(final Listener listener) {
+        mCameraHandler.initializeCamera(mContext, mWidth, mHeight, mBackgroundHandler,
+                new CameraHandler.OnFrameAvailableListener() {
+                    @Override
+                    public void onFrameAvailable(Image image) {
+                        mFrame.mImage = image;
+                        if (!listener.onFrameAvailable(mFrame)) {
+                            mFrame.close();
+                            PipelineMetrics metrics = mMetrics;
+                            if (metrics != null) {
+                                metrics.increment(PipelineMetrics.Counter.FRAMES_DROPPED);
+                            }
+                        }
+                    }
+                });
+    }
+
+    @Override
+    public void requestFrame() {
+        mCameraHandler.takePicture();
+    }
+
+    @Override
+    public void startStreaming(int targetFps) {
+        mCameraHandler.startStreaming(targetFps);
+    }
+
+    @Override
+    public void stopStreaming() {
+        mCameraHandler.stopStreaming();
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return mCameraHandler.isStreaming();
+    }
+
+    @Override
+    public boolean isRealtime() {
+        return true;
+    }
+
+    @Override
+    public void setMetrics(PipelineMetrics metrics) {
+        mMetrics = metrics;
+        mCameraHandler.setMetrics(metrics);
+    }
+
+    @Override
+    public void close() {
+        mCameraHandler.shutDown();
+    }
+
+    /**
+     * A camera {@link Image} as a {@link SourceFrame}. Closing it closes the image.
+     */
+    private static class ImageFrame implements SourceFrame {
+        private Image mImage;
+
+        @Override
+        public int getWidth() {
+            return mImage.getWidth();
+        }
+
+        @Override
+        public int getHeight() {
+            return mImage.getHeight();
+        }
+
+        @Override
+        public long getTimestamp() {
+            return mImage.getTimestamp();
+        }
+
+        @Override
+        public boolean isJpeg() {
+            return mImage.getFormat() == ImageFormat.JPEG;
+        }
+
+        @Override
+        public ByteBuffer getJpeg() {
+            return mImage.getPlanes()[0].getBuffer();
+        }
+
+        @Override
+        public ByteBuffer getY() {
+            return mImage.getPlanes()[0].getBuffer();
+        }
+
+        @Override
+        public ByteBuffer getU() {
+            return mImage.getPlanes()[1].getBuffer();
+        }
+
+        @Override
+        public ByteBuffer getV() {
+            return mImage.getPlanes()[2].getBuffer();
+        }
+
+        @Override
+        public int getYRowStride() {
+            return mImage.getPlanes()[0].getRowStride();
+        }
+
+        @Override
+        public int getUvRowStride() {
+            return mImage.getPlanes()[1].getRowStride();
+        }
+
+        @Override
+        public int getUvPixelStride() {
+            return mImage.getPlanes()[1].getPixelStride();
+        }
+
+        @Override
+        public void close() {
+            if (mImage != null) {
+                mImage.close();
+                mImage = null;
+            }
+        }
+    }
+}
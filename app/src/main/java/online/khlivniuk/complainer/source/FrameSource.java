@@ -0,0 +1,66 @@
+package online.khlivniuk.complainer.source;
+
+import online.khlivniuk.complainer.metrics.PipelineMetrics;
+
+/**
+ * Where the frames to classify come from: the camera, a recorded corpus or a generator. The
+ * pipeline only sees {@link SourceFrame}s, so it runs the same whatever the source.
+ *
+ * <p>Realtime sources, the camera, drop frames the listener doesn't take. The others wait for the
+ * listener and deliver the same frame again, so a corpus can be replayed as fast as the pipeline
+ * goes without losing frames.
+ */
+public interface FrameSource {
+
+    /**
+     * Receives the frames of a source.
+     */
+    interface Listener {
+        /**
+         * A new frame. If the listener takes the frame it must close it once done.
+         *
+         * @return false to leave the frame to the source, which drops it if it's realtime and
+         * delivers it again later otherwise
+         */
+        boolean onFrameAvailable(SourceFrame frame);
+
+        /**
+         * The source has no more frames, e.g. the end of a corpus that isn't looped. Streaming
+         * has stopped.
+         */
+        void onSourceFinished();
+    }
+
+    /**
+     * Open the source. Frames are delivered to {@code listener} once requested.
+     */
+    void open(Listener listener);
+
+    /**
+     * Deliver a single frame, unless streaming.
+     */
+    void requestFrame();
+
+    /**
+     * Deliver frames continuously.
+     *
+     * @param targetFps maximum number of frames per second; 0 for as fast as the listener takes
+     *                  them, where the source allows it
+     */
+    void startStreaming(int targetFps);
+
+    void stopStreaming();
+
+    boolean isStreaming();
+
+    /** Whether frames come at their own pace and are dropped when the listener is busy. */
+    boolean isRealtime();
+
+    /**
+     * Record frame counters into {@code metrics}, may be null.
+     */
+    void setMetrics(PipelineMetrics metrics);
+
+    /** Stop delivering frames and release the source. */
+    void close();
+}
@@ -0,0 +1,194 @@
+package online.khlivniuk.complainer.source;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+
+import online.khlivniuk.complainer.metrics.PipelineMetrics;
+
+/**
+ * Base of the sources that make their frames on demand instead of getting them from hardware.
+ * Frames are made on a thread of the source and handed to the listener through an executor, one
+ * at a time: the next frame is only made once the listener has taken the previous one, so a slow
+ * pipeline slows the source down instead of losing frames. Streaming at a target rate sleeps
+ * between frames; without a target, frames follow each other as fast as they're taken.
+ */
+public abstract class PacedFrameSource implements FrameSource {
+    /**
+     * How long to wait before offering a frame the listener didn't take again.
+     */
+    private static final long RETRY_DELAY_MS = 2;
+
+    private final String name;
+    private final Executor executor;
+    private final Object lock = new Object();
+    private final Semaphore delivered = new Semaphore(0);
+    private Listener listener;
+    private volatile PipelineMetrics metrics;
+    private Thread thread;
+    private volatile boolean closed;
+    private volatile boolean streaming;
+    private int targetFps;
+    private int pendingFrames;
+    /** The frame being delivered, and whether the listener took it. */
+    private SourceFrame current;
+    private boolean accepted;
+
+    private final Runnable delivery = new Runnable() {
+        @Override
+        public void run() {
+            if (closed) {
+                accepted = true;
+                current.close();
+            } else {
+                accepted = listener.onFrameAvailable(current);
+            }
+            delivered.release();
+        }
+    };
+
+    private final Runnable finished = new Runnable() {
+        @Override
+        public void run() {
+            if (!closed) {
+                listener.onSourceFinished();
+            }
+        }
+    };
+
+    /**
+     * @param name     name of the thread making the frames
+     * @param executor runs the listener, e.g. the thread the camera frames would come on
+     */
+    protected PacedFrameSource(String name, Executor executor) {
+        this.name = name;
+        this.executor = executor;
+    }
+
+    /**
+     * Make the next frame. Only one frame is out at a time, so its buffers may be reused once it
+     * has been closed.
+     *
+     * @return the frame, or null if there are no more frames
+     */
+    protected abstract SourceFrame nextFrame();
+
+    @Override
+    public void open(Listener listener) {
+        if (thread != null) {
+            return;
+        }
+        this.listener = listener;
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    deliverFrames();
+                } catch (InterruptedException e) {
+                    // Closed.
+                }
+            }
+        }, name);
+        thread.start();
+    }
+
+    @Override
+    public void requestFrame() {
+        synchronized (lock) {
+            if (!streaming) {
+                pendingFrames++;
+                lock.notifyAll();
+            }
+        }
+    }
+
+    @Override
+    public void startStreaming(int targetFps) {
+        synchronized (lock) {
+            this.targetFps = Math.max(0, targetFps);
+            streaming = true;
+            lock.notifyAll();
+        }
+    }
+
+    @Override
+    public void stopStreaming() {
+        synchronized (lock) {
+            streaming = false;
+        }
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return streaming;
+    }
+
+    @Override
+    public boolean isRealtime() {
+        return false;
+    }
+
+    @Override
+    public void setMetrics(PipelineMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        streaming = false;
+        if (thread != null) {
+            thread.interrupt();
+            thread = null;
+        }
+    }
+
+    private void deliverFrames() throws InterruptedException {
+        long nextFrameNs = System.nanoTime();
+        while (!closed) {
+            int fps;
+            synchronized (lock) {
+                while (!closed && !streaming && pendingFrames == 0) {
+                    lock.wait();
+                }
+                if (closed) {
+                    return;
+                }
+                fps = streaming ? targetFps : 0;
+                if (!streaming) {
+                    pendingFrames--;
+                }
+            }
+            if (fps > 0) {
+                long now = System.nanoTime();
+                if (nextFrameNs > now) {
+                    Thread.sleep((nextFrameNs - now) / 1000000L);
+                    now = nextFrameNs;
+                }
+                nextFrameNs = now + 1000000000L / fps;
+            }
+
+            SourceFrame frame = nextFrame();
+            if (frame == null) {
+                synchronized (lock) {
+                    streaming = false;
+                    pendingFrames = 0;
+                }
+                executor.execute(finished);
+                continue;
+            }
+            PipelineMetrics metrics = this.metrics;
+            if (metrics != null) {
+                metrics.increment(PipelineMetrics.Counter.FRAMES_CAPTURED);
+            }
+            current = frame;
+            while (true) {
+                executor.execute(delivery);
+                delivered.acquire();
+                if (accepted) {
+                    break;
+                }
+                Thread.sleep(RETRY_DELAY_MS);
+            }
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package online.khlivniuk.complainer.source;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import online.khlivniuk.complainer.replay.FrameCorpus;
+
+/**
+ * Replays a recorded {@link FrameCorpus} in place of the camera, e.g. to classify archived
+ * captures again. Streamed without a target rate, the corpus goes through the pipeline at full
+ * CPU speed, without dropping frames.
+ */
+public class ReplayFrameSource extends PacedFrameSource {
+    private final List<FrameCorpus.Frame> frames;
+    private final boolean loop;
+    private final CorpusFrame frame = new CorpusFrame();
+    private int position;
+
+    /**
+     * @param corpus   frames to replay, in order
+     * @param loop     start over at the end of the corpus instead of finishing
+     * @param executor runs the listener
+     */
+    public ReplayFrameSource(FrameCorpus corpus, boolean loop, Executor executor) {
+        super("ReplayFrameSource", executor);
+        this.frames = corpus.getFrames();
+        this.loop = loop;
+    }
+
+    @Override
+    protected SourceFrame nextFrame() {
+        if (position == frames.size()) {
+            // Without looping, start over if asked for frames again.
+            position = 0;
+            if (!loop) {
+                return null;
+            }
+        }
+        frame.frame = frames.get(position++);
+        frame.timestamp = System.nanoTime();
+        return frame;
+    }
+
+    /**
+     * A frame of the corpus as a {@link SourceFrame}. Closing it is a no-op, the corpus keeps its
+     * frames.
+     */
+    private static class CorpusFrame implements SourceFrame {
+        FrameCorpus.Frame frame;
+        long timestamp;
+
+        @Override
+        public int getWidth() {
+            return frame.width;
+        }
+
+        @Override
+        public int getHeight() {
+            return frame.height;
+        }
+
+        @Override
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        @Override
+        public boolean isJpeg() {
+            return frame.jpeg;
+        }
+
+        @Override
+        public ByteBuffer getJpeg() {
+            return frame.data.duplicate();
+        }
+
+        @Override
+        public ByteBuffer getY() {
+            return frame.getY();
+        }
+
+        @Override
+        public ByteBuffer getU() {
+            return frame.getU();
+        }
+
+        @Override
+        public ByteBuffer getV() {
+            return frame.getV();
+        }
+
+        @Override
+        public int getYRowStride() {
+            return frame.getYRowStride();
+        }
+
+        @Override
+        public int getUvRowStride() {
+            return frame.getUvRowStride();
+        }
+
+        @Override
+        public int getUvPixelStride() {
+            return frame.getUvPixelStride();
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
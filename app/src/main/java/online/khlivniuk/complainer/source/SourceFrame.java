@@ -0,0 +1,40 @@
+package online.khlivniuk.complainer.source;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A frame delivered by a {@link FrameSource}: either a YUV 4:2:0 frame given by its planes, or a
+ * JPEG file. The frame and its buffers stay valid until {@link #close()}.
+ */
+public interface SourceFrame {
+
+    int getWidth();
+
+    int getHeight();
+
+    /** Capture time in nanoseconds, on a clock of the source. */
+    long getTimestamp();
+
+    /** Whether the frame is a JPEG file, see {@link #getJpeg()}. */
+    boolean isJpeg();
+
+    /** The JPEG file, from its position. Only for JPEG frames. */
+    ByteBuffer getJpeg();
+
+    /** Luma plane, {@link #getYRowStride()} bytes per row. Only for YUV frames. */
+    ByteBuffer getY();
+
+    ByteBuffer getU();
+
+    ByteBuffer getV();
+
+    int getYRowStride();
+
+    int getUvRowStride();
+
+    /** Bytes between chroma samples, 1 for planar and 2 for semi-planar chroma. */
+    int getUvPixelStride();
+
+    /** Give the frame back to its source. */
+    void close();
+}
@@ -0,0 +1,129 @@
+package online.khlivniuk.complainer.source;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
+
+/**
+ * Generates I420 frames of a diagonal gradient that moves with every frame, so no frame is
+ * skipped as unchanged. For load testing the pipeline where there is no camera and no corpus;
+ * frames cost as much to process as camera frames of the same size, the labels mean nothing.
+ */
+public class SyntheticFrameSource extends PacedFrameSource {
+    /** Luma shift of the gradient from one frame to the next. */
+    private static final int STEP = 8;
+
+    private final GeneratedFrame frame;
+    private final byte[] row;
+    private int frameIndex;
+
+    /**
+     * @param executor runs the listener
+     */
+    public SyntheticFrameSource(int width, int height, Executor executor) {
+        super("SyntheticFrameSource", executor);
+        frame = new GeneratedFrame(width, height);
+        row = new byte[width];
+    }
+
+    @Override
+    protected SourceFrame nextFrame() {
+        final int width = frame.width;
+        final int height = frame.height;
+        final ByteBuffer y = frame.y;
+        final int offset = frameIndex++ * STEP;
+        y.clear();
+        for (int j = 0; j < height; j++) {
+            for (int i = 0; i < width; i++) {
+                row[i] = (byte) (i + j + offset);
+            }
+            y.put(row);
+        }
+        y.rewind();
+        frame.timestamp = System.nanoTime();
+        return frame;
+    }
+
+    private static class GeneratedFrame implements SourceFrame {
+        final int width;
+        final int height;
+        final ByteBuffer y;
+        final ByteBuffer u;
+        final ByteBuffer v;
+        long timestamp;
+
+        GeneratedFrame(int width, int height) {
+            this.width = width;
+            this.height = height;
+            y = ByteBuffer.allocateDirect(width * height);
+            int chromaSize = (width / 2) * (height / 2);
+            u = ByteBuffer.allocateDirect(chromaSize);
+            v = ByteBuffer.allocateDirect(chromaSize);
+            // Grey.
+            for (int i = 0; i < chromaSize; i++) {
+                u.put((byte) 128);
+                v.put((byte) 128);
+            }
+            u.rewind();
+            v.rewind();
+        }
+
+        @Override
+        public int getWidth() {
+            return width;
+        }
+
+        @Override
+        public int getHeight() {
+            return height;
+        }
+
+        @Override
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        @Override
+        public boolean isJpeg() {
+            return false;
+        }
+
+        @Override
+        public ByteBuffer getJpeg() {
+            return null;
+        }
+
+        @Override
+        public ByteBuffer getY() {
+            return y;
+        }
+
+        @Override
+        public ByteBuffer getU() {
+            return u;
+        }
+
+        @Override
+        public ByteBuffer getV() {
+            return v;
+        }
+
+        @Override
+        public int getYRowStride() {
+            return width;
+        }
+
+        @Override
+        public int getUvRowStride() {
+            return width / 2;
+        }
+
+        @Override
+        public int getUvPixelStride() {
+            return 1;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
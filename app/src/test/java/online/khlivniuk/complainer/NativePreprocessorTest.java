@@ -0,0 +1,148 @@
+package online.khlivniuk.complainer;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Checks the NEON or SSE2 kernel, whichever the host has, against its scalar fallback and against
+ * the Java loop of {@link YuvToTensorConverter}. Needs {@code native-lib} built for the host and
+ * on {@code java.library.path}, e.g.
+ *
+ * <pre>
+ * g++ -O3 -shared -fPIC -I$JAVA_HOME/include -I$JAVA_HOME/include/linux \
+ *     src/main/cpp/native-lib.cpp src/main/cpp/preprocess.cpp -o build/host/libnative-lib.so
+ * ./gradlew testDebugUnitTest -PnativeLibDir=build/host
+ * </pre>
+ *
+ * and is skipped otherwise.
+ */
+public class NativePreprocessorTest {
+    private static final float MEAN = 127.5f;
+    private static final float STD = 127.5f;
+
+    @Before
+    public void setUp() {
+        assumeTrue("native-lib isn't built for this host", NativePreprocessor.isAvailable());
+    }
+
+    @Test
+    public void vectorPathMatchesScalar() {
+        Random random = new Random(1);
+        for (int uvPixelStride = 1; uvPixelStride <= 2; uvPixelStride++) {
+            YuvFrame frame = new YuvFrame(64, 48, uvPixelStride, uvPixelStride);
+            // Counts around the vector width, to cover the scalar tail of the vector paths.
+            for (int count : new int[]{1, 3, 4, 5, 8, 255, 1001}) {
+                int[] srcX = new int[count];
+                int[] srcY = new int[count];
+                for (int i = 0; i < count; i++) {
+                    srcX[i] = random.nextInt(frame.width - 2);
+                    srcY[i] = random.nextInt(frame.height - 2);
+                }
+                for (boolean quantized : new boolean[]{true, false}) {
+                    int size = count * 3 * (quantized ? 1 : 4);
+                    ByteBuffer vector = direct(size + 8);
+                    ByteBuffer scalar = direct(size + 8);
+                    assertTrue(NativePreprocessor.nativeConvert(frame.y, frame.u, frame.v,
+                            frame.yRowStride, frame.uvRowStride, uvPixelStride, 2, 2, srcX, srcY,
+                            quantized, MEAN, STD, vector, 8));
+                    assertTrue(NativePreprocessor.nativeConvertScalar(frame.y, frame.u, frame.v,
+                            frame.yRowStride, frame.uvRowStride, uvPixelStride, 2, 2, srcX, srcY,
+                            quantized, MEAN, STD, scalar, 8));
+                    assertArrayEquals("count " + count + ", pixel stride " + uvPixelStride
+                            + (quantized ? ", uint8" : ", float"), bytes(scalar), bytes(vector));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void nativeMatchesJava() {
+        for (int uvPixelStride = 1; uvPixelStride <= 2; uvPixelStride++) {
+            YuvFrame frame = new YuvFrame(640, 480, uvPixelStride, 7);
+            for (int orientation = 0; orientation < 360; orientation += 90) {
+                for (boolean quantized : new boolean[]{true, false}) {
+                    YuvToTensorConverter converter = new YuvToTensorConverter(frame.width,
+                            frame.height, 224, 224, orientation, quantized, MEAN, STD);
+                    String message = "orientation " + orientation + ", pixel stride "
+                            + uvPixelStride + (quantized ? ", uint8" : ", float");
+                    assertArrayEquals(message, convert(converter, frame, false),
+                            convert(converter, frame, true));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void nativeMatchesJavaForRegions() {
+        YuvFrame frame = new YuvFrame(320, 240, 2, 11);
+        YuvToTensorConverter converter = new YuvToTensorConverter(frame.width, frame.height, 96,
+                33, 33, 90, false, MEAN, STD);
+        for (int dy = 0; dy + 96 <= frame.height; dy += 72) {
+            for (int dx = 0; dx + 96 <= frame.width; dx += 56) {
+                converter.setUseNative(false);
+                ByteBuffer java = direct(converter.getOutputSizeInBytes());
+                converter.convertRegion(dx, dy, frame.y, frame.u, frame.v, frame.yRowStride,
+                        frame.uvRowStride, frame.uvPixelStride, java, null);
+                converter.setUseNative(true);
+                ByteBuffer nativeOut = direct(converter.getOutputSizeInBytes());
+                converter.convertRegion(dx, dy, frame.y, frame.u, frame.v, frame.yRowStride,
+                        frame.uvRowStride, frame.uvPixelStride, nativeOut, null);
+                assertArrayEquals("region at " + dx + "," + dy, bytes(java), bytes(nativeOut));
+            }
+        }
+    }
+
+    @Test
+    public void refusesTooSmallDestination() {
+        YuvFrame frame = new YuvFrame(64, 48, 2, 3);
+        int[] srcX = new int[16];
+        int[] srcY = new int[16];
+        assertFalse(NativePreprocessor.nativeConvert(frame.y, frame.u, frame.v, frame.yRowStride,
+                frame.uvRowStride, 2, 0, 0, srcX, srcY, true, MEAN, STD, direct(47), 0));
+        assertFalse(NativePreprocessor.nativeConvert(frame.y, frame.u, frame.v, frame.yRowStride,
+                frame.uvRowStride, 2, 0, 0, srcX, srcY, false, MEAN, STD, direct(16 * 12), 4));
+        assertFalse(NativePreprocessor.nativeConvert(frame.y, frame.u, frame.v, frame.yRowStride,
+                frame.uvRowStride, 2, 0, 0, srcX, new int[15], true, MEAN, STD, direct(48), 0));
+        assertTrue(NativePreprocessor.nativeConvert(frame.y, frame.u, frame.v, frame.yRowStride,
+                frame.uvRowStride, 2, 0, 0, srcX, srcY, true, MEAN, STD, direct(48), 0));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void converterThrowsForTooSmallDestination() {
+        YuvFrame frame = new YuvFrame(64, 48, 2, 3);
+        YuvToTensorConverter converter = new YuvToTensorConverter(frame.width, frame.height, 16,
+                16, 0, true, MEAN, STD);
+        converter.convert(frame.y, frame.u, frame.v, frame.yRowStride, frame.uvRowStride,
+                frame.uvPixelStride, direct(converter.getOutputSizeInBytes() - 1), null);
+    }
+
+    private static byte[] convert(YuvToTensorConverter converter, YuvFrame frame,
+                                  boolean useNative) {
+        converter.setUseNative(useNative);
+        ByteBuffer dst = direct(converter.getOutputSizeInBytes());
+        converter.convert(frame.y, frame.u, frame.v, frame.yRowStride, frame.uvRowStride,
+                frame.uvPixelStride, dst, null);
+        return bytes(dst);
+    }
+
+    private static ByteBuffer direct(int size) {
+        return ByteBuffer.allocateDirect(size).order(ByteOrder.nativeOrder());
+    }
+
+    private static byte[] bytes(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.capacity()];
+        ByteBuffer copy = buffer.duplicate();
+        copy.clear();
+        copy.get(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,61 @@
+package online.khlivniuk.complainer;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * A YUV_420_888 frame filled with noise, laid out like the planes of a camera image: rows are
+ * padded, and with a chroma pixel stride of 2 the U and V planes are views of one interleaved
+ * buffer, one byte apart.
+ */
+final class YuvFrame {
+    private static final int ROW_PADDING = 16;
+
+    final int width;
+    final int height;
+    final int yRowStride;
+    final int uvRowStride;
+    final int uvPixelStride;
+    final ByteBuffer y;
+    final ByteBuffer u;
+    final ByteBuffer v;
+
+    YuvFrame(int width, int height, int uvPixelStride, long seed) {
+        this.width = width;
+        this.height = height;
+        this.uvPixelStride = uvPixelStride;
+        yRowStride = width + ROW_PADDING;
+        uvRowStride = (width / 2) * uvPixelStride + ROW_PADDING;
+        Random random = new Random(seed);
+        y = noise(random, yRowStride * height);
+        if (uvPixelStride == 1) {
+            u = noise(random, uvRowStride * height / 2);
+            v = noise(random, uvRowStride * height / 2);
+        } else {
+            ByteBuffer chroma = noise(random, uvRowStride * height / 2);
+            chroma.limit(chroma.capacity() - 1);
+            u = chroma.slice();
+            chroma.limit(chroma.capacity()).position(1);
+            v = chroma.slice();
+        }
+    }
+
+    private static ByteBuffer noise(Random random, int size) {
+        byte[] bytes = new byte[size];
+        random.nextBytes(bytes);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(size);
+        buffer.put(bytes).rewind();
+        return buffer;
+    }
+
+    /** Luma of the pixel at column {@code x}, row {@code y}. */
+    int lumaAt(int x, int y) {
+        return this.y.get(yRowStride * y + x) & 0xff;
+    }
+
+    /** Packed ARGB color of the pixel at column {@code x}, row {@code y}. */
+    int colorAt(int x, int y) {
+        int uvOffset = uvRowStride * (y >> 1) + (x >> 1) * uvPixelStride;
+        return ImageUtils.yuvToRgb(lumaAt(x, y), u.get(uvOffset) & 0xff, v.get(uvOffset) & 0xff);
+    }
+}
@@ -0,0 +1,209 @@
+package online.khlivniuk.complainer;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks the Java loop of {@link YuvToTensorConverter} pixel by pixel against the frame it reads.
+ * Crops are converted at their own size where it matters, so every output pixel maps to exactly
+ * one frame pixel.
+ */
+public class YuvToTensorConverterTest {
+    private static final float MEAN = 127.5f;
+    private static final float STD = 127.5f;
+
+    @Test
+    public void takesTheCenterSquare() {
+        for (int uvPixelStride = 1; uvPixelStride <= 2; uvPixelStride++) {
+            YuvFrame frame = new YuvFrame(40, 24, uvPixelStride, 1);
+            int[] argb = convert(frame, 24, 0, true);
+            for (int y = 0; y < 24; y++) {
+                for (int x = 0; x < 24; x++) {
+                    assertEquals("pixel " + x + "," + y + ", pixel stride " + uvPixelStride,
+                            frame.colorAt(x + 8, y), argb[y * 24 + x]);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void takesTheCenterSquareOfPortraitFrames() {
+        YuvFrame frame = new YuvFrame(24, 40, 2, 2);
+        int[] argb = convert(frame, 24, 0, true);
+        for (int y = 0; y < 24; y++) {
+            for (int x = 0; x < 24; x++) {
+                assertEquals(frame.colorAt(x, y + 8), argb[y * 24 + x]);
+            }
+        }
+    }
+
+    @Test
+    public void rotatesClockwise() {
+        final int n = 16;
+        for (int uvPixelStride = 1; uvPixelStride <= 2; uvPixelStride++) {
+            YuvFrame frame = new YuvFrame(n, n, uvPixelStride, 3);
+            for (int orientation = 0; orientation < 360; orientation += 90) {
+                int[] argb = convert(frame, n, orientation, true);
+                for (int y = 0; y < n; y++) {
+                    for (int x = 0; x < n; x++) {
+                        int expected;
+                        switch (orientation) {
+                            case 90:
+                                expected = frame.colorAt(y, n - 1 - x);
+                                break;
+                            case 180:
+                                expected = frame.colorAt(n - 1 - x, n - 1 - y);
+                                break;
+                            case 270:
+                                expected = frame.colorAt(n - 1 - y, x);
+                                break;
+                            default:
+                                expected = frame.colorAt(x, y);
+                                break;
+                        }
+                        assertEquals("orientation " + orientation + ", pixel " + x + "," + y,
+                                expected, argb[y * n + x]);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void negativeOrientationsWrapAround() {
+        YuvFrame frame = new YuvFrame(16, 16, 2, 4);
+        assertArrayEquals(convert(frame, 16, 270, true), convert(frame, 16, -90, true));
+    }
+
+    @Test
+    public void scalesToTheCentersOfTheSourcePixels() {
+        YuvFrame frame = new YuvFrame(8, 8, 1, 5);
+        int[] argb = convert(frame, 4, 0, true);
+        for (int y = 0; y < 4; y++) {
+            for (int x = 0; x < 4; x++) {
+                assertEquals(frame.colorAt(2 * x + 1, 2 * y + 1), argb[y * 4 + x]);
+            }
+        }
+    }
+
+    @Test
+    public void writesUint8Channels() {
+        YuvFrame frame = new YuvFrame(20, 16, 2, 6);
+        YuvToTensorConverter converter = javaConverter(frame.width, frame.height, 16, 0, true);
+        ByteBuffer dst = ByteBuffer.allocate(converter.getOutputSizeInBytes() + 5);
+        dst.position(5);
+        converter.convert(frame.y, frame.u, frame.v, frame.yRowStride, frame.uvRowStride,
+                frame.uvPixelStride, dst, null);
+        assertEquals(16 * 16 * 3, converter.getOutputSizeInBytes());
+        assertEquals(dst.capacity(), dst.position());
+        for (int i = 0; i < 16 * 16; i++) {
+            int color = frame.colorAt(2 + i % 16, i / 16);
+            int at = 5 + 3 * i;
+            assertEquals((color >> 16) & 0xff, dst.get(at) & 0xff);
+            assertEquals((color >> 8) & 0xff, dst.get(at + 1) & 0xff);
+            assertEquals(color & 0xff, dst.get(at + 2) & 0xff);
+        }
+    }
+
+    @Test
+    public void writesNormalizedFloatChannels() {
+        YuvFrame frame = new YuvFrame(20, 16, 1, 7);
+        YuvToTensorConverter converter = javaConverter(frame.width, frame.height, 16, 90, false);
+        ByteBuffer dst = ByteBuffer.allocate(converter.getOutputSizeInBytes())
+                .order(ByteOrder.nativeOrder());
+        converter.convert(frame.y, frame.u, frame.v, frame.yRowStride, frame.uvRowStride,
+                frame.uvPixelStride, dst, null);
+        assertEquals(16 * 16 * 3 * 4, dst.position());
+        for (int y = 0; y < 16; y++) {
+            for (int x = 0; x < 16; x++) {
+                int color = frame.colorAt(2 + y, 15 - x);
+                int at = (y * 16 + x) * 12;
+                assertEquals((((color >> 16) & 0xff) - MEAN) / STD, dst.getFloat(at), 1e-6f);
+                assertEquals((((color >> 8) & 0xff) - MEAN) / STD, dst.getFloat(at + 4), 1e-6f);
+                assertEquals(((color & 0xff) - MEAN) / STD, dst.getFloat(at + 8), 1e-6f);
+            }
+        }
+    }
+
+    @Test
+    public void convertsRegions() {
+        YuvFrame frame = new YuvFrame(48, 32, 2, 8);
+        YuvToTensorConverter converter = new YuvToTensorConverter(frame.width, frame.height, 12,
+                12, 12, 0, true, MEAN, STD);
+        converter.setUseNative(false);
+        int[] argb = new int[12 * 12];
+        for (int dy = 0; dy + 12 <= frame.height; dy += 10) {
+            for (int dx = 0; dx + 12 <= frame.width; dx += 18) {
+                ByteBuffer dst = ByteBuffer.allocate(converter.getOutputSizeInBytes());
+                converter.convertRegion(dx, dy, frame.y, frame.u, frame.v, frame.yRowStride,
+                        frame.uvRowStride, frame.uvPixelStride, dst, argb);
+                for (int y = 0; y < 12; y++) {
+                    for (int x = 0; x < 12; x++) {
+                        assertEquals("region " + dx + "," + dy,
+                                frame.colorAt(dx + x, dy + y), argb[y * 12 + x]);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsOddRegionOffsets() {
+        YuvFrame frame = new YuvFrame(48, 32, 2, 9);
+        YuvToTensorConverter converter = new YuvToTensorConverter(frame.width, frame.height, 12,
+                12, 12, 0, true, MEAN, STD);
+        converter.convertRegion(1, 0, frame.y, frame.u, frame.v, frame.yRowStride,
+                frame.uvRowStride, frame.uvPixelStride,
+                ByteBuffer.allocate(converter.getOutputSizeInBytes()), null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsRegionsOutsideTheFrame() {
+        YuvFrame frame = new YuvFrame(48, 32, 2, 10);
+        YuvToTensorConverter converter = new YuvToTensorConverter(frame.width, frame.height, 12,
+                12, 12, 0, true, MEAN, STD);
+        converter.convertRegion(38, 0, frame.y, frame.u, frame.v, frame.yRowStride,
+                frame.uvRowStride, frame.uvPixelStride,
+                ByteBuffer.allocate(converter.getOutputSizeInBytes()), null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsFloatTensorsInForeignByteOrder() {
+        ByteOrder foreign = ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN
+                ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+        YuvFrame frame = new YuvFrame(16, 16, 2, 11);
+        YuvToTensorConverter converter = javaConverter(16, 16, 16, 0, false);
+        converter.convert(frame.y, frame.u, frame.v, frame.yRowStride, frame.uvRowStride,
+                frame.uvPixelStride,
+                ByteBuffer.allocate(converter.getOutputSizeInBytes()).order(foreign), null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnsupportedOrientations() {
+        new YuvToTensorConverter(16, 16, 8, 8, 45, true, MEAN, STD);
+    }
+
+    /** Converts the center square of {@code frame} to {@code size} pixels, returned as ARGB. */
+    private static int[] convert(YuvFrame frame, int size, int orientation, boolean quantized) {
+        YuvToTensorConverter converter = javaConverter(frame.width, frame.height, size,
+                orientation, quantized);
+        int[] argb = new int[size * size];
+        converter.convert(frame.y, frame.u, frame.v, frame.yRowStride, frame.uvRowStride,
+                frame.uvPixelStride, ByteBuffer.allocate(converter.getOutputSizeInBytes())
+                        .order(ByteOrder.nativeOrder()), argb);
+        return argb;
+    }
+
+    private static YuvToTensorConverter javaConverter(int frameWidth, int frameHeight, int size,
+                                                      int orientation, boolean quantized) {
+        YuvToTensorConverter converter = new YuvToTensorConverter(frameWidth, frameHeight, size,
+                size, orientation, quantized, MEAN, STD);
+        converter.setUseNative(false);
+        return converter;
+    }
+}
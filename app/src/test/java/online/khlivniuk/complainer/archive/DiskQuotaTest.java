@@ -0,0 +1,91 @@
+package online.khlivniuk.complainer.archive;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DiskQuotaTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    /** Write a file of {@code size} bytes, modified at {@code modifiedMs}. */
+    private File write(String name, int size, long modifiedMs) throws IOException {
+        File file = new File(folder.getRoot(), name);
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(new byte[size]);
+        } finally {
+            out.close();
+        }
+        assertTrue(file.setLastModified(modifiedMs));
+        return file;
+    }
+
+    @Test
+    public void loadEvictsByModificationTime() throws IOException {
+        // Created newest first, so creation order and names disagree with the mtimes.
+        File newest = write("a", 100, 30000);
+        File middle = write("b", 100, 20000);
+        File oldest = write("c", 100, 10000);
+        DiskQuota quota = new DiskQuota(folder.getRoot(), 250);
+        quota.load();
+
+        assertFalse(oldest.exists());
+        assertTrue(middle.exists());
+        assertTrue(newest.exists());
+        assertEquals(2, quota.getFileCount());
+        assertEquals(200, quota.getUsedBytes());
+        assertEquals(1, quota.getEvicted());
+
+        // The next file goes over the quota again and takes out the next oldest.
+        quota.add(write("d", 100, 40000));
+        assertFalse(middle.exists());
+        assertTrue(newest.exists());
+    }
+
+    @Test
+    public void rewrittenFileCountsAsTheNewest() throws IOException {
+        DiskQuota quota = new DiskQuota(folder.getRoot(), 250);
+        File a = write("a", 100, 10000);
+        quota.add(a);
+        File b = write("b", 100, 20000);
+        quota.add(b);
+        // Rewritten with a new size, a moves behind b.
+        quota.add(write("a", 120, 30000));
+        assertEquals(220, quota.getUsedBytes());
+
+        quota.add(write("c", 100, 40000));
+        assertFalse(b.exists());
+        assertTrue(a.exists());
+        assertEquals(2, quota.getFileCount());
+        assertEquals(220, quota.getUsedBytes());
+    }
+
+    @Test
+    public void newestFileIsKeptOverTheQuota() throws IOException {
+        DiskQuota quota = new DiskQuota(folder.getRoot(), 250);
+        File a = write("a", 100, 10000);
+        quota.add(a);
+        File big = write("big", 1000, 20000);
+        quota.add(big);
+
+        assertFalse(a.exists());
+        assertTrue(big.exists());
+        assertEquals(1, quota.getFileCount());
+        assertEquals(1000, quota.getUsedBytes());
+
+        // Also when it is the only file found on load.
+        quota.load();
+        assertTrue(big.exists());
+        assertEquals(1, quota.getFileCount());
+    }
+}
@@ -0,0 +1,160 @@
+package online.khlivniuk.complainer.classifier;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TemporalSmootherTest {
+
+    private static final List<String> LABELS = Arrays.asList("a", "b", "c", "d", "e", "f");
+
+    /** Label changes reported to the listener, as {@code "previous>new"}. */
+    private final List<String> changes = new ArrayList<>();
+    private final TemporalSmoother.Listener recorder = new TemporalSmoother.Listener() {
+        @Override
+        public void onDominantLabelChanged(int previousLabelId, int labelId, String label,
+                                           float score, long timestamp) {
+            changes.add(previousLabelId + ">" + labelId);
+        }
+    };
+    private long timestamp;
+
+    @Before
+    public void clear() {
+        changes.clear();
+    }
+
+    /** A frame result holding {@code idsAndScores} as label id, score pairs, best first. */
+    private ClassificationResult frame(float... idsAndScores) {
+        int size = idsAndScores.length / 2;
+        int[] ids = new int[size];
+        float[] scores = new float[size];
+        for (int i = 0; i < size; i++) {
+            ids[i] = (int) idsAndScores[2 * i];
+            scores[i] = idsAndScores[2 * i + 1];
+        }
+        ClassificationResult result = new ClassificationResult(Math.max(1, size));
+        result.fill(size, ids, scores, LABELS);
+        result.setTimestamp(++timestamp);
+        return result;
+    }
+
+    private TemporalSmoother build(TemporalSmoother.Builder builder) {
+        TemporalSmoother smoother = builder.build();
+        smoother.setListener(recorder);
+        return smoother;
+    }
+
+    @Test
+    public void listenerFiresAfterDebounceFramesInARow() {
+        // A factor of 1 passes every frame through unfiltered.
+        TemporalSmoother smoother = build(new TemporalSmoother.Builder()
+                .mode(TemporalSmoother.Mode.EMA).factor(1f).debounceFrames(3));
+        assertFalse(smoother.update(frame(2, 0.9f)));
+        assertFalse(smoother.update(frame(2, 0.9f)));
+        assertTrue(changes.isEmpty());
+        assertTrue(smoother.update(frame(2, 0.9f)));
+        assertEquals(Arrays.asList("-1>2"), changes);
+        assertEquals(2, smoother.getDominantLabelId());
+        assertEquals("c", smoother.getDominantLabel());
+        assertFalse(smoother.update(frame(2, 0.9f)));
+        assertEquals(1, changes.size());
+    }
+
+    @Test
+    public void interruptedCandidateStartsOver() {
+        TemporalSmoother smoother = build(new TemporalSmoother.Builder()
+                .mode(TemporalSmoother.Mode.EMA).factor(1f).debounceFrames(3));
+        smoother.update(frame(2, 0.9f));
+        smoother.update(frame(2, 0.9f));
+        smoother.update(frame(4, 0.9f));
+        smoother.update(frame(2, 0.9f));
+        smoother.update(frame(2, 0.9f));
+        assertTrue(changes.isEmpty());
+        smoother.update(frame(2, 0.9f));
+        assertEquals(Arrays.asList("-1>2"), changes);
+    }
+
+    @Test
+    public void labelBelowMinScoreGivesNoLabel() {
+        TemporalSmoother smoother = build(new TemporalSmoother.Builder()
+                .mode(TemporalSmoother.Mode.EMA).factor(1f).debounceFrames(1).minScore(0.5f));
+        assertTrue(smoother.update(frame(2, 0.9f)));
+        assertTrue(smoother.update(frame(2, 0.3f)));
+        assertEquals(Arrays.asList("-1>2", "2>-1"), changes);
+        assertEquals(TemporalSmoother.NO_LABEL, smoother.getDominantLabelId());
+        assertNull(smoother.getDominantLabel());
+    }
+
+    @Test
+    public void newLabelEvictsTheWeakestUnseenLabel() {
+        TemporalSmoother smoother = build(new TemporalSmoother.Builder()
+                .mode(TemporalSmoother.Mode.EMA).factor(0.5f).trackedLabels(2));
+        // a at 0.4, b at 0.2.
+        smoother.update(frame(0, 0.8f, 1, 0.4f));
+        // c needs a slot: b is weaker but seen in this frame, so a makes way.
+        smoother.update(frame(2, 0.9f, 1, 0.1f));
+
+        ClassificationResult smoothed = new ClassificationResult(2);
+        smoother.getSmoothed(smoothed);
+        assertEquals(2, smoothed.size());
+        // The slot of a is cleared for c instead of carrying a's score over.
+        assertEquals(2, smoothed.getLabelId(0));
+        assertEquals(0.45f, smoothed.getScore(0), 1e-6f);
+        assertEquals(1, smoothed.getLabelId(1));
+        assertEquals(0.15f, smoothed.getScore(1), 1e-6f);
+    }
+
+    @Test
+    public void labelIsDroppedWhenAllSlotsHoldLabelsOfTheFrame() {
+        TemporalSmoother smoother = build(new TemporalSmoother.Builder()
+                .mode(TemporalSmoother.Mode.EMA).factor(1f).trackedLabels(1));
+        smoother.update(frame(3, 0.6f, 4, 0.3f));
+        ClassificationResult smoothed = new ClassificationResult(2);
+        smoother.getSmoothed(smoothed);
+        assertEquals(1, smoothed.size());
+        assertEquals(3, smoothed.getLabelId(0));
+    }
+
+    @Test
+    public void majorityOfFiveNeedsThreeVotes() {
+        TemporalSmoother smoother = build(new TemporalSmoother.Builder()
+                .mode(TemporalSmoother.Mode.MAJORITY).windowSize(5).debounceFrames(1)
+                .minScore(0.5f));
+        // Frames without a label vote for nothing.
+        smoother.update(frame(1, 0.9f));
+        smoother.update(frame());
+        smoother.update(frame(1, 0.9f));
+        smoother.update(frame());
+        assertTrue(changes.isEmpty());
+        assertTrue(smoother.update(frame(1, 0.9f)));
+        assertEquals(Arrays.asList("-1>1"), changes);
+        assertEquals(0.6f, smoother.getDominantScore(), 1e-6f);
+
+        // The first vote leaves the window.
+        smoother.update(frame());
+        assertEquals(Arrays.asList("-1>1", "1>-1"), changes);
+    }
+
+    @Test
+    public void resetForgetsTheDominantLabel() {
+        TemporalSmoother smoother = build(new TemporalSmoother.Builder()
+                .mode(TemporalSmoother.Mode.MULTI_STAGE).factor(1f).debounceFrames(1));
+        smoother.update(frame(5, 0.9f));
+        assertEquals(5, smoother.getDominantLabelId());
+        smoother.reset();
+        assertEquals(TemporalSmoother.NO_LABEL, smoother.getDominantLabelId());
+        ClassificationResult smoothed = new ClassificationResult(2);
+        smoother.getSmoothed(smoothed);
+        assertEquals(0, smoothed.size());
+        assertEquals(Arrays.asList("-1>5"), changes);
+    }
+}
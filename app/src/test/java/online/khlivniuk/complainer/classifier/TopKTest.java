@@ -0,0 +1,77 @@
+package online.khlivniuk.complainer.classifier;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class TopKTest {
+
+    @Test
+    public void selectsTheHighestScoresBestFirst() {
+        float[] scores = {0.1f, 0.7f, 0.05f, 0.9f, 0.3f};
+        int[] ids = new int[3];
+        float[] top = new float[3];
+        assertEquals(3, TopK.select(scores, scores.length, ids, top));
+        assertArrayEquals(new int[]{3, 1, 4}, ids);
+        assertArrayEquals(new float[]{0.9f, 0.7f, 0.3f}, top, 0f);
+    }
+
+    @Test
+    public void matchesASortForRandomScores() {
+        Random random = new Random(3);
+        float[] scores = new float[1001];
+        for (int i = 0; i < scores.length; i++) {
+            scores[i] = random.nextFloat();
+        }
+        float[] sorted = scores.clone();
+        Arrays.sort(sorted);
+        int[] ids = new int[5];
+        float[] top = new float[5];
+        assertEquals(5, TopK.select(scores, scores.length, ids, top));
+        for (int i = 0; i < 5; i++) {
+            assertEquals(sorted[sorted.length - 1 - i], top[i], 0f);
+            assertEquals(top[i], scores[ids[i]], 0f);
+        }
+    }
+
+    @Test
+    public void neverSelectsNaN() {
+        // NaN first, while the list is still filling up, and between numbers.
+        float[] scores = {Float.NaN, 0.2f, Float.NaN, 0.5f, 0.1f};
+        int[] ids = new int[3];
+        float[] top = new float[3];
+        assertEquals(3, TopK.select(scores, scores.length, ids, top));
+        assertArrayEquals(new int[]{3, 1, 4}, ids);
+        assertArrayEquals(new float[]{0.5f, 0.2f, 0.1f}, top, 0f);
+    }
+
+    @Test
+    public void selectsFewerWhenTooManyScoresAreNaN() {
+        float[] scores = {Float.NaN, 0.2f, Float.NaN};
+        int[] ids = new int[3];
+        float[] top = new float[3];
+        assertEquals(1, TopK.select(scores, scores.length, ids, top));
+        assertEquals(1, ids[0]);
+    }
+
+    @Test
+    public void selectsUnsignedBytes() {
+        byte[] scores = {(byte) 200, 10, (byte) 255, 0, 127};
+        int[] ids = new int[2];
+        int[] top = new int[2];
+        assertEquals(2, TopK.selectUnsigned(scores, scores.length, ids, top));
+        assertArrayEquals(new int[]{2, 0}, ids);
+        assertArrayEquals(new int[]{255, 200}, top);
+    }
+
+    @Test
+    public void selectsAtMostCount() {
+        int[] ids = new int[4];
+        assertEquals(2, TopK.select(new float[]{1f, 2f, 3f}, 2, ids, new float[4]));
+        assertEquals(0, TopK.select(new float[0], 0, ids, new float[4]));
+    }
+}
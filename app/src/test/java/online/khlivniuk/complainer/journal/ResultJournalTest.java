@@ -0,0 +1,289 @@
+package online.khlivniuk.complainer.journal;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+import online.khlivniuk.complainer.classifier.ClassificationResult;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ResultJournalTest {
+    /** Smallest segment a journal accepts, a few dozen records. */
+    private static final int SMALL_SEGMENT = ResultJournal.MIN_SEGMENT_SIZE;
+    private static final int LARGE_SEGMENT = 1 << 20;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private File directory;
+    private ResultJournal journal;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = new File(folder.getRoot(), "journal");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (journal != null) {
+            journal.close();
+        }
+    }
+
+    @Test
+    public void readsBackWhatWasAppended() throws IOException {
+        journal = new ResultJournal(directory, LARGE_SEGMENT, 4);
+        ClassificationResult result = result(1234567L, "camera0", 3);
+        result.setStageTimeNs(ClassificationResult.Stage.PREPROCESS, 1500000);
+        result.setStageTimeNs(ClassificationResult.Stage.INFERENCE, 42000000);
+        assertTrue(journal.append(result, "mobilenet", 1000));
+        assertTrue(journal.append(result(7L, null, 0), "mobilenet", 1001));
+
+        List<JournalEntry> entries = new JournalReader(directory).read(0, Long.MAX_VALUE);
+        assertEquals(2, entries.size());
+        JournalEntry entry = entries.get(0);
+        assertEquals(1000, entry.getWallTimeMs());
+        assertEquals(1234567L, entry.getTimestampNs());
+        assertEquals("camera0", entry.getSource());
+        assertEquals("mobilenet", entry.getModel());
+        assertEquals(3, entry.size());
+        for (int i = 0; i < 3; i++) {
+            assertEquals(10 + i, entry.getLabelId(i));
+            assertEquals(0.5f / (i + 1), entry.getScore(i), 0f);
+        }
+        assertEquals(1500, entry.getStageTimeUs(ClassificationResult.Stage.PREPROCESS));
+        assertEquals(42000, entry.getStageTimeUs(ClassificationResult.Stage.INFERENCE));
+        assertEquals(0, entry.getStageTimeUs(ClassificationResult.Stage.POSTPROCESS));
+        assertNull(entries.get(1).getSource());
+        assertEquals(0, entries.get(1).size());
+        assertEquals(2, journal.getAppended());
+    }
+
+    @Test
+    public void refusesAppendsOnceClosed() throws IOException {
+        journal = new ResultJournal(directory, SMALL_SEGMENT, 1);
+        journal.close();
+        assertFalse(journal.append(result(0, "camera0", 1), "model", 1));
+        journal.close();
+    }
+
+    @Test
+    public void tornRecordReadsAsTheEndOfTheSegment() throws IOException {
+        journal = new ResultJournal(directory, LARGE_SEGMENT, 4);
+        append(0, 3);
+        int end = endOfRecords();
+        append(3, 1);
+        journal.close();
+        journal = null;
+
+        // A crash after the body of the last record was written, but before its length was.
+        File segment = ResultJournal.listSegments(directory)[0];
+        writeInt(segment, end, 0);
+        assertEquals(3, new JournalReader(directory).read(0, Long.MAX_VALUE).size());
+
+        // A garbled length running past the end of the segment.
+        writeInt(segment, end, LARGE_SEGMENT);
+        assertEquals(3, new JournalReader(directory).read(0, Long.MAX_VALUE).size());
+
+        // A length too short for the record it announces.
+        writeInt(segment, end, 8);
+        assertEquals(3, new JournalReader(directory).read(0, Long.MAX_VALUE).size());
+    }
+
+    @Test
+    public void rotatesAndDeletesOldSegments() throws IOException {
+        journal = new ResultJournal(directory, SMALL_SEGMENT, 3);
+        append(0, 1000);
+        File[] segments = ResultJournal.listSegments(directory);
+        assertEquals(3, segments.length);
+
+        List<JournalEntry> entries = new JournalReader(directory).read(0, Long.MAX_VALUE);
+        assertTrue(entries.size() > 0 && entries.size() < 1000);
+        // The newest records survive, without a gap.
+        for (int i = 0; i < entries.size(); i++) {
+            assertEquals(1000 - entries.size() + i, entries.get(i).getWallTimeMs());
+        }
+    }
+
+    @Test
+    public void readerForgetsDeletedSegments() throws IOException {
+        journal = new ResultJournal(directory, SMALL_SEGMENT, 2);
+        JournalReader reader = new JournalReader(directory);
+        append(0, 10);
+        assertEquals(10, reader.read(0, Long.MAX_VALUE).size());
+        append(10, 500);
+        reader.refresh();
+        List<JournalEntry> entries = reader.read(0, Long.MAX_VALUE);
+        assertTrue(entries.get(0).getWallTimeMs() > 10);
+        assertEquals(509, entries.get(entries.size() - 1).getWallTimeMs());
+    }
+
+    @Test
+    public void reopenedJournalAppendsToANewSegment() throws IOException {
+        journal = new ResultJournal(directory, LARGE_SEGMENT, 4);
+        append(0, 5);
+        journal.close();
+        journal = new ResultJournal(directory, LARGE_SEGMENT, 4);
+        append(5, 5);
+        assertEquals(2, ResultJournal.listSegments(directory).length);
+        List<JournalEntry> entries = new JournalReader(directory).read(0, Long.MAX_VALUE);
+        assertEquals(10, entries.size());
+        for (int i = 0; i < 10; i++) {
+            assertEquals(i, entries.get(i).getWallTimeMs());
+        }
+    }
+
+    @Test
+    public void seeksThroughTheSparseIndex() throws IOException {
+        journal = new ResultJournal(directory, LARGE_SEGMENT, 4);
+        // Several index intervals, two records per millisecond.
+        final int count = 1000;
+        for (int i = 0; i < count; i++) {
+            journal.append(result(i, "camera0", 1), "model", 2 * (i / 2));
+        }
+        JournalReader reader = new JournalReader(directory);
+        int[][] ranges = {{0, 0}, {0, 1}, {63, 64}, {64, 64}, {126, 130}, {127, 640},
+                {997, 998}, {998, 2000}, {-5, -1}, {1000, 2000}};
+        for (int[] range : ranges) {
+            List<JournalEntry> entries = reader.read(range[0], range[1]);
+            int expected = 0;
+            for (int i = 0; i < count; i++) {
+                long time = 2 * (i / 2);
+                if (time >= range[0] && time <= range[1]) {
+                    assertEquals(i, entries.get(expected).getTimestampNs());
+                    expected++;
+                }
+            }
+            assertEquals("range " + range[0] + ".." + range[1], expected, entries.size());
+        }
+    }
+
+    @Test
+    public void scanStopsWhenTheVisitorSaysSo() throws IOException {
+        journal = new ResultJournal(directory, LARGE_SEGMENT, 4);
+        append(0, 100);
+        final int[] seen = new int[1];
+        int visited = new JournalReader(directory).scan(10, 90, new JournalReader.Visitor() {
+            @Override
+            public boolean visit(JournalEntry entry) {
+                assertEquals(10 + seen[0], entry.getWallTimeMs());
+                return ++seen[0] < 5;
+            }
+        });
+        assertEquals(5, visited);
+        assertEquals(5, seen[0]);
+    }
+
+    @Test
+    public void readsTheSegmentBeingWritten() throws IOException {
+        journal = new ResultJournal(directory, LARGE_SEGMENT, 4);
+        JournalReader reader = new JournalReader(directory);
+        assertEquals(0, reader.read(0, Long.MAX_VALUE).size());
+        append(0, 100);
+        assertEquals(100, reader.read(0, Long.MAX_VALUE).size());
+        // The index grows with the segment.
+        append(100, 100);
+        List<JournalEntry> entries = reader.read(150, 160);
+        assertEquals(11, entries.size());
+        assertEquals(150, entries.get(0).getWallTimeMs());
+    }
+
+    @Test
+    public void skipsFilesThatArentSegments() throws IOException {
+        journal = new ResultJournal(directory, LARGE_SEGMENT, 4);
+        append(0, 3);
+        RandomAccessFile foreign = new RandomAccessFile(
+                new File(directory, "0000000000" + ResultJournal.SUFFIX), "rw");
+        try {
+            foreign.setLength(64);
+            foreign.writeInt(0xdeadbeef);
+        } finally {
+            foreign.close();
+        }
+        assertEquals(3, new JournalReader(directory).read(0, Long.MAX_VALUE).size());
+    }
+
+    @Test
+    public void longestRecordFitsTheSmallestSegment() throws IOException {
+        journal = new ResultJournal(directory, SMALL_SEGMENT, 2);
+        StringBuilder id = new StringBuilder();
+        for (int i = 0; i < 300; i++) {
+            id.append('x');
+        }
+        // Ids and labels beyond their limits are cut, not written past the segment.
+        ClassificationResult longest = result(1, id.toString(), 300);
+        assertTrue(journal.append(longest, id.toString(), 1));
+        assertTrue(journal.append(longest, id.toString(), 2));
+        assertEquals(2, ResultJournal.listSegments(directory).length);
+
+        List<JournalEntry> entries = new JournalReader(directory).read(0, Long.MAX_VALUE);
+        assertEquals(2, entries.size());
+        assertEquals(255, entries.get(1).size());
+        assertEquals(255, entries.get(1).getSource().length());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsTinySegments() throws IOException {
+        new ResultJournal(directory, SMALL_SEGMENT - 1, 1);
+    }
+
+    private void append(int first, int count) throws IOException {
+        for (int i = first; i < first + count; i++) {
+            assertTrue(journal.append(result(i, "camera0", 2), "model", i));
+        }
+    }
+
+    /** Offset after the records of the only segment. */
+    private int endOfRecords() throws IOException {
+        journal.flush();
+        RandomAccessFile in = new RandomAccessFile(ResultJournal.listSegments(directory)[0], "r");
+        try {
+            int offset = ResultJournal.HEADER_SIZE;
+            while (true) {
+                in.seek(offset);
+                int length = Integer.reverseBytes(in.readInt());
+                if (length == 0) {
+                    return offset;
+                }
+                offset += 4 + length;
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void writeInt(File file, int offset, int value) throws IOException {
+        RandomAccessFile out = new RandomAccessFile(file, "rw");
+        try {
+            out.seek(offset);
+            out.writeInt(Integer.reverseBytes(value));
+        } finally {
+            out.close();
+        }
+    }
+
+    private static ClassificationResult result(long timestampNs, String source, int labels) {
+        ClassificationResult result = new ClassificationResult(labels);
+        int[] ids = new int[labels];
+        float[] scores = new float[labels];
+        for (int i = 0; i < labels; i++) {
+            ids[i] = 10 + i;
+            scores[i] = 0.5f / (i + 1);
+        }
+        result.fill(labels, ids, scores, null);
+        result.setTimestamp(timestampNs);
+        result.setSource(source);
+        return result;
+    }
+}
@@ -0,0 +1,90 @@
+package online.khlivniuk.complainer.metrics;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+
+    /** Bucket width over value: 32 linear buckets per power of two. */
+    private static final double PRECISION = 1.0 / 32;
+
+    private static void assertRoundTrip(long value) {
+        long upper = LatencyHistogram.upperBoundOf(LatencyHistogram.bucketOf(value));
+        assertTrue(value + " reported as " + upper, upper >= value);
+        assertTrue(value + " reported as " + upper, upper - value <= value * PRECISION);
+    }
+
+    @Test
+    public void smallValuesHaveABucketEach() {
+        for (long value = 0; value <= 63; value++) {
+            assertEquals(value, LatencyHistogram.bucketOf(value));
+            assertEquals(value, LatencyHistogram.upperBoundOf((int) value));
+        }
+        // From 64 on buckets are two wide.
+        assertEquals(64, LatencyHistogram.bucketOf(64));
+        assertEquals(64, LatencyHistogram.bucketOf(65));
+        assertEquals(65, LatencyHistogram.upperBoundOf(64));
+        assertEquals(65, LatencyHistogram.bucketOf(66));
+    }
+
+    @Test
+    public void powerOfTwoEdgesStartANewBucket() {
+        for (int exponent = 6; exponent < 63; exponent++) {
+            long edge = 1L << exponent;
+            int bucket = LatencyHistogram.bucketOf(edge);
+            assertEquals("at 2^" + exponent, bucket - 1, LatencyHistogram.bucketOf(edge - 1));
+            assertEquals("at 2^" + exponent, edge - 1, LatencyHistogram.upperBoundOf(bucket - 1));
+            assertRoundTrip(edge);
+            assertRoundTrip(edge - 1);
+            assertRoundTrip(edge + 1);
+        }
+    }
+
+    @Test
+    public void largestValueHasTheLastBucket() {
+        int bucket = LatencyHistogram.bucketOf(Long.MAX_VALUE);
+        assertEquals(Long.MAX_VALUE, LatencyHistogram.upperBoundOf(bucket));
+        assertTrue(bucket > LatencyHistogram.bucketOf(Long.MAX_VALUE / 2));
+        new LatencyHistogram().record(Long.MAX_VALUE);
+    }
+
+    @Test
+    public void randomValuesAreWithinThePrecision() {
+        Random random = new Random(13);
+        for (int i = 0; i < 100000; i++) {
+            // Spread over all magnitudes.
+            long value = random.nextLong() >>> (1 + random.nextInt(63));
+            assertRoundTrip(value);
+        }
+    }
+
+    @Test
+    public void percentileIsClampedToTheMax() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getPercentile(50));
+        // 1000 falls in the bucket 992..1007.
+        histogram.record(1000);
+        assertEquals(1000, histogram.getPercentile(100));
+        assertEquals(1000, histogram.getPercentile(0));
+        histogram.record(10);
+        assertEquals(10, histogram.getPercentile(50));
+        assertEquals(1000, histogram.getPercentile(99));
+        assertEquals(1000, histogram.getMax());
+        assertEquals(505, histogram.getMean());
+    }
+
+    @Test
+    public void negativeValuesCountAsZero() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        assertEquals(1, histogram.getCount());
+        assertEquals(0, histogram.getPercentile(100));
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMax());
+    }
+}
@@ -0,0 +1,156 @@
+package online.khlivniuk.complainer.pipeline;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class BufferPoolTest {
+
+    private static class TestBuffer extends BufferPool.Buffer {
+    }
+
+    private static final BufferPool.Factory<TestBuffer> FACTORY =
+            new BufferPool.Factory<TestBuffer>() {
+                @Override
+                public TestBuffer create() {
+                    return new TestBuffer();
+                }
+            };
+
+    @Test
+    public void lastReleaseReturnsTheBuffer() {
+        BufferPool<TestBuffer> pool = new BufferPool<>("test", 1, FACTORY);
+        TestBuffer buffer = pool.acquire();
+        assertEquals(1, buffer.getRefCount());
+        buffer.retain();
+        buffer.retain();
+        assertEquals(3, buffer.getRefCount());
+        buffer.release();
+        buffer.release();
+        assertEquals(1, pool.getInUse());
+        assertNull(pool.acquire());
+        buffer.release();
+        assertEquals(0, buffer.getRefCount());
+        assertEquals(0, pool.getInUse());
+        assertSame(buffer, pool.acquire());
+        assertEquals(1, buffer.getRefCount());
+    }
+
+    @Test
+    public void neverAllocatesBeyondItsCapacity() {
+        final AtomicInteger created = new AtomicInteger();
+        BufferPool<TestBuffer> pool = new BufferPool<>("test", 3,
+                new BufferPool.Factory<TestBuffer>() {
+                    @Override
+                    public TestBuffer create() {
+                        created.incrementAndGet();
+                        return new TestBuffer();
+                    }
+                });
+        assertEquals(3, created.get());
+        List<TestBuffer> buffers = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            buffers.add(pool.acquire());
+        }
+        assertNull(pool.acquire());
+        assertNull(pool.acquire());
+        for (TestBuffer buffer : buffers) {
+            buffer.release();
+        }
+        assertNotNull(pool.acquire());
+        assertEquals(3, created.get());
+    }
+
+    @Test
+    public void countsUse() {
+        BufferPool<TestBuffer> pool = new BufferPool<>("test", 2, FACTORY);
+        TestBuffer first = pool.acquire();
+        TestBuffer second = pool.acquire();
+        assertNull(pool.acquire());
+        first.release();
+        second.release();
+        pool.acquire().release();
+        assertEquals(2, pool.getCapacity());
+        assertEquals(0, pool.getInUse());
+        assertEquals(2, pool.getPeakInUse());
+        assertEquals(3, pool.getAcquired());
+        assertEquals(1, pool.getExhausted());
+        assertEquals("test: 0/2 in use, peak 2, 3 acquired, 1 exhausted (25.0%)",
+                pool.toString());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void releasingTooOftenThrows() {
+        BufferPool<TestBuffer> pool = new BufferPool<>("test", 1, FACTORY);
+        TestBuffer buffer = pool.acquire();
+        buffer.release();
+        buffer.release();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void retainingAFreeBufferThrows() {
+        BufferPool<TestBuffer> pool = new BufferPool<>("test", 1, FACTORY);
+        TestBuffer buffer = pool.acquire();
+        buffer.release();
+        buffer.retain();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void buffersBelongToOnePool() {
+        final TestBuffer shared = new TestBuffer();
+        BufferPool.Factory<TestBuffer> factory = new BufferPool.Factory<TestBuffer>() {
+            @Override
+            public TestBuffer create() {
+                return shared;
+            }
+        };
+        new BufferPool<>("test", 2, factory);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsEmptyPools() {
+        new BufferPool<>("test", 0, FACTORY);
+    }
+
+    @Test
+    public void survivesConcurrentUse() throws InterruptedException {
+        final BufferPool<TestBuffer> pool = new BufferPool<>("test", 4, FACTORY);
+        final int threads = 4;
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int i = 0; i < 20000; i++) {
+                            TestBuffer buffer = pool.acquire();
+                            if (buffer != null) {
+                                buffer.retain();
+                                buffer.release();
+                                buffer.release();
+                            }
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }).start();
+        }
+        start.countDown();
+        done.await();
+        assertEquals(0, pool.getInUse());
+        assertEquals(4 * 20000, pool.getAcquired() + pool.getExhausted());
+    }
+}
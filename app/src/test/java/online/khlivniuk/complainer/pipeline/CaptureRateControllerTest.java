@@ -0,0 +1,102 @@
+package online.khlivniuk.complainer.pipeline;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CaptureRateControllerTest {
+
+    private static final long MS = 1000000L;
+
+    /** 0.2 to 10 fps, halving, held for a second, 250 ms latency budget. */
+    private static CaptureRateController controller() {
+        return new CaptureRateController(0.2f, 10f, 0.5f, 1000, 250, 0.3f);
+    }
+
+    @Test
+    public void rateIsHeldAtTheMaximumThenDecaysToTheMinimum() {
+        CaptureRateController controller = controller();
+        assertEquals(0.2f, controller.getFps(), 0f);
+        controller.onActivity(0);
+        assertEquals(10f, controller.update(100 * MS, 0, 0), 0f);
+        assertEquals(10f, controller.update(900 * MS, 0, 0), 0f);
+        assertTrue(controller.isActive());
+
+        assertEquals(5f, controller.update(1100 * MS, 0, 0), 0f);
+        assertFalse(controller.isActive());
+        assertEquals(2.5f, controller.update(2100 * MS, 0, 0), 0f);
+        assertEquals(1.25f, controller.update(3100 * MS, 0, 0), 0f);
+        assertEquals(0.625f, controller.update(4100 * MS, 0, 0), 0f);
+        assertEquals(0.3125f, controller.update(5100 * MS, 0, 0), 0f);
+        assertEquals(0.2f, controller.update(6100 * MS, 0, 0), 0f);
+        assertEquals(0.2f, controller.update(7100 * MS, 0, 0), 0f);
+    }
+
+    @Test
+    public void changingSceneCountsAsActivity() {
+        CaptureRateController controller = controller();
+        // 2 of 10 frames changed is below the ratio, 3 reaches it.
+        assertEquals(0.2f, controller.update(0, 10, 2), 0f);
+        assertEquals(10f, controller.update(100 * MS, 10, 3), 0f);
+    }
+
+    @Test
+    public void rateBacksOffWhileFramesWaitTooLong() {
+        CaptureRateController controller = controller();
+        controller.onActivity(0);
+        controller.update(0, 0, 0);
+        controller.onClassified(50 * MS, 400 * MS);
+        assertEquals(7.5f, controller.update(100 * MS, 0, 0), 1e-5f);
+        assertEquals(5.625f, controller.update(200 * MS, 0, 0), 1e-5f);
+        // Back within the budget, activity brings the maximum back.
+        for (int i = 0; i < 20; i++) {
+            controller.onClassified(50 * MS, 0);
+        }
+        assertEquals(10f, controller.update(300 * MS, 0, 0), 0f);
+    }
+
+    @Test
+    public void fitBudgetScalesRatesInProportion() {
+        CaptureRateController a = controller();
+        CaptureRateController b = controller();
+        a.onActivity(0);
+        a.update(0, 0, 0);
+        a.onClassified(50 * MS, 0);
+        b.onActivity(0);
+        b.update(0, 0, 0);
+        b.onClassified(20 * MS, 0);
+        // Busy 0.5 and 0.2 of the time.
+        CaptureRateController.fitBudget(Arrays.asList(a, b), 0.6f);
+        assertEquals(10f * 0.6f / 0.7f, a.getFps(), 1e-4f);
+        assertEquals(10f * 0.6f / 0.7f, b.getFps(), 1e-4f);
+        assertEquals(0.6f, a.getBusyShare() + b.getBusyShare(), 1e-4f);
+    }
+
+    @Test
+    public void fitBudgetKeepsTheMinimumRate() {
+        CaptureRateController fast = controller();
+        fast.onActivity(0);
+        fast.update(0, 0, 0);
+        fast.onClassified(50 * MS, 0);
+        CaptureRateController slow = new CaptureRateController(5f, 10f, 0.5f, 1000, 250, 0.3f);
+        slow.onClassified(100 * MS, 0);
+        // Busy 0.5 each, scaled by 0.6.
+        CaptureRateController.fitBudget(Arrays.asList(fast, slow), 0.6f);
+        assertEquals(6f, fast.getFps(), 1e-4f);
+        assertEquals(5f, slow.getFps(), 0f);
+    }
+
+    @Test
+    public void ratesWithinTheBudgetAreLeftAlone() {
+        CaptureRateController controller = controller();
+        controller.onActivity(0);
+        controller.update(0, 0, 0);
+        controller.onClassified(50 * MS, 0);
+        CaptureRateController.fitBudget(Arrays.asList(controller), 0.6f);
+        assertEquals(10f, controller.getFps(), 0f);
+    }
+}
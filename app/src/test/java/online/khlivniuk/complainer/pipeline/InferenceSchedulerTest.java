@@ -0,0 +1,135 @@
+package online.khlivniuk.complainer.pipeline;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class InferenceSchedulerTest {
+
+    @Test
+    public void busyLanesOfEqualWeightTakeTurns() {
+        InferenceScheduler<String> scheduler = new InferenceScheduler<>();
+        InferenceScheduler.Lane<String> a = scheduler.addLane(1);
+        InferenceScheduler.Lane<String> b = scheduler.addLane(1);
+        String previous = null;
+        for (int i = 0; i < 100; i++) {
+            a.offer("a");
+            b.offer("b");
+            String item = scheduler.poll();
+            if (previous != null) {
+                assertNotEquals("the same lane twice in a row", previous, item);
+            }
+            previous = item;
+        }
+        assertEquals(50, a.getServed());
+        assertEquals(50, b.getServed());
+    }
+
+    @Test
+    public void busyLanesAreServedByWeight() {
+        InferenceScheduler<String> scheduler = new InferenceScheduler<>();
+        InferenceScheduler.Lane<String> heavy = scheduler.addLane(3);
+        InferenceScheduler.Lane<String> light = scheduler.addLane(1);
+        for (int i = 0; i < 400; i++) {
+            heavy.offer("heavy");
+            light.offer("light");
+            scheduler.poll();
+        }
+        assertEquals(300, heavy.getServed(), 1);
+        assertEquals(100, light.getServed(), 1);
+    }
+
+    @Test
+    public void idleLaneDoesNotCatchUp() {
+        InferenceScheduler<String> scheduler = new InferenceScheduler<>();
+        InferenceScheduler.Lane<String> busy = scheduler.addLane(1);
+        InferenceScheduler.Lane<String> idle = scheduler.addLane(1);
+        for (int i = 0; i < 100; i++) {
+            busy.offer("busy");
+            assertEquals("busy", scheduler.poll());
+        }
+        // Once both wait, the lane that was idle gets its share, not the 100 turns it missed.
+        for (int i = 0; i < 20; i++) {
+            busy.offer("busy");
+            idle.offer("idle");
+            scheduler.poll();
+        }
+        assertEquals(110, busy.getServed(), 1);
+        assertEquals(10, idle.getServed(), 1);
+    }
+
+    @Test
+    public void laneKeepsOnlyTheNewestItem() {
+        InferenceScheduler<String> scheduler = new InferenceScheduler<>();
+        InferenceScheduler.Lane<String> lane = scheduler.addLane(1);
+        assertNull(lane.offer("first"));
+        assertEquals("first", lane.offer("second"));
+        assertEquals("second", scheduler.poll());
+        assertNull(scheduler.poll());
+        assertEquals(1, lane.getServed());
+    }
+
+    @Test
+    public void producerCanTakeItsItemBack() {
+        InferenceScheduler<String> scheduler = new InferenceScheduler<>();
+        InferenceScheduler.Lane<String> lane = scheduler.addLane(1);
+        lane.offer("item");
+        assertEquals("item", lane.poll());
+        assertNull(scheduler.poll());
+        assertEquals(0, lane.getServed());
+    }
+
+    @Test(timeout = 5000)
+    public void takeWaitsForAnOffer() throws InterruptedException {
+        final InferenceScheduler<String> scheduler = new InferenceScheduler<>();
+        final InferenceScheduler.Lane<String> lane = scheduler.addLane(1);
+        final AtomicReference<String> taken = new AtomicReference<>();
+        Thread consumer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    taken.set(scheduler.take());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        consumer.start();
+        Thread.sleep(50);
+        lane.offer("item");
+        consumer.join();
+        assertEquals("item", taken.get());
+    }
+
+    @Test(timeout = 5000)
+    public void takeCanBeInterrupted() throws InterruptedException {
+        final InferenceScheduler<String> scheduler = new InferenceScheduler<>();
+        scheduler.addLane(1);
+        final AtomicReference<Throwable> thrown = new AtomicReference<>();
+        Thread consumer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    scheduler.take();
+                } catch (InterruptedException e) {
+                    thrown.set(e);
+                }
+            }
+        });
+        consumer.start();
+        Thread.sleep(50);
+        consumer.interrupt();
+        consumer.join();
+        assertTrue(thrown.get() instanceof InterruptedException);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsLanesWithoutWeight() {
+        new InferenceScheduler<String>().addLane(0);
+    }
+}
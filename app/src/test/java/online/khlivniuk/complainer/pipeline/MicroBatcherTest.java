@@ -0,0 +1,140 @@
+package online.khlivniuk.complainer.pipeline;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MicroBatcherTest {
+
+    private final BlockingQueue<List<String>> batches = new LinkedBlockingQueue<>();
+    private final MicroBatcher.Sink<String> collect = new MicroBatcher.Sink<String>() {
+        @Override
+        public void onBatch(List<String> batch) {
+            batches.add(batch);
+        }
+    };
+    private MicroBatcher<String> batcher;
+
+    @After
+    public void quit() {
+        if (batcher != null) {
+            batcher.quit();
+        }
+    }
+
+    private List<String> nextBatch() throws InterruptedException {
+        List<String> batch = batches.poll(5, TimeUnit.SECONDS);
+        assertNotNull("no batch handed on", batch);
+        return batch;
+    }
+
+    @Test
+    public void fullBatchIsHandedOnWithoutWaitingForTheDeadline() throws InterruptedException {
+        batcher = new MicroBatcher<>(3, 60000, 6, collect);
+        batcher.start();
+        long startTime = System.nanoTime();
+        batcher.submit("a");
+        batcher.submit("b");
+        batcher.submit("c");
+        assertEquals(Arrays.asList("a", "b", "c"), nextBatch());
+        assertTrue(System.nanoTime() - startTime < TimeUnit.SECONDS.toNanos(5));
+    }
+
+    @Test
+    public void batchIsCappedAtTheMaximumSize() throws InterruptedException {
+        batcher = new MicroBatcher<>(2, 60000, 6, collect);
+        batcher.submit("a");
+        batcher.submit("b");
+        batcher.submit("c");
+        batcher.start();
+        assertEquals(Arrays.asList("a", "b"), nextBatch());
+        assertNull("a partial batch before its deadline", batches.poll(100, TimeUnit.MILLISECONDS));
+        assertEquals(1, batcher.getPending());
+    }
+
+    @Test
+    public void partialBatchIsHandedOnAtTheDeadline() throws InterruptedException {
+        batcher = new MicroBatcher<>(4, 200, 8, collect);
+        batcher.start();
+        long startTime = System.nanoTime();
+        batcher.submit("a");
+        batcher.submit("b");
+        assertEquals(Arrays.asList("a", "b"), nextBatch());
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+        assertTrue("handed on after " + elapsedMs + " ms", elapsedMs >= 190);
+    }
+
+    @Test
+    public void leftoverItemsKeepTheDeadlineOfTheirSubmission() throws InterruptedException {
+        final CountDownLatch release = new CountDownLatch(1);
+        batcher = new MicroBatcher<>(2, 300, 8, new MicroBatcher.Sink<String>() {
+            private boolean first = true;
+
+            @Override
+            public void onBatch(List<String> batch) {
+                if (first) {
+                    first = false;
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                batches.add(batch);
+            }
+        });
+        batcher.start();
+        batcher.submit("a");
+        batcher.submit("b");
+        // Queued while the sink is busy with the first batch, and due by the time it is done.
+        batcher.submit("c");
+        batcher.submit("d");
+        batcher.submit("e");
+        Thread.sleep(400);
+        release.countDown();
+
+        assertEquals(Arrays.asList("a", "b"), nextBatch());
+        assertEquals(Arrays.asList("c", "d"), nextBatch());
+        long startTime = System.nanoTime();
+        assertEquals(Arrays.asList("e"), nextBatch());
+        long waitedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+        assertTrue("leftover waited another " + waitedMs + " ms", waitedMs < 150);
+    }
+
+    @Test
+    public void submitIsRefusedOverThePendingLimit() {
+        batcher = new MicroBatcher<>(2, 60000, 3, collect);
+        assertTrue(batcher.submit("a"));
+        assertTrue(batcher.submit("b"));
+        assertTrue(batcher.submit("c"));
+        assertFalse(batcher.submit("d"));
+        assertEquals(3, batcher.getPending());
+    }
+
+    @Test
+    public void quitDropsThePendingItems() throws InterruptedException {
+        batcher = new MicroBatcher<>(4, 60000, 8, collect);
+        batcher.start();
+        batcher.submit("a");
+        batcher.quit();
+        assertEquals(0, batcher.getPending());
+        assertNull(batches.poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void pendingLimitBelowTheBatchSizeIsRejected() {
+        new MicroBatcher<>(4, 100, 3, collect);
+    }
+}
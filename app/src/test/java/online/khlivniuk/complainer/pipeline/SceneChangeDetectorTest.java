@@ -0,0 +1,86 @@
+package online.khlivniuk.complainer.pipeline;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SceneChangeDetectorTest {
+
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 48;
+    /** Rows are padded, as camera planes often are. */
+    private static final int ROW_STRIDE = 80;
+
+    /**
+     * A luma plane of a horizontal gradient offset by {@code offset}, with {@code padding} in the
+     * bytes past the end of every row.
+     */
+    private static ByteBuffer plane(int offset, int padding) {
+        ByteBuffer plane = ByteBuffer.allocate(ROW_STRIDE * HEIGHT);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < ROW_STRIDE; x++) {
+                plane.put(y * ROW_STRIDE + x, (byte) (x < WIDTH ? 64 + 2 * x + offset : padding));
+            }
+        }
+        return plane;
+    }
+
+    private static boolean check(SceneChangeDetector detector, ByteBuffer plane) {
+        return detector.hasChanged(plane, WIDTH, HEIGHT, ROW_STRIDE);
+    }
+
+    @Test
+    public void framesChangeOnlyAboveTheThreshold() {
+        SceneChangeDetector detector = new SceneChangeDetector(8, 6, 4f, 100);
+        assertTrue("the first frame", check(detector, plane(0, 0)));
+        assertFalse(check(detector, plane(0, 0)));
+        // A mean difference of 4 is still below it, 5 is above.
+        assertFalse(check(detector, plane(4, 0)));
+        assertTrue(check(detector, plane(5, 0)));
+        // The changed frame is the new reference.
+        assertFalse(check(detector, plane(5, 0)));
+        assertEquals(5, detector.getFrames());
+        assertEquals(3, detector.getSkippedFrames());
+        assertEquals(0.6f, detector.getSkipRatio(), 1e-6f);
+    }
+
+    @Test
+    public void rowPaddingIsNotSampled() {
+        SceneChangeDetector detector = new SceneChangeDetector(8, 6, 4f, 100);
+        check(detector, plane(0, 0));
+        assertFalse(check(detector, plane(0, 255)));
+    }
+
+    @Test
+    public void frameIsForcedAfterMaxSkippedFrames() {
+        SceneChangeDetector detector = new SceneChangeDetector(8, 6, 4f, 3);
+        ByteBuffer frame = plane(0, 0);
+        check(detector, frame);
+        assertFalse(check(detector, frame));
+        assertFalse(check(detector, frame));
+        assertFalse(check(detector, frame));
+        assertTrue("forced", check(detector, frame));
+        assertEquals(1, detector.getForcedFrames());
+        assertFalse("skipping starts over", check(detector, frame));
+        assertEquals(4, detector.getSkippedFrames());
+    }
+
+    @Test
+    public void resetLetsTheNextFrameThrough() {
+        SceneChangeDetector detector = new SceneChangeDetector(8, 6, 4f, 100);
+        ByteBuffer frame = plane(0, 0);
+        check(detector, frame);
+        assertFalse(check(detector, frame));
+        detector.reset();
+        assertTrue(check(detector, frame));
+        assertFalse(check(detector, frame));
+        // Counters are kept.
+        assertEquals(4, detector.getFrames());
+        assertEquals(2, detector.getSkippedFrames());
+        assertEquals(0, detector.getForcedFrames());
+    }
+}
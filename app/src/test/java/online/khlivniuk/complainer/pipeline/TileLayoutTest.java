@@ -0,0 +1,156 @@
+package online.khlivniuk.complainer.pipeline;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TileLayoutTest {
+
+    @Test
+    public void firstTileIsTheCenterCrop() {
+        TileLayout layout = new TileLayout(640, 480, new float[]{1f, 0.5f}, 0.5f, 4);
+        TileLayout.Tile first = layout.getTile(0);
+        assertEquals(80, first.x);
+        assertEquals(0, first.y);
+        assertEquals(480, first.size);
+        assertEquals(0, first.scale);
+    }
+
+    @Test
+    public void placesTilesFromEdgeToEdge() {
+        TileLayout layout = new TileLayout(640, 480, new float[]{1f}, 0.5f, 1);
+        // A range of 160 pixels, one stride of 240: both edges and the center.
+        assertEquals(3, layout.getTileCount());
+        TreeSet<Integer> xs = new TreeSet<>();
+        for (int i = 0; i < layout.getTileCount(); i++) {
+            xs.add(layout.getTile(i).x);
+            assertEquals(0, layout.getTile(i).y);
+        }
+        assertArrayEquals(new Integer[]{0, 80, 160}, xs.toArray(new Integer[0]));
+    }
+
+    @Test
+    public void tilesAreEvenInsideTheFrameAndCoverIt() {
+        int[][] frames = {{640, 480}, {480, 640}, {1920, 1080}, {322, 242}, {100, 100}};
+        float[] scales = {1f, 0.6f, 0.33f};
+        for (int[] frame : frames) {
+            TileLayout layout = new TileLayout(frame[0], frame[1], scales, 0.25f, 3);
+            for (int s = 0; s < scales.length; s++) {
+                boolean[] covered = new boolean[frame[0] * frame[1]];
+                int size = layout.getTileSize(s);
+                assertEquals(0, size % 2);
+                for (TileLayout.Tile tile : tilesOf(layout, s)) {
+                    String where = frame[0] + "x" + frame[1] + " " + tile;
+                    assertEquals(where, 0, tile.x % 2);
+                    assertEquals(where, 0, tile.y % 2);
+                    assertEquals(where, size, tile.size);
+                    assertTrue(where, tile.x >= 0 && tile.x + tile.size <= frame[0]);
+                    assertTrue(where, tile.y >= 0 && tile.y + tile.size <= frame[1]);
+                    for (int y = tile.y; y < tile.y + tile.size; y++) {
+                        for (int x = tile.x; x < tile.x + tile.size; x++) {
+                            covered[y * frame[0] + x] = true;
+                        }
+                    }
+                }
+                // An odd last row or column can't be reached by an even tile corner.
+                for (int y = 0; y < (frame[1] & ~1); y++) {
+                    for (int x = 0; x < (frame[0] & ~1); x++) {
+                        assertTrue(frame[0] + "x" + frame[1] + " scale " + s + " misses "
+                                + x + "," + y, covered[y * frame[0] + x]);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void neighboursAreAtMostAStrideApart() {
+        TileLayout layout = new TileLayout(1920, 1080, new float[]{0.5f}, 0.5f, 1);
+        int size = layout.getTileSize(0);
+        TreeSet<Integer> xs = new TreeSet<>();
+        for (TileLayout.Tile tile : tilesOf(layout, 0)) {
+            xs.add(tile.x);
+        }
+        Integer previous = null;
+        for (Integer x : xs) {
+            if (previous != null) {
+                assertTrue(x - previous <= size / 2 && x > previous);
+            }
+            previous = x;
+        }
+    }
+
+    @Test
+    public void ordersScalesAsGivenAndTilesFromTheCenterOut() {
+        TileLayout layout = new TileLayout(640, 480, new float[]{0.5f, 1f}, 0.5f, 4);
+        int scale = 0;
+        float previous = -1f;
+        for (int i = 0; i < layout.getTileCount(); i++) {
+            TileLayout.Tile tile = layout.getTile(i);
+            assertTrue(tile.scale >= scale);
+            if (tile.scale != scale) {
+                scale = tile.scale;
+                previous = -1f;
+            }
+            float dx = tile.x + tile.size / 2f - 320f;
+            float dy = tile.y + tile.size / 2f - 240f;
+            float distance = dx * dx + dy * dy;
+            assertTrue(tile.toString(), distance >= previous);
+            previous = distance;
+        }
+        assertEquals(1, scale);
+        assertEquals(240, layout.getTile(0).size);
+    }
+
+    @Test
+    public void padsTheLastBatchWithTheLastTile() {
+        TileLayout layout = new TileLayout(640, 480, new float[]{1f, 0.5f}, 0.5f, 4);
+        int count = layout.getTileCount();
+        assertEquals((count + 3) / 4, layout.getBatchCount());
+        assertEquals(layout.getBatchCount() * 4, layout.getPaddedTileCount());
+        assertTrue(layout.getPaddedTileCount() >= count);
+        TileLayout.Tile last = layout.getTile(count - 1);
+        for (int i = count; i < layout.getPaddedTileCount(); i++) {
+            assertSame(last, layout.getTile(i));
+        }
+    }
+
+    @Test
+    public void parsesScales() {
+        assertArrayEquals(new float[]{1f, 0.5f}, TileLayout.parseScales(" 1, 0.5"), 0f);
+        assertEquals(0, TileLayout.parseScales("").length);
+        assertEquals(0, TileLayout.parseScales(null).length);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsBadScaleLists() {
+        TileLayout.parseScales("1,half");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsScalesAboveOne() {
+        new TileLayout(640, 480, new float[]{1.5f}, 0f, 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsFullOverlap() {
+        new TileLayout(640, 480, new float[]{1f}, 1f, 1);
+    }
+
+    private static List<TileLayout.Tile> tilesOf(TileLayout layout, int scale) {
+        List<TileLayout.Tile> tiles = new ArrayList<>();
+        for (int i = 0; i < layout.getTileCount(); i++) {
+            if (layout.getTile(i).scale == scale) {
+                tiles.add(layout.getTile(i));
+            }
+        }
+        return tiles;
+    }
+}
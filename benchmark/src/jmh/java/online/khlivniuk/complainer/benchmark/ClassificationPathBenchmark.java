@@ -0,0 +1,111 @@
+package online.khlivniuk.complainer.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import online.khlivniuk.complainer.YuvToTensorConverter;
+import online.khlivniuk.complainer.classifier.ClassificationResult;
+import online.khlivniuk.complainer.classifier.ModelDescriptor;
+import online.khlivniuk.complainer.classifier.ModelRegistry;
+import online.khlivniuk.complainer.classifier.TemporalSmoother;
+import online.khlivniuk.complainer.classifier.TopK;
+
+/**
+ * One streamed frame through everything but the model: a 640x480 YUV frame converted into the
+ * input of a registered model, a {@link SyntheticInterpreter} run, top-K selection and
+ * smoothing. This is the overhead the app adds to every inference.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ClassificationPathBenchmark {
+    private static final int FRAME_WIDTH = 640;
+    private static final int FRAME_HEIGHT = 480;
+    private static final int RESULTS_TO_SHOW = 3;
+    /** An ImageNet sized label set. */
+    private static final int NUM_LABELS = 1001;
+
+    /** The shipped float model, and the quantized one; sizes come from their descriptors. */
+    @Param({ModelRegistry.INCEPTION_FLOAT, ModelRegistry.MOBILENET_QUANT})
+    public String model;
+
+    private YuvToTensorConverter converter;
+    private SyntheticInterpreter interpreter;
+    private ByteBuffer yPlane;
+    private ByteBuffer uPlane;
+    private ByteBuffer vPlane;
+    private ByteBuffer input;
+    private float[][] floatOutput;
+    private byte[][] quantOutput;
+    private int[] ids;
+    private float[] scores;
+    private int[] rawScores;
+    private ClassificationResult result;
+    private TemporalSmoother smoother;
+    private ModelDescriptor descriptor;
+    private boolean quantized;
+
+    @Setup
+    public void setUp() {
+        descriptor = ModelRegistry.get(model);
+        quantized = descriptor.getDataType() == ModelDescriptor.DataType.UINT8;
+        converter = new YuvToTensorConverter(FRAME_WIDTH, FRAME_HEIGHT,
+                descriptor.getInputWidth(), descriptor.getInputHeight(), 90, quantized,
+                descriptor.getImageMean(), descriptor.getImageStd());
+        Random random = new Random(42);
+        yPlane = randomPlane(random, FRAME_WIDTH * FRAME_HEIGHT);
+        uPlane = randomPlane(random, FRAME_WIDTH * FRAME_HEIGHT / 2 - 1);
+        vPlane = randomPlane(random, FRAME_WIDTH * FRAME_HEIGHT / 2 - 1);
+        input = ByteBuffer.allocateDirect(converter.getOutputSizeInBytes())
+                .order(ByteOrder.nativeOrder());
+        interpreter = new SyntheticInterpreter(NUM_LABELS);
+        floatOutput = new float[1][NUM_LABELS];
+        quantOutput = new byte[1][NUM_LABELS];
+        ids = new int[RESULTS_TO_SHOW];
+        scores = new float[RESULTS_TO_SHOW];
+        rawScores = new int[RESULTS_TO_SHOW];
+        result = new ClassificationResult(RESULTS_TO_SHOW);
+        smoother = new TemporalSmoother.Builder().build();
+    }
+
+    private static ByteBuffer randomPlane(Random random, int size) {
+        byte[] bytes = new byte[size];
+        random.nextBytes(bytes);
+        ByteBuffer plane = ByteBuffer.allocateDirect(size);
+        plane.put(bytes);
+        plane.rewind();
+        return plane;
+    }
+
+    @Benchmark
+    public int frame() {
+        input.clear();
+        // NV21-like interleaved chroma, as delivered by most camera HALs.
+        converter.convert(yPlane, uPlane, vPlane, FRAME_WIDTH, FRAME_WIDTH, 2, input, null);
+        int size;
+        if (quantized) {
+            interpreter.run(input, quantOutput);
+            size = TopK.selectUnsigned(quantOutput[0], NUM_LABELS, ids, rawScores);
+            for (int i = 0; i < size; i++) {
+                scores[i] = descriptor.dequantize(rawScores[i]);
+            }
+        } else {
+            interpreter.run(input, floatOutput);
+            size = TopK.select(floatOutput[0], NUM_LABELS, ids, scores);
+        }
+        result.fill(size, ids, scores, null);
+        smoother.update(result);
+        return smoother.getDominantLabelId();
+    }
+}
@@ -0,0 +1,116 @@
+package online.khlivniuk.complainer.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import online.khlivniuk.complainer.YuvToTensorConverter;
+import online.khlivniuk.complainer.classifier.ClassificationResult;
+import online.khlivniuk.complainer.classifier.ModelDescriptor;
+import online.khlivniuk.complainer.classifier.ModelRegistry;
+import online.khlivniuk.complainer.classifier.TemporalSmoother;
+import online.khlivniuk.complainer.classifier.TopK;
+import online.khlivniuk.complainer.metrics.PipelineMetrics;
+import online.khlivniuk.complainer.replay.CorpusReplay;
+import online.khlivniuk.complainer.replay.FrameCorpus;
+import online.khlivniuk.complainer.replay.ReplayReport;
+
+/**
+ * The host side of the on-device {@code CorpusReplayBenchmark}: replays the same corpus through
+ * the Android-free part of the pipeline, YUV conversion, a {@link SyntheticInterpreter}, top-K
+ * and smoothing, on any JVM. JPEG frames need the Android decoder and are skipped.
+ *
+ * <p>Run with {@code ./gradlew :benchmark:replayCorpus -Pcorpus=<dir>}, optionally with
+ * {@code -Pwarmup=<passes> -Piterations=<passes>}. Without a corpus, random frames are used.
+ */
+public class HostCorpusReplay extends CorpusReplay {
+    private static final int RESULTS_TO_SHOW = 3;
+    private static final int NUM_LABELS = 1001;
+
+    private final ModelDescriptor descriptor;
+    private final boolean quantized;
+    private final SyntheticInterpreter interpreter = new SyntheticInterpreter(NUM_LABELS);
+    private final float[][] floatOutput = new float[1][NUM_LABELS];
+    private final byte[][] quantOutput = new byte[1][NUM_LABELS];
+    private final int[] ids = new int[RESULTS_TO_SHOW];
+    private final float[] scores = new float[RESULTS_TO_SHOW];
+    private final int[] rawScores = new int[RESULTS_TO_SHOW];
+    private final ClassificationResult result = new ClassificationResult(RESULTS_TO_SHOW);
+    private final TemporalSmoother smoother = new TemporalSmoother.Builder().build();
+    private YuvToTensorConverter converter;
+    private ByteBuffer input;
+
+    /**
+     * @param descriptor model whose input layout and output quantization are used
+     */
+    HostCorpusReplay(FrameCorpus corpus, int warmupIterations, int iterations,
+                     ModelDescriptor descriptor) {
+        super(corpus, warmupIterations, iterations);
+        this.descriptor = descriptor;
+        this.quantized = descriptor.getDataType() == ModelDescriptor.DataType.UINT8;
+    }
+
+    @Override
+    protected boolean process(FrameCorpus.Frame frame, ReplayReport report) {
+        if (frame.jpeg) {
+            return false;
+        }
+        PipelineMetrics metrics = report.getMetrics();
+        if (converter == null || converter.getFrameWidth() != frame.width
+                || converter.getFrameHeight() != frame.height) {
+            converter = new YuvToTensorConverter(frame.width, frame.height,
+                    descriptor.getInputWidth(), descriptor.getInputHeight(), 0, quantized,
+                    descriptor.getImageMean(), descriptor.getImageStd());
+            input = ByteBuffer.allocateDirect(converter.getOutputSizeInBytes())
+                    .order(ByteOrder.nativeOrder());
+        }
+        long start = System.nanoTime();
+        input.clear();
+        converter.convert(frame.getY(), frame.getU(), frame.getV(), frame.getYRowStride(),
+                frame.getUvRowStride(), frame.getUvPixelStride(), input, null);
+        long converted = System.nanoTime();
+        metrics.record(PipelineMetrics.Stage.YUV_CONVERT, converted - start);
+
+        int size;
+        if (quantized) {
+            interpreter.run(input, quantOutput);
+            long inferred = System.nanoTime();
+            metrics.record(PipelineMetrics.Stage.INFERENCE, inferred - converted);
+            size = TopK.selectUnsigned(quantOutput[0], NUM_LABELS, ids, rawScores);
+            for (int i = 0; i < size; i++) {
+                scores[i] = descriptor.dequantize(rawScores[i]);
+            }
+            metrics.recordSince(PipelineMetrics.Stage.TOP_K, inferred);
+        } else {
+            interpreter.run(input, floatOutput);
+            long inferred = System.nanoTime();
+            metrics.record(PipelineMetrics.Stage.INFERENCE, inferred - converted);
+            size = TopK.select(floatOutput[0], NUM_LABELS, ids, scores);
+            metrics.recordSince(PipelineMetrics.Stage.TOP_K, inferred);
+        }
+        result.fill(size, ids, scores, null);
+        smoother.update(result);
+        return true;
+    }
+
+    public static void main(String[] args) throws IOException {
+        String corpusDir = args.length > 0 ? args[0] : "";
+        int warmup = args.length > 1 ? Integer.parseInt(args[1]) : 2;
+        int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        FrameCorpus corpus;
+        if (corpusDir.isEmpty()) {
+            System.out.println("No corpus given, replaying random frames");
+            corpus = FrameCorpus.synthetic(20, 640, 480, 42);
+            corpusDir = "random frames";
+        } else {
+            corpus = FrameCorpus.load(new File(corpusDir));
+        }
+        // The input layouts of the registered models, the float and the quantized one.
+        for (String id : ModelRegistry.getIds()) {
+            ModelDescriptor descriptor = ModelRegistry.get(id);
+            System.out.println(new HostCorpusReplay(corpus, warmup, iterations, descriptor)
+                    .run("Host replay of " + corpusDir + " with " + descriptor));
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package online.khlivniuk.complainer.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import online.khlivniuk.complainer.classifier.ClassificationResult;
+import online.khlivniuk.complainer.journal.JournalEntry;
+import online.khlivniuk.complainer.journal.JournalReader;
+import online.khlivniuk.complainer.journal.ResultJournal;
+
+/**
+ * Appending a top-3 result to the journal, and reading back one second out of a journal holding
+ * a minute of results at 1000 per second.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class JournalBenchmark {
+    private static final int SEGMENT_SIZE = 4 << 20;
+    private static final int RESULTS_PER_SECOND = 1000;
+    private static final int SECONDS = 60;
+
+    private File directory;
+    private ResultJournal journal;
+    private JournalReader reader;
+    private final ClassificationResult result = new ClassificationResult(3);
+    private long wallTimeMs;
+    private final JournalReader.Visitor visitor = new JournalReader.Visitor() {
+        @Override
+        public boolean visit(JournalEntry entry) {
+            return true;
+        }
+    };
+
+    @Setup
+    public void setUp() throws IOException {
+        directory = File.createTempFile("journal", "");
+        directory.delete();
+        // Plenty of segments, so nothing appended during the run gets deleted.
+        journal = new ResultJournal(directory, SEGMENT_SIZE, 1000);
+        result.fill(3, new int[] {653, 409, 7}, new float[] {0.7f, 0.2f, 0.05f}, null);
+        result.setSource("0");
+        for (int i = 0; i < SECONDS * RESULTS_PER_SECOND; i++) {
+            result.setTimestamp(i);
+            journal.append(result, "mobilenet_quant", i / (RESULTS_PER_SECOND / 1000));
+        }
+        wallTimeMs = SECONDS * 1000;
+        reader = new JournalReader(directory);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        journal.close();
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    @Benchmark
+    public boolean append() throws IOException {
+        return journal.append(result, "mobilenet_quant", wallTimeMs++);
+    }
+
+    @Benchmark
+    public int scanOneSecond() throws IOException {
+        return reader.scan(30000, 30999, visitor);
+    }
+}
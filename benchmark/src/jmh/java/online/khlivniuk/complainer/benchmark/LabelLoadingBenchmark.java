@@ -0,0 +1,61 @@
+package online.khlivniuk.complainer.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import online.khlivniuk.complainer.classifier.LabelLoader;
+
+/**
+ * Reading a label file at model load, from a temporary file standing in for the APK assets.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class LabelLoadingBenchmark {
+
+    @Param({"1001", "10000"})
+    public int numLabels;
+
+    private File labelFile;
+
+    @Setup
+    public void setUp() throws IOException {
+        labelFile = File.createTempFile("labels", ".txt");
+        Writer writer = new OutputStreamWriter(new FileOutputStream(labelFile),
+                StandardCharsets.UTF_8);
+        try {
+            for (int i = 0; i < numLabels; ++i) {
+                writer.write("label number " + i + "\n");
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        labelFile.delete();
+    }
+
+    @Benchmark
+    public List<String> read() throws IOException {
+        return LabelLoader.read(new FileInputStream(labelFile));
+    }
+}
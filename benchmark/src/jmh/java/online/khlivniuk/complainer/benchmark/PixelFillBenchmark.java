@@ -0,0 +1,90 @@
+package online.khlivniuk.complainer.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import online.khlivniuk.complainer.classifier.TensorFiller;
+
+/**
+ * Writing a 224x224 frame into the model input: the per-pixel {@code addPixelValue} loop the
+ * classifiers used to run against the bulk {@link TensorFiller} loops that replaced it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PixelFillBenchmark {
+    private static final int IMAGE_SIZE = 224;
+    private static final int IMAGE_MEAN = 128;
+    private static final float IMAGE_STD = 128.0f;
+
+    private int[] argb;
+    private ByteBuffer floatInput;
+    private FloatBuffer floatView;
+    private ByteBuffer quantInput;
+    private float[] table;
+    private float[] floatScratch;
+    private byte[] byteScratch;
+
+    @Setup
+    public void setUp() {
+        int count = IMAGE_SIZE * IMAGE_SIZE;
+        argb = new int[count];
+        Random random = new Random(42);
+        for (int i = 0; i < count; ++i) {
+            argb[i] = 0xff000000 | random.nextInt(0x1000000);
+        }
+        floatInput = ByteBuffer.allocateDirect(count * 3 * 4).order(ByteOrder.nativeOrder());
+        floatView = floatInput.asFloatBuffer();
+        quantInput = ByteBuffer.allocateDirect(count * 3).order(ByteOrder.nativeOrder());
+        table = TensorFiller.normalizationTable(IMAGE_MEAN, IMAGE_STD);
+        floatScratch = new float[count * 3];
+        byteScratch = new byte[count * 3];
+    }
+
+    @Benchmark
+    public ByteBuffer floatPerPixel() {
+        floatInput.rewind();
+        for (int pixelValue : argb) {
+            floatInput.putFloat((((pixelValue >> 16) & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
+            floatInput.putFloat((((pixelValue >> 8) & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
+            floatInput.putFloat(((pixelValue & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
+        }
+        return floatInput;
+    }
+
+    @Benchmark
+    public FloatBuffer floatBulk() {
+        floatView.clear();
+        TensorFiller.fillFloat(argb, argb.length, table, floatScratch, floatView);
+        return floatView;
+    }
+
+    @Benchmark
+    public ByteBuffer quantPerPixel() {
+        quantInput.rewind();
+        for (int pixelValue : argb) {
+            quantInput.put((byte) ((pixelValue >> 16) & 0xFF));
+            quantInput.put((byte) ((pixelValue >> 8) & 0xFF));
+            quantInput.put((byte) (pixelValue & 0xFF));
+        }
+        return quantInput;
+    }
+
+    @Benchmark
+    public ByteBuffer quantBulk() {
+        quantInput.rewind();
+        TensorFiller.fillUint8(argb, argb.length, byteScratch, quantInput);
+        return quantInput;
+    }
+}
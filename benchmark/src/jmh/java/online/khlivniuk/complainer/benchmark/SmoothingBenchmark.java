@@ -0,0 +1,124 @@
+package online.khlivniuk.complainer.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import online.khlivniuk.complainer.classifier.ClassificationResult;
+import online.khlivniuk.complainer.classifier.TemporalSmoother;
+import online.khlivniuk.complainer.classifier.TopK;
+
+/**
+ * Smoothing one frame: the three stage low pass filter {@code applyFilter} ran over every label
+ * through the boxed {@code setProbability(int, Number)}, against {@link TemporalSmoother}, which
+ * only tracks the best labels of each frame.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SmoothingBenchmark {
+    private static final int FILTER_STAGES = 3;
+    private static final float FILTER_FACTOR = 0.4f;
+    private static final int RESULTS_TO_SHOW = 3;
+    private static final int FRAMES = 16;
+
+    @Param({"1001", "10000"})
+    public int numLabels;
+
+    /** Model outputs of a few frames, replayed in turn. */
+    private float[][] frames;
+    private float[] labelProbArray;
+    private float[][] filterLabelProbArray;
+    private ClassificationResult[] results;
+    private TemporalSmoother emaSmoother;
+    private TemporalSmoother multiStageSmoother;
+    private TemporalSmoother majoritySmoother;
+    private int frame;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        frames = new float[FRAMES][numLabels];
+        results = new ClassificationResult[FRAMES];
+        int[] ids = new int[RESULTS_TO_SHOW];
+        float[] scores = new float[RESULTS_TO_SHOW];
+        for (int f = 0; f < FRAMES; ++f) {
+            for (int i = 0; i < numLabels; ++i) {
+                frames[f][i] = random.nextFloat() * 0.1f;
+            }
+            // A scene flipping between two labels.
+            frames[f][f % 4 == 0 ? 7 : 3] = 0.8f;
+            results[f] = new ClassificationResult(RESULTS_TO_SHOW);
+            int size = TopK.select(frames[f], numLabels, ids, scores);
+            results[f].fill(size, ids, scores, null);
+        }
+        labelProbArray = new float[numLabels];
+        filterLabelProbArray = new float[FILTER_STAGES][numLabels];
+        emaSmoother = new TemporalSmoother.Builder().mode(TemporalSmoother.Mode.EMA).build();
+        multiStageSmoother = new TemporalSmoother.Builder()
+                .mode(TemporalSmoother.Mode.MULTI_STAGE).build();
+        majoritySmoother = new TemporalSmoother.Builder()
+                .mode(TemporalSmoother.Mode.MAJORITY).build();
+    }
+
+    private int nextFrame() {
+        frame = (frame + 1) % FRAMES;
+        return frame;
+    }
+
+    @Benchmark
+    public float applyFilter() {
+        System.arraycopy(frames[nextFrame()], 0, labelProbArray, 0, numLabels);
+        // Low pass filter `labelProbArray` into the first stage of the filter.
+        for (int j = 0; j < numLabels; ++j) {
+            filterLabelProbArray[0][j] +=
+                    FILTER_FACTOR * (getProbability(j) - filterLabelProbArray[0][j]);
+        }
+        // Low pass filter each stage into the next.
+        for (int i = 1; i < FILTER_STAGES; ++i) {
+            for (int j = 0; j < numLabels; ++j) {
+                filterLabelProbArray[i][j] +=
+                        FILTER_FACTOR * (filterLabelProbArray[i - 1][j] - filterLabelProbArray[i][j]);
+            }
+        }
+        // Copy the last stage filter output back to `labelProbArray`.
+        for (int j = 0; j < numLabels; ++j) {
+            setProbability(j, filterLabelProbArray[FILTER_STAGES - 1][j]);
+        }
+        return labelProbArray[0];
+    }
+
+    private float getProbability(int labelIndex) {
+        return labelProbArray[labelIndex];
+    }
+
+    private void setProbability(int labelIndex, Number value) {
+        labelProbArray[labelIndex] = value.floatValue();
+    }
+
+    @Benchmark
+    public int ema() {
+        emaSmoother.update(results[nextFrame()]);
+        return emaSmoother.getDominantLabelId();
+    }
+
+    @Benchmark
+    public int multiStage() {
+        multiStageSmoother.update(results[nextFrame()]);
+        return multiStageSmoother.getDominantLabelId();
+    }
+
+    @Benchmark
+    public int majority() {
+        majoritySmoother.update(results[nextFrame()]);
+        return majoritySmoother.getDominantLabelId();
+    }
+}
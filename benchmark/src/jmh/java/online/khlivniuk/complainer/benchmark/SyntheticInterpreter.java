@@ -0,0 +1,47 @@
+package online.khlivniuk.complainer.benchmark;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Stands in for the TensorFlow Lite interpreter, which needs a device. It reads the whole input
+ * and writes every output, like a real model, but in a fraction of the time, so benchmarks of the
+ * code around the interpreter aren't drowned out by it. The scores are deterministic and favour a
+ * few labels, depending on the input.
+ */
+class SyntheticInterpreter {
+    private static final int STRIDE = 64;
+
+    private final int numLabels;
+
+    SyntheticInterpreter(int numLabels) {
+        this.numLabels = numLabels;
+    }
+
+    void run(ByteBuffer input, float[][] output) {
+        final int seed = digest(input);
+        final float[] scores = output[0];
+        for (int i = 0; i < numLabels; ++i) {
+            scores[i] = ((i * 31 + seed) & 0xff) / 4096f;
+        }
+        scores[(seed & 0x7fffffff) % numLabels] = 0.9f;
+    }
+
+    void run(ByteBuffer input, byte[][] output) {
+        final int seed = digest(input);
+        final byte[] scores = output[0];
+        for (int i = 0; i < numLabels; ++i) {
+            scores[i] = (byte) ((i * 31 + seed) & 0x0f);
+        }
+        scores[(seed & 0x7fffffff) % numLabels] = (byte) 230;
+    }
+
+    /** Touch the input like a first convolution would, sampling every 64th byte. */
+    private static int digest(ByteBuffer input) {
+        int hash = 0;
+        final int end = input.position();
+        for (int i = 0; i < end; i += STRIDE) {
+            hash = hash * 31 + input.get(i);
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,109 @@
+package online.khlivniuk.complainer.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import online.khlivniuk.complainer.classifier.TopK;
+
+/**
+ * Picking the three best labels of a model output: the {@link PriorityQueue} of boxed entries the
+ * classifier used to fill for every frame against {@link TopK}. Run with {@code -prof gc} to see
+ * the allocation rate of each.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TopKBenchmark {
+    private static final int RESULTS_TO_SHOW = 3;
+
+    @Param({"1000", "10000"})
+    public int numLabels;
+
+    private float[] floatScores;
+    private byte[] quantScores;
+    private List<String> labels;
+    private PriorityQueue<Map.Entry<String, Float>> sortedLabels;
+    private int[] ids;
+    private float[] topScores;
+    private int[] topRawScores;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        floatScores = new float[numLabels];
+        quantScores = new byte[numLabels];
+        labels = new ArrayList<>(numLabels);
+        for (int i = 0; i < numLabels; ++i) {
+            floatScores[i] = random.nextFloat();
+            quantScores[i] = (byte) random.nextInt(256);
+            labels.add("label" + i);
+        }
+        sortedLabels = new PriorityQueue<>(
+                RESULTS_TO_SHOW,
+                new Comparator<Map.Entry<String, Float>>() {
+                    @Override
+                    public int compare(Map.Entry<String, Float> o1, Map.Entry<String, Float> o2) {
+                        return (o1.getValue()).compareTo(o2.getValue());
+                    }
+                });
+        ids = new int[RESULTS_TO_SHOW];
+        topScores = new float[RESULTS_TO_SHOW];
+        topRawScores = new int[RESULTS_TO_SHOW];
+    }
+
+    @Benchmark
+    public float floatPriorityQueue() {
+        for (int i = 0; i < numLabels; ++i) {
+            sortedLabels.add(new AbstractMap.SimpleEntry<>(labels.get(i), floatScores[i]));
+            if (sortedLabels.size() > RESULTS_TO_SHOW) {
+                sortedLabels.poll();
+            }
+        }
+        return drain();
+    }
+
+    @Benchmark
+    public int floatTopK() {
+        return TopK.select(floatScores, numLabels, ids, topScores) + ids[0];
+    }
+
+    @Benchmark
+    public float quantPriorityQueue() {
+        for (int i = 0; i < numLabels; ++i) {
+            sortedLabels.add(new AbstractMap.SimpleEntry<>(labels.get(i),
+                    (quantScores[i] & 0xff) / 255.0f));
+            if (sortedLabels.size() > RESULTS_TO_SHOW) {
+                sortedLabels.poll();
+            }
+        }
+        return drain();
+    }
+
+    @Benchmark
+    public int quantTopK() {
+        return TopK.selectUnsigned(quantScores, numLabels, ids, topRawScores) + ids[0];
+    }
+
+    private float drain() {
+        float sum = 0;
+        while (!sortedLabels.isEmpty()) {
+            sum += sortedLabels.poll().getValue();
+        }
+        return sum;
+    }
+}